@@ -0,0 +1,259 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CalibrationBench class runs the Calibrator on simulated cameras whose times
+ * are known, and checks that:
+ *
+ *   - the open, first frame, shutter and JPEG times it measures are the ones
+ *     the cameras were set up with, give or take the jitter,
+ *   - the write test gives a rate, and slower storage makes for slower video
+ *     bursts,
+ *   - the profile comes back from its file the same, an old or missing one is
+ *     no profile, and a damaged one is an error,
+ *   - calibrating again on slower cameras shows them slower in the comparison,
+ *     and the burst policy takes fewer pictures on them,
+ *   - cancelling stops it.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.CalibrationBench openMs=600 encodeMs=400 runs=5
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class CalibrationBench {
+
+	private static final int  BURST_MOST      = 5;
+	private static final long BURST_WINDOW_MS = 2000;
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "cameras",  "2" );
+		options.put( "openMs",   "300" );
+		options.put( "shutterMs", "80" );
+		options.put( "encodeMs", "250" );
+		options.put( "frameMs",  "33" );
+		options.put( "runs",     "3" );
+		options.put( "writeMB",  "4" );   // For the write test
+		options.put( "dir",      System.getProperty( "java.io.tmpdir" ) + "/calibration" );
+		options.put( "seed",     "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new CalibrationBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	CalibrationBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		File dir  = new File( mOptions.get( "dir" ));
+		File file = new File( dir, "profile.properties" );
+		boolean ok = true;
+
+		long open = intOption( "openMs" ), shutter = intOption( "shutterMs" ), encode = intOption( "encodeMs" );
+
+		// The first calibration.
+
+		long start = System.nanoTime();
+		DeviceProfile first = calibrate( dir, open, shutter, encode );
+		System.out.println( String.format( "calibrated     in %.1f s", ( System.nanoTime() - start ) / 1e9 ));
+		System.out.println( "               " + first.toString().replace( "\n", "\n               " ));
+
+		ok &= check( "cameras", first.getCameras().size() == intOption( "cameras" ));
+
+		for ( DeviceProfile.CameraTimes t : first.getCameras().values() ) {
+			ok &= near( "open",        t.open,       open );
+			ok &= near( "first frame", t.firstFrame, intOption( "frameMs" ));
+			ok &= near( "shutter",     t.shutter,    shutter );
+			ok &= near( "jpeg",        t.jpeg,       shutter + encode );
+		}
+
+		ok &= check( "write rate", first.getWriteMBps() > 0 );
+
+		// At 2 MB/s, 100 KB frames for 1.5 s saved within 3 s:  41 a second;  at a
+		// quarter of that, 10;  as slow as that and a video burst's hardly one.
+
+		DeviceProfile rated = new DeviceProfile( "rated", 0 );
+		ok &= check( "video unlimited", rated.videoRate( 102400, 1500, 3000 ) == 0 );
+
+		rated.setWriteMBps( 2 );
+		double quick = rated.videoRate( 102400, 1500, 3000 );
+		rated.setWriteMBps( 0.5 );
+		double sluggish = rated.videoRate( 102400, 1500, 3000 );
+		rated.setWriteMBps( 0.01 );
+
+		System.out.println( String.format( "video          %.1f fps at 2 MB/s, %.1f at 0.5", quick, sluggish ));
+		ok &= check( "video rate", Math.abs( quick - 40.96 ) < 0.01 && Math.abs( sluggish - 10.24 ) < 0.01
+		                           && rated.videoRate( 102400, 1500, 3000 ) == DeviceProfile.MIN_VIDEO_FPS );
+
+		// Round trip, and the profiles that aren't.
+
+		ok &= check( "scratch removed", !dir.exists() );
+		dir.mkdirs();
+
+		first.save( file );
+		DeviceProfile loaded = DeviceProfile.load( file );
+		ok &= check( "round trip", loaded != null && loaded.toString().equals( first.toString() ));
+
+		ok &= check( "missing", DeviceProfile.load( new File( dir, "none.properties" )) == null );
+
+		File old = new File( dir, "old.properties" );
+		writeText( old, "version=0\n" );
+		ok &= check( "old version", DeviceProfile.load( old ) == null );
+
+		writeText( old, "version=" + DeviceProfile.VERSION + "\ncreated=x\n" );
+		boolean threw = false;
+		try {
+			DeviceProfile.load( old );
+		}
+		catch( IOException e ) {
+			threw = true;
+		}
+		ok &= check( "damaged", threw );
+		old.delete();
+
+		// Again, on slower cameras.
+
+		DeviceProfile second = calibrate( dir, open * 2, shutter, encode * 3 );
+		String diff = second.compare( loaded );
+
+		System.out.println( "compared       " + diff.trim().replace( "\n", "\n               " ));
+
+		ok &= check( "comparison", diff.contains( "camera 0 open" ) && second.getCamera( 0 ).open > loaded.getCamera( 0 ).open * 3 / 2 );
+
+		int fast = loaded.burstFrames( 0, BURST_MOST, BURST_WINDOW_MS ), slow = second.burstFrames( 0, BURST_MOST, BURST_WINDOW_MS );
+		System.out.println( "burst          " + fast + " pictures, then " + slow + " on the slower cameras, "
+		                  + loaded.burstFrames( 9, BURST_MOST, BURST_WINDOW_MS ) + " on one not in the profile" );
+
+		ok &= check( "burst policy", slow < fast && slow >= 2 && loaded.burstFrames( 9, BURST_MOST, BURST_WINDOW_MS ) == BURST_MOST );
+
+		// Cancelled part way.
+
+		ok &= check( "cancel", cancels( dir ));
+
+		file.delete();
+		dir.delete();
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private DeviceProfile calibrate( File dir, long open, long shutter, long encode ) throws IOException {
+		SimulatedBackend backend = backend( open, shutter, encode );
+
+		try {
+			Calibrator calibrator = new Calibrator( backend, null, dir, null );
+			calibrator.setRuns( intOption( "runs" ));
+			calibrator.setWriteBytes( intOption( "writeMB" ) * 1024L * 1024 );
+
+			return calibrator.run( "simulated" );
+		}
+		finally {
+			backend.shutdown();
+		}
+	}
+
+	private boolean cancels( File dir ) throws Exception {
+		SimulatedBackend backend    = backend( intOption( "openMs" ), intOption( "shutterMs" ), intOption( "encodeMs" ));
+		final Calibrator calibrator = new Calibrator( backend, null, dir, null );
+		calibrator.setRuns( 100 );
+
+		new Thread( new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep( 500 );
+				}
+				catch( InterruptedException e ) {
+					// Cancel now, then
+				}
+				calibrator.cancel();
+			}
+		} ).start();
+
+		long start = System.nanoTime();
+		boolean cancelled = false;
+
+		try {
+			calibrator.run( "simulated" );
+		}
+		catch( IOException e ) {
+			cancelled = e.getMessage().equals( "cancelled" );
+		}
+
+		long ms = ( System.nanoTime() - start ) / 1000000;
+		System.out.println( "cancel         stopped after " + ms + " ms" );
+
+		backend.shutdown();
+		return cancelled && ms < 500 + 2 * ( intOption( "openMs" ) + intOption( "shutterMs" ) + intOption( "encodeMs" ) + 200 );
+	}
+
+	private SimulatedBackend backend( long open, long shutter, long encode ) {
+		SimulatedBackend backend = new SimulatedBackend( intOption( "seed" ));
+
+		backend.setNumberOfCameras( intOption( "cameras" ));
+		backend.setJitter( 0.1 );
+		backend.setLatencies( open, shutter, encode );
+		backend.setPreviewSize( 320, 240, intOption( "frameMs" ));
+		return backend;
+	}
+
+
+	//
+	// Helpers.
+	//
+
+	private static boolean near( String what, long measured, long expected ) {
+	/**
+	 * Within the jitter (10%) and a little scheduling slack.
+	 *
+	 */
+		return check( what + " " + measured + " ms, expected " + expected, Math.abs( measured - expected ) <= expected / 5 + 25 );
+	}
+
+	private static void writeText( File file, String text ) throws IOException {
+		FileOutputStream out = new FileOutputStream( file );
+		try {
+			out.write( text.getBytes( "ISO-8859-1" ));
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static boolean check( String what, boolean good ) {
+		if ( !good ) System.out.println( what + ": MISMATCH" );
+		return good;
+	}
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class CalibrationBench
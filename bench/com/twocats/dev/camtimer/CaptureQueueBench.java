@@ -0,0 +1,345 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CaptureQueueBench class checks the CaptureQueue, first with a few scripted
+ * sequences run straight through, then under stress:  several threads send
+ * thousands of random taps, starts, cancels and switches, with make-believe
+ * timers and a camera that take random times and report back on threads of their
+ * own, now and then twice, or for a countdown long gone.  It checks that:
+ *
+ *   - every countdown started was either cancelled or captured, exactly once,
+ *   - no capture was started while another was in flight (a real camera throws),
+ *   - no camera switch happened during a capture, and none was lost.
+ *
+ * It reports what became of the commands, the state changes, and how long
+ * commands waited to run.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.CaptureQueueBench commands=20000 senders=4
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class CaptureQueueBench {
+
+	private static final Executor NOW = new Executor() {
+		public void execute( Runnable task ) {
+			task.run();
+		}
+	};
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "commands",  "5000" );  // Per sender
+		options.put( "senders",   "4" );
+		options.put( "timerMs",   "20" );    // Longest countdown
+		options.put( "captureMs", "10" );    // Longest capture
+		options.put( "fail",      "0.05" );  // Chance a capture can't start
+		options.put( "coalesce",  "1" );     // Tap coalescing, ms
+		options.put( "pauseUs",   "1000" );  // Longest pause between one sender's commands
+		options.put( "seed",      "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new CaptureQueueBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	CaptureQueueBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		boolean ok = scripted();
+
+		ok &= stress();
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	//
+	// Scripted.  Commands run as they're sent;  the actions log what they're asked.
+	//
+
+	private boolean scripted() {
+		final StringBuilder log = new StringBuilder();
+		final boolean[] fail = { false };
+
+		CaptureQueue.Actions actions = new CaptureQueue.Actions() {
+			public void startTimer( int id )  { log.append( " start " + id ); }
+			public void cancelTimer( int id ) { log.append( " cancel " + id ); }
+			public boolean capture( int id )  { log.append( " capture " + id ); return !fail[ 0 ]; }
+			public void switchCamera()        { log.append( " switch" ); }
+		};
+
+		boolean ok = true;
+
+		// A double tap is one tap.
+
+		CaptureQueue q = new CaptureQueue( actions, NOW, 60000 );
+		q.tap();  q.tap();
+		ok &= expect( "double tap", log, " start 1" );
+
+		// A timer that goes off with the last picture still in flight waits for it,
+		// and a switch waits for both.
+
+		q = new CaptureQueue( actions, NOW, 0 );
+		q.start();  q.timerFired( 1 );  q.start();  q.switchCamera();  q.timerFired( 2 );
+		q.timerFired( 2 );  q.captureDone( 1 );  q.captureDone( 1 );  q.captureDone( 2 );
+		ok &= expect( "held", log, " start 1 capture 1 start 2 capture 2 switch" );
+
+		// A timer that's been cancelled, or replaced, is ignored when it goes off.
+
+		q.tap();  q.tap();  q.timerFired( 3 );  q.tap();  q.timerFired( 3 );  q.timerFired( 4 );
+		ok &= expect( "stale", log, " start 3 cancel 3 start 4 capture 4" );
+
+		// A capture that can't start is over at once.
+
+		q.captureDone( 4 );
+		fail[ 0 ] = true;
+		q.start();  q.timerFired( 5 );  q.switchCamera();
+		ok &= expect( "failed", log, " start 5 capture 5 switch" )
+		    & check( "failed count", q.getFailureCount() == 1 && q.getState() == CaptureQueue.IDLE );
+		fail[ 0 ] = false;
+
+		// A reset forgets a held capture, and the in-flight capture's late report.
+
+		q.start();  q.timerFired( 6 );  q.start();  q.timerFired( 7 );  q.reset();  q.captureDone( 6 );  q.start();
+		ok &= expect( "reset", log, " start 6 capture 6 start 7 start 8" )
+		    & check( "reset state", q.getState() == CaptureQueue.TIMING );
+
+		// A capture given up on lets the held one and the switch go, and its late
+		// report is ignored.
+
+		q.cancel();  q.start();  q.timerFired( 9 );  q.start();  q.switchCamera();  q.timerFired( 10 );
+		q.captureFailed( 9 );  q.captureDone( 9 );  q.captureDone( 10 );
+		ok &= expect( "given up", log, " cancel 8 start 9 capture 9 start 10 capture 10 switch" )
+		    & check( "given up count", q.getFailureCount() == 3 && q.getState() == CaptureQueue.IDLE );
+
+		System.out.println( "scripted       " + ( ok ? "as expected" : "MISMATCH" ));
+		return ok;
+
+	}  // scripted
+
+	private static boolean expect( String what, StringBuilder log, String expected ) {
+		boolean good = log.toString().equals( expected );
+		if ( !good ) System.out.println( what + ": got" + log + ", expected" + expected );
+
+		log.setLength( 0 );
+		return good;
+	}
+
+
+	//
+	// Stress.
+	//
+
+	private boolean stress() throws Exception {
+
+		final int    senders   = intOption( "senders" );
+		final int    commands  = intOption( "commands" );
+		final int    timerMs   = intOption( "timerMs" );
+		final int    captureMs = intOption( "captureMs" );
+		final double fail      = Double.parseDouble( mOptions.get( "fail" ));
+		final int    pauseUs   = intOption( "pauseUs" );
+
+		ExecutorService                ui     = Executors.newSingleThreadExecutor();
+		final ScheduledExecutorService timers = Executors.newScheduledThreadPool( 2 );
+		final ScheduledExecutorService camera = Executors.newScheduledThreadPool( 2 );
+
+		// What the actions were asked, by countdown id.  Only the UI thread writes.
+
+		final Map<Integer,Integer> captured  = new HashMap<Integer,Integer>();
+		final Map<Integer,Integer> cancelled = new HashMap<Integer,Integer>();
+		final List<Integer>        started   = new ArrayList<Integer>();
+		final AtomicInteger        inFlight  = new AtomicInteger();
+		final AtomicInteger        overlaps  = new AtomicInteger();
+		final AtomicInteger        badSwitch = new AtomicInteger();
+		final AtomicInteger        switched  = new AtomicInteger();
+		final AtomicInteger        switches  = new AtomicInteger();   // Asked for
+		final Random               uiRandom  = new Random( intOption( "seed" ));
+
+		final CaptureQueue[] queue = new CaptureQueue[ 1 ];
+
+		CaptureQueue.Actions actions = new CaptureQueue.Actions() {
+			public void startTimer( final int id ) {
+				started.add( id );
+				long delay = uiRandom.nextInt( timerMs + 1 );
+
+				timers.schedule( new Runnable() {
+					public void run() {
+						queue[ 0 ].timerFired( id );
+						if ( uiRandom.nextInt( 50 ) == 0 ) queue[ 0 ].timerFired( id );  // Said twice
+					}
+				}, delay, TimeUnit.MILLISECONDS );
+			}
+
+			public void cancelTimer( int id ) {
+				increment( cancelled, id );
+			}
+
+			public boolean capture( final int id ) {
+				increment( captured, id );
+
+				if ( inFlight.incrementAndGet() > 1 ) overlaps.incrementAndGet();
+
+				if ( uiRandom.nextDouble() < fail ) {
+					inFlight.decrementAndGet();
+					return false;
+				}
+
+				camera.schedule( new Runnable() {
+					public void run() {
+						inFlight.decrementAndGet();
+						queue[ 0 ].captureDone( id );
+						if ( uiRandom.nextInt( 50 ) == 0 ) queue[ 0 ].captureDone( id );
+					}
+				}, uiRandom.nextInt( captureMs + 1 ), TimeUnit.MILLISECONDS );
+
+				return true;
+			}
+
+			public void switchCamera() {
+				if ( inFlight.get() > 0 ) badSwitch.incrementAndGet();
+				switched.incrementAndGet();
+			}
+		};
+
+		queue[ 0 ] = new CaptureQueue( actions, ui, intOption( "coalesce" ));
+
+		// The senders.
+
+		final CountDownLatch done = new CountDownLatch( senders );
+		long start = System.nanoTime();
+
+		for ( int s = 0; s < senders; s++ ) {
+			final Random random = new Random( intOption( "seed" ) + s + 1 );
+
+			new Thread( new Runnable() {
+				public void run() {
+					for ( int i = 0; i < commands; i++ ) {
+						int r = random.nextInt( 100 );
+
+						if      ( r < 40 ) queue[ 0 ].tap();
+						else if ( r < 70 ) queue[ 0 ].start();
+						else if ( r < 80 ) queue[ 0 ].cancel();
+						else if ( r < 90 ) { switches.incrementAndGet();  queue[ 0 ].switchCamera(); }
+						else               queue[ 0 ].timerFired( random.nextInt( 1000 ));  // Long gone, mostly
+
+						sleepNanos( random.nextInt( pauseUs + 1 ) * 1000L );
+					}
+					done.countDown();
+				}
+			}, "sender " + s ).start();
+		}
+
+		done.await();
+		long sent = System.nanoTime() - start;
+
+		// Let the last countdown and capture finish.
+
+		CaptureQueue q = queue[ 0 ];
+		for ( int quiet = 0; quiet < 3; ) {
+			Thread.sleep( timerMs + captureMs + 20 );
+			quiet = q.getState() == CaptureQueue.IDLE ? quiet + 1 : 0;
+		}
+
+		ui.shutdown();
+		ui.awaitTermination( 10, TimeUnit.SECONDS );
+		timers.shutdown();
+		camera.shutdown();
+
+		// Every countdown cancelled or captured, once.
+
+		int lost = 0, twice = 0, both = 0;
+
+		for ( int id : started ) {
+			int c = count( captured, id ), x = count( cancelled, id );
+
+			if      ( c + x == 0 ) lost++;
+			else if ( c > 1 || x > 1 ) twice++;
+			else if ( c == 1 && x == 1 ) both++;
+		}
+
+		System.out.println( String.format( "stress         %d commands from %d threads in %.0f ms;  %d countdowns, "
+		                                   + "%d captured, %d cancelled",
+		                                   senders * commands, senders, sent / 1e6, started.size(),
+		                                   captured.size(), cancelled.size() ));
+		System.out.println( String.format( "               lost %d, twice %d, both %d, overlapping %d, "
+		                                   + "switches %d of %d, %d during a capture",
+		                                   lost, twice, both, overlaps.get(), switched.get(), switches.get(),
+		                                   badSwitch.get() ));
+		System.out.println( "queue          " + q.getStats() );
+
+		return lost == 0 && twice == 0 && both == 0 && overlaps.get() == 0 && badSwitch.get() == 0
+		    && switched.get() == switches.get() && q.getCaptureCount() == captured.size();
+
+	}  // stress
+
+
+	//
+	// Helpers.
+	//
+
+	private static void increment( Map<Integer,Integer> counts, int id ) {
+		counts.put( id, count( counts, id ) + 1 );
+	}
+
+	private static int count( Map<Integer,Integer> counts, int id ) {
+		Integer n = counts.get( id );
+		return n == null ? 0 : n;
+	}
+
+	private static boolean check( String what, boolean good ) {
+		if ( !good ) System.out.println( what + ": MISMATCH" );
+		return good;
+	}
+
+	private static void sleepNanos( long nanos ) {
+		try {
+			Thread.sleep( nanos / 1000000, (int) ( nanos % 1000000 ));
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class CaptureQueueBench
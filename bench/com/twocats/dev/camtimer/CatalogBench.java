@@ -0,0 +1,441 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CatalogBench class times and checks the CaptureCatalog and QuotaEnforcer.
+ * It fills a catalog with a few years' worth of sequences, then checks that:
+ *
+ *   - loading it back gives the same entries, and how long that takes,
+ *   - lookups by path and range queries by time agree with a brute-force search,
+ *   - after removing most entries the log is compacted, and still loads the same,
+ *   - a torn record at the end is cut off, losing nothing before it,
+ *   - the enforcer gets under budget by deleting only whole sequences, oldest
+ *     first, never the newest, and deletes real files through the writer wrapper,
+ *   - the wrapper files a picture saved late under the sequence it was taken in.
+ *
+ * For comparison it times listing and stat()ing a directory of empty files, which
+ * is what the app would otherwise have to do.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.CatalogBench entries=100000 files=10000
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+
+public class CatalogBench {
+
+	private static final Executor NOW = new Executor() {
+		public void execute( Runnable task ) {
+			task.run();
+		}
+	};
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "entries", "100000" );
+		options.put( "files",   "5000" );   // Empty files to list, for comparison
+		options.put( "loads",   "5" );      // Best of
+		options.put( "seed",    "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new CatalogBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	CatalogBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		File base = File.createTempFile( "catalogbench", "" );
+		base.delete();
+
+		try {
+			boolean ok = true;
+
+			ok &= catalog( new File( base, "catalog" ));
+			ok &= quota();
+			ok &= realFiles( new File( base, "pictures" ), new File( base, "real" ));
+			listing( new File( base, "listing" ));
+
+			System.out.println( ok ? "OK" : "MISMATCH" );
+			if ( !ok ) System.exit( 2 );
+		}
+		finally {
+			deleteTree( base );
+		}
+
+	}  // run
+
+
+	private boolean catalog( File file ) throws IOException {
+	/**
+	 * Fill, reload, look up, thin out, and tear.
+	 *
+	 */
+		int     entries = intOption( "entries" );
+		Random  random  = new Random( intOption( "seed" ));
+		boolean ok      = true;
+
+		CaptureCatalog catalog = new CaptureCatalog( file );
+		List<CaptureCatalog.Entry> all = fill( catalog, entries, random );
+
+		long bytes = catalog.getTotalBytes();
+		catalog.close();
+
+		System.out.println( String.format( "catalog        %d entries, %d sequences, log %d KB",
+		                                   catalog.size(), all.get( all.size() - 1 ).sequence, file.length() / 1024 ));
+
+		// Load it back, best of a few.
+
+		long best = Long.MAX_VALUE;
+
+		for ( int i = 0; i < intOption( "loads" ); i++ ) {
+			catalog.close();
+			catalog = new CaptureCatalog( file );
+			best = Math.min( best, catalog.getLoadNanos() );
+		}
+
+		ok &= check( "reload", catalog.size() == entries && catalog.getTotalBytes() == bytes && same( catalog, all ));
+		System.out.println( String.format( "load           %.1f ms best of %d, %.2f us per entry",
+		                                   best / 1e6, intOption( "loads" ), best / 1e3 / entries ));
+
+		// Lookups by path.
+
+		long start = System.nanoTime();
+		int  found = 0;
+
+		for ( int i = 0; i < entries; i++ )
+			if ( catalog.find( all.get( random.nextInt( entries )).path ) != null ) found++;
+
+		long lookup = System.nanoTime() - start;
+		ok &= check( "lookup", found == entries );
+
+		// Range queries over random hours, against a plain scan.
+
+		long first = catalog.range( Long.MIN_VALUE, Long.MAX_VALUE ).get( 0 ).timestamp;
+		long last  = catalog.recent( 1 ).get( 0 ).timestamp;
+		int  queries = 1000, hits = 0;
+		boolean agree = true;
+
+		start = System.nanoTime();
+		for ( int i = 0; i < queries; i++ ) {
+			long from = first + (long) ( random.nextDouble() * ( last - first ));
+			hits += catalog.range( from, from + 3600000 ).size();
+		}
+		long range = System.nanoTime() - start;
+
+		for ( int i = 0; i < 20; i++ ) {
+			long from = first + (long) ( random.nextDouble() * ( last - first ));
+			agree &= ids( catalog.range( from, from + 86400000 )).equals( ids( scan( all, from, from + 86400000 )));
+		}
+
+		ok &= check( "range", agree );
+		System.out.println( String.format( "lookup         %.0f ns by path;  range %.1f us per hour, %.1f hits",
+		                                   (double) lookup / entries, range / 1e3 / queries, (double) hits / queries ));
+
+		// Remove most of them, which compacts the log.
+
+		long logBefore = file.length();
+		List<CaptureCatalog.Entry> kept = new ArrayList<CaptureCatalog.Entry>();
+
+		start = System.nanoTime();
+		for ( CaptureCatalog.Entry e : all ) {
+			if ( random.nextInt( 10 ) < 6 ) catalog.remove( e );
+			else                             kept.add( e );
+		}
+		long remove = System.nanoTime() - start;
+
+		int compactions = catalog.getCompactionCount();
+		ok &= check( "compacted", compactions > 0 && file.length() < logBefore );
+		ok &= check( "after removal", same( catalog, kept ));
+
+		catalog.close();
+		catalog = new CaptureCatalog( file );
+		ok &= check( "reload after removal", same( catalog, kept ));
+
+		System.out.println( String.format( "remove         %d in %.1f ms, %d compactions, log %d KB, reloads in %.1f ms",
+		                                   entries - kept.size(), remove / 1e6, compactions,
+		                                   file.length() / 1024, catalog.getLoadNanos() / 1e6 ));
+
+		// A crash in the middle of an append.
+
+		CaptureCatalog.Entry torn = catalog.add( "/torn.jpg", 1, last + 1000, 0, CaptureCatalog.MODE_SINGLE, 1 );
+		catalog.close();
+
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		raf.setLength( raf.length() - 5 );
+		raf.close();
+
+		catalog = new CaptureCatalog( file );
+		ok &= check( "torn tail", catalog.getTruncated() > 0 && catalog.find( torn.path ) == null && same( catalog, kept ));
+
+		catalog.add( "/after.jpg", 1, last + 2000, 0, CaptureCatalog.MODE_SINGLE, 1 );
+		catalog.close();
+		catalog = new CaptureCatalog( file );
+		ok &= check( "append after tear", catalog.getTruncated() == 0 && catalog.size() == kept.size() + 1 );
+
+		System.out.println( "torn           " + catalog.getStats() );
+		catalog.close();
+
+		return ok;
+
+	}  // catalog
+
+
+	private boolean quota() throws IOException {
+	/**
+	 * Sequences of assorted sizes, a budget of 40% of them, and a sequence bigger
+	 * than the whole budget at the end.
+	 *
+	 */
+		File file = File.createTempFile( "quota", ".log" );
+		file.delete();
+
+		Random         random  = new Random( intOption( "seed" ));
+		CaptureCatalog catalog = new CaptureCatalog( file );
+		List<CaptureCatalog.Entry> all = fill( catalog, 500, random );
+
+		final List<CaptureCatalog.Entry> deleted = new ArrayList<CaptureCatalog.Entry>();
+
+		QuotaEnforcer enforcer = new QuotaEnforcer( catalog, NOW, new QuotaEnforcer.Deleter() {
+			public boolean delete( CaptureCatalog.Entry entry ) {
+				deleted.add( entry );
+				return true;
+			}
+		} );
+
+		long budget = catalog.getTotalBytes() * 4 / 10;
+		enforcer.setBudget( budget );
+
+		boolean ok = check( "under budget", catalog.getTotalBytes() <= budget
+		                                    && catalog.getTotalBytes() > budget * QuotaEnforcer.LOW_WATER - 20000000 );
+		ok &= check( "whole sequences, oldest first", wholeAndOldest( all, deleted, catalog ));
+
+		System.out.println( "quota          " + enforcer.getStats() );
+
+		// One more sequence, over the budget on its own.
+
+		long seq = catalog.beginSequence( 0, CaptureCatalog.MODE_BURST );
+		long now = all.get( all.size() - 1 ).timestamp + 60000;
+
+		for ( int i = 0; i < 5; i++ )
+			catalog.add( "/big-" + i + ".jpg", budget / 4, now + i, 0, CaptureCatalog.MODE_BURST, seq );
+
+		ok &= check( "newest kept", catalog.size() == 5 && catalog.newestSequence() == seq );
+
+		catalog.close();
+		file.delete();
+
+		return ok;
+
+	}  // quota
+
+	private boolean realFiles( File pictures, File file ) throws IOException {
+	/**
+	 * Pictures saved through the wrapper, deleted by the enforcer from disk.
+	 *
+	 */
+		CaptureCatalog catalog  = new CaptureCatalog( file );
+		QuotaEnforcer  enforcer = new QuotaEnforcer( catalog, NOW, QuotaEnforcer.FILES );
+		CapturePipeline.ImageWriter writer = catalog.wrap( new FileImageWriter( pictures ));
+
+		byte[] jpeg = new byte[ 10000 ];
+		enforcer.setBudget( 95000 );
+
+		for ( int s = 0; s < 10; s++ ) {
+			catalog.beginSequence( s % 2, s % 3 == 0 ? CaptureCatalog.MODE_BURST : CaptureCatalog.MODE_SINGLE, 1000000000000L + s * 1000 );
+			for ( int i = 0; i < ( s % 3 == 0 ? 3 : 1 ); i++ )
+				writer.write( jpeg, 1000000000000L + s * 1000 + i );
+		}
+
+		// A picture saved after the next sequence has begun goes in its own.
+
+		long burst = catalog.beginSequence( 1, CaptureCatalog.MODE_BURST, 1000000010000L );
+		long video = catalog.beginSequence( 0, CaptureCatalog.MODE_VIDEO, 1000000011000L );
+
+		CaptureCatalog.Entry late = catalog.find( writer.write( jpeg, 1000000010500L ).getPath() );
+		boolean ok = check( "late save", late != null && late.sequence == burst && late.sequence != video
+		                                 && late.camera == 1 && late.mode == CaptureCatalog.MODE_BURST );
+
+		String[] left = pictures.list();
+		ok &= check( "files deleted", left != null && left.length == catalog.size()
+		                              && catalog.getTotalBytes() <= 95000 && enforcer.getDeletedFiles() > 0 );
+
+		for ( String name : left ) ok &= check( name + " catalogued", catalog.find( new File( pictures, name ).getPath() ) != null );
+
+		System.out.println( "files          " + enforcer.getStats() + ", " + left.length + " left" );
+		catalog.close();
+
+		return ok;
+	}
+
+	private void listing( File dir ) throws IOException {
+	/**
+	 * What the app would do without a catalog.
+	 *
+	 */
+		int files = intOption( "files" );
+		dir.mkdirs();
+
+		for ( int i = 0; i < files; i++ ) new File( dir, ( 1000000000000L + i ) + ".jpg" ).createNewFile();
+
+		long start = System.nanoTime(), total = 0;
+
+		File[] list = dir.listFiles();
+		for ( File f : list ) total += f.length() + f.lastModified();
+
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println( String.format( "listing        %d files in %.1f ms, %.2f us per file (warm cache)",
+		                                   list.length, elapsed / 1e6, elapsed / 1e3 / Math.max( 1, list.length )));
+	}
+
+
+	//
+	// Helpers.
+	//
+
+	private static List<CaptureCatalog.Entry> fill( CaptureCatalog catalog, int entries, Random random ) throws IOException {
+	/**
+	 * Sequences of one to five pictures, a few seconds to a few hours apart, an
+	 * odd one out of order, as with a clock that's been set back.
+	 *
+	 */
+		List<CaptureCatalog.Entry> all = new ArrayList<CaptureCatalog.Entry>( entries );
+		long now = 1500000000000L;
+
+		while ( all.size() < entries ) {
+			int  mode   = random.nextInt( 4 );
+			int  camera = random.nextInt( 2 );
+			int  count  = mode == CaptureCatalog.MODE_SINGLE ? 1 : 2 + random.nextInt( 4 );
+			long seq    = catalog.beginSequence( camera, mode );
+			long when   = random.nextInt( 100 ) == 0 ? now - 3600000 : now;
+
+			for ( int i = 0; i < count && all.size() < entries; i++ ) {
+				long   t    = when + i * 100;
+				String path = "/sdcard/Pictures/" + t + "-" + all.size() + ".jpg";
+				all.add( catalog.add( path, 500000 + random.nextInt( 3000000 ), t, camera, mode, seq ));
+			}
+
+			now += 5000 + (long) ( random.nextDouble() * random.nextDouble() * 4 * 3600000 );
+		}
+
+		return all;
+	}
+
+	private static boolean same( CaptureCatalog catalog, List<CaptureCatalog.Entry> expected ) {
+		if ( catalog.size() != expected.size() ) return false;
+
+		for ( CaptureCatalog.Entry e : expected ) {
+			CaptureCatalog.Entry c = catalog.get( e.id );
+			if ( c == null || !c.path.equals( e.path ) || c.size != e.size || c.timestamp != e.timestamp
+			  || c.camera != e.camera || c.mode != e.mode || c.sequence != e.sequence ) return false;
+		}
+
+		return true;
+	}
+
+	private static List<CaptureCatalog.Entry> scan( List<CaptureCatalog.Entry> all, long from, long to ) {
+	/**
+	 * Brute force, in the catalog's order:  by time, then by id.
+	 *
+	 */
+		List<CaptureCatalog.Entry> found = new ArrayList<CaptureCatalog.Entry>();
+		for ( CaptureCatalog.Entry e : all ) if ( e.timestamp >= from && e.timestamp < to ) found.add( e );
+
+		Collections.sort( found, new Comparator<CaptureCatalog.Entry>() {
+			public int compare( CaptureCatalog.Entry a, CaptureCatalog.Entry b ) {
+				if ( a.timestamp != b.timestamp ) return a.timestamp < b.timestamp ? -1 : 1;
+				return a.id < b.id ? -1 : a.id > b.id ? 1 : 0;
+			}
+		} );
+
+		return found;
+	}
+
+	private static List<Long> ids( List<CaptureCatalog.Entry> entries ) {
+		List<Long> ids = new ArrayList<Long>( entries.size() );
+		for ( CaptureCatalog.Entry e : entries ) ids.add( e.id );
+		return ids;
+	}
+
+	private static boolean wholeAndOldest( List<CaptureCatalog.Entry> all, List<CaptureCatalog.Entry> deleted,
+	                                       CaptureCatalog catalog ) {
+	/**
+	 * Every sequence is either all deleted or all kept, and every deleted one
+	 * started no later than any kept one.
+	 *
+	 */
+		Set<Long> gone = new HashSet<Long>();
+		for ( CaptureCatalog.Entry e : deleted ) gone.add( e.sequence );
+
+		Map<Long,Long> starts = new HashMap<Long,Long>();
+		for ( CaptureCatalog.Entry e : all ) {
+			Long s = starts.get( e.sequence );
+			if ( s == null || e.timestamp < s ) starts.put( e.sequence, e.timestamp );
+		}
+
+		long lastGone = Long.MIN_VALUE, firstKept = Long.MAX_VALUE;
+
+		for ( CaptureCatalog.Entry e : all ) {
+			boolean isGone = gone.contains( e.sequence );
+			if ( isGone == ( catalog.get( e.id ) != null )) return false;
+
+			long start = starts.get( e.sequence );
+			if ( isGone ) lastGone  = Math.max( lastGone, start );
+			else          firstKept = Math.min( firstKept, start );
+		}
+
+		return !gone.isEmpty() && lastGone <= firstKept;
+	}
+
+	private static boolean check( String what, boolean good ) {
+		if ( !good ) System.out.println( what + ": MISMATCH" );
+		return good;
+	}
+
+	private static void deleteTree( File f ) {
+		File[] children = f.listFiles();
+		if ( children != null )
+			for ( File c : children ) deleteTree( c );
+		f.delete();
+	}
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class CatalogBench
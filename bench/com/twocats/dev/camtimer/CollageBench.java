@@ -0,0 +1,246 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CollageBench class checks and times the photo booth's Collage.
+ *
+ * It encodes four pictures at full size, each a flat colour of its own with a
+ * white patch in the top left corner, and with a different EXIF orientation each
+ * (none, 90, 180 and 270 degrees).  For each output size it composes them once
+ * to check, decoding the collage again and looking at every tile:  each must be
+ * its picture's colour, in its own place, with the patch in the corner its
+ * orientation puts it in.  Then it times composing on one thread and on a pool,
+ * and gives the most memory held while composing, against what decoding the four
+ * pictures to bitmaps would take.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.CollageBench width=4000 height=3000 sizes=2048x1536
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+public class CollageBench {
+
+	// The pictures' colours, as luma, Cb and Cr, and their rotations.
+
+	private static final int[][] COLOURS   = { { 80, 100, 160 }, { 120, 160, 100 }, { 160, 90, 90 }, { 60, 150, 150 } };
+	private static final int[]   ROTATIONS = { 0, 90, 180, 270 };
+	private static final int     PATCH     = 250;  // Luma of the corner patch
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "width",   "3264" );  // 8 megapixels
+		options.put( "height",  "2448" );
+		options.put( "sizes",   "1024x768,2048x1536,4096x3072" );
+		options.put( "gap",     "16" );
+		options.put( "runs",    "3" );     // Collages timed per size and pool
+		options.put( "threads", "" + Math.max( 2, Runtime.getRuntime().availableProcessors() ));
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new CollageBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	CollageBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int width   = intOption( "width" ) & ~1;
+		int height  = intOption( "height" ) & ~1;
+		int threads = Math.max( 1, intOption( "threads" ));
+		int runs    = Math.max( 1, intOption( "runs" ));
+
+		// The pictures.
+
+		System.out.println( "encoding " + COLOURS.length + " pictures of " + width + "x" + height );
+
+		List<byte[]> jpegs = new ArrayList<byte[]>();
+		long         bytes = 0;
+
+		for ( int i = 0; i < COLOURS.length; i++ ) {
+			byte[] jpeg = new JpegEncoder( 90 ).encode( width, height, JpegEncoder.nv21( picture( width, height, COLOURS[ i ] ), width, height ));
+			jpeg = new ExifRewriter().setOrientation( ROTATIONS[ i ] ).rewrite( jpeg );
+
+			jpegs.add( jpeg );
+			bytes += jpeg.length;
+		}
+
+		long bitmaps = 4L * width * height * COLOURS.length;  // ARGB, as BitmapFactory would
+		System.out.println( String.format( "               %d KB of JPEG;  as bitmaps, %d KB", bytes / 1024, bitmaps / 1024 ));
+		System.out.println();
+
+		ExecutorService one  = Executors.newSingleThreadExecutor();
+		ExecutorService pool = Executors.newFixedThreadPool( threads );
+		boolean ok = true;
+
+		for ( String size : mOptions.get( "sizes" ).split( "," )) {
+			String[] wh = size.split( "x" );
+			int cw = Integer.parseInt( wh[ 0 ].trim()), ch = Integer.parseInt( wh[ 1 ].trim());
+
+			// Check, once.
+
+			Collage collage = new Collage( cw, ch, intOption( "gap" ), 90, pool );
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			collage.compose( jpegs, out );
+
+			ok &= check( size, collage, out.toByteArray() );
+
+			// Time.
+
+			double single = time( new Collage( cw, ch, intOption( "gap" ), 90, one ), jpegs, runs );
+			double pooled = time( collage, jpegs, runs );
+
+			System.out.println( String.format( "               1 thread %.0f ms, %d threads %.0f ms;  %d KB out, "
+			                                   + "peak %d KB (%.1f%% of the bitmaps)",
+			                                   single, threads, pooled, out.size() / 1024, collage.getPeakBytes() / 1024,
+			                                   100.0 * collage.getPeakBytes() / bitmaps ));
+			System.out.println( "               " + collage.getTileStats().summary() );
+			System.out.println( "               " + collage.getEncodeStats().summary() );
+
+			ok &= collage.getFailedCount() == 0 && collage.getPeakBytes() < bitmaps / 4;
+		}
+
+		one.shutdown();
+		pool.shutdown();
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private static double time( Collage collage, List<byte[]> jpegs, int runs ) throws Exception {
+	/**
+	 * @return Milliseconds a collage, after one to warm up.
+	 */
+		collage.compose( jpegs, new ByteArrayOutputStream() );
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < runs; i++ ) collage.compose( jpegs, new ByteArrayOutputStream() );
+
+		return ( System.nanoTime() - start ) / 1e6 / runs;
+	}
+
+
+	//
+	// Checking.
+	//
+
+	private boolean check( String size, Collage collage, byte[] jpeg ) throws Exception {
+	/**
+	 * Decode the collage and look at each tile:  a spot near each corner, and one
+	 * in the middle for the colour.
+	 *
+	 */
+		final int w = collage.getWidth(), h = collage.getHeight();
+		final byte[][] planes = { new byte[ w * h ], new byte[ w * h ], new byte[ w * h ] };
+
+		new LumaDecoder().decodeScaled( jpeg, 8, new LumaDecoder.RowSink() {
+			int[] widths;
+
+			public void start( int width, int height, int components, int[] widths, int[] heights ) {
+				this.widths = widths;
+			}
+
+			public void rows( int c, int top, int rows, byte[] pixels, int stride ) {
+				int cw = widths[ c ], scale = w / cw;
+
+				for ( int r = top; r < top + rows && r * scale < h; r++ )
+					for ( int x = 0; x < w; x++ )
+						for ( int s = 0; s < scale && r * scale + s < h; s++ )
+							planes[ c ][ ( r * scale + s ) * w + x ] = pixels[ ( r - top ) * stride + x / scale ];
+			}
+		} );
+
+		int gap = intOption( "gap" ) & ~1;
+		int tw  = (( w - 3 * gap ) / 2 ) & ~1, th = (( h - 3 * gap ) / 2 ) & ~1;
+		StringBuilder problems = new StringBuilder();
+
+		for ( int t = 0; t < COLOURS.length; t++ ) {
+			int x = gap + ( t % 2 ) * ( tw + gap ), y = gap + ( t / 2 ) * ( th + gap );
+
+			// The colour, in the middle.
+
+			for ( int c = 0; c < 3; c++ ) {
+				int v = planes[ c ][ ( y + th / 2 ) * w + x + tw / 2 ] & 0xFF;
+				if ( Math.abs( v - COLOURS[ t ][ c ] ) > 6 ) problems.append( " tile " + t + " component " + c + " is " + v );
+			}
+
+			// The patch, in one corner only:  where the rotation takes the picture's top
+			// left.
+
+			int patch = ROTATIONS[ t ] / 90;  // Corners clockwise from top left
+			for ( int corner = 0; corner < 4; corner++ ) {
+				int cx = x + ( corner == 1 || corner == 2 ? tw * 7 / 8 : tw / 8 );
+				int cy = y + ( corner >= 2 ? th * 7 / 8 : th / 8 );
+				boolean white = ( planes[ 0 ][ cy * w + cx ] & 0xFF ) > PATCH - 10;
+
+				if ( white != ( corner == patch ))
+					problems.append( " tile " + t + " corner " + corner + ( white ? " white" : " not white" ));
+			}
+		}
+
+		System.out.println( String.format( "%-14s %s", size, problems.length() == 0 ? "tiles as expected" : "MISMATCH" + problems ));
+		return problems.length() == 0;
+
+	}  // check
+
+
+	//
+	// Helpers.
+	//
+
+	private static byte[] picture( int width, int height, int[] colour ) {
+	/**
+	 * An NV21 frame of one colour, with a white patch a third of the size in the
+	 * top left corner.
+	 *
+	 */
+		byte[] frame = new byte[ width * height * 3 / 2 ];
+
+		for ( int y = 0; y < height; y++ )
+			for ( int x = 0; x < width; x++ )
+				frame[ y * width + x ] = (byte) ( x < width / 3 && y < height / 3 ? PATCH : colour[ 0 ] );
+
+		for ( int i = width * height; i < frame.length; i += 2 ) {
+			int p = ( i - width * height ) / 2, x = p % ( width / 2 ) * 2, y = p / ( width / 2 ) * 2;
+			boolean patch = x < width / 3 && y < height / 3;
+
+			frame[ i ]     = (byte) ( patch ? 128 : colour[ 2 ] );  // V first
+			frame[ i + 1 ] = (byte) ( patch ? 128 : colour[ 1 ] );
+		}
+
+		return frame;
+	}
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class CollageBench
@@ -0,0 +1,267 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The ControlBench class hammers a ControlServer on 127.0.0.1 with lots of
+ * concurrent clients, so the selector loop and the hand-off to the command
+ * thread can be checked on an ordinary JVM.  A single-thread executor stands in
+ * for the UI thread, and the commands just update a few fields the way the
+ * activity would.
+ *
+ * Each client connects, sends its commands (a few at a time without waiting, to
+ * exercise the buffering), checks that every one gets its own reply, and hangs
+ * up.  There can also be a crowd of idle connections held open throughout.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.ControlBench clients=200 rounds=200
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ControlBench {
+
+	private static final String[] COMMANDS = { "STATUS", "START", "CANCEL", "DELAY 3000", "SWITCH", "METRICS", "status" };
+
+	private final Map<String,String> mOptions;
+
+	private final AtomicInteger mSent     = new AtomicInteger();
+	private final AtomicInteger mOk       = new AtomicInteger();
+	private final AtomicInteger mErr      = new AtomicInteger();
+	private final AtomicInteger mBad      = new AtomicInteger();  // Missing or unexpected replies
+	private final LatencyStats  mRoundTrip = new LatencyStats( "round trip", 8192 );
+
+	// The pretend app.  Only touched on the command thread.
+	private boolean mTiming = false;
+	private long    mDelay  = 5000;
+	private int     mCamera = 0;
+	private int     mStarts = 0;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "clients",  "200" );  // Concurrent clients sending commands
+		options.put( "rounds",   "200" );  // Commands per client
+		options.put( "pipeline", "4" );    // Commands each client sends before reading replies
+		options.put( "idle",     "500" );  // Extra connections that just sit there
+		options.put( "seed",     "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new ControlBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	ControlBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		final int clients  = intOption( "clients" );
+		final int rounds   = intOption( "rounds" );
+		final int pipeline = Math.max( 1, intOption( "pipeline" ));
+		int       idle     = intOption( "idle" );
+		final int seed     = intOption( "seed" );
+
+		ExecutorService uiThread = Executors.newSingleThreadExecutor();
+
+		final ControlServer server = new ControlServer(
+			new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ), uiThread, mCommands );
+		server.start();
+
+		final int port = server.getPort();
+		System.out.println( "listening on 127.0.0.1:" + port );
+
+		List<Socket> idlers = new ArrayList<Socket>();
+		for ( int i = 0; i < idle; i++ )
+			idlers.add( new Socket( "127.0.0.1", port ));
+
+		final CountDownLatch go   = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( clients );
+
+		for ( int i = 0; i < clients; i++ ) {
+			final int client = i;
+
+			Thread t = new Thread( new Runnable() {
+				public void run() {
+					try {
+						go.await();
+						runClient( port, rounds, pipeline, new Random( seed + client ));
+					}
+					catch( Exception e ) {
+						mBad.incrementAndGet();
+						System.out.println( "client " + client + ": " + e );
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			}, "client-" + i );
+			t.start();
+		}
+
+		long start = System.nanoTime();
+		go.countDown();
+
+		if ( !done.await( 5, TimeUnit.MINUTES ))
+			System.out.println( "timed out waiting for clients" );
+
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+
+		for ( Socket s : idlers ) s.close();
+
+		// Give the selector a moment to see the hang-ups.
+		for ( int i = 0; i < 100 && server.getConnectedCount() > 0; i++ ) Thread.sleep( 20 );
+
+		int connected = server.getConnectedCount();
+
+		server.stop();
+		uiThread.shutdown();
+
+		// Report.
+
+		System.out.println();
+		System.out.println( "clients        " + clients + " x " + rounds + " commands, pipeline " + pipeline + ", idle " + idle );
+		System.out.println( "throughput     " + String.format( "%.0f", mSent.get() / seconds ) + " commands/s over "
+		                                   + String.format( "%.2f", seconds ) + " s" );
+		System.out.println( "replies        ok=" + mOk.get() + " err=" + mErr.get() + " bad=" + mBad.get() );
+		System.out.println( "client         " + mRoundTrip.summary() );
+		System.out.println( "server         " + server.getStats() );
+		System.out.println( "app            starts=" + mStarts + " camera=" + mCamera + " delay=" + mDelay );
+
+		// Each client sends one deliberately bad command, and we expect nothing else to fail.
+
+		boolean ok = mBad.get() == 0
+		          && mOk.get() + mErr.get() == mSent.get()
+		          && mErr.get() == clients
+		          && server.getCommandCount() == mSent.get() + clients  // Plus the QUITs
+		          && server.getAcceptedCount() == clients + idle
+		          && connected == 0;
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private void runClient( int port, int rounds, int pipeline, Random random ) throws Exception {
+	/**
+	 * One client:  send commands a few at a time, and check each reply.
+	 *
+	 */
+		Socket socket = new Socket( "127.0.0.1", port );
+		socket.setTcpNoDelay( true );
+		socket.setSoTimeout( 30000 );
+
+		OutputStream   out = socket.getOutputStream();
+		BufferedReader in  = new BufferedReader( new InputStreamReader( socket.getInputStream(), "US-ASCII" ));
+
+		int bogus = random.nextInt( rounds );  // Which command to replace with nonsense
+
+		for ( int i = 0; i < rounds; ) {
+			int n = Math.min( pipeline, rounds - i );
+			StringBuilder batch = new StringBuilder();
+			boolean[] expectErr = new boolean[ n ];
+
+			for ( int k = 0; k < n; k++, i++ ) {
+				expectErr[ k ] = i == bogus;
+				batch.append( expectErr[ k ] ? "BOGUS" : COMMANDS[ random.nextInt( COMMANDS.length ) ] ).append( "\r\n" );
+			}
+
+			long sent = System.nanoTime();
+			out.write( batch.toString().getBytes( "US-ASCII" ));
+			out.flush();
+			mSent.addAndGet( n );
+
+			for ( int k = 0; k < n; k++ ) {
+				String reply = in.readLine();
+
+				if ( reply == null ) {
+					mBad.incrementAndGet();
+					socket.close();
+					return;
+				}
+
+				if ( reply.startsWith( "OK" )) mOk.incrementAndGet();
+				else if ( reply.startsWith( "ERR" )) mErr.incrementAndGet();
+
+				if ( reply.startsWith( "ERR" ) != expectErr[ k ] ) mBad.incrementAndGet();
+			}
+
+			mRoundTrip.add( System.nanoTime() - sent );
+		}
+
+		out.write( "QUIT\n".getBytes( "US-ASCII" ));
+		out.flush();
+
+		if ( !"OK bye".equals( in.readLine() ) || in.readLine() != null )
+			mBad.incrementAndGet();
+
+		socket.close();
+
+	}  // runClient
+
+
+	private ControlServer.Commands mCommands = new ControlServer.Commands() {
+
+		public void start() {
+			if ( !mTiming ) mStarts++;
+			mTiming = true;
+		}
+
+		public void cancel() {
+			mTiming = false;
+		}
+
+		public void setDelay( long ms ) {
+			mDelay = ms;
+		}
+
+		public void switchCamera() {
+			mCamera = ( mCamera + 1 ) % 2;
+		}
+
+		public String status() {
+			return "timing=" + mTiming + " delay=" + mDelay + " camera=" + mCamera;
+		}
+
+		public String metrics() {
+			return "starts=" + mStarts + "\n  sent=" + mSent.get() + " ok=" + mOk.get();
+		}
+	};
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class ControlBench
@@ -0,0 +1,210 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The DualBench class runs DualCapture against the SimulatedBackend, first the
+ * obvious way (save the first picture, then switch cameras) and then with the
+ * switch overlapped with the save, and compares the gap between the two shutters.
+ *
+ * The writer sleeps for writeMs to stand in for a slow card, and checks that each
+ * picture arrives tagged with the orientation of the camera that took it.  The
+ * configurator sleeps for configureMs, about what one setParameters() costs.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.DualBench runs=20 writeMs=400
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class DualBench {
+
+	private static final int FIRST_ROTATION  = 90;   // Orientation tag 6
+	private static final int SECOND_ROTATION = 270;  // Orientation tag 8
+
+	private final Map<String,String> mOptions;
+
+	private final AtomicInteger mWritten   = new AtomicInteger();
+	private final AtomicInteger mMistagged = new AtomicInteger();
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "runs",         "20" );
+		options.put( "openMs",       "300" );  // Camera open latency
+		options.put( "shutterMs",    "80" );
+		options.put( "encodeMs",     "250" );
+		options.put( "frameMs",      "33" );   // Preview frame interval
+		options.put( "settleFrames", "2" );
+		options.put( "configureMs",  "30" );
+		options.put( "writeMs",      "400" );  // Time to write each picture
+		options.put( "seed",         "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new DualBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	DualBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int runs = intOption( "runs" );
+
+		SimulatedBackend backend = new SimulatedBackend( intOption( "seed" ));
+		backend.setLatencies( intOption( "openMs" ), intOption( "shutterMs" ), intOption( "encodeMs" ));
+		backend.setPreviewSize( 640, 480, intOption( "frameMs" ));
+
+		DualCapture naive   = runMode( backend, false, runs );
+		DualCapture overlap = runMode( backend, true,  runs );
+
+		backend.shutdown();
+
+		// Report.
+
+		long naiveGap   = naive.getGapStats().getPercentileNanos( 50 );
+		long overlapGap = overlap.getGapStats().getPercentileNanos( 50 );
+
+		System.out.println();
+		System.out.println( "save then switch  " + naive.getStats() );
+		System.out.println();
+		System.out.println( "overlapped        " + overlap.getStats() );
+		System.out.println();
+		System.out.println( "median gap       " + naiveGap / 1000000 + " ms -> " + overlapGap / 1000000 + " ms" );
+		System.out.println( "pictures         written=" + mWritten.get() + " mistagged=" + mMistagged.get() );
+
+		boolean ok = naive.getCompletedCount() == runs
+		          && overlap.getCompletedCount() == runs
+		          && mWritten.get() == 4 * runs
+		          && mMistagged.get() == 0
+		          && overlapGap < naiveGap;
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private DualCapture runMode( SimulatedBackend backend, boolean overlap, int runs ) throws Exception {
+	/**
+	 * Do the given number of sequences, the way the activity does:  open the first
+	 * camera, start its preview, shoot both, and let go of the second.
+	 *
+	 */
+		ExecutorService saveExecutor   = Executors.newSingleThreadExecutor();
+		ExecutorService switchExecutor = Executors.newSingleThreadExecutor();
+
+		final int settleFrames = intOption( "settleFrames" );
+		final int configureMs  = intOption( "configureMs" );
+
+		final CameraDevice[]   left     = new CameraDevice[ 1 ];
+		final CountDownLatch[] finished = new CountDownLatch[ 1 ];
+
+		DualCapture dual = new DualCapture( backend,
+			new DualCapture.Configurator() {
+				public void configure( CameraDevice device ) {
+					sleep( configureMs );
+				}
+			},
+			mWriter, saveExecutor, switchExecutor,
+			new DualCapture.Listener() {
+				public void onImageSaved( File file ) { }
+
+				public void onSaveFailed( Exception e ) {
+					System.out.println( "save failed: " + e );
+				}
+
+				public void onFinished( CameraDevice device, long gapNanos ) {
+					left[ 0 ] = device;
+					finished[ 0 ].countDown();
+				}
+			} );
+
+		dual.setOverlap( overlap );
+		dual.setSettleFrames( settleFrames );
+
+		for ( int i = 0; i < runs; i++ ) {
+			finished[ 0 ] = new CountDownLatch( 1 );
+
+			CameraDevice first = backend.open( 0 );
+			first.startPreview();
+			sleep( 100 );  // Someone is framing the shot
+
+			if ( !dual.start( first, FIRST_ROTATION, 1, SECOND_ROTATION )) {
+				System.out.println( "run " + i + ": couldn't start" );
+				first.release();
+				continue;
+			}
+
+			if ( !finished[ 0 ].await( 10, TimeUnit.SECONDS ))
+				throw new IllegalStateException( "run " + i + " never finished" );
+
+			if ( left[ 0 ] != null ) left[ 0 ].release();
+		}
+
+		saveExecutor.shutdown();
+		saveExecutor.awaitTermination( 1, TimeUnit.MINUTES );
+		switchExecutor.shutdown();
+
+		return dual;
+
+	}  // runMode
+
+
+	private CapturePipeline.ImageWriter mWriter = new CapturePipeline.ImageWriter() {
+	/**
+	 * Pretends to be a slow card, and checks each picture's orientation tag.  The
+	 * pictures from the two cameras arrive in turn, first then second.
+	 *
+	 */
+		public File write( byte[] jpeg, long timestamp ) throws IOException {
+			int    n        = mWritten.getAndIncrement();
+			String expected = n % 2 == 0 ? "6" : "8";
+
+			if ( !expected.equals( ExifRewriter.readTags( jpeg ).get( ExifRewriter.TAG_ORIENTATION )))
+				mMistagged.incrementAndGet();
+
+			sleep( intOption( "writeMs" ));
+			return new File( "dual-" + n + ".jpg" );
+		}
+	};
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+	private static void sleep( long ms ) {
+		try {
+			Thread.sleep( ms );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}  // class DualBench
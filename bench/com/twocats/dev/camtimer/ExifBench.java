@@ -0,0 +1,433 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The ExifBench class times the ExifRewriter on full-size pictures and then fuzzes
+ * it with damaged JPEG headers.
+ *
+ * The timing runs use a noisy picture of the given size (so it compresses as badly
+ * as a real one), in four flavours:  no metadata at all, a JFIF header, a
+ * camera-style little-endian Exif with a maker note and a thumbnail, and the same
+ * with a maker note so big the segment has no room to grow, which has to be
+ * patched in place.  Each result is checked:  tags read back, the old tags and
+ * thumbnail pointer still there, and the scan data byte-for-byte the same.
+ *
+ * The fuzzing mutates small JPEGs before their scan data (flipped bytes, bogus
+ * lengths, truncation, stray markers and so on).  The rewriter must either throw
+ * an IOException or produce a JPEG with our tags and the same scan data;  any
+ * other exception is a failure.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.ExifBench mp=12 runs=20 fuzz=20000
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+
+public class ExifBench {
+
+	private final Map<String,String> mOptions;
+
+	private static final long WHEN = 1792400000123L;  // Capture time we tag with
+
+	private static final int NOTE_BYTES = 4096;   // Maker note in the camera's Exif
+	private static final int FULL_NOTE  = 63300;  // ... and one leaving the APP1 63 bytes short of 64K
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "mp",   "12" );     // Picture size in megapixels, 4:3
+		options.put( "runs", "20" );     // Timed rewrites per flavour
+		options.put( "fuzz", "20000" );  // Fuzz cases
+		options.put( "seed", "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new ExifBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	ExifBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+		boolean ok = bench();
+		ok &= fuzz();
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+	}
+
+
+	//
+	// Timing.
+	//
+
+	private boolean bench() throws Exception {
+
+		double mp   = Double.parseDouble( mOptions.get( "mp" ));
+		int    runs = intOption( "runs" );
+
+		int w = ( (int) Math.sqrt( mp * 1e6 * 4 / 3 )) & ~15;
+		int h = w * 3 / 4;
+
+		System.out.println( "encoding a " + w + "x" + h + " test picture..." );
+
+		byte[] plain = noisyJpeg( w, h, new Random( intOption( "seed" )));
+
+		String[] names  = { "plain", "jfif", "exif", "full" };
+		byte[][] inputs = { plain, withSegment( plain, jfif() ), withSegment( plain, cameraExif( NOTE_BYTES )),
+		                    withSegment( plain, cameraExif( FULL_NOTE )) };
+
+		boolean ok = true;
+
+		for ( int i = 0; i < inputs.length; i++ ) {
+			byte[] in = inputs[ i ];
+
+			LatencyStats bytesStats = new LatencyStats( "byte[]" );
+			LatencyStats copyStats  = new LatencyStats( "plain copy" );
+			byte[] out = null;
+
+			for ( int r = 0; r < runs; r++ ) {
+				long t0 = System.nanoTime();
+				out = new ExifRewriter().setOrientation( 90 ).setCaptureTime( WHEN ).rewrite( in );
+				long t1 = System.nanoTime();
+				byte[] copy = Arrays.copyOf( in, in.length );
+				long t2 = System.nanoTime();
+
+				if ( copy.length != in.length ) throw new IllegalStateException();
+
+				bytesStats.add( t1 - t0 );
+				copyStats.add( t2 - t1 );
+			}
+
+			// And file to file, the streaming way.
+
+			File src = File.createTempFile( "exifbench", ".jpg" );
+			File dst = File.createTempFile( "exifbench", ".jpg" );
+			writeFile( src, in );
+
+			LatencyStats fileStats = new LatencyStats( "file" );
+
+			for ( int r = 0; r < runs; r++ ) {
+				long t0 = System.nanoTime();
+
+				InputStream  fin  = new BufferedInputStream( new FileInputStream( src ), 65536 );
+				OutputStream fout = new BufferedOutputStream( new FileOutputStream( dst ), 65536 );
+
+				try {
+					new ExifRewriter().setOrientation( 90 ).setCaptureTime( WHEN ).rewrite( fin, fout );
+				}
+				finally {
+					fin.close();
+					fout.close();
+				}
+
+				fileStats.add( System.nanoTime() - t0 );
+			}
+
+			src.delete();
+			dst.delete();
+
+			boolean good = check( in, out, i >= 2 );
+			if ( i == 3 ) good &= out.length == in.length;  // Patched, not grown
+			ok &= good;
+
+			double mb = in.length / 1048576.0;
+
+			System.out.println( String.format( "%-6s %.2f MB  %s  %.0f MB/s", names[ i ], mb,
+			                                   bytesStats.summary(), mb / ( bytesStats.getMeanNanos() / 1e9 )));
+			System.out.println( "                 " + copyStats.summary() );
+			System.out.println( "                 " + fileStats.summary() );
+			System.out.println( "                 " + ( good ? "checked OK" : "CHECK FAILED" ));
+		}
+
+		return ok;
+	}  // bench
+
+	private boolean check( byte[] in, byte[] out, boolean hadExif ) throws IOException {
+	/**
+	 * Our tags are there, the scan data's untouched, and if the camera had its own
+	 * Exif, its tags survived.
+	 *
+	 */
+		Map<Integer,String> tags = ExifRewriter.readTags( out );
+
+		boolean ok = "6".equals( tags.get( ExifRewriter.TAG_ORIENTATION ))
+		          && tags.get( ExifRewriter.TAG_DATETIME_ORIGINAL ) != null
+		          && tags.get( ExifRewriter.TAG_DATETIME_ORIGINAL ).length() == 19
+		          && "123".equals( tags.get( ExifRewriter.TAG_SUBSEC_ORIGINAL ))
+		          && sameScan( in, out );
+
+		if ( hadExif ) {
+			ok &= "CamTimer".equals( tags.get( 0x010F ))       // Make, in IFD0
+			   && "100".equals( tags.get( 0x8827 ))            // ISO, in the Exif IFD
+			   && "?".equals( tags.get( 0x927C ));             // Maker note, still there
+		}
+
+		// Rewriting a rewritten file just updates the tags, without another segment.
+
+		byte[] again = new ExifRewriter().setOrientation( 180 ).rewrite( out );
+		ok &= "3".equals( ExifRewriter.readTags( again ).get( ExifRewriter.TAG_ORIENTATION ))
+		   && again.length - out.length < 512
+		   && sameScan( in, again );
+
+		return ok;
+	}
+
+
+	//
+	// Fuzzing.
+	//
+
+	private boolean fuzz() throws Exception {
+		int    cases = intOption( "fuzz" );
+		Random rnd   = new Random( intOption( "seed" ));
+
+		byte[] small = noisyJpeg( 64, 48, rnd );
+		byte[][] bases = {
+			small, withSegment( small, jfif() ), withSegment( small, cameraExif( NOTE_BYTES )),
+			new ExifRewriter().setOrientation( 270 ).rewrite( small )  // Big-endian, ours
+		};
+
+		int rejected = 0, rewritten = 0, failed = 0;
+		long slowest = 0;
+
+		for ( int c = 0; c < cases; c++ ) {
+			long   seed = rnd.nextLong();
+			byte[] in   = mutate( bases[ c % bases.length ], new Random( seed ));
+
+			long t0 = System.nanoTime();
+
+			try {
+				byte[] out = new ExifRewriter().setOrientation( 90 ).setCaptureTime( WHEN ).rewrite( in );
+				rewritten++;
+
+				Map<Integer,String> tags = ExifRewriter.readTags( out );
+
+				if ( !"6".equals( tags.get( ExifRewriter.TAG_ORIENTATION )) || !sameScan( in, out ))
+					throw new IllegalStateException( "output lost the tags or changed the scan" );
+			}
+			catch( IOException e ) {
+				rejected++;
+			}
+			catch( Exception e ) {
+				failed++;
+				if ( failed <= 5 ) System.out.println( "fuzz case " + c + " (seed " + seed + "): " + e );
+			}
+
+			slowest = Math.max( slowest, System.nanoTime() - t0 );
+		}
+
+		System.out.println( "fuzz   " + cases + " cases:  rewritten=" + rewritten + " rejected=" + rejected
+		                  + " failed=" + failed + " slowest=" + String.format( "%.1f", slowest / 1e6 ) + "ms" );
+
+		return failed == 0;
+	}  // fuzz
+
+	private byte[] mutate( byte[] base, Random rnd ) {
+	/**
+	 * Damage the part of a JPEG before its scan data in one or more ways.
+	 *
+	 */
+		int    sos = sosOffset( base );
+		byte[] b   = base.clone();
+		int    n   = 1 + rnd.nextInt( 4 );
+
+		for ( int i = 0; i < n; i++ ) {
+			int at = rnd.nextInt( Math.max( 1, Math.min( sos, b.length ) ));
+
+			switch( rnd.nextInt( 7 )) {
+				case 0:  b[ at ] ^= 1 << rnd.nextInt( 8 ); break;            // Flip a bit
+				case 1:  b[ at ] = (byte) 0xFF; break;                        // Stray marker byte
+				case 2:  b[ at ] = 0; break;
+				case 3:  b[ at ] = (byte) rnd.nextInt( 256 );                 // Random length-ish bytes
+				         if ( at + 1 < b.length ) b[ at + 1 ] = (byte) rnd.nextInt( 256 );
+				         break;
+				case 4:  return Arrays.copyOf( b, at );                       // Truncate
+				case 5:  b = splice( b, at, new byte[] { (byte) 0xFF, (byte) ( 0xC0 + rnd.nextInt( 64 )) } ); break;
+				default: b = splice( b, at, Arrays.copyOfRange( b, at, Math.min( b.length, at + rnd.nextInt( 64 ))));  // Duplicate a run
+			}
+		}
+
+		return b;
+	}
+
+	private static byte[] splice( byte[] b, int at, byte[] insert ) {
+		byte[] out = new byte[ b.length + insert.length ];
+		System.arraycopy( b, 0, out, 0, at );
+		System.arraycopy( insert, 0, out, at, insert.length );
+		System.arraycopy( b, at, out, at + insert.length, b.length - at );
+		return out;
+	}
+
+	private static boolean sameScan( byte[] in, byte[] out ) {
+	/**
+	 * Everything from the start of scan on is the same in both.
+	 *
+	 */
+		int a = sosOffset( in ), b = sosOffset( out );
+
+		if ( a < 0 || b < 0 || in.length - a != out.length - b ) return false;
+
+		for ( int i = 0; a + i < in.length; i++ )
+			if ( in[ a + i ] != out[ b + i ] ) return false;
+
+		return true;
+	}
+
+	private static int sosOffset( byte[] jpeg ) {
+	/**
+	 * Where the first SOS marker is, walking the segments the same way the
+	 * rewriter does, or -1.
+	 *
+	 */
+		int p = 2;
+
+		while ( p + 1 < jpeg.length ) {
+			if (( jpeg[ p ] & 0xFF ) != 0xFF ) return -1;
+
+			int q = p + 1;
+			while ( q < jpeg.length && ( jpeg[ q ] & 0xFF ) == 0xFF ) q++;
+			if ( q >= jpeg.length ) return -1;
+
+			int m = jpeg[ q ] & 0xFF;
+			if ( m == 0xDA ) return q - 1;
+			if ( m == 0x01 || ( m >= 0xD0 && m <= 0xD7 )) { p = q + 1; continue; }
+			if ( q + 2 >= jpeg.length ) return -1;
+
+			p = q + 1 + (( jpeg[ q + 1 ] & 0xFF ) << 8 | ( jpeg[ q + 2 ] & 0xFF ));
+		}
+
+		return -1;
+	}
+
+
+	//
+	// Test pictures.
+	//
+
+	private static byte[] noisyJpeg( int w, int h, Random rnd ) {
+		byte[] nv21 = SimulatedBackend.makeFrame( w, h, 0 );
+
+		for ( int i = 0; i < w * h; i++ )
+			nv21[ i ] = (byte) Math.max( 0, Math.min( 255, ( nv21[ i ] & 0xFF ) + rnd.nextInt( 48 ) - 24 ));
+
+		return new JpegEncoder( 92 ).encode( w, h, JpegEncoder.nv21( nv21, w, h ));
+	}
+
+	private static byte[] withSegment( byte[] jpeg, byte[] segment ) {
+		return splice( jpeg, 2, segment );
+	}
+
+	private static byte[] jfif() {
+		return new byte[] { (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 };
+	}
+
+	private static byte[] cameraExif( int noteBytes ) throws IOException {
+	/**
+	 * An APP1 like a camera's:  little-endian, with Make in IFD0, ISO, the capture
+	 * time and a maker note in the Exif IFD, and an IFD1 pointing at a (pretend)
+	 * thumbnail.
+	 *
+	 */
+		ByteArrayOutputStream t = new ByteArrayOutputStream();
+
+		int ifd0  = 8;
+		int exif  = ifd0 + 2 + 3 * 12 + 4;    // 50
+		int ifd1  = exif + 2 + 4 * 12 + 4;    // 104
+		int make  = ifd1 + 2 + 2 * 12 + 4;    // 134
+		int date  = make + 10;                // 144
+		int note  = date + 20;                // 164
+		int thumb = note + noteBytes;
+
+		le( t, 0x4949, 2 ); le( t, 42, 2 ); le( t, ifd0, 4 );
+
+		le( t, 3, 2 );                                                   // IFD0
+		entry( t, 0x010F, 2, 9, make );                                  // Make
+		entry( t, 0x0112, 3, 1, 1 );                                     // Orientation
+		entry( t, 0x8769, 4, 1, exif );                                  // Exif IFD
+		le( t, ifd1, 4 );
+
+		le( t, 4, 2 );                                                   // Exif IFD
+		entry( t, 0x8827, 3, 1, 100 );                                   // ISO
+		entry( t, 0x9003, 2, 20, date );                                 // DateTimeOriginal
+		entry( t, 0x9291, 2, 4, 0x00303030 );                            // SubSecTimeOriginal, "000"
+		entry( t, 0x927C, 7, noteBytes, note );                          // Maker note
+		le( t, 0, 4 );
+
+		le( t, 2, 2 );                                                   // IFD1
+		entry( t, 0x0201, 4, 1, thumb );                                 // Thumbnail offset
+		entry( t, 0x0202, 4, 1, 2000 );                                  // ... and length
+		le( t, 0, 4 );
+
+		t.write( "CamTimer\0\0".getBytes( "US-ASCII" ));
+		t.write( "2000:01:01 00:00:00\0".getBytes( "US-ASCII" ));
+		byte[] blob = new byte[ noteBytes + 2000 ];
+		new Random( 7 ).nextBytes( blob );
+		t.write( blob );
+
+		byte[] tiff = t.toByteArray();
+		ByteArrayOutputStream seg = new ByteArrayOutputStream();
+		int length = 2 + 6 + tiff.length;
+
+		seg.write( 0xFF ); seg.write( 0xE1 ); seg.write( length >> 8 ); seg.write( length );
+		seg.write( "Exif\0\0".getBytes( "US-ASCII" ));
+		seg.write( tiff );
+
+		return seg.toByteArray();
+	}
+
+	private static void entry( ByteArrayOutputStream t, int tag, int type, int count, int value ) {
+		le( t, tag, 2 );
+		le( t, type, 2 );
+		le( t, count, 4 );
+		le( t, value, type == 3 ? 2 : 4 );
+		if ( type == 3 ) le( t, 0, 2 );
+	}
+
+	private static void le( ByteArrayOutputStream t, int v, int bytes ) {
+		for ( int i = 0; i < bytes; i++ ) t.write( v >> ( 8 * i ));
+	}
+
+	private static void writeFile( File f, byte[] data ) throws IOException {
+		FileOutputStream out = new FileOutputStream( f );
+		try {
+			out.write( data );
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class ExifBench
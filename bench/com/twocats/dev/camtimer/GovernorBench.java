@@ -0,0 +1,314 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The GovernorBench class runs the PreviewGovernor through a few countdowns on a
+ * make-believe clock and camera, and checks that:
+ *
+ *   - the preview is slowed down for the countdown and sped up RAMP_MS before
+ *     the deadline, on the dot,
+ *   - it's fast for the picture and slow again after it,
+ *   - a countdown too short to bother with stays fast,
+ *   - cancelling a countdown makes it fast again,
+ *   - a camera reopened in the middle (as the duty cycler does) gets the range
+ *     for the phase, not the one it had last time,
+ *   - coming back from a pause starts again fast.
+ *
+ * The camera delivers frames at the top of its range, or less if the light
+ * option is lower, each costing frameUs of CPU.  The per-phase fps and CPU are
+ * compared with the same session at the HAL's usual full rate throughout.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.GovernorBench ranges=15000-30000,30000-30000 light=20000
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+public class GovernorBench {
+
+	private final Map<String,String> mOptions;
+
+	// The make-believe world.
+
+	private long        mNow = 0;     // Milliseconds
+	private long        mSequence = 0;
+	private PriorityQueue<Task> mQueue = new PriorityQueue<Task>();
+
+	private List<int[]> mRanges;      // What the camera supports
+	private int[]       mRange;       // What it's set to
+	private boolean     mOpen  = true;
+	private boolean     mGoverned = true;  // False for the ungoverned run
+	private long        mCpuNanos = 0;
+	private long        mFrames   = 0;
+	private long        mFrameAt  = 0;     // When the next frame's due, in microseconds
+	private int         mLight;            // Fastest the light allows, frames per 1000 s
+	private long        mFrameNanos;       // CPU per frame
+
+	private PreviewGovernor mGovernor;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "ranges",  "7500-30000,15000-15000,24000-24000,30000-30000" );
+		options.put( "light",   "30000" );  // Fastest the scene allows, frames per 1000 s
+		options.put( "frameUs", "1500" );   // CPU per preview frame
+		options.put( "delay",   "10000" );  // The countdown, ms
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new GovernorBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	GovernorBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() {
+
+		mRanges = new ArrayList<int[]>();
+		for ( String r : mOptions.get( "ranges" ).split( "," )) {
+			String[] ends = r.split( "-" );
+			mRanges.add( new int[] { Integer.parseInt( ends[ 0 ] ), Integer.parseInt( ends[ 1 ] ) } );
+		}
+
+		mLight      = intOption( "light" );
+		mFrameNanos = intOption( "frameUs" ) * 1000L;
+
+		int[] fast = PreviewGovernor.fastest( mRanges );
+		int[] slow = PreviewGovernor.slowest( mRanges );
+
+		System.out.println( "ranges         fast " + show( fast ) + ", slow " + show( slow ));
+
+		// With the governor.
+
+		boolean ok = session( true, fast, slow );
+
+		long   frames = mFrames, cpu = mCpuNanos, ms = mNow;
+		String stats  = mGovernor.getStats();
+
+		// The same again, at the HAL's default (the fastest) throughout.
+
+		session( false, fast, slow );
+
+		System.out.println( stats );
+		System.out.println( String.format( "governed       %d frames, cpu %.2f s in %.1f s", frames, cpu / 1e9, ms / 1000.0 ));
+		System.out.println( String.format( "ungoverned     %d frames, cpu %.2f s in %.1f s", mFrames, mCpuNanos / 1e9, mNow / 1000.0 ));
+		System.out.println( String.format( "saved          %.0f%% of preview frames and cpu",
+		                                   100.0 * ( mFrames - frames ) / Math.max( 1, mFrames )));
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private boolean session( boolean governed, int[] fast, int[] slow ) {
+	/**
+	 * Frame a shot, count down, take it, look at it, count down again but cancel,
+	 * count down once more with the camera reopened near the end, then a short
+	 * countdown and a pause.
+	 *
+	 */
+		mNow = 0;  mSequence = 0;  mQueue.clear();
+		mFrames = 0;  mCpuNanos = 0;  mFrameAt = 0;
+		mOpen = true;  mRange = fast;  mGoverned = governed;
+
+		mGovernor = new PreviewGovernor( mActions, mScheduler );
+		mGovernor.setCounting( true );
+		mGovernor.onCameraOpened();
+
+		long    delay   = intOption( "delay" );
+		long    ramp    = PreviewGovernor.RAMP_MS;
+		boolean ok      = true;
+
+		ok &= expect( "framing", fast );
+		advance( 5000 );
+
+		// A countdown and a picture.
+
+		mGovernor.planCapture( mNow + delay );
+		ok &= expect( "countdown", slow );
+
+		advance( delay - ramp - 1 );
+		ok &= expect( "just before the ramp", slow );
+		advance( 1 );
+		ok &= expect( "ramp", fast );
+
+		advance( ramp + 500 );  // The picture's in half a second after the deadline
+		mGovernor.onCaptureDone();
+		ok &= expect( "after", slow );
+		advance( 8000 );
+
+		// A countdown that's cancelled.
+
+		mGovernor.planCapture( mNow + delay );
+		advance( delay / 2 );
+		mGovernor.cancel();
+		ok &= expect( "cancelled", fast );
+		advance( 3000 );
+
+		// A countdown with the camera released and reopened, with the slow range it
+		// had, just after the ramp.
+
+		mGovernor.planCapture( mNow + delay );
+		advance( delay - ramp - 1000 );
+		mOpen = false;
+		advance( 1200 );
+		mOpen  = true;
+		mRange = slow;
+		mGovernor.onCameraOpened();
+		ok &= expect( "reopened", fast );
+		advance( ramp - 200 + 500 );
+		mGovernor.onCaptureDone();
+		advance( 5000 );
+
+		// Too short to slow down for.
+
+		mGovernor.planCapture( mNow + ramp + PreviewGovernor.MIN_SLOW_MS - 1 );
+		ok &= expect( "short countdown", fast );
+		advance( ramp + PreviewGovernor.MIN_SLOW_MS + 500 );
+		mGovernor.onCaptureDone();
+		advance( 2000 );
+
+		// A pause, and back.
+
+		mGovernor.stop();
+		mOpen = false;
+		advance( 3000 );
+		mOpen  = true;
+		mGovernor.onCameraOpened();
+		ok &= expect( "resumed", fast );
+		advance( 3000 );
+
+		return ok;
+
+	}  // session
+
+	private boolean expect( String what, int[] range ) {
+		if ( !mGoverned ) return true;
+
+		boolean good = mRange[ 0 ] == range[ 0 ] && mRange[ 1 ] == range[ 1 ];
+
+		if ( !good )
+			System.out.println( "at " + mNow + " ms (" + what + ") range " + show( mRange ) + ", expected " + show( range ));
+
+		return good;
+	}
+
+	private static String show( int[] range ) {
+		return range[ 0 ] / 1000.0 + "-" + range[ 1 ] / 1000.0;
+	}
+
+
+	//
+	// The make-believe clock and camera.  Frames come at the camera's rate while
+	// it's open, each costing some CPU;  tasks run when their time comes.
+	//
+
+	private static class Task implements Comparable<Task> {
+		final long     at;
+		final long     sequence;
+		final Runnable runnable;
+
+		Task( long at, long sequence, Runnable runnable ) {
+			this.at       = at;
+			this.sequence = sequence;
+			this.runnable = runnable;
+		}
+
+		public int compareTo( Task o ) {
+			return at != o.at ? ( at < o.at ? -1 : 1 ) : ( sequence < o.sequence ? -1 : sequence > o.sequence ? 1 : 0 );
+		}
+	}
+
+	private void advance( long ms ) {
+		long end = mNow + ms;
+
+		while ( true ) {
+			Task next = mQueue.peek();
+			long until = next != null && next.at <= end ? next.at : end;
+
+			frames( until );
+			mNow = until;
+
+			if ( next == null || next.at > end ) break;
+
+			mQueue.poll();
+			next.runnable.run();
+		}
+	}
+
+	private void frames( long until ) {
+		long untilUs = until * 1000;
+
+		if ( !mOpen ) {
+			mFrameAt = untilUs;
+			return;
+		}
+
+		int fps = Math.max( mRange[ 0 ], Math.min( mRange[ 1 ], mLight ));  // Per 1000 s
+
+		for ( mFrameAt = Math.max( mFrameAt, mNow * 1000 ); mFrameAt < untilUs; mFrameAt += 1000000000L / fps ) {
+			mFrames++;
+			mCpuNanos += mFrameNanos;
+			mGovernor.onPreviewFrame( null, 0, 0 );
+		}
+	}
+
+	private DutyCycler.Scheduler mScheduler = new DutyCycler.Scheduler() {
+		public long now() {
+			return mNow;
+		}
+
+		public void schedule( Runnable task, long delayMs ) {
+			mQueue.add( new Task( mNow + delayMs, mSequence++, task ));
+		}
+
+		public void cancel( Runnable task ) {
+			List<Task> gone = new ArrayList<Task>();
+			for ( Task t : mQueue ) if ( t.runnable == task ) gone.add( t );
+			mQueue.removeAll( gone );
+		}
+	};
+
+	private PreviewGovernor.Actions mActions = new PreviewGovernor.Actions() {
+		public List<int[]> getSupportedFpsRanges() {
+			return mOpen ? mRanges : null;
+		}
+
+		public boolean setFpsRange( int min, int max ) {
+			if ( !mOpen ) return false;
+			if ( mGoverned ) mRange = new int[] { min, max };
+			return true;
+		}
+
+		public long getCpuNanos() {
+			return mCpuNanos;
+		}
+	};
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class GovernorBench
@@ -0,0 +1,313 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The LingerBench class measures what the CameraLinger saves.  A make-believe
+ * activity on a simulated camera is paused and resumed over and over, away for a
+ * random time each time, some of them shorter than the grace period and some
+ * longer, and how long each resume takes to its first preview frame is kept.
+ * That's done with no grace period, then with one, on the same gaps.
+ *
+ * It checks that:
+ *
+ *   - every resume within the grace period is warm, and every one after it is
+ *     cold, with no more opens than cold resumes,
+ *   - the camera's let go of at once, grace or not, for memory pressure or an
+ *     eviction, so somebody else can open it,
+ *   - a camera left alone is let go of when the grace period runs out.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.LingerBench cycles=40 graceMs=1000 openMs=600
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+public class LingerBench {
+
+	private final Map<String,String> mOptions;
+
+	// The make-believe activity.  Everything but the waiting runs on mUi.
+
+	private ScheduledExecutorService mUi;
+	private SimulatedBackend         mBackend;
+	private CameraDevice             mDevice;
+	private CameraLinger             mLinger;
+
+	private final Map<Runnable,ScheduledFuture<?>> mScheduled = new HashMap<Runnable,ScheduledFuture<?>>();
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "cycles",  "16" );    // Pauses and resumes, per run
+		options.put( "graceMs", "500" );
+		options.put( "openMs",  "300" );   // Camera.open() latency
+		options.put( "frameMs", "33" );    // Preview frame interval
+		options.put( "seed",    "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new LingerBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	LingerBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int  cycles = intOption( "cycles" );
+		long grace  = intOption( "graceMs" );
+
+		// The time away each cycle:  half well within the grace period, half well
+		// after it, so none is a toss-up.
+
+		Random     random = new Random( intOption( "seed" ));
+		List<Long> gaps   = new ArrayList<Long>();
+
+		for ( int i = 0; i < cycles; i++ )
+			gaps.add( i % 2 == 0 ? (long) ( grace * ( 0.1 + 0.6 * random.nextDouble() ))
+			                     : (long) ( grace * ( 1.3 + 0.7 * random.nextDouble() )));
+
+		boolean ok = true;
+
+		ok &= cycle( "no grace", 0, gaps );
+		ok &= cycle( "grace " + grace + " ms", grace, gaps );
+		ok &= prompt( grace );
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private boolean cycle( String name, long grace, List<Long> gaps ) throws Exception {
+	/**
+	 * Pause and resume once per gap.
+	 *
+	 */
+		start( grace );
+		resume();
+
+		int expectWarm = 0;
+
+		for ( long gap : gaps ) {
+			call( mPause );
+			Thread.sleep( gap );
+			resume();
+
+			if ( gap < grace ) expectWarm++;
+		}
+
+		CameraLinger linger = mLinger;
+		int opens = mBackend.getOpenCount();
+		stop();
+
+		System.out.println( String.format( "%-14s %d resumes, %d warm, %d cold, %d opens", name,
+		                                   gaps.size() + 1, linger.getWarmCount(), linger.getColdCount(), opens ));
+		System.out.println( "               " + linger.getWarmStats().summary() );
+		System.out.println( "               " + linger.getColdStats().summary() );
+
+		return check( name + " warm", linger.getWarmCount() == expectWarm )
+		     & check( name + " opens", opens == linger.getColdCount() );
+	}
+
+	private boolean prompt( long grace ) throws Exception {
+	/**
+	 * The camera goes at once for memory pressure, eviction or being hidden on a
+	 * phone that can't evict us, and on its own once the grace period's up;  each
+	 * time, somebody else can have it straight after.
+	 *
+	 */
+		boolean ok = true;
+
+		start( grace );
+		resume();
+
+		int[] reasons = { CameraLinger.MEMORY, CameraLinger.EVICTED, CameraLinger.HIDDEN };
+
+		for ( final int reason : reasons ) {
+			call( mPause );
+			call( new Callable<Void>() {
+				public Void call() {
+					mLinger.release( reason );
+					return null;
+				}
+			} );
+
+			ok &= check( CameraLinger.REASON_NAMES[ reason ] + " release", otherClientOpens() );
+
+			resume();
+		}
+
+		call( mPause );
+		ok &= check( "held while lingering", !otherClientOpens() );
+
+		Thread.sleep( grace * 3 / 2 );
+		ok &= check( "expired release", otherClientOpens() );
+
+		System.out.println( "prompt         " + mLinger.getStats().replace( "\n", "\n               " ));
+
+		ok &= check( "release counts", mLinger.getReleaseCount( CameraLinger.MEMORY ) == 1
+		                               && mLinger.getReleaseCount( CameraLinger.EVICTED ) == 1
+		                               && mLinger.getReleaseCount( CameraLinger.HIDDEN ) == 1
+		                               && mLinger.getReleaseCount( CameraLinger.EXPIRED ) == 1 );
+		stop();
+		return ok;
+	}
+
+	private boolean otherClientOpens() {
+		try {
+			mBackend.open( 0 ).release();
+			return true;
+		}
+		catch( RuntimeException e ) {
+			return false;  // Still ours
+		}
+	}
+
+
+	//
+	// The activity.
+	//
+
+	private void start( long grace ) {
+		mUi      = Executors.newSingleThreadScheduledExecutor();
+		mBackend = new SimulatedBackend( intOption( "seed" ));
+		mBackend.setJitter( 0.1 );
+		mBackend.setLatencies( intOption( "openMs" ), 80, 250 );
+		mBackend.setPreviewSize( 320, 240, intOption( "frameMs" ));
+
+		mLinger = new CameraLinger( mActions, mScheduler, grace );
+		mDevice = null;
+	}
+
+	private void stop() throws Exception {
+		call( new Callable<Void>() {
+			public Void call() {
+				if ( mDevice != null ) mDevice.release();
+				mDevice = null;
+				return null;
+			}
+		} );
+
+		mUi.shutdownNow();
+		mBackend.shutdown();
+	}
+
+	private Callable<Void> mPause = new Callable<Void>() {
+		public Void call() {
+			mLinger.pause( mDevice != null );
+			return null;
+		}
+	};
+
+	private Callable<Void> mResume = new Callable<Void>() {
+		public Void call() {
+			if ( !mLinger.resume() ) {
+				mDevice = mBackend.open( 0 );  // Blocks, as Camera.open() does on the UI thread
+				mDevice.addPreviewListener( mFrames );
+			}
+			mDevice.startPreview();
+			return null;
+		}
+	};
+
+	private CameraDevice.PreviewListener mFrames = new CameraDevice.PreviewListener() {
+		public void onPreviewFrame( byte[] data, int width, int height ) {
+			mUi.execute( new Runnable() {
+				public void run() {
+					mLinger.onPreviewFrame();
+				}
+			} );
+		}
+	};
+
+	private CameraLinger.Actions mActions = new CameraLinger.Actions() {
+		public void stopPreview() {
+			mDevice.stopPreview();
+		}
+
+		public void releaseCamera() {
+			mDevice.release();
+			mDevice = null;
+		}
+	};
+
+	private DutyCycler.Scheduler mScheduler = new DutyCycler.Scheduler() {
+		public long now() {
+			return System.nanoTime() / 1000000;
+		}
+
+		public void schedule( final Runnable task, long delayMs ) {
+			mScheduled.put( task, mUi.schedule( task, delayMs, TimeUnit.MILLISECONDS ));
+		}
+
+		public void cancel( Runnable task ) {
+			ScheduledFuture<?> f = mScheduled.remove( task );
+			if ( f != null ) f.cancel( false );
+		}
+	};
+
+
+	//
+	// Helpers.
+	//
+
+	private <T> T call( Callable<T> task ) throws Exception {
+		return mUi.submit( task ).get();
+	}
+
+	private void resume() throws Exception {
+	/**
+	 * Resume, and wait until it's been timed, so the next pause doesn't cut it
+	 * short.
+	 *
+	 */
+		long before = timed();
+		call( mResume );
+
+		for ( int i = 0; i < 1000 && timed() == before; i++ ) Thread.sleep( 2 );
+	}
+
+	private long timed() throws Exception {
+		return call( new Callable<Long>() {
+			public Long call() {
+				return mLinger.getWarmStats().getCount() + mLinger.getColdStats().getCount();
+			}
+		} );
+	}
+
+	private static boolean check( String what, boolean good ) {
+		if ( !good ) System.out.println( what + ": MISMATCH" );
+		return good;
+	}
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class LingerBench
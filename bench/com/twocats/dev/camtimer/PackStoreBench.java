@@ -0,0 +1,148 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The PackStoreBench class compares the cost of saving pictures with the
+ * FileImageWriter (one file per picture, what the app does by default) against
+ * appending them to a PackStore.  It also times listing the results, reading
+ * everything back, and recovering a PackStore whose index was lost.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.PackStoreBench frames=2000 sync=false
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+
+
+public class PackStoreBench {
+
+	public static void main( String[] args ) throws IOException {
+		int     frames = 2000;
+		boolean sync   = false;
+
+		for ( String arg : args ) {
+			if ( arg.startsWith( "frames=" )) frames = Integer.parseInt( arg.substring( 7 ));
+			else if ( arg.startsWith( "sync=" )) sync = Boolean.parseBoolean( arg.substring( 5 ));
+			else {
+				System.err.println( "Usage: PackStoreBench [frames=N] [sync=true|false]" );
+				System.exit( 1 );
+			}
+		}
+
+		// A realistic picture to write over and over.
+
+		int    w = 1600, h = 1200;
+		byte[] jpeg = new JpegEncoder( 85 ).encode( w, h, JpegEncoder.nv21( SimulatedBackend.makeFrame( w, h, 0 ), w, h ));
+
+		System.out.println( frames + " frames of " + jpeg.length + " bytes, sync=" + sync );
+
+		File base = File.createTempFile( "packbench", "" );
+		base.delete();
+
+		File filesDir = new File( base, "files" );
+		File packDir  = new File( base, "pack" );
+
+		// One file per picture.  Like the app, no fsync unless asked.
+
+		FileImageWriter files   = new FileImageWriter( filesDir );
+		LatencyStats    fileLat = new LatencyStats( "per-file write", frames );
+		long            stamp   = 1000000000000L;
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < frames; i++ ) {
+			long t = System.nanoTime();
+			File f = files.write( jpeg, stamp + i );
+			if ( sync ) syncFile( f );
+			fileLat.add( System.nanoTime() - t );
+		}
+		long fileTotal = System.nanoTime() - start;
+
+		// Pack store.
+
+		PackStore    pack    = new PackStore( packDir );
+		LatencyStats packLat = new LatencyStats( "pack append", frames );
+		pack.setSync( sync );
+
+		start = System.nanoTime();
+		for ( int i = 0; i < frames; i++ ) {
+			long t = System.nanoTime();
+			pack.write( jpeg, stamp + i );
+			packLat.add( System.nanoTime() - t );
+		}
+		long packTotal = System.nanoTime() - start;
+
+		System.out.println( fileLat.summary() + "  total " + ms( fileTotal ) + "ms" );
+		System.out.println( packLat.summary() + "  total " + ms( packTotal ) + "ms" );
+
+		// Listing:  what any gallery or cleanup code would have to do.
+
+		start = System.nanoTime();
+		int listed = filesDir.list().length;
+		System.out.println( "list per-file dir:  " + listed + " entries in " + ms( System.nanoTime() - start ) + "ms" );
+
+		start = System.nanoTime();
+		PackStore reopened = new PackStore( packDir );
+		System.out.println( "open pack index:    " + reopened.size() + " entries in " + ms( System.nanoTime() - start ) + "ms" );
+
+		// Read everything back through the memory maps.
+
+		start = System.nanoTime();
+		long sum = 0;
+		for ( int i = 0; i < reopened.size(); i++ ) sum += reopened.get( i ).get( 100 );
+		System.out.println( "mapped read all:    " + ms( System.nanoTime() - start ) + "ms (checksum " + sum + ")" );
+		reopened.close();
+		pack.close();
+
+		// Crash recovery:  lose the index entirely and rebuild it from the segments.
+
+		new File( packDir, "pack.idx" ).delete();
+		start = System.nanoTime();
+		PackStore rebuilt = new PackStore( packDir );
+		System.out.println( "rebuild index:      " + rebuilt.getRecoveredCount() + " records in " + ms( System.nanoTime() - start ) + "ms" );
+
+		boolean ok = rebuilt.size() == frames;
+
+		// Export a few back to ordinary files.
+
+		start = System.nanoTime();
+		File exportDir = new File( base, "export" );
+		for ( int i = 0; i < Math.min( 100, rebuilt.size() ); i++ ) rebuilt.export( i, exportDir );
+		System.out.println( "export 100:         " + ms( System.nanoTime() - start ) + "ms" );
+
+		ok &= rebuilt.read( 0 ).length == jpeg.length;
+		rebuilt.clear();
+		rebuilt.close();
+
+		deleteTree( base );
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // main
+
+
+	private static void syncFile( File f ) throws IOException {
+		java.io.RandomAccessFile raf = new java.io.RandomAccessFile( f, "rw" );
+		try {
+			raf.getFD().sync();
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static void deleteTree( File f ) {
+		File[] children = f.listFiles();
+		if ( children != null )
+			for ( File c : children ) deleteTree( c );
+		f.delete();
+	}
+
+	private static String ms( long nanos ) {
+		return String.format( "%.1f", nanos / 1000000.0 );
+	}
+
+}  // class PackStoreBench
@@ -0,0 +1,373 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The SharpnessBench class checks and times the burst sharpness scoring.
+ *
+ * It draws a detailed test scene at full picture size, blurs it by increasing
+ * amounts, and encodes each version.  Then it checks that:
+ *
+ *   - the LumaDecoder's quarter-size plane matches 4x4 averages of the original,
+ *   - the scores go down as the blur goes up,
+ *   - a shuffled burst culled by the BurstCuller keeps exactly the sharpest ones,
+ *   - a burst through the CapturePipeline saves only the kept pictures, with
+ *     their scores in the image description.
+ *
+ * And it times scoring on one thread and on a pool with a thread per core.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.SharpnessBench width=4000 height=3000 threads=4
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class SharpnessBench {
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "width",   "3264" );  // 8 megapixels
+		options.put( "height",  "2448" );
+		options.put( "levels",  "6" );     // Blur radii 0 (sharp) to levels-1
+		options.put( "runs",    "48" );    // Pictures scored for the timing
+		options.put( "threads", "" + Runtime.getRuntime().availableProcessors() );
+		options.put( "burst",   "8" );     // Pictures in the culling check
+		options.put( "keep",    "2" );
+		options.put( "seed",    "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new SharpnessBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	SharpnessBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int width   = intOption( "width" ) & ~1;
+		int height  = intOption( "height" ) & ~1;
+		int levels  = Math.max( 2, intOption( "levels" ));
+		int threads = Math.max( 1, intOption( "threads" ));
+		Random random = new Random( intOption( "seed" ));
+
+		// The pictures.
+
+		System.out.println( "encoding " + levels + " pictures of " + width + "x" + height );
+
+		byte[]   scene = makeScene( width, height, random );
+		byte[][] jpegs = new byte[ levels ][];
+		byte[]   sharpLuma = null;
+
+		JpegEncoder encoder = new JpegEncoder( 90 );
+
+		for ( int level = 0; level < levels; level++ ) {
+			byte[] frame = blur( scene, width, height, level );
+			if ( level == 0 ) sharpLuma = frame;
+
+			jpegs[ level ] = encoder.encode( width, height, JpegEncoder.nv21( frame, width, height ));
+		}
+
+		boolean ok = true;
+
+		// The decoder against 4x4 averages of the original.
+
+		LumaDecoder.Plane plane = new LumaDecoder().decode( jpegs[ 0 ] );
+		double error = planeError( plane, sharpLuma, width, height );
+
+		System.out.println();
+		System.out.println( "luma plane     " + plane.width + "x" + plane.height
+		                  + ", mean error " + String.format( "%.2f", error ) + " levels" );
+
+		ok &= plane.width == ( width + 3 ) / 4 && plane.height == ( height + 3 ) / 4 && error < 3;
+
+		// Scores should fall as the blur goes up.
+
+		double[] scores = new double[ levels ];
+		StringBuilder line = new StringBuilder( "scores        " );
+
+		for ( int level = 0; level < levels; level++ ) {
+			scores[ level ] = BurstCuller.score( jpegs[ level ] );
+			line.append( String.format( " r%d=%.1f", level, scores[ level ] ));
+
+			if ( level > 0 ) ok &= scores[ level ] < scores[ level - 1 ];
+		}
+		System.out.println( line );
+
+		// Timing.
+
+		int runs = intOption( "runs" );
+
+		double single = timeScoring( jpegs, runs, 1 );
+		double pooled = timeScoring( jpegs, runs, threads );
+
+		System.out.println( "1 thread       " + String.format( "%.1f ms/picture, %.1f pictures/s", 1000 / single, single ));
+		System.out.println( threads + " threads      " + String.format( "%.1f ms/picture, %.1f pictures/s, %.1fx",
+		                                                            1000 / pooled, pooled, pooled / single ));
+
+		// Culling a shuffled burst.
+
+		ok &= checkCulling( jpegs, intOption( "burst" ), intOption( "keep" ), threads, random );
+
+		// A burst through the pipeline.
+
+		ok &= checkPipeline( threads );
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private double timeScoring( final byte[][] jpegs, int runs, int threads ) throws Exception {
+	/**
+	 * Score runs pictures on a pool of the given size.
+	 *
+	 * @return Pictures per second.
+	 */
+		ExecutorService pool = Executors.newFixedThreadPool( threads );
+		final CountDownLatch done = new CountDownLatch( runs );
+
+		// Warm up the JIT first.
+		for ( int i = 0; i < threads * 2; i++ ) BurstCuller.score( jpegs[ i % jpegs.length ] );
+
+		long start = System.nanoTime();
+
+		for ( int i = 0; i < runs; i++ ) {
+			final byte[] jpeg = jpegs[ i % jpegs.length ];
+
+			pool.execute( new Runnable() {
+				public void run() {
+					try {
+						BurstCuller.score( jpeg );
+					}
+					catch( IOException e ) {
+						System.out.println( "score failed: " + e );
+					}
+					done.countDown();
+				}
+			} );
+		}
+
+		done.await();
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+
+		pool.shutdown();
+		return runs / seconds;
+	}
+
+	private boolean checkCulling( byte[][] jpegs, int burst, int keep, int threads, Random random ) throws Exception {
+	/**
+	 * Feed the culler a burst of the pictures in random order, blur levels as the
+	 * items, and check the kept ones are the least blurred.
+	 *
+	 */
+		List<Integer> order = new ArrayList<Integer>();
+		for ( int i = 0; i < burst; i++ ) order.add( i % jpegs.length );
+		Collections.shuffle( order, random );
+
+		List<Integer> sorted = new ArrayList<Integer>( order );
+		Collections.sort( sorted );
+
+		ExecutorService pool = Executors.newFixedThreadPool( threads );
+		final CountDownLatch culled = new CountDownLatch( 1 );
+		final List<Integer> kept = new ArrayList<Integer>();
+		final AtomicInteger dropped = new AtomicInteger();
+
+		BurstCuller<Integer> culler = new BurstCuller<Integer>( burst + 1, keep, pool, null,
+			new BurstCuller.Listener<Integer>() {
+				public void onCulled( List<BurstCuller.Frame<Integer>> k, List<BurstCuller.Frame<Integer>> d ) {
+					for ( BurstCuller.Frame<Integer> f : k ) kept.add( f.item );
+					dropped.set( d.size() );
+					culled.countDown();
+				}
+			} );
+
+		for ( int level : order ) culler.add( level, jpegs[ level ] );
+		culler.skip();  // And one that never arrived
+
+		boolean ok = culled.await( 1, TimeUnit.MINUTES )
+		          && kept.equals( sorted.subList( 0, Math.min( keep, burst )))
+		          && dropped.get() == burst - kept.size();
+
+		pool.shutdown();
+
+		System.out.println( "burst          " + order + " kept " + kept + ( ok ? "" : "  WRONG" ));
+		return ok;
+	}
+
+	private boolean checkPipeline( int threads ) throws Exception {
+	/**
+	 * A burst of five, keeping one, through the real pipeline on the simulated camera.
+	 *
+	 */
+		SimulatedBackend backend = new SimulatedBackend( 7 );
+		backend.setLatencies( 10, 5, 20 );
+
+		final List<byte[]>   written = Collections.synchronizedList( new ArrayList<byte[]>() );
+		final CountDownLatch saved   = new CountDownLatch( 1 );
+
+		ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
+		ExecutorService pool         = Executors.newFixedThreadPool( threads );
+
+		CapturePipeline pipeline = new CapturePipeline(
+			new CapturePipeline.ImageWriter() {
+				public File write( byte[] jpeg, long timestamp ) {
+					written.add( jpeg );
+					return new File( timestamp + ".jpg" );
+				}
+			},
+			saveExecutor,
+			new CapturePipeline.Listener() {
+				public void onShutter()                    { }
+				public void onPictureTaken()               { }
+				public void onCaptureFailed( Exception e ) { System.out.println( "capture failed: " + e ); }
+				public void onImageSaved( File file )      { saved.countDown(); }
+				public void onSaveFailed( Exception e )    { System.out.println( "save failed: " + e ); }
+			} );
+
+		pipeline.setScoreExecutor( pool );
+
+		CameraDevice camera = backend.open( 0 );
+		camera.startPreview();
+		pipeline.setCamera( camera );
+
+		boolean ok = pipeline.captureBurst( 5, 1 ) && saved.await( 1, TimeUnit.MINUTES );
+
+		Thread.sleep( 200 );  // In case anything else turns up
+
+		String description = written.isEmpty() ? null
+		                   : ExifRewriter.readTags( written.get( 0 )).get( ExifRewriter.TAG_IMAGE_DESCRIPTION );
+
+		ok &= written.size() == 1 && pipeline.getCulledCount() == 4
+		   && description != null && description.startsWith( "sharpness " ) && description.endsWith( " 1 of 5" );
+
+		System.out.println( "pipeline       saved " + written.size() + ", culled " + pipeline.getCulledCount()
+		                  + ", \"" + description + "\"" );
+		System.out.println( "               " + pipeline.getScoreStats().summary() );
+
+		camera.release();
+		backend.shutdown();
+		saveExecutor.shutdown();
+		pool.shutdown();
+
+		return ok;
+	}
+
+
+	//
+	// Test pictures.
+	//
+
+	private static byte[] makeScene( int width, int height, Random random ) {
+	/**
+	 * A checkerboard with fine noise on top, in NV21 with neutral chroma:  lots of
+	 * detail at every scale for the blur to take away.
+	 *
+	 */
+		byte[] frame = new byte[ width * height * 3 / 2 ];
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int luma = (( x / 24 + y / 24 ) % 2 == 0 ? 170 : 80 ) + random.nextInt( 41 ) - 20;
+				frame[ y * width + x ] = (byte) luma;
+			}
+		}
+
+		for ( int i = width * height; i < frame.length; i++ ) frame[ i ] = (byte) 128;
+
+		return frame;
+	}
+
+	private static byte[] blur( byte[] frame, int width, int height, int radius ) {
+	/**
+	 * Box blur of the luma, horizontally then vertically.
+	 *
+	 */
+		if ( radius == 0 ) return frame;
+
+		byte[] out = frame.clone();
+		int[]  tmp = new int[ width * height ];
+		int    n   = 2 * radius + 1;
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int sum = 0;
+				for ( int d = -radius; d <= radius; d++ )
+					sum += frame[ y * width + Math.min( width - 1, Math.max( 0, x + d )) ] & 0xFF;
+				tmp[ y * width + x ] = sum;
+			}
+		}
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int sum = 0;
+				for ( int d = -radius; d <= radius; d++ )
+					sum += tmp[ Math.min( height - 1, Math.max( 0, y + d )) * width + x ];
+				out[ y * width + x ] = (byte) (( sum + n * n / 2 ) / ( n * n ));
+			}
+		}
+
+		return out;
+	}
+
+	private static double planeError( LumaDecoder.Plane plane, byte[] luma, int width, int height ) {
+	/**
+	 * Mean absolute difference between the plane and 4x4 averages of the luma, over
+	 * the whole 4x4 cells.
+	 *
+	 */
+		double total = 0;
+		int    cells = 0;
+
+		for ( int cy = 0; cy < height / 4; cy++ ) {
+			for ( int cx = 0; cx < width / 4; cx++ ) {
+				int sum = 0;
+				for ( int y = 0; y < 4; y++ )
+					for ( int x = 0; x < 4; x++ )
+						sum += luma[ ( cy * 4 + y ) * width + cx * 4 + x ] & 0xFF;
+
+				total += Math.abs( sum / 16.0 - ( plane.pixels[ cy * plane.width + cx ] & 0xFF ));
+				cells++;
+			}
+		}
+
+		return total / cells;
+	}
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class SharpnessBench
@@ -0,0 +1,373 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The SimulatedBackend class is a make-believe camera for exercising the capture
+ * code without a device.  It behaves like android.hardware.Camera where it
+ * matters:  open() blocks, a camera can only be opened once, takePicture() needs
+ * a running preview and stops it, and only one picture can be in flight.
+ *
+ * The open, shutter and encode delays are configurable (with some jitter), and
+ * opens and captures can be made to fail at a given rate.  Pictures are real
+ * JPEGs of a synthetic test pattern, and preview frames are NV21, so whatever
+ * consumes them downstream can actually decode them.
+ *
+ * Everything random comes from one seeded Random, so runs are repeatable.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+public class SimulatedBackend implements CameraBackend {
+
+	private static final int VARIANTS = 8;  // Number of distinct pictures and preview frames
+
+	private int     mNumCameras      = 2;
+	private long    mOpenMs          = 300;   // Camera.open() latency
+	private long    mShutterMs       = 80;    // takePicture() to shutter
+	private long    mEncodeMs        = 250;   // Shutter to JPEG
+	private long    mFrameMs         = 33;    // Preview frame interval
+	private double  mJitter          = 0.2;   // +/- fraction applied to each delay
+	private double  mOpenFailRate    = 0.0;   // Fraction of opens that throw
+	private double  mCaptureFailRate = 0.0;   // Fraction of captures that end in onError
+	private int     mPictureWidth    = 1600;
+	private int     mPictureHeight   = 1200;
+	private int     mPreviewWidth    = 640;
+	private int     mPreviewHeight   = 480;
+
+	private final Random                   mRandom;
+	private final ScheduledExecutorService mHal;  // Delivers all callbacks, like the camera's looper
+	private final Set<Integer>             mOpen = new HashSet<Integer>();
+
+	private byte[][] mJpegs;    // Encoded pictures, made on first use
+	private byte[][] mFrames;   // NV21 preview frames, made on first use
+	private int      mOpenCount = 0;
+
+
+	//
+	// Class constructor.
+	//
+	public SimulatedBackend( long seed ) {
+		mRandom = new Random( seed );
+
+		mHal = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "SimulatedCamera" );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+	}
+
+
+	//
+	// Configuration.  Set these before opening any cameras.
+	//
+
+	public void setNumberOfCameras( int n )                 { mNumCameras = n; }
+	public void setJitter( double fraction )                { mJitter = fraction; }
+	public void setOpenFailRate( double rate )              { mOpenFailRate = rate; }
+	public void setCaptureFailRate( double rate )           { mCaptureFailRate = rate; }
+
+	public void setLatencies( long openMs, long shutterMs, long encodeMs ) {
+		mOpenMs    = openMs;
+		mShutterMs = shutterMs;
+		mEncodeMs  = encodeMs;
+	}
+
+	public void setPictureSize( int width, int height ) {
+		mPictureWidth  = width;
+		mPictureHeight = height;
+		mJpegs = null;
+	}
+
+	public void setPreviewSize( int width, int height, long frameMs ) {
+		mPreviewWidth  = width;
+		mPreviewHeight = height;
+		mFrameMs       = frameMs;
+		mFrames = null;
+	}
+
+	public int getOpenCount() {
+		return mOpenCount;
+	}
+
+	public void shutdown() {
+		mHal.shutdownNow();
+	}
+
+
+	//
+	// CameraBackend methods.
+	//
+
+	public int getNumberOfCameras() {
+		return mNumCameras;
+	}
+
+	public CameraDevice open( int whichCamera ) {
+	/**
+	 * Open a simulated camera, blocking for the open latency like Camera.open().
+	 *
+	 */
+		if ( whichCamera < 0 || whichCamera >= mNumCameras )
+			throw new RuntimeException( "no camera " + whichCamera );
+
+		long delay;
+		synchronized ( this ) {
+			delay = jitter( mOpenMs );
+		}
+
+		sleep( delay );
+
+		synchronized ( this ) {
+			if ( chance( mOpenFailRate ))
+				throw new RuntimeException( "Fail to connect to camera service (simulated)" );
+
+			if ( !mOpen.add( whichCamera ))
+				throw new RuntimeException( "camera " + whichCamera + " already open" );
+
+			mOpenCount++;
+			prepareImages();
+		}
+
+		return new Device( whichCamera );
+
+	}  // open
+
+
+	private class Device implements CameraDevice {
+	/**
+	 * One open simulated camera.
+	 *
+	 */
+		private final int mId;
+		private boolean   mReleased  = false;
+		private boolean   mPreview   = false;
+		private boolean   mPicture   = false;  // Picture in flight
+		private int       mFrameNum  = 0;
+		private int       mPicNum    = 0;
+
+		private ScheduledFuture<?>    mFrameTask;
+		private List<PreviewListener> mListeners = new CopyOnWriteArrayList<PreviewListener>();
+
+		Device( int id ) {
+			mId = id;
+		}
+
+		public int     getId()            { return mId; }
+		public boolean isFrontFacing()    { return mId == 1; }
+
+		public synchronized boolean isPreviewRunning() {
+			return mPreview;
+		}
+
+		public synchronized void startPreview() {
+			checkOpen();
+			if ( mPreview ) return;
+
+			mPreview   = true;
+			mFrameTask = mHal.scheduleAtFixedRate( new Runnable() {
+				public void run() {
+					deliverFrame();
+				}
+			}, mFrameMs, mFrameMs, TimeUnit.MILLISECONDS );
+		}
+
+		public synchronized void stopPreview() {
+			checkOpen();
+			mPreview = false;
+
+			if ( mFrameTask != null ) {
+				mFrameTask.cancel( false );
+				mFrameTask = null;
+			}
+		}
+
+		public void takePicture( final PictureListener listener ) {
+			final boolean fail;
+			final long    shutterMs, encodeMs;
+			final byte[]  jpeg;
+
+			synchronized ( this ) {
+				checkOpen();
+
+				if ( !mPreview || mPicture )
+					throw new RuntimeException( "takePicture failed" );
+
+				stopPreview();
+				mPicture = true;
+
+				synchronized ( SimulatedBackend.this ) {
+					fail      = chance( mCaptureFailRate );
+					shutterMs = jitter( mShutterMs );
+					encodeMs  = jitter( mEncodeMs );
+				}
+
+				jpeg = mJpegs[ mPicNum++ % VARIANTS ];
+			}
+
+			mHal.schedule( new Runnable() {
+				public void run() {
+					if ( isReleased() ) return;
+					listener.onShutter();
+
+					mHal.schedule( new Runnable() {
+						public void run() {
+							synchronized ( Device.this ) {
+								if ( mReleased ) return;
+								mPicture = false;
+							}
+
+							if ( fail )
+								listener.onError( new IOException( "capture failed (simulated)" ));
+							else
+								listener.onPictureTaken( jpeg.clone() );  // Camera hands us a fresh array each time
+						}
+					}, encodeMs, TimeUnit.MILLISECONDS );
+				}
+			}, shutterMs, TimeUnit.MILLISECONDS );
+
+		}  // takePicture
+
+		public void addPreviewListener( PreviewListener listener ) {
+			mListeners.add( listener );
+		}
+
+		public void removePreviewListener( PreviewListener listener ) {
+			mListeners.remove( listener );
+		}
+
+		public void release() {
+			synchronized ( this ) {
+				if ( mReleased ) return;
+
+				stopPreview();
+				mReleased = true;
+			}
+
+			synchronized ( SimulatedBackend.this ) {
+				mOpen.remove( mId );
+			}
+		}
+
+		private synchronized boolean isReleased() {
+			return mReleased;
+		}
+
+		private void checkOpen() {
+			if ( mReleased ) throw new RuntimeException( "Camera is being used after Camera.release() was called" );
+		}
+
+		private void deliverFrame() {
+			byte[] frame;
+
+			synchronized ( this ) {
+				if ( !mPreview ) return;
+				frame = mFrames[ mFrameNum++ % VARIANTS ];
+			}
+
+			for ( PreviewListener l : mListeners )
+				l.onPreviewFrame( frame, mPreviewWidth, mPreviewHeight );
+		}
+	}  // class Device
+
+
+	//
+	// Synthetic images.
+	//
+
+	private void prepareImages() {
+	/**
+	 * Make the pictures and preview frames the first time a camera is opened.
+	 * Each variant is the test pattern shifted a bit, so consecutive images differ.
+	 *
+	 */
+		if ( mJpegs == null ) {
+			JpegEncoder encoder = new JpegEncoder( 85 );
+
+			mJpegs = new byte[ VARIANTS ][];
+			for ( int v = 0; v < VARIANTS; v++ ) {
+				byte[] nv21 = makeFrame( mPictureWidth, mPictureHeight, v );
+				mJpegs[ v ] = encoder.encode( mPictureWidth, mPictureHeight,
+				                              JpegEncoder.nv21( nv21, mPictureWidth, mPictureHeight ));
+			}
+		}
+
+		if ( mFrames == null ) {
+			mFrames = new byte[ VARIANTS ][];
+			for ( int v = 0; v < VARIANTS; v++ )
+				mFrames[ v ] = makeFrame( mPreviewWidth, mPreviewHeight, v );
+		}
+	}  // prepareImages
+
+	static byte[] makeFrame( int width, int height, int variant ) {
+	/**
+	 * Draw the test pattern, a diagonal gradient with a checkerboard on top and
+	 * a couple of colour bands, as an NV21 frame.
+	 *
+	 */
+		byte[] frame = new byte[ width * height * 3 / 2 ];
+		int    cell  = Math.max( 8, width / 16 );
+		int    shift = variant * cell / 4;
+
+		for ( int y = 0; y < height; y++ ) {
+			for ( int x = 0; x < width; x++ ) {
+				int luma = ( x + y ) * 160 / ( width + height ) + 48;
+				if ((( x + shift ) / cell + y / cell ) % 2 == 0 ) luma += 40;
+
+				frame[ y * width + x ] = (byte) luma;
+			}
+		}
+
+		for ( int y = 0; y < height / 2; y++ ) {
+			int base = width * height + y * width;
+
+			for ( int x = 0; x < width / 2; x++ ) {
+				int band = ( x * 2 * 4 / width );  // Four vertical bands
+				frame[ base + 2 * x     ] = (byte) ( band == 1 ? 180 : band == 3 ?  90 : 128 );  // V
+				frame[ base + 2 * x + 1 ] = (byte) ( band == 2 ? 180 : band == 3 ?  90 : 128 );  // U
+			}
+		}
+
+		return frame;
+
+	}  // makeFrame
+
+
+	//
+	// Helpers.  Callers hold the lock when using mRandom.
+	//
+
+	private long jitter( long ms ) {
+		if ( ms <= 0 || mJitter <= 0 ) return Math.max( 0, ms );
+		return Math.max( 0, Math.round( ms * ( 1.0 + mJitter * ( 2 * mRandom.nextDouble() - 1 ))));
+	}
+
+	private boolean chance( double rate ) {
+		return rate > 0 && mRandom.nextDouble() < rate;
+	}
+
+	private static void sleep( long ms ) {
+		try {
+			Thread.sleep( ms );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}  // class SimulatedBackend
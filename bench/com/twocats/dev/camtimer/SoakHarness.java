@@ -0,0 +1,239 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The SoakHarness class drives thousands of captures through the CapturePipeline
+ * using the SimulatedBackend, so the capture flow can be exercised on an
+ * ordinary Linux JVM without a device.  It's the same pipeline MainActivity uses:
+ * countdown, takePicture, JPEG callback, save on a background thread, then the
+ * "media scan" (here just reading the file back and deleting it).
+ *
+ * Run it from the compiled classes, for example:
+ *
+ *   java -cp classes com.twocats.dev.camtimer.SoakHarness captures=5000 captureFail=0.01
+ *
+ * Options are name=value pairs;  see the defaults in main().  At the end it
+ * prints throughput, the pipeline's latency percentiles and the heap growth.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class SoakHarness {
+
+	private final Map<String,String> mOptions;
+
+	private final AtomicInteger mCaptureFailures = new AtomicInteger();
+	private final AtomicInteger mSaveFailures    = new AtomicInteger();
+	private final AtomicInteger mScanned         = new AtomicInteger();
+	private final AtomicInteger mBacklog         = new AtomicInteger();  // Pictures taken but not yet saved
+	private final AtomicInteger mMaxBacklog      = new AtomicInteger();
+	private final Semaphore     mCameraFree      = new Semaphore( 0 );
+
+	private long mPeakHeap = 0;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "captures",    "2000" );  // Number of captures to run
+		options.put( "timerMs",     "0" );     // Countdown before each capture
+		options.put( "openMs",      "30" );
+		options.put( "shutterMs",   "2" );
+		options.put( "encodeMs",    "8" );
+		options.put( "openFail",    "0.02" );  // Fraction of opens that fail
+		options.put( "captureFail", "0.01" );  // Fraction of captures that fail
+		options.put( "switchEvery", "250" );   // Switch cameras every this many captures
+		options.put( "width",       "1600" );
+		options.put( "height",      "1200" );
+		options.put( "seed",        "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new SoakHarness( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	SoakHarness( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int  captures    = intOption( "captures" );
+		int  switchEvery = intOption( "switchEvery" );
+		long timerMs     = intOption( "timerMs" );
+
+		SimulatedBackend backend = new SimulatedBackend( intOption( "seed" ));
+		backend.setLatencies( intOption( "openMs" ), intOption( "shutterMs" ), intOption( "encodeMs" ));
+		backend.setOpenFailRate( doubleOption( "openFail" ));
+		backend.setCaptureFailRate( doubleOption( "captureFail" ));
+		backend.setPictureSize( intOption( "width" ), intOption( "height" ));
+
+		File dir = File.createTempFile( "soak", "" );
+		dir.delete();
+
+		ExecutorService saver    = Executors.newSingleThreadExecutor();
+		CapturePipeline pipeline = new CapturePipeline( new FileImageWriter( dir ), saver, mListener );
+
+		long heapStart = usedHeap( true );
+		long heapWarm  = 0;
+		long start     = System.nanoTime();
+
+		CameraDevice device = null;
+		int openFailures = 0;
+
+		for ( int i = 0; i < captures; i++ ) {
+
+			// Switch cameras every so often, the way action_switch does:  release, then open.
+
+			if ( device == null || ( switchEvery > 0 && i > 0 && i % switchEvery == 0 )) {
+				int which = device == null ? 0 : ( device.getId() + 1 ) % backend.getNumberOfCameras();
+
+				if ( device != null ) device.release();
+				device = null;
+
+				while ( device == null ) {
+					try {
+						device = backend.open( which );
+					}
+					catch( RuntimeException e ) {
+						openFailures++;
+					}
+				}
+
+				device.startPreview();
+				pipeline.setCamera( device );
+			}
+
+			if ( timerMs > 0 ) Thread.sleep( timerMs );
+
+			if ( pipeline.capture() ) {
+				// Wait until the camera's ready again, as the app would.
+				if ( !mCameraFree.tryAcquire( 30, TimeUnit.SECONDS ))
+					throw new IllegalStateException( "capture " + i + " never completed" );
+			}
+
+			if ( i == captures / 10 ) heapWarm = usedHeap( true );
+			if ( i % 100 == 0 )       mPeakHeap = Math.max( mPeakHeap, usedHeap( false ));
+
+			if ( i > 0 && i % 500 == 0 )
+				System.out.println( "... " + i + " captures, backlog " + mBacklog.get()
+				                  + ", heap " + mb( usedHeap( false )) + " MB" );
+		}
+
+		saver.shutdown();
+		saver.awaitTermination( 1, TimeUnit.MINUTES );
+
+		long elapsed = System.nanoTime() - start;
+		long heapEnd = usedHeap( true );
+
+		if ( device != null ) device.release();
+		backend.shutdown();
+		dir.delete();
+
+		// Report.
+
+		double seconds = elapsed / 1e9;
+
+		System.out.println();
+		System.out.println( "captures       " + captures + " in " + String.format( "%.1f", seconds ) + " s" );
+		System.out.println( "throughput     " + String.format( "%.1f", pipeline.getSavedCount() / seconds ) + " saved/s" );
+		System.out.println( "pipeline       " + pipeline.getStats() );
+		System.out.println( "scanned        " + mScanned.get() );
+		System.out.println( "failures       capture=" + mCaptureFailures.get() + " save=" + mSaveFailures.get()
+		                                   + " open=" + openFailures + " (opens " + backend.getOpenCount() + ")" );
+		System.out.println( "save backlog   max " + mMaxBacklog.get() );
+		System.out.println( "heap MB        start=" + mb( heapStart ) + " warm=" + mb( heapWarm )
+		                                   + " end=" + mb( heapEnd ) + " peak=" + mb( mPeakHeap )
+		                                   + " growth since warm-up=" + mb( heapEnd - heapWarm ));
+
+		boolean ok = pipeline.getSavedCount() + mCaptureFailures.get() + mSaveFailures.get() == captures
+		          && mScanned.get() == pipeline.getSavedCount();
+
+		System.out.println( ok ? "OK" : "MISMATCH:  some captures were lost or duplicated" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private CapturePipeline.Listener mListener = new CapturePipeline.Listener() {
+
+		public void onShutter() {
+		}
+
+		public void onPictureTaken() {
+			int backlog = mBacklog.incrementAndGet();
+			while ( true ) {
+				int max = mMaxBacklog.get();
+				if ( backlog <= max || mMaxBacklog.compareAndSet( max, backlog )) break;
+			}
+			mCameraFree.release();
+		}
+
+		public void onCaptureFailed( Exception e ) {
+			mCaptureFailures.incrementAndGet();
+			mCameraFree.release();
+		}
+
+		public void onImageSaved( File file ) {
+			// Stand-in for the media scan:  look at the file, then clean up.
+			if ( file.length() > 0 ) mScanned.incrementAndGet();
+			file.delete();
+			mBacklog.decrementAndGet();
+		}
+
+		public void onSaveFailed( Exception e ) {
+			mSaveFailures.incrementAndGet();
+			mBacklog.decrementAndGet();
+		}
+	};
+
+
+	//
+	// Helpers.
+	//
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+	private double doubleOption( String name ) {
+		return Double.parseDouble( mOptions.get( name ));
+	}
+
+	private static long usedHeap( boolean collect ) {
+		Runtime rt = Runtime.getRuntime();
+
+		if ( collect ) {
+			for ( int i = 0; i < 3; i++ ) System.gc();
+		}
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static String mb( long bytes ) {
+		return String.format( "%.1f", bytes / 1048576.0 );
+	}
+
+}  // class SoakHarness
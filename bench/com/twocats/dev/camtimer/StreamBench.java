@@ -0,0 +1,242 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The StreamBench class runs a PreviewStreamer off the SimulatedBackend's preview
+ * frames, with a mix of fast viewers and deliberately slow ones, all on
+ * 127.0.0.1.  It checks that every frame a viewer gets is a whole JPEG, that the
+ * fast viewers see (nearly) every encoded frame however slow the others are, and
+ * that the slow ones drop frames instead of falling behind.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.StreamBench seconds=10 fast=4 slow=2
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+public class StreamBench {
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "seconds",   "10" );
+		options.put( "fast",      "4" );     // Viewers that read as fast as they can
+		options.put( "slow",      "2" );     // Viewers that read slowly
+		options.put( "slowKBps",  "40" );    // How slowly
+		options.put( "width",     "1280" );  // Preview size
+		options.put( "height",    "720" );
+		options.put( "frameMs",   "33" );    // Preview frame interval
+		options.put( "maxWidth",  "640" );   // Stream size limit
+		options.put( "maxHeight", "480" );
+		options.put( "fps",       "15" );    // Stream rate cap
+		options.put( "quality",   "70" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new StreamBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	StreamBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int seconds = intOption( "seconds" );
+
+		SimulatedBackend backend = new SimulatedBackend( 1 );
+		backend.setPreviewSize( intOption( "width" ), intOption( "height" ), intOption( "frameMs" ));
+
+		PreviewStreamer streamer = new PreviewStreamer(
+			new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), 0 ),
+			intOption( "maxWidth" ), intOption( "maxHeight" ), intOption( "fps" ), intOption( "quality" ));
+		streamer.start();
+
+		int port = streamer.getPort();
+		System.out.println( "streaming on http://127.0.0.1:" + port + "/" );
+
+		List<Viewer> viewers = new ArrayList<Viewer>();
+
+		for ( int i = 0; i < intOption( "fast" ); i++ ) viewers.add( new Viewer( port, 0 ));
+		for ( int i = 0; i < intOption( "slow" ); i++ ) viewers.add( new Viewer( port, intOption( "slowKBps" )));
+
+		for ( Viewer v : viewers ) v.start();
+
+		// Wait until they're all connected before the preview starts, so everyone
+		// has the chance to see every frame.
+
+		for ( int i = 0; i < 200 && streamer.getClientCount() < viewers.size(); i++ ) Thread.sleep( 10 );
+
+		CameraDevice camera = backend.open( 0 );
+		camera.addPreviewListener( streamer );
+		camera.startPreview();
+
+		Thread.sleep( seconds * 1000L );
+
+		camera.stopPreview();
+		Thread.sleep( 500 );  // Let the last frames through
+
+		String stats = streamer.getStats();
+		int[]  drops = streamer.getClientDrops();
+		int    encoded = streamer.getEncodedCount();
+
+		streamer.stop();
+		camera.release();
+		backend.shutdown();
+
+		for ( Viewer v : viewers ) v.join( 2000 );
+
+		// Report.
+
+		System.out.println();
+		System.out.println( stats );
+		System.out.println();
+		System.out.println( "encode rate    " + String.format( "%.1f", encoded / (double) seconds ) + " fps" );
+
+		// The streamer doesn't know which client is which viewer, so just check that
+		// the fast ones kept up and that somebody (the slow ones) dropped frames.
+
+		boolean ok = encoded > 0 && drops.length == viewers.size();
+		int totalDrops = 0;
+
+		for ( int d : drops ) totalDrops += d;
+
+		for ( int i = 0; i < viewers.size(); i++ ) {
+			Viewer v = viewers.get( i );
+
+			System.out.println( "viewer " + i + ( v.mKBps == 0 ? " fast" : " slow" )
+			                  + "  frames=" + v.mFrames + " bad=" + v.mBad + " KB=" + v.mBytes / 1024 );
+
+			ok &= v.mBad == 0 && v.mFrames > 0;
+
+			if ( v.mKBps == 0 ) ok &= v.mFrames >= encoded * 9 / 10;
+		}
+
+		System.out.println( "dropped        " + totalDrops + " frames across all viewers" );
+
+		if ( intOption( "slow" ) > 0 ) ok &= totalDrops > 0;
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private static class Viewer extends Thread {
+	/**
+	 * Reads the multipart stream, checking each part is a complete JPEG.  A slow
+	 * viewer has a small receive buffer and throttles itself to mKBps.
+	 *
+	 */
+		final int  mPort;
+		final int  mKBps;   // 0 for as fast as possible
+		int        mFrames = 0;
+		int        mBad    = 0;
+		long       mBytes  = 0;
+
+		Viewer( int port, int kbps ) {
+			mPort = port;
+			mKBps = kbps;
+			setDaemon( true );
+		}
+
+		public void run() {
+			try {
+				Socket s = new Socket();
+				if ( mKBps > 0 ) s.setReceiveBufferSize( 4096 );
+				s.connect( new InetSocketAddress( "127.0.0.1", mPort ));
+
+				s.getOutputStream().write( "GET /stream HTTP/1.0\r\n\r\n".getBytes( "US-ASCII" ));
+
+				InputStream in = new BufferedInputStream( s.getInputStream(), 4096 );
+
+				if ( !readLine( in ).startsWith( "HTTP/1.0 200" )) {
+					mBad++;
+					return;
+				}
+				while ( readLine( in ).length() > 0 ) { }  // Response headers
+
+				long start = System.nanoTime();
+
+				while ( true ) {
+					String boundary = readLine( in );
+					if ( boundary == null ) break;
+					if ( boundary.length() == 0 ) continue;
+
+					int length = -1;
+					String h;
+					while (( h = readLine( in )) != null && h.length() > 0 )
+						if ( h.startsWith( "Content-Length:" )) length = Integer.parseInt( h.substring( 15 ).trim() );
+
+					if ( h == null || length <= 0 ) break;
+
+					byte[] jpeg = new byte[ length ];
+					for ( int off = 0; off < length; ) {
+						int n = in.read( jpeg, off, Math.min( length - off, mKBps > 0 ? 1024 : length ));
+						if ( n < 0 ) throw new IOException( "truncated frame" );
+						off += n;
+						mBytes += n;
+
+						if ( mKBps > 0 ) {
+							// Sleep until we're back down to the target rate.
+							long due = start + mBytes * 1000000L / mKBps;
+							long now = System.nanoTime();
+							if ( due > now ) Thread.sleep(( due - now ) / 1000000L );
+						}
+					}
+
+					if (( jpeg[ 0 ] & 0xFF ) != 0xFF || ( jpeg[ 1 ] & 0xFF ) != 0xD8
+					 || ( jpeg[ length - 2 ] & 0xFF ) != 0xFF || ( jpeg[ length - 1 ] & 0xFF ) != 0xD9 ) mBad++;
+					else mFrames++;
+				}
+
+				s.close();
+			}
+			catch( Exception e ) {
+				// Server closed on us at the end;  that's expected.
+			}
+		}
+
+		private static String readLine( InputStream in ) throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+
+			while (( c = in.read() ) >= 0 && c != '\n' )
+				if ( c != '\r' ) sb.append( (char) c );
+
+			return c < 0 && sb.length() == 0 ? null : sb.toString();
+		}
+	}  // class Viewer
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class StreamBench
@@ -0,0 +1,554 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The TriggerBench class checks and times the clap trigger:  the OnsetDetector
+ * and the PcmRing that feeds it.  It checks that:
+ *
+ *   - our own tick.wav, played every second and muted the way the app mutes it,
+ *     never fires, while a clap straight after the last tick still does,
+ *   - claps from quiet to loud are all found, and nothing else is,
+ *   - the start of a spoken vowel is found,
+ *   - background noise that slowly gets louder and quieter never fires,
+ *   - samples go through the ring in order, wrapping many times, and the
+ *     detector finds the same onsets behind it as it does on the raw samples,
+ *   - a full ring drops the newest samples and counts them.
+ *
+ * And it times the detector and the ring.  Given file=some.wav it also lists the
+ * onsets it hears in that file (16-bit PCM, first channel).
+ *
+ *   java -cp classes com.twocats.dev.camtimer.TriggerBench tick=res/raw/tick.wav latency=200
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+
+public class TriggerBench {
+
+	private static final int RATE  = 44100;     // As SoundTrigger records
+	private static final int CHUNK = RATE / 100;  // What the app reads at a time
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "tick",    "res/raw/tick.wav" );
+		options.put( "file",    "" );      // A recording to list the onsets of
+		options.put( "noise",   "-60" );   // Background, dBFS
+		options.put( "ticks",   "10" );    // A countdown's worth
+		options.put( "latency", "150" );   // Playback delay of the tick, ms
+		options.put( "mute",    "500" );   // What the app mutes for each tick, ms
+		options.put( "claps",   "12" );
+		options.put( "seconds", "30" );    // Of slowly drifting noise
+		options.put( "seed",    "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new TriggerBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	TriggerBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		Random random = new Random( intOption( "seed" ));
+		boolean ok = true;
+
+		if ( mOptions.get( "file" ).length() > 0 ) listOnsets( new File( mOptions.get( "file" )));
+
+		ok &= checkTicks( random );
+		ok &= checkClaps( random );
+		ok &= checkVowel( random );
+		ok &= checkDrift( random );
+		ok &= checkRing( random );
+
+		timeDetector( random );
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	//
+	// The checks.
+	//
+
+	private boolean checkTicks( Random random ) throws IOException {
+	/**
+	 * A countdown's ticks over background noise, with the app's mute, then a clap.
+	 *
+	 */
+		Wav    tick    = readWav( new File( mOptions.get( "tick" )));
+		short[] sound  = resample( tick.samples, tick.rate, RATE );
+		int    ticks   = intOption( "ticks" );
+		int    latency = intOption( "latency" ) * RATE / 1000;
+		int    mute    = intOption( "mute" ) * RATE / 1000;
+
+		double[] mix = new double[ ( ticks + 2 ) * RATE ];
+		addNoise( mix, 0, mix.length, intOption( "noise" ), random );
+
+		int[] played = new int[ ticks ];  // When the app plays each tick;  it's heard latency later
+
+		for ( int i = 0; i < ticks; i++ ) {
+			played[ i ] = ( i + 1 ) * RATE;
+			addPcm( mix, played[ i ] + latency, sound );
+		}
+
+		int clap = played[ ticks - 1 ] + mute + RATE / 5;
+		addClap( mix, clap, -20, random );
+
+		short[] pcm = toPcm( mix );
+
+		OnsetDetector muted = new OnsetDetector( RATE );
+		List<Long> heard = detect( muted, pcm, played, mute );
+
+		OnsetDetector unmuted = new OnsetDetector( RATE );
+		List<Long> unmutedHeard = detect( unmuted, pcm, null, 0 );
+
+		boolean clapHeard = heard.size() == 1 && isNear( heard.get( 0 ), clap );
+
+		System.out.println( String.format( "ticks          %d ticks at %.1f dBFS peak, %d ms late:  muted %d fired, %d ignored;"
+		                                 + " unmuted %d fired;  clap after %s",
+		                                   ticks, peakDbfs( sound ), intOption( "latency" ),
+		                                   heard.size() - ( clapHeard ? 1 : 0 ), muted.getMutedCount(),
+		                                   countBefore( unmutedHeard, clap ), clapHeard ? "heard" : "MISSED" ));
+
+		return clapHeard;
+
+	}  // checkTicks
+
+	private boolean checkClaps( Random random ) {
+	/**
+	 * Claps from -30 to -3 dBFS at random intervals, over background noise.
+	 *
+	 */
+		int claps = intOption( "claps" );
+
+		int[] at  = new int[ claps ];
+		int   pos = RATE;
+
+		for ( int i = 0; i < claps; i++ ) {
+			at[ i ] = pos;
+			pos += RATE * 3 / 2 + random.nextInt( RATE );
+		}
+
+		double[] mix = new double[ pos + RATE ];
+		addNoise( mix, 0, mix.length, intOption( "noise" ), random );
+
+		for ( int i = 0; i < claps; i++ )
+			addClap( mix, at[ i ], -30 + 27.0 * i / Math.max( 1, claps - 1 ), random );
+
+		List<Long> heard = detect( new OnsetDetector( RATE ), toPcm( mix ), null, 0 );
+
+		int    found = 0;
+		double total = 0, worst = 0;
+
+		for ( int i = 0; i < claps; i++ ) {
+			for ( long onset : heard ) {
+				if ( isNear( onset, at[ i ] )) {
+					double ms = ( onset - at[ i ] ) * 1000.0 / RATE;
+					total += ms;
+					worst  = Math.max( worst, ms );
+					found++;
+					break;
+				}
+			}
+		}
+
+		System.out.println( String.format( "claps          %d of %d heard, %d other;  latency mean %.1f ms, max %.1f ms",
+		                                   found, claps, heard.size() - found, total / Math.max( 1, found ), worst ));
+
+		return found == claps && heard.size() == claps;
+
+	}  // checkClaps
+
+	private boolean checkVowel( Random random ) {
+	/**
+	 * Someone saying "aah" at conversational level, across the room.
+	 *
+	 */
+		double[] mix = new double[ 3 * RATE ];
+		addNoise( mix, 0, mix.length, intOption( "noise" ), random );
+
+		int at = 3 * RATE / 2;
+		addVowel( mix, at, RATE / 2, -30 );
+
+		List<Long> heard = detect( new OnsetDetector( RATE ), toPcm( mix ), null, 0 );
+		boolean    good  = heard.size() == 1 && heard.get( 0 ) - at < RATE / 10;
+
+		System.out.println( "vowel          " + ( heard.size() == 1
+		                    ? String.format( "heard after %.1f ms", ( heard.get( 0 ) - at ) * 1000.0 / RATE )
+		                    : heard.size() + " onsets" ));
+
+		return good;
+	}
+
+	private boolean checkDrift( Random random ) {
+	/**
+	 * Background noise swinging 25 dB up and down over the run, like a fan or
+	 * traffic.
+	 *
+	 */
+		int      seconds = intOption( "seconds" );
+		double   floor   = intOption( "noise" );
+		double[] mix     = new double[ seconds * RATE ];
+
+		for ( int start = 0; start < mix.length; start += CHUNK ) {
+			double phase = 2 * Math.PI * start / mix.length;
+			addNoise( mix, start, Math.min( CHUNK, mix.length - start ), floor + 12.5 * ( 1 - Math.cos( phase )), random );
+		}
+
+		OnsetDetector detector = new OnsetDetector( RATE );
+		List<Long>    heard    = detect( detector, toPcm( mix ), null, 0 );
+
+		System.out.println( String.format( "drift          %d s from %.0f to %.0f dBFS and back:  %d onsets",
+		                                   seconds, floor, floor + 25, heard.size() ));
+
+		return heard.isEmpty();
+	}
+
+	private boolean checkRing( final Random random ) throws Exception {
+	/**
+	 * Claps through a small ring, one thread writing and another reading and
+	 * detecting, then a ring that nobody reads.
+	 *
+	 */
+		double[] mix = new double[ 20 * RATE ];
+		addNoise( mix, 0, mix.length, intOption( "noise" ), random );
+
+		for ( int at = RATE; at < mix.length - RATE; at += 2 * RATE )
+			addClap( mix, at, -20, random );
+
+		final short[]  pcm  = toPcm( mix );
+		final PcmRing  ring = new PcmRing( 1000 );  // 1024, so it wraps hundreds of times
+
+		List<Long> expected = detect( new OnsetDetector( RATE ), pcm, null, 0 );
+
+		// The writer is given odd-sized chunks, as AudioRecord may, and waits for room
+		// rather than dropping anything.
+
+		Thread writer = new Thread( new Runnable() {
+			public void run() {
+				Random sizes = new Random( 7 );
+				int pos = 0;
+
+				while ( pos < pcm.length ) {
+					int len = Math.min( 1 + sizes.nextInt( 700 ), pcm.length - pos );
+					int end = pos + len;
+
+					while ( pos < end ) {
+						int room = ring.capacity() - ring.available();
+
+						if ( room == 0 ) Thread.yield();
+						else pos += ring.write( pcm, pos, Math.min( room, end - pos ));
+					}
+				}
+			}
+		}, "writer" );
+
+		OnsetDetector detector = new OnsetDetector( RATE );
+		List<Long>    heard    = new ArrayList<Long>();
+		short[]       chunk    = new short[ CHUNK ];
+		int           pos      = 0;
+		int           wrong    = 0;
+
+		long start = System.nanoTime();
+		writer.start();
+
+		while ( pos < pcm.length ) {
+			int n = ring.read( chunk, 0, chunk.length );
+
+			if ( n == 0 ) {
+				Thread.yield();
+				continue;
+			}
+
+			for ( int i = 0; i < n; i++ )
+				if ( chunk[ i ] != pcm[ pos + i ] ) wrong++;
+			pos += n;
+
+			if ( detector.process( chunk, 0, n )) heard.add( detector.getLastOnset() );
+		}
+
+		writer.join();
+		long elapsed = System.nanoTime() - start;
+
+		boolean good = wrong == 0 && heard.equals( expected ) && ring.getOverrunCount() == 0;
+
+		System.out.println( String.format( "ring           %d samples through %d, %d out of order, onsets %s;  %.1f M samples/s",
+		                                   pcm.length, ring.capacity(), wrong, heard.equals( expected ) ? "match" : "DIFFER",
+		                                   pcm.length * 1000.0 / elapsed ));
+
+		// Nobody reading:  the first capacity's worth stays, the rest is counted.
+
+		PcmRing full    = new PcmRing( 256 );
+		int     written = 0;
+
+		for ( int i = 0; i < 3; i++ ) written += full.write( pcm, i * 256, 256 );
+
+		short[] kept = new short[ 512 ];
+		int     back = full.read( kept, 0, kept.length );
+		boolean same = true;
+
+		for ( int i = 0; i < back; i++ ) same &= kept[ i ] == pcm[ i ];
+
+		boolean fullGood = written == 256 && full.getOverrunCount() == 512 && back == 256 && same;
+
+		System.out.println( "full ring      " + written + " written, " + full.getOverrunCount() + " overrun, "
+		                  + back + " read back" + ( same ? "" : " WRONG" ));
+
+		return good && fullGood;
+
+	}  // checkRing
+
+	private void timeDetector( Random random ) {
+	/**
+	 * What listening costs, per sample and as a share of one core.
+	 *
+	 */
+		double[] mix = new double[ 10 * RATE ];
+		addNoise( mix, 0, mix.length, -40, random );
+
+		short[] pcm = toPcm( mix );
+		OnsetDetector detector = new OnsetDetector( RATE );
+
+		for ( int i = 0; i < 5; i++ ) detect( detector, pcm, null, 0 );  // Warm up
+
+		int  rounds = 20;
+		long start  = System.nanoTime();
+
+		for ( int i = 0; i < rounds; i++ ) detect( detector, pcm, null, 0 );
+
+		double nsPer = (double) ( System.nanoTime() - start ) / ( (long) rounds * pcm.length );
+
+		System.out.println( String.format( "cpu            %.2f ns/sample, %.3f%% of a core at %d Hz",
+		                                   nsPer, nsPer * RATE / 1e7, RATE ));
+	}
+
+	private void listOnsets( File file ) throws IOException {
+		Wav wav = readWav( file );
+		List<Long> heard = detect( new OnsetDetector( wav.rate ), wav.samples, null, 0 );
+
+		StringBuilder line = new StringBuilder( file.getName() + " " + heard.size() + " onsets" );
+		for ( long onset : heard )
+			line.append( String.format( " %.3fs", (double) onset / wav.rate ));
+
+		System.out.println( line );
+	}
+
+
+	//
+	// Running the detector.
+	//
+
+	private static List<Long> detect( OnsetDetector detector, short[] pcm, int[] muteAt, int muteSamples ) {
+	/**
+	 * Feed pcm through in 10 ms chunks, as the app does, muting for muteSamples
+	 * from each position in muteAt.
+	 *
+	 * @return Where the onsets were.
+	 */
+		List<Long> heard = new ArrayList<Long>();
+		int chunk = detector.getSampleRate() / 100;
+		int next  = 0;  // Next mute
+
+		long base = detector.getSampleCount();  // When a detector is reused
+
+		for ( int pos = 0; pos < pcm.length; pos += chunk ) {
+			while ( muteAt != null && next < muteAt.length && muteAt[ next ] < pos + chunk )
+				detector.mute( muteAt[ next++ ] + muteSamples - pos );
+
+			if ( detector.process( pcm, pos, Math.min( chunk, pcm.length - pos )))
+				heard.add( detector.getLastOnset() - base );
+		}
+
+		return heard;
+	}
+
+	private static boolean isNear( long onset, int at ) {
+		return onset >= at && onset - at <= RATE / 20;
+	}
+
+	private static int countBefore( List<Long> onsets, int end ) {
+		int n = 0;
+		for ( long onset : onsets ) if ( onset < end ) n++;
+		return n;
+	}
+
+
+	//
+	// Sounds.
+	//
+
+	private static void addNoise( double[] mix, int start, int len, double dbfs, Random random ) {
+		double rms = Math.pow( 10, dbfs / 20 );
+		for ( int i = start; i < start + len; i++ ) mix[ i ] += rms * random.nextGaussian();
+	}
+
+	private static void addClap( double[] mix, int at, double dbfs, Random random ) {
+	/**
+	 * A burst of noise that dies away in a few tens of milliseconds.
+	 *
+	 */
+		double rms = Math.pow( 10, dbfs / 20 );
+		int    len = Math.min( RATE / 5, mix.length - at );
+
+		for ( int i = 0; i < len; i++ )
+			mix[ at + i ] += rms * Math.exp( -i / ( RATE * 0.015 )) * random.nextGaussian();
+	}
+
+	private static void addVowel( double[] mix, int at, int len, double dbfs ) {
+	/**
+	 * A 150 Hz voice with falling harmonics, faded in over 30 ms.
+	 *
+	 */
+		double amp    = Math.pow( 10, dbfs / 20 ) * Math.sqrt( 2 ) / 1.2;
+		int    attack = RATE * 3 / 100;
+
+		for ( int i = 0; i < len && at + i < mix.length; i++ ) {
+			double t = (double) i / RATE, v = 0;
+			for ( int h = 1; h <= 8; h++ ) v += Math.sin( 2 * Math.PI * 150 * h * t ) / h;
+
+			mix[ at + i ] += amp * Math.min( 1.0, (double) i / attack ) * v;
+		}
+	}
+
+	private static void addPcm( double[] mix, int at, short[] sound ) {
+		for ( int i = 0; i < sound.length && at + i < mix.length; i++ ) mix[ at + i ] += sound[ i ] / 32768.0;
+	}
+
+	private static short[] toPcm( double[] mix ) {
+		short[] pcm = new short[ mix.length ];
+		for ( int i = 0; i < mix.length; i++ )
+			pcm[ i ] = (short) Math.max( -32768, Math.min( 32767, Math.round( mix[ i ] * 32768 )));
+		return pcm;
+	}
+
+	private static double peakDbfs( short[] sound ) {
+		int peak = 1;
+		for ( short s : sound ) peak = Math.max( peak, Math.abs( s ));
+		return 20 * Math.log10( peak / 32768.0 );
+	}
+
+	private static short[] resample( short[] in, int from, int to ) {
+	/**
+	 * Linear interpolation, which is plenty for a click.
+	 *
+	 */
+		if ( from == to ) return in;
+
+		short[] out = new short[ (int) ( (long) in.length * to / from ) ];
+
+		for ( int i = 0; i < out.length; i++ ) {
+			double x = (double) i * from / to;
+			int    j = (int) x;
+			double f = x - j;
+			int    b = Math.min( j + 1, in.length - 1 );
+
+			out[ i ] = (short) Math.round( in[ j ] * ( 1 - f ) + in[ b ] * f );
+		}
+
+		return out;
+	}
+
+
+	//
+	// WAV files.
+	//
+
+	static class Wav {
+		int     rate;
+		short[] samples;  // First channel only
+	}
+
+	static Wav readWav( File file ) throws IOException {
+	/**
+	 * Read a 16-bit PCM WAV file.
+	 *
+	 */
+		DataInputStream in = new DataInputStream( new FileInputStream( file ));
+
+		try {
+			if ( in.readInt() != 0x52494646 ) throw new IOException( file + ": not a RIFF file" );  // "RIFF"
+			in.readInt();
+			if ( in.readInt() != 0x57415645 ) throw new IOException( file + ": not a WAVE file" );  // "WAVE"
+
+			Wav wav      = new Wav();
+			int channels = 0, bits = 0;
+
+			while ( true ) {
+				int id   = in.readInt();
+				int size = Integer.reverseBytes( in.readInt() );
+
+				if ( id == 0x666D7420 ) {  // "fmt "
+					byte[] fmt = new byte[ size ];
+					in.readFully( fmt );
+
+					int format = le16( fmt, 0 );
+					channels   = le16( fmt, 2 );
+					wav.rate   = le16( fmt, 4 ) | le16( fmt, 6 ) << 16;
+					bits       = le16( fmt, 14 );
+
+					if (( format != 1 && format != 0xFFFE ) || bits != 16 || channels < 1 )
+						throw new IOException( file + ": not 16-bit PCM" );
+
+				} else if ( id == 0x64617461 ) {  // "data"
+					if ( channels == 0 ) throw new IOException( file + ": data before fmt" );
+
+					byte[] data = new byte[ size ];
+					in.readFully( data );
+
+					int frames = size / ( 2 * channels );
+					wav.samples = new short[ frames ];
+					for ( int i = 0; i < frames; i++ ) wav.samples[ i ] = (short) le16( data, i * 2 * channels );
+
+					return wav;
+
+				} else {
+					in.skipBytes( size + ( size & 1 ));
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+
+	}  // readWav
+
+	private static int le16( byte[] b, int off ) {
+		return ( b[ off ] & 0xFF ) | ( b[ off + 1 ] & 0xFF ) << 8;
+	}
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class TriggerBench
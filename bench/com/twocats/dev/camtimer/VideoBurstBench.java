@@ -0,0 +1,281 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The VideoBurstBench class checks and times the VideoBurst.  A make-believe
+ * camera thread delivers preview frames at a steady rate, each with its number
+ * painted into one corner, and a burst keeps them for a while.  It checks that:
+ *
+ *   - with enough memory, every frame is saved, in the order it was seen, with
+ *     its orientation tagged,
+ *   - with a budget of only a few frames, and encoding slower than the camera,
+ *     the frames that don't fit are dropped and counted, the rest still come
+ *     out in order, and the buffers never go over the budget.
+ *
+ * It reports the frame rate kept up, the encode queue and the memory high-water
+ * mark, encoding on one thread and on a thread per core.
+ *
+ *   java -cp classes com.twocats.dev.camtimer.VideoBurstBench width=1280 height=720 fps=30 threads=4
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+public class VideoBurstBench {
+
+	private static final int MARK = 64;  // Size of the painted frame number, pixels
+
+	private final Map<String,String> mOptions;
+
+
+	public static void main( String[] args ) throws Exception {
+		Map<String,String> options = new HashMap<String,String>();
+
+		options.put( "width",   "640" );
+		options.put( "height",  "480" );
+		options.put( "fps",     "30" );
+		options.put( "millis",  "1500" );   // How long the burst keeps frames
+		options.put( "quality", "80" );
+		options.put( "budget",  "32" );     // MB for frame buffers
+		options.put( "threads", "" + Runtime.getRuntime().availableProcessors() );
+		options.put( "seed",    "42" );
+
+		for ( String arg : args ) {
+			int eq = arg.indexOf( '=' );
+			if ( eq < 0 || !options.containsKey( arg.substring( 0, eq ))) {
+				System.err.println( "Unknown option " + arg + ", expected one of " + options.keySet() );
+				System.exit( 1 );
+			}
+			options.put( arg.substring( 0, eq ), arg.substring( eq + 1 ));
+		}
+
+		new VideoBurstBench( options ).run();
+	}
+
+	//
+	// Class constructor.
+	//
+	VideoBurstBench( Map<String,String> options ) {
+		mOptions = options;
+	}
+
+
+	void run() throws Exception {
+
+		int width   = intOption( "width" ) & ~1;
+		int height  = intOption( "height" ) & ~1;
+		int threads = Math.max( 1, intOption( "threads" ));
+		int frame   = width * height * 3 / 2;
+
+		byte[] scene = makeScene( width, height, new Random( intOption( "seed" )));
+
+		// Warm up the encoder, so the first run isn't the one that pays for it.
+
+		new JpegEncoder( intOption( "quality" )).encode( width, height, JpegEncoder.nv21( scene, width, height ));
+
+		boolean ok = true;
+
+		System.out.println( "frames         " + width + "x" + height + " at " + intOption( "fps" ) + " fps for "
+		                  + intOption( "millis" ) + " ms, " + frame / 1024 + " KB each" );
+
+		ok &= burst( "1 thread", scene, width, height, 1, intOption( "budget" ) * 1048576L, 0, true );
+		ok &= burst( "pool of " + threads, scene, width, height, threads, intOption( "budget" ) * 1048576L, 0, true );
+
+		// Three buffers' worth, and an encoder that can't keep up, as on a slow phone.
+
+		ok &= burst( "tight budget", scene, width, height, 1, 3L * frame, 60, false );
+
+		System.out.println( ok ? "OK" : "MISMATCH" );
+		if ( !ok ) System.exit( 2 );
+
+	}  // run
+
+
+	private boolean burst( String name, final byte[] scene, final int width, final int height, int threads,
+	                       long budget, final int slowMs, boolean expectAll ) throws Exception {
+	/**
+	 * One burst, with frames delivered on a thread of their own as the camera does.
+	 * If slowMs is set, each encode is held up that long first.
+	 *
+	 */
+		final List<byte[]> written = Collections.synchronizedList( new ArrayList<byte[]>() );
+		final CountDownLatch finished = new CountDownLatch( 1 );
+
+		CapturePipeline.ImageWriter writer = new CapturePipeline.ImageWriter() {
+			public File write( byte[] jpeg, long timestamp ) throws IOException {
+				written.add( jpeg );
+				return new File( written.size() + ".jpg" );
+			}
+		};
+
+		VideoBurst.Listener listener = new VideoBurst.Listener() {
+			public void onImageSaved( File file ) {}
+			public void onSaveFailed( Exception e ) { System.out.println( "save failed: " + e ); }
+			public void onFinished( int saved, int dropped ) { finished.countDown(); }
+		};
+
+		final ExecutorService encoders = Executors.newFixedThreadPool( threads );
+		ExecutorService       saver    = Executors.newSingleThreadExecutor();
+
+		Executor encode = encoders;
+
+		if ( slowMs > 0 ) {
+			encode = new Executor() {
+				public void execute( final Runnable task ) {
+					encoders.execute( new Runnable() {
+						public void run() {
+							pause( slowMs );
+							task.run();
+						}
+					} );
+				}
+			};
+		}
+
+		final VideoBurst burst = new VideoBurst( writer, encode, saver, listener, budget, intOption( "quality" ));
+		burst.setRotation( 90 );
+
+		// The camera:  one buffer, refilled for every frame and handed over.
+
+		final int  frames   = intOption( "fps" ) * intOption( "millis" ) / 1000;
+		final long interval = 1000000000L / intOption( "fps" );
+
+		burst.begin();
+
+		Thread camera = new Thread( new Runnable() {
+			public void run() {
+				byte[] buffer = new byte[ scene.length ];
+				long   due    = System.nanoTime();
+
+				for ( int i = 0; i < frames; i++ ) {
+					while ( System.nanoTime() < due ) pause( 1 );
+					due += interval;
+
+					System.arraycopy( scene, 0, buffer, 0, scene.length );
+					paintNumber( buffer, width, i );
+
+					burst.onPreviewFrame( buffer, width, height );
+				}
+			}
+		}, "camera" );
+
+		long start = System.nanoTime();
+
+		camera.start();
+		camera.join();
+		burst.end();
+
+		boolean done = finished.await( 120, TimeUnit.SECONDS );
+		long elapsed = System.nanoTime() - start;
+
+		encoders.shutdown();
+		saver.shutdown();
+
+		// Check the order, and the tags.
+
+		int     last    = -1;
+		long    bytes   = 0;
+		boolean ordered = true, tagged = true;
+
+		for ( byte[] jpeg : written ) {
+			int n = readNumber( jpeg );
+			ordered &= n > last;
+			last   = n;
+			bytes += jpeg.length;
+
+			tagged &= "6".equals( ExifRewriter.readTags( jpeg ).get( ExifRewriter.TAG_ORIENTATION ));
+		}
+
+		int dropped = burst.getDroppedCount();
+
+		System.out.println( String.format( "%-14s %d kept at %.1f fps, %d dropped, %d saved %s in %.0f ms;"
+		                                 + "  queue mean %.1f max %d;  peak %d KB",
+		                                   name, burst.getCapturedCount(), burst.getFps(), dropped, written.size(),
+		                                   ordered && tagged ? "in order" : ordered ? "UNTAGGED" : "OUT OF ORDER",
+		                                   elapsed / 1e6, burst.getMeanQueue(), burst.getMaxQueue(),
+		                                   burst.getPeakBytes() / 1024 ));
+		System.out.println( "               " + burst.getEncodeStats().summary() );
+
+		boolean good = done && ordered && tagged
+		            && written.size() == burst.getCapturedCount()
+		            && burst.getCapturedCount() + dropped == frames;
+
+		if ( expectAll ) good &= dropped == 0;
+		else             good &= dropped > 0 && burst.getPeakBytes() <= budget + bytes;  // Only JPEGs over it
+
+		return good;
+
+	}  // burst
+
+
+	//
+	// Frames.  The frame number goes in the top left corner as a shade of grey,
+	// which survives JPEG well enough to read back from the quarter-size luma.
+	//
+
+	private static void paintNumber( byte[] nv21, int width, int n ) {
+		for ( int y = 0; y < MARK; y++ ) {
+			for ( int x = 0; x < MARK; x++ ) {
+				nv21[ y * width + x ]        = (byte) ( 16 + ( n / 28 % 28 ) * 8 );  // Two digits, base 28
+				nv21[ y * width + x + MARK ] = (byte) ( 16 + ( n % 28 ) * 8 );
+			}
+		}
+	}
+
+	private static int readNumber( byte[] jpeg ) throws IOException {
+		LumaDecoder.Plane plane = new LumaDecoder().decode( jpeg );
+		int row = ( MARK / 8 ) * plane.width;  // Middle of the marks, at quarter size
+
+		int high = Math.round((( plane.pixels[ row + MARK / 8 ] & 0xFF ) - 16 ) / 8f );
+		int low  = Math.round((( plane.pixels[ row + MARK / 4 + MARK / 8 ] & 0xFF ) - 16 ) / 8f );
+
+		return high * 28 + low;
+	}
+
+	private static byte[] makeScene( int width, int height, Random random ) {
+	/**
+	 * Smooth gradients with some fine noise, so the encoder has real work to do.
+	 *
+	 */
+		byte[] nv21 = new byte[ width * height * 3 / 2 ];
+
+		for ( int y = 0; y < height; y++ )
+			for ( int x = 0; x < width; x++ )
+				nv21[ y * width + x ] = (byte) ( 64 + ( x * 96 / width ) + ( y * 64 / height ) + random.nextInt( 24 ));
+
+		for ( int i = width * height; i < nv21.length; i++ )
+			nv21[ i ] = (byte) ( 112 + random.nextInt( 32 ));
+
+		return nv21;
+	}
+
+	private static void pause( long ms ) {
+		try {
+			Thread.sleep( ms );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private int intOption( String name ) {
+		return Integer.parseInt( mOptions.get( name ));
+	}
+
+}  // class VideoBurstBench
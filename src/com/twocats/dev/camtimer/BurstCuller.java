@@ -0,0 +1,202 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The BurstCuller class picks the sharpest few pictures of a burst before any of
+ * them is written.  Each JPEG is scored as it arrives, on the score executor (so
+ * with a thread pool the scoring of several frames runs across cores), and once
+ * the whole burst is in, the best ones go to the listener and the rest are
+ * simply dropped.
+ *
+ * The score is the variance of the Laplacian of a quarter-size luma plane from
+ * the LumaDecoder:  blur and shake take out the fine detail, which is what the
+ * Laplacian responds to.  Scores only mean anything relative to other pictures of
+ * the same scene, which is exactly what a burst is.  A picture that can't be
+ * decoded scores -1, so it's kept only if there's room to spare.
+ *
+ * One culler handles one burst.  The item type is whatever the caller wants to
+ * get back with each picture.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class BurstCuller<T> {
+
+	public interface Listener<T> {
+	/**
+	 * Called once, on the score executor, when every picture of the burst has been
+	 * scored or skipped.  Both lists are sharpest first.
+	 *
+	 */
+		void onCulled( List<Frame<T>> kept, List<Frame<T>> dropped );
+	}
+
+	public static class Frame<T> {
+	/**
+	 * One picture of the burst and how it did.
+	 *
+	 */
+		public final T      item;
+		public final byte[] jpeg;
+		private double      mScore = -1;
+		private int         mRank  = 0;  // 1 for the sharpest
+
+		Frame( T item, byte[] jpeg ) {
+			this.item = item;
+			this.jpeg = jpeg;
+		}
+
+		public double getScore() { return mScore; }
+		public int    getRank()  { return mRank; }
+	}
+
+
+	// One decoder per scoring thread, since they keep tables between pictures.
+
+	private static final ThreadLocal<LumaDecoder> sDecoder = new ThreadLocal<LumaDecoder>() {
+		protected LumaDecoder initialValue() {
+			return new LumaDecoder();
+		}
+	};
+
+	private final int            mKeep;
+	private final Executor       mScoreExecutor;
+	private final LatencyStats   mScoreStats;    // May be null
+	private final Listener<T>    mListener;
+	private final AtomicInteger  mRemaining;     // Pictures not yet scored or skipped
+	private final List<Frame<T>> mFrames = new ArrayList<Frame<T>>();
+
+
+	//
+	// Class constructor.
+	//
+	public BurstCuller( int frames, int keep, Executor scoreExecutor, LatencyStats scoreStats, Listener<T> listener ) {
+		if ( frames < 1 || keep < 1 )
+			throw new IllegalArgumentException( "need at least one frame to keep" );
+
+		mKeep          = keep;
+		mScoreExecutor = scoreExecutor;
+		mScoreStats    = scoreStats;
+		mListener      = listener;
+		mRemaining     = new AtomicInteger( frames );
+	}
+
+
+	public void add( final T item, final byte[] jpeg ) {
+	/**
+	 * Score a picture of the burst, on the score executor.
+	 *
+	 */
+		mScoreExecutor.execute( new Runnable() {
+			public void run() {
+				Frame<T> frame = new Frame<T>( item, jpeg );
+				long start = System.nanoTime();
+
+				try {
+					frame.mScore = score( jpeg );
+					if ( mScoreStats != null ) mScoreStats.add( System.nanoTime() - start );
+				}
+				catch( IOException e ) {
+					// Leave it at -1.
+				}
+
+				synchronized( mFrames ) {
+					mFrames.add( frame );
+				}
+
+				done();
+			}
+		} );
+	}
+
+	public void skip() {
+	/**
+	 * One of the burst's pictures isn't coming, because the camera failed or the
+	 * burst was cut short.
+	 *
+	 */
+		done();
+	}
+
+
+	private void done() {
+		if ( mRemaining.decrementAndGet() != 0 ) return;
+
+		List<Frame<T>> frames;
+
+		synchronized( mFrames ) {
+			frames = new ArrayList<Frame<T>>( mFrames );
+		}
+
+		Collections.sort( frames, new Comparator<Frame<T>>() {
+			public int compare( Frame<T> a, Frame<T> b ) {
+				return Double.compare( b.mScore, a.mScore );
+			}
+		} );
+
+		for ( int i = 0; i < frames.size(); i++ )
+			frames.get( i ).mRank = i + 1;
+
+		int keep = Math.min( mKeep, frames.size() );
+
+		mListener.onCulled( new ArrayList<Frame<T>>( frames.subList( 0, keep )),
+		                    new ArrayList<Frame<T>>( frames.subList( keep, frames.size() )));
+	}
+
+
+	//
+	// Scoring.
+	//
+
+	public static double score( byte[] jpeg ) throws IOException {
+	/**
+	 * Sharpness of a JPEG:  the variance of the Laplacian of its quarter-size luma.
+	 *
+	 */
+		return sharpness( sDecoder.get().decode( jpeg ));
+	}
+
+	static double sharpness( LumaDecoder.Plane plane ) {
+	/**
+	 * Variance of the four-neighbour Laplacian over the interior of the plane.
+	 *
+	 */
+		int    w = plane.width, h = plane.height;
+		byte[] p = plane.pixels;
+
+		if ( w < 3 || h < 3 ) return 0;
+
+		long sum = 0, sumSq = 0;
+
+		for ( int y = 1; y < h - 1; y++ ) {
+			int row = y * w;
+
+			for ( int x = 1; x < w - 1; x++ ) {
+				int i = row + x;
+				int lap = 4 * ( p[ i ] & 0xFF )
+				        - ( p[ i - 1 ] & 0xFF ) - ( p[ i + 1 ] & 0xFF )
+				        - ( p[ i - w ] & 0xFF ) - ( p[ i + w ] & 0xFF );
+
+				sum   += lap;
+				sumSq += lap * lap;
+			}
+		}
+
+		double n    = (double) ( w - 2 ) * ( h - 2 );
+		double mean = sum / n;
+
+		return sumSq / n - mean * mean;
+
+	}  // sharpness
+
+}  // class BurstCuller
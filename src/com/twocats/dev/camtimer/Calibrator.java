@@ -0,0 +1,288 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The Calibrator class times what this phone's cameras and storage actually do,
+ * and makes a DeviceProfile of it.  For each camera, a few times over, it:
+ *
+ *   - opens it,
+ *   - starts the preview and waits for the first frame,
+ *   - takes a picture, noting when the shutter goes and when the JPEG arrives,
+ *   - and lets it go.
+ *
+ * The median of each is kept.  Then it saves a few megabytes of the pictures to
+ * storage through a FileImageWriter, just as the pictures are saved, and keeps
+ * the rate.
+ *
+ * run() blocks, so it must be on a thread of its own, and not the one the camera
+ * calls back on.  The app has to have let go of every camera first.  cancel() from
+ * another thread stops it at the next step.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+public class Calibrator {
+
+	public interface Listener {
+	/**
+	 * Hears how far it's got, on the calibration thread.
+	 *
+	 */
+		void onProgress( String step );
+	}
+
+	static final long TIMEOUT_MS = 10000;  // Longest to wait for a frame, shutter or JPEG
+
+	private final CameraBackend           mBackend;
+	private final DualCapture.Configurator mConfigurator;
+	private final File                    mScratch;    // Where the write test goes
+	private final Listener                mListener;
+	private int                           mRuns       = 3;
+	private long                          mWriteBytes = 8L * 1024 * 1024;  // For the write test
+
+	private volatile boolean mCancelled = false;
+
+
+	//
+	// Class constructor.
+	//
+	public Calibrator( CameraBackend backend, DualCapture.Configurator configurator, File scratch, Listener listener ) {
+	/**
+	 * @param configurator  Gets each camera ready for its preview, as for the dual
+	 *                      capture's second camera.  May be null.
+	 * @param scratch       A directory for the write test, on the storage the
+	 *                      pictures go to, since that's the speed that matters.
+	 *                      It's emptied of our files again afterwards, and
+	 *                      removed if it wasn't there before.
+	 */
+		mBackend      = backend;
+		mConfigurator = configurator;
+		mScratch      = scratch;
+		mListener     = listener;
+	}
+
+
+	public void setRuns( int runs )             { mRuns = Math.max( 1, runs ); }
+	public void setWriteBytes( long bytes )     { mWriteBytes = bytes; }
+
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	public DeviceProfile run( String device ) throws IOException {
+	/**
+	 * Calibrate every camera, then storage.  A camera that can't be calibrated is
+	 * left out of the profile;  if none can, or it's cancelled, that's an
+	 * IOException.
+	 *
+	 */
+		DeviceProfile profile = new DeviceProfile( device, System.currentTimeMillis() );
+		byte[]        sample  = null;   // A JPEG for the write test
+		IOException   failure = null;
+
+		for ( int id = 0; id < mBackend.getNumberOfCameras(); id++ ) {
+			try {
+				long[][] times = new long[ 4 ][ mRuns ];
+				byte[]   jpeg  = null;
+
+				for ( int run = 0; run < mRuns; run++ ) {
+					progress( "camera " + id + ", run " + ( run + 1 ) + " of " + mRuns );
+					jpeg = once( id, times, run );
+				}
+
+				DeviceProfile.CameraTimes t = new DeviceProfile.CameraTimes();
+				t.open       = median( times[ 0 ] );
+				t.firstFrame = median( times[ 1 ] );
+				t.shutter    = median( times[ 2 ] );
+				t.jpeg       = median( times[ 3 ] );
+				t.jpegBytes  = jpeg.length;
+
+				profile.putCamera( id, t );
+				if ( sample == null || jpeg.length > sample.length ) sample = jpeg;
+			}
+			catch( IOException e ) {
+				if ( mCancelled ) throw e;
+				failure = e;  // On to the next camera
+			}
+		}
+
+		if ( sample == null )
+			throw failure != null ? failure : new IOException( "no cameras" );
+
+		writeTest( profile, sample );
+		return profile;
+
+	}  // run
+
+
+	//
+	// Cameras.
+	//
+
+	private byte[] once( int id, long[][] times, int run ) throws IOException {
+	/**
+	 * Open, preview, picture, release, timing each.
+	 *
+	 * @return The picture.
+	 */
+		check();
+
+		long start = System.nanoTime();
+		CameraDevice device;
+
+		try {
+			device = mBackend.open( id );
+		}
+		catch( RuntimeException e ) {
+			throw new IOException( "camera " + id + " won't open: " + e.getMessage() );
+		}
+
+		times[ 0 ][ run ] = millisSince( start );
+
+		try {
+			if ( mConfigurator != null ) mConfigurator.configure( device );
+
+			// First frame.
+
+			final CountDownLatch frame = new CountDownLatch( 1 );
+			CameraDevice.PreviewListener listener = new CameraDevice.PreviewListener() {
+				public void onPreviewFrame( byte[] data, int width, int height ) {
+					frame.countDown();
+				}
+			};
+
+			device.addPreviewListener( listener );
+			start = System.nanoTime();
+			device.startPreview();
+
+			await( frame, "camera " + id + " preview" );
+			times[ 1 ][ run ] = millisSince( start );
+			device.removePreviewListener( listener );
+
+			// Picture.
+
+			final CountDownLatch shutter = new CountDownLatch( 1 );
+			final CountDownLatch done    = new CountDownLatch( 1 );
+			final long[]         at      = new long[ 2 ];
+			final byte[][]       jpeg    = new byte[ 1 ][];
+			final Exception[]    error   = new Exception[ 1 ];
+
+			start = System.nanoTime();
+			device.takePicture( new CameraDevice.PictureListener() {
+				public void onShutter() {
+					at[ 0 ] = System.nanoTime();
+					shutter.countDown();
+				}
+
+				public void onPictureTaken( byte[] data ) {
+					at[ 1 ]   = System.nanoTime();
+					jpeg[ 0 ] = data;
+					done.countDown();
+				}
+
+				public void onError( Exception e ) {
+					error[ 0 ] = e;
+					done.countDown();
+				}
+			} );
+
+			await( done, "camera " + id + " picture" );
+			if ( error[ 0 ] != null ) throw new IOException( "camera " + id + " picture failed: " + error[ 0 ].getMessage() );
+
+			// A camera that doesn't say when the shutter goes has it count as the JPEG.
+
+			times[ 2 ][ run ] = ( shutter.getCount() == 0 ? at[ 0 ] - start : at[ 1 ] - start ) / 1000000;
+			times[ 3 ][ run ] = ( at[ 1 ] - start ) / 1000000;
+
+			return jpeg[ 0 ];
+		}
+		catch( RuntimeException e ) {
+			throw new IOException( "camera " + id + ": " + e.getMessage() );
+		}
+		finally {
+			device.release();
+		}
+	}
+
+
+	//
+	// Storage.
+	//
+
+	private void writeTest( DeviceProfile profile, byte[] jpeg ) throws IOException {
+	/**
+	 * Save enough copies of the picture to make mWriteBytes, a file each, through
+	 * the same writer the pictures go through, and time it.  The files are only
+	 * deleted afterwards, as the pictures aren't.
+	 *
+	 */
+		boolean made = !mScratch.isDirectory();
+		if ( made && !mScratch.mkdirs() ) throw new IOException( "can't create " + mScratch );
+
+		FileImageWriter writer  = new FileImageWriter( mScratch );
+		List<File>      written = new ArrayList<File>();
+		int             files   = (int) Math.max( 1, mWriteBytes / jpeg.length );
+
+		progress( "storage" );
+
+		try {
+			long start = System.nanoTime();
+
+			for ( int i = 0; i < files; i++ ) {
+				check();
+				written.add( writer.write( jpeg, i ));
+			}
+
+			profile.setWriteMBps( (double) files * jpeg.length / ( 1024 * 1024 ) / (( System.nanoTime() - start ) / 1e9 ));
+		}
+		finally {
+			for ( File f : written ) f.delete();
+			if ( made ) mScratch.delete();
+		}
+	}
+
+
+	//
+	// Helpers.
+	//
+
+	private void check() throws IOException {
+		if ( mCancelled ) throw new IOException( "cancelled" );
+	}
+
+	private void progress( String step ) {
+		if ( mListener != null ) mListener.onProgress( step );
+	}
+
+	private void await( CountDownLatch latch, String what ) throws IOException {
+		try {
+			if ( !latch.await( TIMEOUT_MS, TimeUnit.MILLISECONDS ))
+				throw new IOException( what + " timed out" );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "interrupted" );
+		}
+	}
+
+	private static long millisSince( long start ) {
+		return ( System.nanoTime() - start ) / 1000000;
+	}
+
+	private static long median( long[] values ) {
+		long[] sorted = values.clone();
+		Arrays.sort( sorted );
+		return sorted[ sorted.length / 2 ];
+	}
+
+}  // class Calibrator
@@ -61,8 +61,11 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 
 	private OrientationEventListener mOrientationListener;  // So we know when we're rotating
 
-	private Camera            mCamera;                      // Current camera
+	private HardwareCamera    mDevice;                      // Current camera
+	private Camera            mCamera;                      // The android.hardware.Camera inside it
+	private CameraSettings    mSettings;                    // Cached parameters for current camera
 	private Camera.CameraInfo mCamInfo;                     // Info about current camera
+	private int               mPictureRotation = 0;         // How pictures must be turned to be upright
 
 	private Size           mBestPreviewSize       = null;   // Best calculated preview size
 	private List<Size>     mSupportedPreviewSizes = null;   // List of current camera's preview sizes
@@ -124,18 +127,34 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 	}  // Constructor
 
 
-	public void setCamera( Camera cam ) {
-		mCamera = cam;
+	public void setCamera( HardwareCamera device ) {
+		mDevice   = device;
+		mCamera   = device == null ? null : device.getCamera();
+		mSettings = device == null ? null : device.getSettings();
+		mCamInfo  = device == null ? null : device.getInfo();
 
 		mSupportedPreviewSizes = null;  // Cause these two values to be regenerated
 		mBestPreviewSize = null;        // the first time through surfaceChanged().
 		                                // TODO:  this is just wrong
 	}
 
-	public void setCameraInfo( Camera.CameraInfo camInfo ) {
-		mCamInfo = camInfo;
+	public int getPictureRotation() {
+	/**
+	 * Clockwise degrees a picture taken now has to be turned to be upright, as
+	 * worked out in surfaceChanged().
+	 *
+	 */
+		return mPictureRotation;
 	}
 
+	public int getPictureRotation( Camera.CameraInfo info ) {
+	/**
+	 * The same for some other camera, which needn't be open, held the way the
+	 * device is now.
+	 *
+	 */
+		return getImageRotation( getDeviceOrientation(), info );
+	}
 
 	/**
 	 * SurfaceHolder callback interface.
@@ -193,10 +212,10 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 
 		previewStop();
 
-		// Get the current camera parameters;  we will potentially change some and
-		// set them later with setParameters().
+		// Get the cached camera parameters;  we will potentially change some and
+		// commit them all at once later.
 
-		Camera.Parameters camParams = mCamera.getParameters();
+		Camera.Parameters camParams = mSettings.getParameters();
 
 		// To properly handle device orientation changes, we need two things:
 		// the camera orientation as it's mounted on the device, and the device's
@@ -210,10 +229,16 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 		// display) and the image rotation (how the resulting photo is oriented).
 
 		int displayRotation = getDisplayRotation( deviceOrientation, mCamInfo.orientation );
-		int imageRotation   = getImageRotation  ( deviceOrientation, mCamInfo.orientation );
+		int imageRotation   = getImageRotation  ( deviceOrientation, mCamInfo );
 
 		mCamera.setDisplayOrientation( displayRotation );
-		camParams.setRotation( imageRotation );
+
+		// Leave the camera's own rotation at 0:  many cameras honour it by turning the
+		// full-size JPEG round, which slows down every picture.  The capture pipeline
+		// records the rotation in the saved file's EXIF orientation tag instead.
+
+		mSettings.setRotation( 0 );
+		mPictureRotation = imageRotation;
 
 		// Finally, determine a good preview size based on our display dimensions and
 		// and what sizes the camera supports, but only if we haven't calculated it
@@ -232,10 +257,10 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 		}
 
 		if ( mBestPreviewSize != null ) {
-			camParams.setPreviewSize( mBestPreviewSize.width, mBestPreviewSize.height );
+			mSettings.setPreviewSize( mBestPreviewSize.width, mBestPreviewSize.height );
 		}
 
-		mCamera.setParameters( camParams );
+		mSettings.commit();  // Skipped if nothing actually changed
 
 		Log.d( TAG, "surfaceChanged: set the following:"
 			 // + "  dspMode="   + (displayMode == INDEX_PORTRAIT ? "portrait" : "landscape" )
@@ -269,7 +294,7 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 
 		try {
 			mCamera.setPreviewDisplay( mSurfaceHolder );
-			mCamera.startPreview();
+			mDevice.startPreview();
 		}
 		catch (Exception e) {
 			Log.d( TAG, "exception from startPreview(): " + e.getMessage() );
@@ -284,7 +309,7 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 		Log.d( TAG, "previewStop()" );
 
 		try {
-			mCamera.stopPreview();
+			mDevice.stopPreview();
 		}
 		catch ( Exception e ) {
 			Log.d( TAG, "exception from stopPreview(): " + e.getMessage() );
@@ -368,20 +393,21 @@ public class CamPreview extends SurfaceView implements SurfaceHolder.Callback {
 	}  // getDisplayRotation
 
 
-	private int getImageRotation( int degrees, int offset ) {
+	private int getImageRotation( int degrees, Camera.CameraInfo info ) {
 	/**
 	 * Determine the image rotation based on how the device is being held
 	 * and how the camera is mounted on the device.
 	 * 
 	 * @param degrees  Device position (0, 90, 180, or 270)
-	 * @param offset   Camera position (0, 90, 180, or 270)
+	 * @param info     Camera facing and position (0, 90, 180, or 270)
 	 * 
 	 */
 		Log.d( TAG, "getImageRotation()" );
 
 		int rotation = 0;
+		int offset   = info.orientation;
 
-		if ( mCamInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT ) {
+		if ( info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT ) {
 			rotation = ( offset + degrees ) % 360;
 		} else {
 			rotation = ( offset - degrees + 360 ) % 360;
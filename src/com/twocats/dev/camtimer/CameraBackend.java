@@ -0,0 +1,19 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CameraBackend interface is where CameraDevices come from.  The hardware
+ * backend just wraps Camera.open();  the simulated one makes them up.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+
+public interface CameraBackend {
+
+	int getNumberOfCameras();
+
+	CameraDevice open( int whichCamera );  // Throws RuntimeException if the camera can't be opened
+
+}  // interface CameraBackend
@@ -0,0 +1,55 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CameraDevice interface is the part of a camera the capture pipeline needs:
+ * starting and stopping the preview, taking a picture, and getting preview frames.
+ * It deliberately says nothing about Android, so the same pipeline can be driven
+ * by the real hardware (HardwareCamera) or by a simulation (SimulatedBackend).
+ *
+ * Like android.hardware.Camera, a device is not thread-safe;  call it from one
+ * thread at a time.  Callbacks arrive on whatever thread the backend uses.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+
+public interface CameraDevice {
+
+	public interface PictureListener {
+	/**
+	 * Receives the results of takePicture().  Exactly one of onPictureTaken()
+	 * or onError() is called for each picture.
+	 *
+	 */
+		void onShutter();
+		void onPictureTaken( byte[] jpeg );
+		void onError( Exception e );
+	}
+
+	public interface PreviewListener {
+	/**
+	 * Receives preview frames in NV21 format.  The data array is recycled as
+	 * soon as the call returns, so copy anything you want to keep.
+	 *
+	 */
+		void onPreviewFrame( byte[] data, int width, int height );
+	}
+
+
+	int     getId();            // Zero-based camera index
+	boolean isFrontFacing();
+
+	void    startPreview();
+	void    stopPreview();
+	boolean isPreviewRunning();
+
+	void    takePicture( PictureListener listener );  // Stops the preview, like the real thing
+
+	void    addPreviewListener   ( PreviewListener listener );
+	void    removePreviewListener( PreviewListener listener );
+
+	void    release();
+
+}  // interface CameraDevice
@@ -0,0 +1,230 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CameraLinger class decides when to let go of the camera after the activity
+ * pauses.  Pulling down the notification shade or glancing at another app pauses
+ * us, and closing the camera then costs a full Camera.open() when we come back,
+ * which on some phones is most of a second.  So on pause only the preview is
+ * stopped, and the camera is kept for a grace period;  a resume within it just
+ * restarts the preview.
+ *
+ * The camera is let go of straight away, grace or not, when:
+ *
+ *   - the grace period runs out,
+ *   - the system's short of memory, or we've been put in the background for
+ *     real (the activity tells us, from onTrimMemory() and so on),
+ *   - somebody else wants the camera (the camera service evicts us), or the
+ *     activity's finishing,
+ *   - we're out of sight, before Android 6 (API 23).  The camera service can't
+ *     evict an old-API client there, so another app wanting the camera would
+ *     just fail to open it;  the grace then only covers being paused in view.
+ *
+ * It also keeps how long resumes take to the first preview frame, warm (the
+ * camera kept) and cold (opened again), so the two can be compared.
+ *
+ * It's pure Java;  the activity supplies the camera actions and a scheduler, the
+ * same one the duty cycler uses.  All calls must come from the scheduler's thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+
+public class CameraLinger {
+
+	public interface Actions {
+	/**
+	 * What the linger can do to the camera.
+	 *
+	 */
+		void stopPreview();
+		void releaseCamera();
+	}
+
+	// Why the camera was let go of.
+
+	static final int EXPIRED   = 0;  // Grace period ran out
+	static final int MEMORY    = 1;  // Memory pressure, or put in the background
+	static final int EVICTED   = 2;  // Somebody else wanted it
+	static final int FINISHING = 3;  // The activity's going away
+	static final int NO_GRACE  = 4;  // Released on pause, as there's no grace period
+	static final int HIDDEN    = 5;  // Out of sight, where nobody could evict us
+
+	static final String[] REASON_NAMES = { "expired", "memory", "evicted", "finishing", "no grace", "hidden" };
+
+	private final Actions              mActions;
+	private final DutyCycler.Scheduler mScheduler;
+	private long                       mGraceMs;
+
+	private boolean mLingering   = false;  // Paused, with the camera still held
+	private long    mPausedAt    = 0;
+	private long    mResumedAt   = 0;      // Waiting for the first frame since, 0 if not
+	private boolean mResumedWarm = false;  // ... with the camera kept
+
+	// Metrics.
+
+	private final int[]        mReleases  = new int[ REASON_NAMES.length ];
+	private int                mWarm      = 0;  // Resumes that found the camera kept
+	private int                mCold      = 0;
+	private long               mLingerMs  = 0;  // Time spent holding the camera while paused
+	private final LatencyStats mWarmStats = new LatencyStats( "warm resume" );
+	private final LatencyStats mColdStats = new LatencyStats( "cold resume" );
+
+
+	//
+	// Class constructor.
+	//
+	public CameraLinger( Actions actions, DutyCycler.Scheduler scheduler, long graceMs ) {
+		mActions   = actions;
+		mScheduler = scheduler;
+		mGraceMs   = graceMs;
+	}
+
+
+	public void setGrace( long ms ) {
+	/**
+	 * Change the grace period;  0 means release on pause.  A camera that's already
+	 * lingering gets the new period from when it was paused.
+	 *
+	 */
+		mGraceMs = ms;
+
+		if ( !mLingering ) return;
+
+		mScheduler.cancel( mExpire );
+		long left = mPausedAt + ms - mScheduler.now();
+
+		if ( left > 0 ) mScheduler.schedule( mExpire, left );
+		else            release( EXPIRED );
+	}
+
+	public long getGrace() {
+		return mGraceMs;
+	}
+
+	public boolean pause( boolean haveCamera ) {
+	/**
+	 * The activity's pausing.  Stop the preview, and keep the camera for the grace
+	 * period if there is one.
+	 *
+	 * @param haveCamera  Whether there's a camera open at all.
+	 * @return true if the camera's been kept, false if it's been let go of (or
+	 *         there wasn't one).
+	 */
+		mResumedAt = 0;
+		if ( !haveCamera ) return false;
+
+		if ( mGraceMs <= 0 ) {
+			mActions.releaseCamera();
+			mReleases[ NO_GRACE ]++;
+			return false;
+		}
+
+		mActions.stopPreview();
+		mLingering = true;
+		mPausedAt  = mScheduler.now();
+		mScheduler.schedule( mExpire, mGraceMs );
+		return true;
+	}
+
+	public boolean resume() {
+	/**
+	 * The activity's back.  The resume's timed from now until onPreviewFrame().
+	 *
+	 * @return true if the camera's still held, so only the preview needs starting;
+	 *         false if it has to be opened.
+	 */
+		boolean warm = mLingering;
+
+		if ( warm ) {
+			mScheduler.cancel( mExpire );
+			mLingerMs += mScheduler.now() - mPausedAt;
+			mLingering = false;
+			mWarm++;
+		} else {
+			mCold++;
+		}
+
+		mResumedAt   = mScheduler.now();
+		mResumedWarm = warm;
+		return warm;
+	}
+
+	public void onPreviewFrame() {
+	/**
+	 * A preview frame's arrived;  the first since resume() ends its timing.
+	 *
+	 */
+		if ( mResumedAt == 0 ) return;
+
+		long nanos = ( mScheduler.now() - mResumedAt ) * 1000000L;
+		( mResumedWarm ? mWarmStats : mColdStats ).add( nanos );
+		mResumedAt = 0;
+	}
+
+	public void release( int reason ) {
+	/**
+	 * Let go of the camera now if it's lingering.  Nothing happens if it isn't:
+	 * while we're resumed, it's ours.
+	 *
+	 */
+		if ( !mLingering ) return;
+
+		mScheduler.cancel( mExpire );
+		mLingerMs += mScheduler.now() - mPausedAt;
+		mLingering = false;
+		mReleases[ reason ]++;
+
+		mActions.releaseCamera();
+	}
+
+	public void forget() {
+	/**
+	 * The camera's gone without us, for instance the camera service evicted it
+	 * while we were resumed.  Stop timing it, and stop waiting to release it.
+	 *
+	 */
+		if ( mLingering ) {
+			mScheduler.cancel( mExpire );
+			mLingerMs += mScheduler.now() - mPausedAt;
+			mLingering = false;
+		}
+		mResumedAt = 0;
+	}
+
+	public boolean isLingering() {
+		return mLingering;
+	}
+
+	private Runnable mExpire = new Runnable() {
+		public void run() {
+			release( EXPIRED );
+		}
+	};
+
+
+	//
+	// Metrics.
+	//
+
+	public int getWarmCount() { return mWarm; }
+	public int getColdCount() { return mCold; }
+	public int getReleaseCount( int reason ) { return mReleases[ reason ]; }
+
+	public LatencyStats getWarmStats() { return mWarmStats; }
+	public LatencyStats getColdStats() { return mColdStats; }
+
+	public String getStats() {
+		StringBuilder s = new StringBuilder( "grace=" + mGraceMs + " lingering=" + mLingering
+		                                   + " warm=" + mWarm + " cold=" + mCold + " heldMs=" + mLingerMs
+		                                   + " released:" );
+
+		for ( int i = 0; i < REASON_NAMES.length; i++ )
+			s.append( ' ' ).append( REASON_NAMES[ i ] ).append( '=' ).append( mReleases[ i ] );
+
+		return s.append( "\n  " ).append( mWarmStats.summary() )
+		        .append( "\n  " ).append( mColdStats.summary() ).toString();
+	}
+
+}  // class CameraLinger
@@ -0,0 +1,290 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CameraSettings class keeps a cached copy of the camera's parameters so we
+ * don't have to keep round-tripping them through getParameters()/setParameters(),
+ * both of which go through a flattened string and are slow.
+ *
+ * Changes are recorded as dirty fields and only sent to the camera when commit()
+ * is called, so several changes made during one operation cost a single
+ * setParameters() call.
+ *
+ * The last committed parameters of each camera are also kept after it's released.
+ * Opening that camera again just sends them straight back with one setParameters()
+ * instead of reading the defaults and changing them all over again, which matters
+ * when switching cameras in a hurry (see DualCapture).
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+// I used the older Camera API instead of the current Camera2 which appeared in API level 21.
+@SuppressWarnings("deprecation")
+
+
+public class CameraSettings {
+/**
+ * Wraps one open camera.  Create a new one each time a camera is opened, and
+ * throw it away when the camera is released.
+ *
+ */
+	private final String TAG = "CamTimer.CameraSettings";  // For logging purposes
+
+	// Keys as they appear in the flattened parameter string.
+
+	static final String KEY_FOCUS_MODE   = "focus-mode";
+	static final String KEY_FLASH_MODE   = "flash-mode";
+	static final String KEY_ROTATION     = "rotation";
+	static final String KEY_PREVIEW_SIZE = "preview-size";
+	static final String KEY_PREVIEW_FPS  = "preview-fps-range";
+
+	// Last committed parameters of each camera, by id, kept across opens.
+	private static final Map<Integer,Camera.Parameters> sLastParams = new HashMap<Integer,Camera.Parameters>();
+
+	private Camera             mCamera;         // Camera these settings belong to
+	private int                mId;             // Which camera it is
+	private boolean            mRestored = false;  // Parameters came from the last time it was open
+	private Camera.Parameters  mParams;         // Last committed state
+	private Map<String,String> mDirty = new LinkedHashMap<String,String>();  // Pending changes
+
+	private int            mCommitCount  = 0;   // Number of setParameters() calls made
+	private int            mSkipCount    = 0;   // Number of commits skipped, nothing changed
+	private int            mFailCount    = 0;   // Number of setParameters() calls that threw
+	private long           mCommitNanos  = 0;   // Total time spent in setParameters()
+	private long           mLastNanos    = 0;   // Time spent in the last setParameters()
+	private long           mMaxNanos     = 0;   // Longest setParameters() so far
+
+
+	//
+	// Class constructor.
+	//
+	CameraSettings( Camera cam, int cameraId ) {
+	/**
+	 * If we've had this camera open before, put back the parameters it had then;
+	 * otherwise read its parameters once.  From then on we work from the cache.
+	 *
+	 * @param cam        The camera, which must already be open.
+	 * @param cameraId   Which camera it is.
+	 *
+	 */
+		mCamera = cam;
+		mId     = cameraId;
+
+		Camera.Parameters last;
+
+		synchronized( sLastParams ) {
+			last = sLastParams.get( cameraId );
+		}
+
+		if ( last != null ) {
+			long start = System.nanoTime();
+
+			try {
+				cam.setParameters( last );
+
+				mParams    = last;
+				mRestored  = true;
+				mLastNanos = System.nanoTime() - start;
+				mCommitNanos += mLastNanos;
+				mMaxNanos  = mLastNanos;
+				mCommitCount++;
+				return;
+			}
+			catch( RuntimeException e ) {
+				Log.d( TAG, "CameraSettings: couldn't restore camera " + cameraId + ": " + e.getMessage() );
+			}
+		}
+
+		mParams = cam.getParameters();
+		remember();
+	}
+
+	public boolean isRestored() {
+		return mRestored;
+	}
+
+	private void remember() {
+		synchronized( sLastParams ) {
+			sLastParams.put( mId, mParams );
+		}
+	}
+
+
+	public Camera.Parameters getParameters() {
+	/**
+	 * Returns the cached, last committed parameters.  Use this for reading
+	 * things like the supported sizes and modes;  don't change it directly,
+	 * use the setters below so the change gets tracked.
+	 *
+	 */
+		return mParams;
+	}
+
+
+	//
+	// Setters.  These only record the change;  nothing reaches the camera until commit().
+	//
+
+	public void set( String key, String value ) {
+	/**
+	 * Record a change to the given parameter.  If the value matches what's already
+	 * committed, any pending change to it is dropped instead.
+	 *
+	 */
+		String current = mParams.get( key );
+
+		if ( value == null || value.equals( current ) )
+			mDirty.remove( key );
+		else
+			mDirty.put( key, value );
+	}
+
+	public boolean setFocusMode( String mode ) {
+	/**
+	 * Set the focus mode if the camera supports it.
+	 *
+	 * @return true if the mode is supported.
+	 */
+		if ( !isSupported( mParams.getSupportedFocusModes(), mode )) return false;
+
+		set( KEY_FOCUS_MODE, mode );
+		return true;
+	}
+
+	public boolean setFlashMode( String mode ) {
+	/**
+	 * Set the flash mode if the camera supports it.
+	 *
+	 * @return true if the mode is supported.
+	 */
+		if ( !isSupported( mParams.getSupportedFlashModes(), mode )) return false;
+
+		set( KEY_FLASH_MODE, mode );
+		return true;
+	}
+
+	public void setRotation( int degrees ) {
+		set( KEY_ROTATION, Integer.toString( degrees ));
+	}
+
+	public void setPreviewSize( int width, int height ) {
+		set( KEY_PREVIEW_SIZE, width + "x" + height );
+	}
+
+	public void setPreviewFpsRange( int min, int max ) {
+	/**
+	 * Frames per thousand seconds, one of getSupportedPreviewFpsRange().
+	 *
+	 */
+		set( KEY_PREVIEW_FPS, min + "," + max );
+	}
+
+	private static boolean isSupported( List<String> supported, String value ) {
+		return supported != null && supported.contains( value );
+	}
+
+
+	//
+	// Committing.
+	//
+
+	public boolean isDirty() {
+		return !mDirty.isEmpty();
+	}
+
+	public void discard() {
+	/**
+	 * Forget any changes that haven't been committed yet.
+	 *
+	 */
+		mDirty.clear();
+	}
+
+	public boolean commit() {
+	/**
+	 * Send all pending changes to the camera in a single setParameters() call.
+	 * If nothing has changed since the last commit, we don't call it at all.
+	 *
+	 * @return true if setParameters() was called and succeeded.
+	 */
+		if ( mDirty.isEmpty() ) {
+			mSkipCount++;
+			return false;
+		}
+
+		String before = mParams.flatten();  // To go back to if the camera can't tell us
+
+		for ( Map.Entry<String,String> e : mDirty.entrySet() )
+			mParams.set( e.getKey(), e.getValue() );
+
+		Log.d( TAG, "commit: " + mDirty );
+		mDirty.clear();
+
+		long start = System.nanoTime();
+
+		try {
+			mCamera.setParameters( mParams );
+		}
+		catch( RuntimeException e ) {
+			Log.d( TAG, "commit: exception from setParameters(): " + e.getMessage() );
+			mFailCount++;
+
+			// We don't know what the camera actually accepted, so re-read it.  A dead
+			// camera (the usual reason setParameters() throws) won't say either;  then
+			// we keep what we had.
+
+			try {
+				mParams = mCamera.getParameters();
+				remember();
+			}
+			catch( RuntimeException e2 ) {
+				Log.d( TAG, "commit: exception from getParameters(): " + e2.getMessage() );
+				mParams.unflatten( before );
+			}
+			return false;
+		}
+
+		mLastNanos    = System.nanoTime() - start;
+		mCommitNanos += mLastNanos;
+		mMaxNanos     = Math.max( mMaxNanos, mLastNanos );
+		mCommitCount++;
+
+		remember();
+		return true;
+
+	}  // commit
+
+
+	//
+	// Metrics.
+	//
+
+	public int  getCommitCount()      { return mCommitCount; }
+	public int  getSkipCount()        { return mSkipCount; }
+	public int  getFailCount()        { return mFailCount; }
+	public long getLastCommitNanos()  { return mLastNanos; }
+	public long getMaxCommitNanos()   { return mMaxNanos; }
+
+	public long getMeanCommitNanos() {
+		return mCommitCount == 0 ? 0 : mCommitNanos / mCommitCount;
+	}
+
+	public String getStats() {
+		return ( mRestored ? "restored " : "" )
+		     + "commits=" + mCommitCount
+		     + " skipped=" + mSkipCount
+		     + " failed="  + mFailCount
+		     + " meanMs="  + ( getMeanCommitNanos() / 1000000.0 )
+		     + " maxMs="   + ( mMaxNanos / 1000000.0 );
+	}
+
+}  // class CameraSettings
@@ -0,0 +1,679 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CaptureCatalog class remembers every picture the app has saved as an
+ * ordinary file:  where it is, how big, when it was taken, with which camera and
+ * in what mode, and which sequence (one press of the timer) it came from.  That
+ * way "recent shots", space used and cleaning up never have to list the shared
+ * pictures directory, which can hold tens of thousands of files.
+ *
+ * On disk it's a log:  an 8 byte header (magic, version), then records that are
+ * only ever appended, each an int length, a CRC32 of the payload, and the payload
+ * (an added entry, or the id of a removed one).  A torn record at the end, left by
+ * a crash, is cut off when the catalog is loaded.  When most of the log is about
+ * removed entries it's rewritten with just the live ones.
+ *
+ * In memory, entries are indexed by id, by path and by sequence (hash maps), and
+ * kept in a list in time order for range queries.  Removed entries stay in that
+ * list, marked, until there are enough of them to be worth sweeping out.
+ *
+ * All methods are synchronized;  in the app entries are added on the save
+ * executor and removed by the QuotaEnforcer.  A picture's saved some time after
+ * it's taken, maybe once the next sequence has begun, so the wrapper files it by
+ * its capture time under the sequence that was running then.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+public class CaptureCatalog {
+
+	public interface Listener {
+	/**
+	 * Hears about each entry added, on the thread that added it, outside the lock.
+	 *
+	 */
+		void onAdded( Entry entry );
+	}
+
+	static final int  MAGIC   = 0x4354434C;  // "CTCL"
+	static final int  VERSION = 1;
+	static final int  HEADER  = 8;
+	static final byte ADD     = 1;
+	static final byte REMOVE  = 2;
+
+	static final int  MAX_RECORD   = 65536;  // Anything longer is corruption
+	static final int  MIN_COMPACT  = 1000;   // Removals before the log's worth rewriting
+	static final int  FILINGS_KEPT = 32;     // Recent sequences a late picture can still be filed under
+
+	// Capture modes.
+
+	public static final int MODE_SINGLE  = 0;
+	public static final int MODE_BURST   = 1;  // Sharpest of a burst
+	public static final int MODE_DUAL    = 2;  // Front and back
+	public static final int MODE_VIDEO   = 3;  // Preview frames
+	public static final int MODE_COLLAGE = 4;  // Photo booth pictures, and their collage
+
+	static final String[] MODE_NAMES = { "single", "burst", "dual", "video", "collage" };
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	public static class Entry {
+	/**
+	 * One saved picture.
+	 *
+	 */
+		public final long   id;
+		public final long   sequence;
+		public final String path;
+		public final long   size;       // Bytes
+		public final long   timestamp;  // Milliseconds since the epoch
+		public final int    camera;
+		public final int    mode;
+		boolean             removed = false;
+
+		Entry( long id, long sequence, String path, long size, long timestamp, int camera, int mode ) {
+			this.id        = id;
+			this.sequence  = sequence;
+			this.path      = path;
+			this.size      = size;
+			this.timestamp = timestamp;
+			this.camera    = camera;
+			this.mode      = mode;
+		}
+
+		public String toString() {
+			return path + " (" + size + " bytes, camera " + camera + ", " + MODE_NAMES[ mode ] + ")";
+		}
+	}
+
+	private static class Filing {
+	/**
+	 * A sequence, and from when pictures belong to it.
+	 *
+	 */
+		final long start;     // Milliseconds since the epoch
+		final long sequence;
+		final int  camera;
+		final int  mode;
+
+		Filing( long start, long sequence, int camera, int mode ) {
+			this.start    = start;
+			this.sequence = sequence;
+			this.camera   = camera;
+			this.mode     = mode;
+		}
+	}
+
+	private static final Comparator<Entry> BY_TIME = new Comparator<Entry>() {
+		public int compare( Entry a, Entry b ) {
+			if ( a.timestamp != b.timestamp ) return a.timestamp < b.timestamp ? -1 : 1;
+			return a.id < b.id ? -1 : a.id > b.id ? 1 : 0;
+		}
+	};
+
+	private final File mFile;
+	private RandomAccessFile mLog;
+	private volatile Listener mListener;
+
+	private final Map<Long,Entry>         mById       = new HashMap<Long,Entry>();
+	private final Map<String,Entry>       mByPath     = new HashMap<String,Entry>();
+	private final Map<Long,List<Entry>>   mBySequence = new HashMap<Long,List<Entry>>();
+	private final ArrayList<Entry>        mByTime     = new ArrayList<Entry>();  // Includes removed ones
+	private int  mSwept      = 0;  // Removed entries still in mByTime
+	private int  mDeadRecords = 0; // Records in the log about removed entries
+
+	private long mTotalBytes   = 0;
+	private long mNextId       = 1;
+	private long mNextSequence = 1;
+
+	// What the writer wrapper files new pictures under, newest last.
+
+	private final LinkedList<Filing> mFilings = new LinkedList<Filing>();
+
+	// Reused for each record.
+
+	private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream( 256 );
+	private final DataOutputStream      mRecord      = new DataOutputStream( mRecordBytes );
+	private final CRC32                 mCrc         = new CRC32();
+
+	// Metrics.
+
+	private long mLoadNanos   = 0;
+	private int  mLoadRecords = 0;
+	private long mTruncated   = 0;  // Bytes of torn record cut off at load
+	private int  mCompactions = 0;
+	private int  mUnrecorded  = 0;  // Pictures saved that couldn't be added
+
+
+	//
+	// Class constructor.
+	//
+	public CaptureCatalog( File file ) throws IOException {
+	/**
+	 * Load the catalog from the given file, creating it if it doesn't exist.
+	 *
+	 */
+		mFile = file;
+
+		File dir = file.getParentFile();
+		if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+			throw new IOException( "can't create " + dir );
+
+		load();
+	}
+
+
+	public void setListener( Listener listener ) {
+		mListener = listener;
+	}
+
+	public synchronized void close() throws IOException {
+		if ( mLog != null ) mLog.close();
+		mLog = null;
+	}
+
+
+	//
+	// Adding and removing.
+	//
+
+	public long beginSequence( int camera, int mode ) {
+	/**
+	 * Pictures taken from now on, and saved through wrap(), belong to a new
+	 * sequence, taken with the given camera in the given mode.
+	 *
+	 * @return The sequence number.
+	 */
+		return beginSequence( camera, mode, System.currentTimeMillis() );
+	}
+
+	synchronized long beginSequence( int camera, int mode, long start ) {
+		long sequence = mNextSequence++;
+
+		mFilings.addLast( new Filing( start, sequence, camera, mode ));
+		if ( mFilings.size() > FILINGS_KEPT ) mFilings.removeFirst();
+
+		return sequence;
+	}
+
+	private synchronized Filing filingAt( long timestamp ) {
+	/**
+	 * The sequence that was running when a picture was taken.  One older than
+	 * every sequence we still know of goes in the oldest.
+	 *
+	 */
+		if ( mFilings.isEmpty() ) return new Filing( 0, 0, 0, MODE_SINGLE );
+
+		for ( Iterator<Filing> i = mFilings.descendingIterator(); i.hasNext(); ) {
+			Filing f = i.next();
+			if ( f.start <= timestamp ) return f;
+		}
+
+		return mFilings.getFirst();
+	}
+
+	public CapturePipeline.ImageWriter wrap( final CapturePipeline.ImageWriter writer ) {
+	/**
+	 * An ImageWriter that saves through the given one, then adds what it saved to
+	 * the catalog under the sequence running at its capture time.  If the catalog
+	 * can't be written the picture's still saved;  it's just not catalogued, and
+	 * counted.
+	 *
+	 */
+		return new CapturePipeline.ImageWriter() {
+			public File write( byte[] jpeg, long timestamp ) throws IOException {
+				File   file = writer.write( jpeg, timestamp );
+				Filing f    = filingAt( timestamp );
+
+				try {
+					add( file.getPath(), jpeg.length, timestamp, f.camera, f.mode, f.sequence );
+				}
+				catch( IOException e ) {
+					synchronized( CaptureCatalog.this ) {
+						mUnrecorded++;
+					}
+				}
+
+				return file;
+			}
+		};
+	}
+
+	public Entry add( String path, long size, long timestamp, int camera, int mode, long sequence ) throws IOException {
+	/**
+	 * Record a picture.  A picture already recorded at the same path replaces the
+	 * old entry.
+	 *
+	 */
+		Entry e;
+
+		synchronized( this ) {
+			Entry old = mByPath.get( path );
+			if ( old != null ) remove( old );
+
+			e = new Entry( mNextId, sequence, path, size, timestamp, camera, mode );
+
+			startRecord( ADD );
+			writeAdd( e );
+			appendRecord();
+
+			mNextId++;
+			mNextSequence = Math.max( mNextSequence, sequence + 1 );
+			index( e );
+		}
+
+		Listener listener = mListener;
+		if ( listener != null ) listener.onAdded( e );
+
+		return e;
+	}
+
+	public synchronized boolean remove( Entry e ) throws IOException {
+	/**
+	 * Forget a picture, by its id.  This doesn't delete it.
+	 *
+	 * @return false if it wasn't in the catalog.
+	 */
+		e = mById.get( e.id );
+		if ( e == null ) return false;
+
+		startRecord( REMOVE );
+		mRecord.writeLong( e.id );
+		appendRecord();
+
+		unindex( e );
+		mDeadRecords += 2;  // Its own and this one
+
+		if ( mDeadRecords >= MIN_COMPACT && mDeadRecords > mById.size() ) compact();
+		else if ( mSwept > mByTime.size() / 2 ) sweep();
+
+		return true;
+	}
+
+
+	//
+	// Lookups.
+	//
+
+	public synchronized int size() {
+		return mById.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return mTotalBytes;
+	}
+
+	public synchronized Entry get( long id ) {
+		return mById.get( id );
+	}
+
+	public synchronized Entry find( String path ) {
+		return mByPath.get( path );
+	}
+
+	public synchronized List<Entry> getSequence( long sequence ) {
+		List<Entry> entries = mBySequence.get( sequence );
+		return entries == null ? new ArrayList<Entry>() : new ArrayList<Entry>( entries );
+	}
+
+	public synchronized List<Entry> range( long from, long to ) {
+	/**
+	 * Pictures taken from from up to but not including to, oldest first.
+	 *
+	 */
+		List<Entry> found = new ArrayList<Entry>();
+
+		for ( int i = lowerBound( from ); i < mByTime.size(); i++ ) {
+			Entry e = mByTime.get( i );
+			if ( e.timestamp >= to ) break;
+			if ( !e.removed ) found.add( e );
+		}
+
+		return found;
+	}
+
+	public synchronized List<Entry> recent( int count ) {
+	/**
+	 * The newest pictures, newest first.
+	 *
+	 */
+		List<Entry> found = new ArrayList<Entry>( Math.min( count, mById.size() ));
+
+		for ( int i = mByTime.size() - 1; i >= 0 && found.size() < count; i-- ) {
+			Entry e = mByTime.get( i );
+			if ( !e.removed ) found.add( e );
+		}
+
+		return found;
+	}
+
+	public synchronized List<Entry> oldestSequence() {
+	/**
+	 * Every picture in the sequence of the oldest picture, or an empty list if
+	 * there's nothing in the catalog.
+	 *
+	 */
+		for ( int i = 0; i < mByTime.size(); i++ ) {
+			Entry e = mByTime.get( i );
+			if ( !e.removed ) return getSequence( e.sequence );
+		}
+
+		return new ArrayList<Entry>();
+	}
+
+	public synchronized long newestSequence() {
+		List<Entry> newest = recent( 1 );
+		return newest.isEmpty() ? 0 : newest.get( 0 ).sequence;
+	}
+
+	private int lowerBound( long timestamp ) {
+	/**
+	 * Index in mByTime of the first entry at or after the timestamp.
+	 *
+	 */
+		int lo = 0, hi = mByTime.size();
+
+		while ( lo < hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			if ( mByTime.get( mid ).timestamp < timestamp ) lo = mid + 1;
+			else                                            hi = mid;
+		}
+
+		return lo;
+	}
+
+
+	//
+	// The in-memory index.
+	//
+
+	private void index( Entry e ) {
+		mById.put( e.id, e );
+		mByPath.put( e.path, e );
+
+		List<Entry> seq = mBySequence.get( e.sequence );
+		if ( seq == null ) {
+			seq = new ArrayList<Entry>( 4 );
+			mBySequence.put( e.sequence, seq );
+		}
+		seq.add( e );
+
+		// Nearly always the newest;  otherwise it goes in its place.
+
+		int n = mByTime.size();
+		if ( n == 0 || BY_TIME.compare( mByTime.get( n - 1 ), e ) < 0 )
+			mByTime.add( e );
+		else
+			mByTime.add( -Collections.binarySearch( mByTime, e, BY_TIME ) - 1, e );
+
+		mTotalBytes += e.size;
+	}
+
+	private void unindex( Entry e ) {
+		mById.remove( e.id );
+		if ( mByPath.get( e.path ) == e ) mByPath.remove( e.path );
+
+		List<Entry> seq = mBySequence.get( e.sequence );
+		seq.remove( e );
+		if ( seq.isEmpty() ) mBySequence.remove( e.sequence );
+
+		e.removed = true;
+		mSwept++;
+		mTotalBytes -= e.size;
+	}
+
+	private void sweep() {
+	/**
+	 * Take the removed entries out of the time-ordered list.
+	 *
+	 */
+		int kept = 0;
+
+		for ( int i = 0; i < mByTime.size(); i++ ) {
+			Entry e = mByTime.get( i );
+			if ( !e.removed ) mByTime.set( kept++, e );
+		}
+
+		mByTime.subList( kept, mByTime.size() ).clear();
+		mSwept = 0;
+	}
+
+
+	//
+	// The log.
+	//
+
+	private void startRecord( byte type ) throws IOException {
+		mRecordBytes.reset();
+		mRecord.writeInt( 0 );  // Length and CRC, filled in by appendRecord()
+		mRecord.writeInt( 0 );
+		mRecord.writeByte( type );
+	}
+
+	private void writeAdd( Entry e ) throws IOException {
+		mRecord.writeLong( e.id );
+		mRecord.writeLong( e.sequence );
+		mRecord.writeLong( e.timestamp );
+		mRecord.writeLong( e.size );
+		mRecord.writeByte( e.camera );
+		mRecord.writeByte( e.mode );
+
+		byte[] path = e.path.getBytes( UTF8 );
+		mRecord.writeShort( path.length );
+		mRecord.write( path );
+	}
+
+	private void appendRecord() throws IOException {
+		ByteBuffer record = ByteBuffer.wrap( recordBytes() );
+		FileChannel ch = mLog.getChannel();
+
+		long pos = ch.size();
+		while ( record.hasRemaining() ) pos += ch.write( record, pos );
+	}
+
+	private byte[] recordBytes() {
+	/**
+	 * The record being built, with its length and CRC filled in.
+	 *
+	 */
+		byte[] bytes  = mRecordBytes.toByteArray();
+		int    length = bytes.length - 8;
+
+		mCrc.reset();
+		mCrc.update( bytes, 8, length );
+
+		ByteBuffer.wrap( bytes ).putInt( length ).putInt( (int) mCrc.getValue() );
+		return bytes;
+	}
+
+	private void load() throws IOException {
+	/**
+	 * Read the whole log and replay it.  Whatever follows the first bad record is
+	 * cut off.
+	 *
+	 */
+		long start = System.nanoTime();
+
+		mLog = new RandomAccessFile( mFile, "rw" );
+		FileChannel ch = mLog.getChannel();
+		long len = ch.size();
+
+		if ( len < HEADER ) {
+			mLog.setLength( 0 );
+			mLog.writeInt( MAGIC );
+			mLog.writeInt( VERSION );
+			mLoadNanos = System.nanoTime() - start;
+			return;
+		}
+
+		if ( len > Integer.MAX_VALUE ) throw new IOException( mFile + ": too big" );
+
+		ByteBuffer buf = ByteBuffer.allocate( (int) len );
+		while ( buf.hasRemaining() && ch.read( buf ) >= 0 ) { }
+		buf.flip();
+
+		if ( buf.getInt() != MAGIC || buf.getInt() != VERSION )
+			throw new IOException( mFile + ": not a capture catalog" );
+
+		byte[] data = buf.array();
+		boolean sorted = true;
+		Entry   last   = null;
+
+		while ( buf.remaining() >= 8 ) {
+			int pos    = buf.position();
+			int length = buf.getInt();
+			int crc    = buf.getInt();
+
+			if ( length < 1 || length > MAX_RECORD || length > buf.remaining() ) { buf.position( pos ); break; }
+
+			mCrc.reset();
+			mCrc.update( data, pos + 8, length );
+			if ( (int) mCrc.getValue() != crc ) { buf.position( pos ); break; }
+
+			int  end  = pos + 8 + length;
+			byte type = buf.get();
+
+			if ( type == ADD ) {
+				long id = buf.getLong(), sequence = buf.getLong(), timestamp = buf.getLong(), size = buf.getLong();
+				int  camera = buf.get(), mode = buf.get();
+				int  pathLen = buf.getShort() & 0xFFFF;
+
+				if ( buf.position() + pathLen != end || mode < 0 || mode >= MODE_NAMES.length ) { buf.position( pos ); break; }
+
+				Entry e = new Entry( id, sequence, new String( data, buf.position(), pathLen, UTF8 ),
+				                     size, timestamp, camera, mode );
+
+				Entry old = mByPath.get( e.path );
+				if ( old != null ) { unindex( old ); mDeadRecords++; }
+
+				// Load straight into the maps, and sort the time list once at the end
+				// if it has to be.
+
+				mById.put( e.id, e );
+				mByPath.put( e.path, e );
+
+				List<Entry> seq = mBySequence.get( e.sequence );
+				if ( seq == null ) {
+					seq = new ArrayList<Entry>( 4 );
+					mBySequence.put( e.sequence, seq );
+				}
+				seq.add( e );
+
+				if ( last != null && BY_TIME.compare( last, e ) > 0 ) sorted = false;
+				mByTime.add( e );
+				mTotalBytes += e.size;
+				last = e;
+
+				mNextId       = Math.max( mNextId, id + 1 );
+				mNextSequence = Math.max( mNextSequence, sequence + 1 );
+
+			} else if ( type == REMOVE && length == 9 ) {
+				Entry e = mById.get( buf.getLong() );
+				if ( e != null ) unindex( e );
+				mDeadRecords += 2;
+
+			} else {
+				buf.position( pos );
+				break;
+			}
+
+			buf.position( end );
+			mLoadRecords++;
+		}
+
+		if ( buf.position() < len ) {
+			mTruncated = len - buf.position();
+			ch.truncate( buf.position() );
+		}
+
+		if ( !sorted ) Collections.sort( mByTime, BY_TIME );
+		sweep();
+
+		mLoadNanos = System.nanoTime() - start;
+
+	}  // load
+
+	private void compact() throws IOException {
+	/**
+	 * Rewrite the log with only the live entries, and switch to it.
+	 *
+	 */
+		sweep();
+
+		File tmp = new File( mFile.getPath() + ".tmp" );
+		RandomAccessFile out = new RandomAccessFile( tmp, "rw" );
+
+		try {
+			out.setLength( 0 );
+
+			ByteArrayOutputStream all = new ByteArrayOutputStream( mByTime.size() * 96 );
+			DataOutputStream head = new DataOutputStream( all );
+			head.writeInt( MAGIC );
+			head.writeInt( VERSION );
+
+			for ( Entry e : mByTime ) {
+				startRecord( ADD );
+				writeAdd( e );
+				all.write( recordBytes() );
+			}
+
+			out.write( all.toByteArray() );
+			out.getFD().sync();
+		}
+		finally {
+			out.close();
+		}
+
+		mLog.close();
+
+		if ( !tmp.renameTo( mFile ))
+			throw new IOException( "can't replace " + mFile );
+
+		mLog = new RandomAccessFile( mFile, "rw" );
+		mDeadRecords = 0;
+		mCompactions++;
+	}
+
+
+	//
+	// Metrics.
+	//
+
+	public long getLoadNanos()     { return mLoadNanos; }
+	public int  getLoadRecords()   { return mLoadRecords; }
+	public long getTruncated()     { return mTruncated; }
+	public synchronized int getCompactionCount() { return mCompactions; }
+
+	public synchronized String getStats() {
+		return "entries="   + mById.size()
+		     + " sequences=" + mBySequence.size()
+		     + " bytes="    + mTotalBytes
+		     + " loadMs="   + ( mLoadNanos / 1000000.0 )
+		     + " records="  + mLoadRecords
+		     + " truncated=" + mTruncated
+		     + " compactions=" + mCompactions
+		     + " unrecorded=" + mUnrecorded;
+	}
+
+}  // class CaptureCatalog
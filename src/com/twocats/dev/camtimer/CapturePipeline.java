@@ -0,0 +1,406 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CapturePipeline class takes a picture and saves it:  takePicture(), then the
+ * JPEG callback restarts the preview and hands the data to a background executor,
+ * which writes it out and tells the listener (so the activity can toast and get
+ * the media scanner to pick it up).
+ *
+ * Before saving, each image is tagged with its orientation and capture time by an
+ * ExifRewriter.  The camera itself is left at rotation 0, since asking it to rotate
+ * means many cameras turn the whole full-size JPEG round, which is slow.
+ *
+ * A burst (captureBurst()) takes several pictures back to back and hands them to a
+ * BurstCuller, which scores their sharpness in memory;  only the sharpest few are
+ * saved, with their score in the EXIF image description, and the rest never touch
+ * the disk.
+ *
+ * It only talks to a CameraDevice and an ImageWriter, so the same code runs in the
+ * app and in the SoakHarness against a simulated camera.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class CapturePipeline {
+
+	public interface ImageWriter {
+	/**
+	 * Saves one JPEG somewhere.  Called on the save executor.
+	 *
+	 * @param jpeg        The image data.
+	 * @param timestamp   Capture time in milliseconds since the epoch.
+	 * @return The file the image ended up in.
+	 */
+		File write( byte[] jpeg, long timestamp ) throws IOException;
+	}
+
+	public interface Listener {
+	/**
+	 * Progress of a capture.  onShutter, onPictureTaken and onCaptureFailed come
+	 * on the camera's callback thread;  by the time either of the last two is
+	 * called the camera is ready for another picture.  onImageSaved and
+	 * onSaveFailed come on the save executor.
+	 *
+	 */
+		void onShutter();
+		void onPictureTaken();
+		void onCaptureFailed( Exception e );
+		void onImageSaved( File file );
+		void onSaveFailed( Exception e );
+	}
+
+
+	private CameraDevice  mDevice;                             // Current camera, may be null
+	private volatile ImageWriter mWriter;                      // Where images go
+	private Executor      mSaveExecutor;                       // Where writing happens
+	private Listener      mListener;                           // Who hears about it
+	private AtomicBoolean mBusy = new AtomicBoolean( false );  // True while a picture is in flight
+	private volatile int  mRotation = 0;                       // Clockwise degrees to make pictures upright
+	private volatile Executor mScoreExecutor;                  // Where burst pictures are scored
+	private volatile BurstCuller<Capture> mBurst = null;       // Burst still taking pictures, if any
+	private int           mBurstLeft = 0;                      // ... and how many it has still to take
+	private volatile Capture mInFlight = null;                 // Picture being taken, if any
+
+	private AtomicInteger mRequested = new AtomicInteger();    // capture() calls that started a picture
+	private AtomicInteger mSaved     = new AtomicInteger();
+	private AtomicInteger mFailed    = new AtomicInteger();    // Camera or save failures
+	private AtomicInteger mUntagged  = new AtomicInteger();    // Saved without EXIF tags, since the JPEG puzzled us
+	private AtomicInteger mCulled    = new AtomicInteger();    // Burst pictures dropped as not sharp enough
+
+	private LatencyStats  mShutterStats = new LatencyStats( "shutter" );  // Request to shutter
+	private LatencyStats  mJpegStats    = new LatencyStats( "jpeg" );     // Request to JPEG callback
+	private LatencyStats  mExifStats    = new LatencyStats( "exif" );     // Time tagging the JPEG
+	private LatencyStats  mScoreStats   = new LatencyStats( "score" );    // Time scoring a burst picture
+	private LatencyStats  mWriteStats   = new LatencyStats( "write" );    // Time in ImageWriter
+	private LatencyStats  mTotalStats   = new LatencyStats( "total" );    // Request to saved
+
+
+	//
+	// Class constructor.
+	//
+	public CapturePipeline( ImageWriter writer, Executor saveExecutor, Listener listener ) {
+		mWriter        = writer;
+		mSaveExecutor  = saveExecutor;
+		mScoreExecutor = saveExecutor;
+		mListener      = listener;
+	}
+
+
+	public void setCamera( CameraDevice device ) {
+	/**
+	 * Switch cameras.  A picture in flight on the old camera is abandoned.
+	 *
+	 */
+		mDevice = device;
+		mBusy.set( false );
+
+		// The old camera won't be sending the rest of a burst.
+
+		Capture inFlight = mInFlight;
+		if ( inFlight != null ) inFlight.giveUp();
+
+		abandonBurst();
+	}
+
+	public void setWriter( ImageWriter writer ) {
+		mWriter = writer;
+	}
+
+	public void setScoreExecutor( Executor scoreExecutor ) {
+	/**
+	 * Where burst pictures are scored;  a pool with a thread per core lets several
+	 * be scored at once.  The default is the save executor.
+	 *
+	 */
+		mScoreExecutor = scoreExecutor;
+	}
+
+	public void setRotation( int degrees ) {
+	/**
+	 * How pictures taken from now on should be rotated to be upright, recorded in
+	 * their EXIF orientation tag.
+	 *
+	 */
+		mRotation = degrees;
+	}
+
+	public boolean isBusy() {
+		return mBusy.get();
+	}
+
+
+	public boolean capture() {
+	/**
+	 * Take a picture, unless there's no camera or a picture is already in flight.
+	 *
+	 * @return true if the picture was started;  the listener hears the rest.
+	 */
+		CameraDevice device = mDevice;
+
+		if ( device == null || !mBusy.compareAndSet( false, true ))
+			return false;
+
+		BurstCuller<Capture> burst = mBurst;
+		Capture c = new Capture( device, burst );
+
+		if ( burst != null && --mBurstLeft == 0 )
+			mBurst = null;  // That's the last one
+
+		mInFlight = c;
+
+		try {
+			device.takePicture( c );
+		}
+		catch( RuntimeException e ) {
+			mInFlight = null;
+			mBusy.set( false );
+			mFailed.incrementAndGet();
+			c.giveUp();
+			mListener.onCaptureFailed( e );
+			return false;
+		}
+
+		mRequested.incrementAndGet();
+		return true;
+
+	}  // capture
+
+	public boolean captureBurst( int frames, int keep ) {
+	/**
+	 * Take several pictures, one after another as fast as the camera allows, and
+	 * save only the sharpest of them.
+	 *
+	 * @param frames   How many pictures to take.
+	 * @param keep     How many of them to save.
+	 * @return true if the burst was started;  the listener hears about each
+	 *         picture taken, and each one saved.
+	 */
+		if ( mDevice == null || mBusy.get() )
+			return false;
+
+		mBurst     = new BurstCuller<Capture>( frames, keep, mScoreExecutor, mScoreStats, mCullListener );
+		mBurstLeft = frames;
+
+		if ( capture() ) return true;
+
+		abandonBurst();
+		return false;
+	}
+
+	private void nextInBurst( BurstCuller<Capture> burst ) {
+	/**
+	 * A picture of the burst is done, so take the next one, if there is one.
+	 *
+	 */
+		if ( burst == null || burst != mBurst ) return;
+
+		if ( !capture() ) abandonBurst();
+	}
+
+	private void abandonBurst() {
+	/**
+	 * The pictures still to be taken aren't coming, so cull what we've got.
+	 *
+	 */
+		BurstCuller<Capture> burst = mBurst;
+		if ( burst == null ) return;
+
+		mBurst = null;
+
+		for ( ; mBurstLeft > 0; mBurstLeft-- )
+			burst.skip();
+	}
+
+	private BurstCuller.Listener<Capture> mCullListener = new BurstCuller.Listener<Capture>() {
+	/**
+	 * A burst has been scored:  save the ones we're keeping.
+	 *
+	 */
+		public void onCulled( List<BurstCuller.Frame<Capture>> kept, List<BurstCuller.Frame<Capture>> dropped ) {
+			mCulled.addAndGet( dropped.size() );
+
+			final int total = kept.size() + dropped.size();
+
+			for ( final BurstCuller.Frame<Capture> frame : kept ) {
+				mSaveExecutor.execute( new Runnable() {
+					public void run() {
+						frame.item.save( frame.jpeg, String.format( Locale.US, "sharpness %.1f, %d of %d",
+						                                            frame.getScore(), frame.getRank(), total ));
+					}
+				} );
+			}
+		}
+	};
+
+
+	private class Capture implements CameraDevice.PictureListener {
+	/**
+	 * Tracks one picture from request to file.
+	 *
+	 */
+		private CameraDevice mCapDevice;
+		private long         mRequestNanos = System.nanoTime();
+		private long         mTimestamp    = System.currentTimeMillis();  // Replaced at the shutter
+		private int          mCapRotation  = mRotation;
+		private BurstCuller<Capture> mCapBurst;                           // Null for a single picture
+		private AtomicBoolean mCulling     = new AtomicBoolean( false );  // Added to, or skipped in, the burst
+
+		Capture( CameraDevice device, BurstCuller<Capture> burst ) {
+			mCapDevice = device;
+			mCapBurst  = burst;
+		}
+
+		void giveUp() {
+		/**
+		 * This picture isn't going to make it into its burst.
+		 *
+		 */
+			if ( mCapBurst != null && mCulling.compareAndSet( false, true ))
+				mCapBurst.skip();
+		}
+
+		public void onShutter() {
+			mTimestamp = System.currentTimeMillis();
+			mShutterStats.add( System.nanoTime() - mRequestNanos );
+			mListener.onShutter();
+		}
+
+		public void onPictureTaken( final byte[] jpeg ) {
+			mJpegStats.add( System.nanoTime() - mRequestNanos );
+
+			// Taking a picture stops the preview, so we must restart it.
+			restartPreview();
+
+			mListener.onPictureTaken();
+
+			// A burst picture goes to be scored, and is saved later if it's good enough.
+			// Anything else is written on the save executor so we don't hold up the
+			// camera thread.
+
+			if ( mCapBurst != null && mCulling.compareAndSet( false, true )) {
+				mCapBurst.add( this, jpeg );
+				nextInBurst( mCapBurst );
+				return;
+			}
+
+			mSaveExecutor.execute( new Runnable() {
+				public void run() {
+					save( jpeg, null );
+				}
+			} );
+		}
+
+		public void onError( Exception e ) {
+			mFailed.incrementAndGet();
+			restartPreview();
+			mListener.onCaptureFailed( e );
+
+			giveUp();
+			nextInBurst( mCapBurst );
+		}
+
+		private void restartPreview() {
+			if ( mCapDevice != mDevice ) return;  // Camera was switched out from under us
+
+			mInFlight = null;
+			mBusy.set( false );
+
+			try {
+				mCapDevice.startPreview();
+			}
+			catch( RuntimeException e ) {
+				// Nothing more we can do;  the next capture() will fail and say so.
+			}
+		}
+
+		void save( byte[] jpeg, String description ) {
+			jpeg = tag( jpeg, description );
+
+			long start = System.nanoTime();
+			File file;
+
+			try {
+				file = mWriter.write( jpeg, mTimestamp );
+			}
+			catch( Exception e ) {
+				mFailed.incrementAndGet();
+				mListener.onSaveFailed( e );
+				return;
+			}
+
+			long end = System.nanoTime();
+			mWriteStats.add( end - start );
+			mTotalStats.add( end - mRequestNanos );
+			mSaved.incrementAndGet();
+
+			mListener.onImageSaved( file );
+		}
+
+		private byte[] tag( byte[] jpeg, String description ) {
+		/**
+		 * Add the orientation and capture time, and the description if there is one.
+		 * If the JPEG is too odd to tag, save it as it is.
+		 *
+		 */
+			long start = System.nanoTime();
+
+			try {
+				ExifRewriter rewriter = new ExifRewriter()
+					.setOrientation( mCapRotation )
+					.setCaptureTime( mTimestamp );
+
+				if ( description != null ) rewriter.setDescription( description );
+
+				byte[] tagged = rewriter.rewrite( jpeg );
+
+				mExifStats.add( System.nanoTime() - start );
+				return tagged;
+			}
+			catch( IOException e ) {
+				mUntagged.incrementAndGet();
+				return jpeg;
+			}
+		}
+	}  // class Capture
+
+
+	//
+	// Metrics.
+	//
+
+	public int getRequestedCount() { return mRequested.get(); }
+	public int getSavedCount()     { return mSaved.get(); }
+	public int getFailedCount()    { return mFailed.get(); }
+	public int getUntaggedCount()  { return mUntagged.get(); }
+	public int getCulledCount()    { return mCulled.get(); }
+
+	public LatencyStats getShutterStats() { return mShutterStats; }
+	public LatencyStats getJpegStats()    { return mJpegStats; }
+	public LatencyStats getExifStats()    { return mExifStats; }
+	public LatencyStats getScoreStats()   { return mScoreStats; }
+	public LatencyStats getWriteStats()   { return mWriteStats; }
+	public LatencyStats getTotalStats()   { return mTotalStats; }
+
+	public String getStats() {
+		return "requested=" + mRequested.get() + " saved=" + mSaved.get() + " failed=" + mFailed.get()
+		     + " untagged=" + mUntagged.get() + " culled=" + mCulled.get()
+		     + "\n  " + mShutterStats.summary()
+		     + "\n  " + mJpegStats.summary()
+		     + "\n  " + mExifStats.summary()
+		     + "\n  " + mScoreStats.summary()
+		     + "\n  " + mWriteStats.summary()
+		     + "\n  " + mTotalStats.summary();
+	}
+
+}  // class CapturePipeline
@@ -0,0 +1,387 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The CaptureQueue class puts the timer, the picture and camera switches through
+ * one door.  Taps, menu items, the remote control, claps and the timer itself can
+ * all start, cancel or end a countdown, and they don't all come from the same
+ * thread;  each becomes a command here, and commands run one at a time, in order,
+ * on a single executor, so the state they change is only ever touched there.
+ *
+ * The rules:
+ *
+ *   - a tap starts the timer, or cancels it if it's running;  a tap less than
+ *     the coalescing time after the last one counts (it's a double tap, or a
+ *     bounce) is dropped,
+ *   - only one capture is ever in flight.  A timer that goes off while the
+ *     last picture is still being taken has its capture held until that one's
+ *     done, then started;  it's never dropped, and never started twice,
+ *   - every countdown has an id, which its capture shares;  a timer that goes
+ *     off for a countdown that's been cancelled or replaced, or a capture that
+ *     reports in when it isn't the one in flight, is ignored,
+ *   - switching cameras waits until no capture is in flight or held.
+ *
+ * Every state change is counted, and told to the listener if there is one, and
+ * how long commands wait to run and how long captures take are kept.
+ *
+ * It's pure Java;  the activity supplies the actions and an executor on the UI
+ * thread, where the camera and timer live.  The actions are only ever called on
+ * the executor.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.concurrent.Executor;
+
+
+public class CaptureQueue {
+
+	public interface Actions {
+	/**
+	 * What the queue can have done.  The timer must call timerFired() with its id
+	 * when it goes off, and whatever takes the picture must call captureDone()
+	 * with the same id when it's over (or captureFailed(), if whoever's watching
+	 * it gives up on it).  capture() returns false if the picture couldn't even be
+	 * started, in which case it's over already.
+	 *
+	 */
+		void    startTimer( int id );
+		void    cancelTimer( int id );
+		boolean capture( int id );
+		void    switchCamera();
+	}
+
+	public interface Listener {
+		void onTransition( String command, int from, int to );
+	}
+
+	// States.  A countdown can run while the last picture's still in flight;  a
+	// capture is held when its countdown ends before that picture's done.
+
+	static final int IDLE             = 0;
+	static final int TIMING           = 1;
+	static final int CAPTURING        = 2;
+	static final int TIMING_CAPTURING = 3;
+	static final int HELD             = 4;  // Capturing, with the next capture waiting
+
+	static final String[] STATE_NAMES = { "idle", "timing", "capturing", "timing+capturing", "held" };
+
+	// What became of commands.
+
+	static final int ACCEPTED  = 0;
+	static final int COALESCED = 1;  // Dropped as a repeat
+	static final int IGNORED   = 2;  // Made no sense in the state we were in
+	static final int DEFERRED  = 3;  // Left until the capture's done
+
+	static final String[] OUTCOME_NAMES = { "accepted", "coalesced", "ignored", "deferred" };
+
+	private final Actions  mActions;
+	private final Executor mExecutor;
+	private final long     mCoalesceNanos;
+	private volatile Listener mListener;
+
+	// Only touched on the executor.
+
+	private int     mState      = IDLE;
+	private int     mTimerId    = 0;      // The countdown running, or last run
+	private int     mCaptureId  = 0;      // The capture in flight, while there is one
+	private int     mHeldId     = 0;      // The capture waiting, while HELD
+	private int     mSwitches   = 0;      // Switches waiting for the capture to be done
+	private long    mLastTap    = 0;      // When the last tap that counted was made
+	private boolean mTapped     = false;  // ... if there's been one
+	private long    mCaptureStart;
+
+	// Metrics.
+
+	private final int[][] mTransitions = new int[ STATE_NAMES.length ][ STATE_NAMES.length ];
+	private final int[]   mOutcomes    = new int[ OUTCOME_NAMES.length ];
+	private int           mCaptures    = 0;  // Started
+	private int           mFailures    = 0;  // ... or couldn't be
+	private int           mStale       = 0;  // Timers for a countdown that's over
+	private int           mStray       = 0;  // captureDone() for a capture not in flight
+	private final LatencyStats mWaitStats    = new LatencyStats( "command wait" );
+	private final LatencyStats mCaptureStats = new LatencyStats( "capture" );
+
+
+	//
+	// Class constructor.
+	//
+	public CaptureQueue( Actions actions, Executor executor, long coalesceMs ) {
+	/**
+	 * @param executor    Runs commands one at a time, in order.
+	 * @param coalesceMs  Taps closer together than this count as one.
+	 */
+		mActions       = actions;
+		mExecutor      = executor;
+		mCoalesceNanos = coalesceMs * 1000000L;
+	}
+
+
+	public void setListener( Listener listener ) {
+		mListener = listener;
+	}
+
+
+	//
+	// Commands.  They may be sent from any thread, and run later on the executor.
+	//
+
+	public void tap() {
+		final long now = System.nanoTime();
+
+		submit( new Command( "tap" ) {
+			void run( int state ) {
+				if ( mTapped && now - mLastTap < mCoalesceNanos ) {
+					outcome( COALESCED );
+					return;
+				}
+
+				mTapped  = true;
+				mLastTap = now;
+
+				if      ( isTiming( state )) cancelTimer( this );
+				else if ( state == HELD )    outcome( IGNORED );  // Too soon after the last countdown
+				else                         startTimer( this );
+			}
+		} );
+	}
+
+	public void start() {
+		submit( new Command( "start" ) {
+			void run( int state ) {
+				if ( isTiming( state ) || state == HELD ) outcome( COALESCED );
+				else                                     startTimer( this );
+			}
+		} );
+	}
+
+	public void cancel() {
+		submit( new Command( "cancel" ) {
+			void run( int state ) {
+				if ( isTiming( state )) cancelTimer( this );
+				else                    outcome( IGNORED );
+			}
+		} );
+	}
+
+	public void timerFired( final int id ) {
+		submit( new Command( "fired" ) {
+			void run( int state ) {
+				if ( !isTiming( state ) || id != mTimerId ) {
+					mStale++;
+					outcome( IGNORED );
+					return;
+				}
+
+				if ( state == TIMING_CAPTURING ) {
+					mHeldId = id;
+					setState( this, HELD );
+					outcome( DEFERRED );
+					return;
+				}
+
+				outcome( ACCEPTED );
+				startCapture( this, id );
+			}
+		} );
+	}
+
+	public void captureDone( final int id ) {
+		submit( new Command( "done" ) {
+			void run( int state ) {
+				endCapture( this, state, id, false );
+			}
+		} );
+	}
+
+	public void captureFailed( final int id ) {
+	/**
+	 * The capture's been given up on without a word from whatever was taking it,
+	 * for instance by a watchdog.  It's over, and counted as a failure;  a
+	 * captureDone() that turns up later is ignored.
+	 *
+	 */
+		submit( new Command( "failed" ) {
+			void run( int state ) {
+				endCapture( this, state, id, true );
+			}
+		} );
+	}
+
+	public void switchCamera() {
+		submit( new Command( "switch" ) {
+			void run( int state ) {
+				mSwitches++;
+
+				if ( isCapturing( state )) outcome( DEFERRED );
+				else {
+					outcome( ACCEPTED );
+					runSwitches();
+				}
+			}
+		} );
+	}
+
+	public void reset() {
+	/**
+	 * Forget the countdown and any capture, as when the app lets go of the camera.
+	 * A held capture is lost, and counted as a failure;  a captureDone() still on
+	 * its way for the one in flight is ignored.
+	 *
+	 */
+		submit( new Command( "reset" ) {
+			void run( int state ) {
+				if ( isTiming( state )) mActions.cancelTimer( mTimerId );
+				if ( state == HELD )    mFailures++;
+
+				mCaptureId = 0;
+
+				outcome( state == IDLE ? IGNORED : ACCEPTED );
+				setState( this, IDLE );
+				runSwitches();
+			}
+		} );
+	}
+
+
+	//
+	// Running them.
+	//
+
+	private abstract class Command implements Runnable {
+		final String mName;
+		final long   mSubmitted = System.nanoTime();
+
+		Command( String name ) {
+			mName = name;
+		}
+
+		public void run() {
+			mWaitStats.add( System.nanoTime() - mSubmitted );
+			run( mState );
+		}
+
+		abstract void run( int state );
+	}
+
+	private void submit( Command command ) {
+		mExecutor.execute( command );
+	}
+
+	private static boolean isTiming( int state ) {
+		return state == TIMING || state == TIMING_CAPTURING;
+	}
+
+	private static boolean isCapturing( int state ) {
+		return state == CAPTURING || state == TIMING_CAPTURING || state == HELD;
+	}
+
+	private void startTimer( Command command ) {
+		outcome( ACCEPTED );
+		setState( command, mState == IDLE ? TIMING : TIMING_CAPTURING );
+		mActions.startTimer( ++mTimerId );
+	}
+
+	private void cancelTimer( Command command ) {
+		outcome( ACCEPTED );
+		setState( command, mState == TIMING ? IDLE : CAPTURING );
+		mActions.cancelTimer( mTimerId );
+		runSwitches();
+	}
+
+	private void startCapture( Command command, int id ) {
+	/**
+	 * Take the picture for countdown id;  nothing else is in flight.  If it can't
+	 * be started, it's over, and counted.
+	 *
+	 */
+		setState( command, CAPTURING );
+		mCaptureId    = id;
+		mCaptureStart = System.nanoTime();
+		mCaptures++;
+
+		if ( !mActions.capture( id )) {
+			mFailures++;
+			mCaptureId = 0;
+			setState( command, IDLE );
+			runSwitches();
+		}
+	}
+
+	private void endCapture( Command command, int state, int id, boolean failed ) {
+		if ( !isCapturing( state ) || id != mCaptureId ) {
+			mStray++;
+			outcome( IGNORED );
+			return;
+		}
+
+		if ( failed ) mFailures++;
+		else          mCaptureStats.add( System.nanoTime() - mCaptureStart );
+
+		outcome( ACCEPTED );
+		mCaptureId = 0;
+
+		if ( state == HELD ) {
+			startCapture( command, mHeldId );
+			return;
+		}
+
+		setState( command, state == TIMING_CAPTURING ? TIMING : IDLE );
+		runSwitches();
+	}
+
+	private void runSwitches() {
+		if ( isCapturing( mState )) return;
+
+		for ( ; mSwitches > 0; mSwitches-- ) mActions.switchCamera();
+	}
+
+	private void setState( Command command, int state ) {
+		if ( state == mState ) return;
+
+		int from = mState;
+		mState   = state;
+		mTransitions[ from ][ state ]++;
+
+		Listener listener = mListener;
+		if ( listener != null ) listener.onTransition( command.mName, from, state );
+	}
+
+	private void outcome( int outcome ) {
+		mOutcomes[ outcome ]++;
+	}
+
+
+	//
+	// Metrics.  These are read from other threads, so they're only roughly current.
+	//
+
+	public int getState()         { return mState; }
+	public int getCaptureCount()  { return mCaptures; }
+	public int getFailureCount()  { return mFailures; }
+	public int getOutcomeCount( int outcome ) { return mOutcomes[ outcome ]; }
+
+	public LatencyStats getWaitStats()    { return mWaitStats; }
+	public LatencyStats getCaptureStats() { return mCaptureStats; }
+
+	public String getStats() {
+		StringBuilder s = new StringBuilder( "state=" + STATE_NAMES[ mState ]
+		                                   + " captures=" + mCaptures + " failed=" + mFailures
+		                                   + " stale=" + mStale + " stray=" + mStray );
+
+		for ( int i = 0; i < OUTCOME_NAMES.length; i++ )
+			s.append( ' ' ).append( OUTCOME_NAMES[ i ] ).append( '=' ).append( mOutcomes[ i ] );
+
+		for ( int from = 0; from < STATE_NAMES.length; from++ )
+			for ( int to = 0; to < STATE_NAMES.length; to++ )
+				if ( mTransitions[ from ][ to ] > 0 )
+					s.append( "\n  " ).append( STATE_NAMES[ from ] ).append( " -> " ).append( STATE_NAMES[ to ] )
+					 .append( ' ' ).append( mTransitions[ from ][ to ] );
+
+		return s.append( "\n  " ).append( mWaitStats.summary() )
+		        .append( "\n  " ).append( mCaptureStats.summary() ).toString();
+
+	}  // getStats
+
+}  // class CaptureQueue
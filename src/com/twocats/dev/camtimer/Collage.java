@@ -0,0 +1,501 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The Collage class puts pictures together into one, two by two, for the photo
+ * booth.  Four full-size pictures decoded as bitmaps would take 200 MB for 12
+ * megapixels each;  instead each one is decoded straight to about the size of
+ * its tile (LumaDecoder.decodeScaled(), which does the scaling in the DCT) a row
+ * of MCUs at a time, area-averaged down to exactly the tile's size as the rows
+ * come, turned upright as its EXIF orientation says, and written into its place
+ * in the output.  The tiles are done in parallel on the executor, each into its
+ * own part of the output, and the output is then encoded as a JPEG.
+ *
+ * So memory is the output's own YCbCr planes, a tile's worth a picture, plus a
+ * row of MCUs and a few rows of sums for each picture being decoded.  The most
+ * that's been held at once is kept, along with how long things took.
+ *
+ * Pictures are cropped to the tile's shape, about their centre;  there's a gap of
+ * background between and around the tiles.  Anything that can't be decoded leaves
+ * its tile blank, and is counted.
+ *
+ * compose() may be called from any thread but the executor's own, and one at a
+ * time.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class Collage {
+
+	public static final int TILES = 4;  // Two by two
+
+	private static final byte BACKGROUND = (byte) 235;  // Luma of the gaps;  chroma is neutral
+
+	private final int      mWidth, mHeight;   // Output, both even
+	private final int      mGap;              // Between and around the tiles, even
+	private final int      mTileWidth, mTileHeight;
+	private final Executor mExecutor;
+	private final int      mQuality;
+
+	// One decoder per thread.
+
+	private final ThreadLocal<LumaDecoder> mDecoder = new ThreadLocal<LumaDecoder>() {
+		protected LumaDecoder initialValue() {
+			return new LumaDecoder();
+		}
+	};
+
+	// The output, while composing.
+
+	private byte[] mY, mCb, mCr;
+
+	// Metrics.
+
+	private final AtomicLong    mHeld      = new AtomicLong();
+	private final AtomicLong    mPeak      = new AtomicLong();
+	private final AtomicInteger mFailed    = new AtomicInteger();
+	private final LatencyStats  mTileStats = new LatencyStats( "tile" );
+	private final LatencyStats  mEncodeStats = new LatencyStats( "encode" );
+	private final LatencyStats  mTotalStats  = new LatencyStats( "collage" );
+
+
+	//
+	// Class constructor.
+	//
+	public Collage( int width, int height, int gap, int quality, Executor executor ) {
+	/**
+	 * @param width, height  Size of the collage;  rounded down to even numbers.
+	 * @param gap            Background between and around the tiles.
+	 * @param executor       Where the tiles are done;  a pool to do them at once.
+	 */
+		mGap        = gap & ~1;
+		mWidth      = width & ~1;
+		mHeight     = height & ~1;
+		mTileWidth  = (( mWidth  - 3 * mGap ) / 2 ) & ~1;
+		mTileHeight = (( mHeight - 3 * mGap ) / 2 ) & ~1;
+		mQuality    = quality;
+		mExecutor   = executor;
+
+		if ( mTileWidth < 16 || mTileHeight < 16 )
+			throw new IllegalArgumentException( "collage too small for its gaps" );
+	}
+
+
+	public int getWidth()  { return mWidth; }
+	public int getHeight() { return mHeight; }
+
+	public void compose( List<byte[]> jpegs, OutputStream out ) throws IOException {
+	/**
+	 * Put up to TILES pictures together, left to right and top to bottom, and
+	 * write the collage to out as a JPEG.
+	 *
+	 */
+		long start = System.nanoTime();
+		int  tiles = Math.min( TILES, jpegs.size() );
+
+		mPeak.set( 0 );
+		mHeld.set( 0 );
+
+		// The output, all background to start with.
+
+		int cw = mWidth / 2, ch = mHeight / 2;
+
+		mY  = new byte[ mWidth * mHeight ];
+		mCb = new byte[ cw * ch ];
+		mCr = new byte[ cw * ch ];
+		hold( mY.length + 2L * mCb.length );
+
+		Arrays.fill( mY, BACKGROUND );
+		Arrays.fill( mCb, (byte) 128 );
+		Arrays.fill( mCr, (byte) 128 );
+
+		// The tiles, all at once.
+
+		final CountDownLatch done = new CountDownLatch( tiles );
+
+		for ( int t = 0; t < tiles; t++ ) {
+			final byte[] jpeg = jpegs.get( t );
+			final int    x    = mGap + ( t % 2 ) * ( mTileWidth + mGap );
+			final int    y    = mGap + ( t / 2 ) * ( mTileHeight + mGap );
+
+			mExecutor.execute( new Runnable() {
+				public void run() {
+					long tileStart = System.nanoTime();
+
+					try {
+						tile( jpeg, x, y );
+					}
+					catch( Exception e ) {
+						mFailed.incrementAndGet();  // The tile's left as it is
+					}
+					finally {
+						mTileStats.add( System.nanoTime() - tileStart );
+						done.countDown();
+					}
+				}
+			} );
+		}
+
+		try {
+			done.await();
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "interrupted" );
+		}
+
+		// And out.
+
+		long encodeStart = System.nanoTime();
+
+		try {
+			new JpegEncoder( mQuality ).encode( mWidth, mHeight, mStrips, out );
+		}
+		finally {
+			mY = mCb = mCr = null;
+			release( mWidth * mHeight * 3L / 2 );
+		}
+
+		mEncodeStats.add( System.nanoTime() - encodeStart );
+		mTotalStats.add( System.nanoTime() - start );
+
+	}  // compose
+
+	private JpegEncoder.StripSource mStrips = new JpegEncoder.StripSource() {
+		public void readStrip( int top, int rows, byte[] y, byte[] cb, byte[] cr ) {
+			int cw = mWidth / 2;
+
+			System.arraycopy( mY, top * mWidth, y, 0, rows * mWidth );
+			System.arraycopy( mCb, top / 2 * cw, cb, 0, ( rows + 1 ) / 2 * cw );
+			System.arraycopy( mCr, top / 2 * cw, cr, 0, ( rows + 1 ) / 2 * cw );
+		}
+	};
+
+
+	//
+	// One tile.
+	//
+
+	private void tile( byte[] jpeg, int x, int y ) throws IOException {
+	/**
+	 * Decode a picture into the tile at x, y.  The rows come in the picture's own
+	 * orientation;  it's only as each row of the tile is finished that it's turned
+	 * upright, as it's written out.
+	 *
+	 */
+		int     rotation = rotation( jpeg );
+		boolean sideways = rotation == 90 || rotation == 270;
+
+		// The tile as the picture has it, before turning.
+
+		int tw = sideways ? mTileHeight : mTileWidth;
+		int th = sideways ? mTileWidth  : mTileHeight;
+
+		TileSink sink = new TileSink( tw, th, rotation, x, y );
+
+		try {
+			mDecoder.get().decodeScaled( jpeg, blockSize( jpeg, tw, th ), sink );
+			sink.finish();
+		}
+		finally {
+			release( sink.mHeld );
+		}
+	}
+
+	private class TileSink implements LumaDecoder.RowSink {
+	/**
+	 * Crops each component about the centre to the tile's shape, and hands its
+	 * rows to a Scaler writing into that component's output plane.
+	 *
+	 */
+		final int tw, th, rotation, x, y;
+		Scaler[]  mScalers;
+		long      mHeld;       // Bytes, as counted towards the peak
+		boolean[] mRowsHeld;   // The decoder's row buffer for each component, once counted
+
+		TileSink( int tw, int th, int rotation, int x, int y ) {
+			this.tw       = tw;
+			this.th       = th;
+			this.rotation = rotation;
+			this.x        = x;
+			this.y        = y;
+		}
+
+		public void start( int width, int height, int components, int[] widths, int[] heights ) {
+			mScalers  = new Scaler[ Math.min( components, 3 ) ];
+			mRowsHeld = new boolean[ mScalers.length ];
+
+			// The part of the picture that fills the tile, as a fraction of it.
+
+			double fx = 1, fy = 1;
+			if ( (double) width / height > (double) tw / th ) fx = (double) tw * height / th / width;
+			else                                              fy = (double) th * width / tw / height;
+
+			long bytes = 0;
+
+			for ( int c = 0; c < mScalers.length; c++ ) {
+				int    shift = c == 0 ? 0 : 1;  // Chroma is half size
+				byte[] plane = c == 0 ? mY : c == 1 ? mCb : mCr;
+				double w     = widths[ c ], h = heights[ c ];
+
+				mScalers[ c ] = new Scaler( w * ( 1 - fx ) / 2, h * ( 1 - fy ) / 2, w * fx, h * fy, widths[ c ],
+				                            tw >> shift, th >> shift, rotation,
+				                            plane, mWidth >> shift, x >> shift, y >> shift );
+				bytes += mScalers[ c ].bytes();
+			}
+
+			add( bytes );
+		}
+
+		public void rows( int component, int top, int rows, byte[] pixels, int stride ) {
+			if ( component >= mScalers.length ) return;
+
+			if ( !mRowsHeld[ component ] ) {
+				mRowsHeld[ component ] = true;
+				add( pixels.length );
+			}
+
+			Scaler scaler = mScalers[ component ];
+			for ( int r = 0; r < rows; r++ ) scaler.row( top + r, pixels, r * stride );
+		}
+
+		void finish() {
+			for ( Scaler scaler : mScalers ) scaler.finish();
+		}
+
+		private void add( long bytes ) {
+			mHeld += bytes;
+			hold( bytes );
+		}
+	}  // class TileSink
+
+
+	private static class Scaler {
+	/**
+	 * Area-averages rows of one component, as they come, from a window of the
+	 * source plane to a tw x th tile, and writes each finished row into the output
+	 * plane, turned by the rotation.  The window's edges may fall between pixels;
+	 * pixels partly inside count in proportion.
+	 *
+	 */
+		final double   x0, y0, scaleX, scaleY;   // Window origin, and source pixels per tile pixel
+		final int      tw, th, rotation;
+		final byte[]   plane;
+		final int      stride, px, py;           // Output plane, and where the tile goes in it
+
+		final int[]    left;                     // Per tile column, first source column it touches
+		final int[]    right;                    // ... and one past the last
+		final float[]  leftWeight, rightWeight;  // Coverage of the first and last
+		final float[]  span;                     // Source columns in all, partly or wholly
+		final float[]  sums;                     // This tile row so far, weighted
+		final float[]  columns;                  // The source row, across the tile
+		int            tileRow = 0;              // Being built
+		double         rowWeight = 0;            // Source rows in it so far
+
+		Scaler( double x0, double y0, double width, double height, int sourceWidth,
+		        int tw, int th, int rotation, byte[] plane, int stride, int px, int py ) {
+			this.x0       = x0;
+			this.y0       = y0;
+			this.scaleX   = width / tw;
+			this.scaleY   = height / th;
+			this.tw       = tw;
+			this.th       = th;
+			this.rotation = rotation;
+			this.plane    = plane;
+			this.stride   = stride;
+			this.px       = px;
+			this.py       = py;
+
+			left        = new int[ tw ];
+			right       = new int[ tw ];
+			leftWeight  = new float[ tw ];
+			rightWeight = new float[ tw ];
+			span        = new float[ tw ];
+			sums        = new float[ tw ];
+			columns     = new float[ tw ];
+
+			for ( int i = 0; i < tw; i++ ) {
+				double a = x0 + i * scaleX, b = Math.min( a + scaleX, sourceWidth );
+
+				left [ i ] = Math.min( (int) Math.floor( a ), sourceWidth - 1 );
+				right[ i ] = Math.max( (int) Math.ceil( b ), left[ i ] + 1 );
+
+				leftWeight [ i ] = (float) ( Math.min( b, left[ i ] + 1 ) - a );
+				rightWeight[ i ] = (float) ( b - Math.max( a, right[ i ] - 1 ));
+				span       [ i ] = (float) ( b - a );
+			}
+		}
+
+		long bytes() {
+			return tw * 28L;  // Seven arrays of four bytes a column
+		}
+
+		void finish() {
+		/**
+		 * The picture's done;  a last tile row that rounding left a hair short of
+		 * complete is written as it is.
+		 *
+		 */
+			if ( tileRow < th && rowWeight > 0 ) emit();
+		}
+
+		void row( int sourceRow, byte[] pixels, int offset ) {
+		/**
+		 * One source row, in order.  Rows above and below the window are passed over.
+		 *
+		 */
+			if ( tileRow >= th ) return;
+
+			double top = y0 + tileRow * scaleY;
+			if ( sourceRow + 1 <= top ) return;
+
+			// Across first:  each tile column's average of its source columns.
+
+			for ( int i = 0; i < tw; i++ ) {
+				int   a = left[ i ], b = right[ i ];
+				float s;
+
+				if ( b - a == 1 ) {
+					s = pixels[ offset + a ] & 0xFF;
+				} else {
+					s = ( pixels[ offset + a ] & 0xFF ) * leftWeight[ i ] + ( pixels[ offset + b - 1 ] & 0xFF ) * rightWeight[ i ];
+					for ( int j = a + 1; j < b - 1; j++ ) s += pixels[ offset + j ] & 0xFF;
+					s /= span[ i ];
+				}
+
+				columns[ i ] = s;
+			}
+
+			// Then down:  the row counts towards each tile row it overlaps, which is
+			// more than one when scaling up.
+
+			while ( tileRow < th ) {
+				top = y0 + tileRow * scaleY;
+				double bottom  = top + scaleY;
+				double overlap = Math.min( sourceRow + 1, bottom ) - Math.max( sourceRow, top );
+
+				if ( overlap > 0 ) {
+					for ( int i = 0; i < tw; i++ ) sums[ i ] += columns[ i ] * (float) overlap;
+					rowWeight += overlap;
+				}
+
+				if ( bottom > sourceRow + 1 ) break;  // This tile row needs more
+
+				emit();
+			}
+		}
+
+		private void emit() {
+			float scale = rowWeight > 0 ? (float) ( 1 / rowWeight ) : 0;
+
+			for ( int i = 0; i < tw; i++ ) {
+				int v = Math.round( sums[ i ] * scale );
+				put( i, tileRow, (byte) ( v < 0 ? 0 : v > 255 ? 255 : v ));
+				sums[ i ] = 0;
+			}
+
+			rowWeight = 0;
+			tileRow++;
+		}
+
+		private void put( int i, int j, byte v ) {
+		/**
+		 * Pixel i, j of the tile as the picture has it, turned clockwise by the
+		 * rotation into the output.
+		 *
+		 */
+			int x, y;
+
+			switch( rotation ) {
+				case 90:  x = th - 1 - j;  y = i;           break;
+				case 180: x = tw - 1 - i;  y = th - 1 - j;  break;
+				case 270: x = j;           y = tw - 1 - i;  break;
+				default:  x = i;           y = j;           break;
+			}
+
+			plane[ ( py + y ) * stride + px + x ] = v;
+		}
+	}  // class Scaler
+
+
+	//
+	// Helpers.
+	//
+
+	static int blockSize( byte[] jpeg, int tw, int th ) throws IOException {
+	/**
+	 * The fewest pixels a block side that still gives at least tw x th from the
+	 * picture, after cropping to that shape, so the scaler only ever scales down
+	 * (unless the picture's too small even at 8).
+	 *
+	 */
+		int[] size = LumaDecoder.readSize( jpeg );
+		double w = size[ 0 ], h = size[ 1 ];
+
+		// The crop, in full-size pixels.
+
+		if ( w / h > (double) tw / th ) w = h * tw / th;
+		else                            h = w * th / tw;
+
+		for ( int s = 1; s < 8; s *= 2 )
+			if ( w * s / 8 >= tw && h * s / 8 >= th ) return s;
+
+		return 8;
+	}
+
+	static int rotation( byte[] jpeg ) {
+		try {
+			String o = ExifRewriter.readTags( jpeg ).get( ExifRewriter.TAG_ORIENTATION );
+
+			if ( "6".equals( o )) return 90;
+			if ( "3".equals( o )) return 180;
+			if ( "8".equals( o )) return 270;
+		}
+		catch( Exception e ) {
+			// No EXIF, or none we can read:  it's upright as far as we know
+		}
+		return 0;
+	}
+
+	private void hold( long bytes ) {
+		long held = mHeld.addAndGet( bytes ), peak;
+
+		do {
+			peak = mPeak.get();
+		} while ( held > peak && !mPeak.compareAndSet( peak, held ));
+	}
+
+	private void release( long bytes ) {
+		mHeld.addAndGet( -bytes );
+	}
+
+
+	//
+	// Metrics.  The peak is for the last collage.
+	//
+
+	public long getPeakBytes()            { return mPeak.get(); }
+	public int  getFailedCount()          { return mFailed.get(); }
+	public LatencyStats getTileStats()    { return mTileStats; }
+	public LatencyStats getEncodeStats()  { return mEncodeStats; }
+	public LatencyStats getTotalStats()   { return mTotalStats; }
+
+	public String getStats() {
+		return mWidth + "x" + mHeight + " peakKB=" + mPeak.get() / 1024 + " failed=" + mFailed.get()
+		     + "\n  " + mTotalStats.summary()
+		     + "\n  " + mTileStats.summary()
+		     + "\n  " + mEncodeStats.summary();
+	}
+
+}  // class Collage
@@ -0,0 +1,591 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The ControlServer class lets the timer be driven over the network, for when the
+ * phone is on a tripod across the room.  It's a plain line protocol, so anything
+ * from a script to "nc phone 8470" can talk to it:
+ *
+ *   START          Start the countdown (does nothing if it's already running)
+ *   CANCEL         Cancel the countdown
+ *   DELAY <ms>     Set the countdown length
+ *   SWITCH         Switch to the next camera
+ *   STATUS         One line of state:  timing, delay, camera and so on
+ *   METRICS        Capture, duty cycle and server statistics
+ *   QUIT           Close the connection
+ *
+ * Each command gets exactly one reply line, starting "OK" or "ERR".
+ *
+ * Everything network-related happens on one selector thread, with read and write
+ * buffers drawn from a small pool, so a lot of idle clients cost very little.  The
+ * commands themselves are handed to an Executor (in the app, a Handler on the UI
+ * thread, which is where the camera lives) and the reply comes back to the selector
+ * thread.  A client has at most one command out at a time;  we don't read any more
+ * from it until the reply is queued, so a chatty client can't flood the UI thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class ControlServer {
+
+	public interface Commands {
+	/**
+	 * What the server can ask the app to do.  Called on the command executor, one
+	 * at a time.  A RuntimeException becomes an ERR reply.
+	 *
+	 */
+		void   start();
+		void   cancel();
+		void   setDelay( long ms );
+		void   switchCamera();
+		String status();
+		String metrics();
+	}
+
+	public static final int DEFAULT_PORT = 8470;
+
+	static final int BUFFER_SIZE = 1024;  // Longest command line, and size of each pooled buffer
+	static final int POOL_MAX    = 256;   // Idle buffers kept for reuse (256 KB at most)
+	static final int OUT_MAX     = 16;    // Stop reading from a client with this many buffers unsent
+
+	private static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+	private final InetSocketAddress mAddress;
+	private final Executor          mExecutor;
+	private final Commands          mCommands;
+
+	private Selector            mSelector;
+	private ServerSocketChannel mServer;
+	private Thread              mThread;
+	private volatile boolean    mRunning = false;
+
+	// Replies finished on the executor, waiting for the selector thread to send them.
+	private final ConcurrentLinkedQueue<Reply> mReplies = new ConcurrentLinkedQueue<Reply>();
+
+	// Buffer pool.  Only touched on the selector thread.
+	private final ArrayDeque<ByteBuffer> mPool = new ArrayDeque<ByteBuffer>();
+	private volatile int mBuffersCreated = 0;
+
+	// Metrics.
+	private final AtomicInteger mAccepted    = new AtomicInteger();
+	private final AtomicInteger mConnected   = new AtomicInteger();
+	private final AtomicInteger mCommandCount = new AtomicInteger();
+	private final AtomicInteger mErrorCount  = new AtomicInteger();
+	private final LatencyStats  mCommandStats = new LatencyStats( "command" );  // Line read to reply queued
+
+
+	//
+	// Class constructor.
+	//
+	public ControlServer( InetSocketAddress address, Executor executor, Commands commands ) {
+	/**
+	 * @param address    Where to listen;  port 0 picks a free one (see getPort()).
+	 * @param executor   Where commands run.  Must run tasks one at a time, in order.
+	 * @param commands   What they do.
+	 */
+		mAddress  = address;
+		mExecutor = executor;
+		mCommands = commands;
+	}
+
+
+	public synchronized void start() throws IOException {
+	/**
+	 * Bind and start the selector thread.
+	 *
+	 */
+		if ( mRunning ) return;
+
+		mSelector = Selector.open();
+		mServer   = ServerSocketChannel.open();
+
+		try {
+			mServer.socket().setReuseAddress( true );
+			mServer.socket().bind( mAddress, 50 );
+			mServer.configureBlocking( false );
+			mServer.register( mSelector, SelectionKey.OP_ACCEPT );
+		}
+		catch( IOException e ) {
+			mServer.close();
+			mSelector.close();
+			throw e;
+		}
+
+		mRunning = true;
+
+		mThread = new Thread( mLoop, "ControlServer" );
+		mThread.setDaemon( true );
+		mThread.start();
+	}  // start
+
+	public void stop() {
+	/**
+	 * Close every connection and the listening socket, and wait for the selector
+	 * thread to finish.  Replies still on their way are dropped.
+	 *
+	 */
+		Thread thread;
+
+		synchronized( this ) {
+			if ( !mRunning ) return;
+			mRunning = false;
+			thread   = mThread;
+			mSelector.wakeup();
+		}
+
+		try {
+			thread.join( 2000 );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}  // stop
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	public int getPort() {
+		return mServer == null ? -1 : mServer.socket().getLocalPort();
+	}
+
+
+	//
+	// The selector loop.
+	//
+
+	private Runnable mLoop = new Runnable() {
+		public void run() {
+			try {
+				while ( mRunning ) {
+					mSelector.select();
+
+					sendReplies();
+
+					Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+
+					while ( keys.hasNext() ) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						if ( !key.isValid() ) continue;
+
+						try {
+							if ( key.isAcceptable() ) accept();
+							else {
+								if ( key.isReadable() ) read( key );
+								if ( key.isValid() && key.isWritable() ) write( key );
+							}
+						}
+						catch( IOException e ) {
+							close( key );
+						}
+					}
+				}
+			}
+			catch( IOException e ) {
+				// Selector's broken;  nothing to do but shut down.
+			}
+			finally {
+				closeAll();
+			}
+		}
+	};  // mLoop
+
+	private void accept() {
+	/**
+	 * Take on a new client.  If that fails (out of file descriptors, say) we just
+	 * drop it;  the listening socket carries on.
+	 *
+	 */
+		SocketChannel ch = null;
+
+		try {
+			ch = mServer.accept();
+			if ( ch == null ) return;
+
+			ch.configureBlocking( false );
+			ch.socket().setTcpNoDelay( true );
+			ch.register( mSelector, SelectionKey.OP_READ, new Connection() );
+		}
+		catch( IOException e ) {
+			mErrorCount.incrementAndGet();
+
+			try {
+				if ( ch != null ) ch.close();
+			}
+			catch( IOException e2 ) {
+				// Closing anyway
+			}
+			return;
+		}
+
+		mAccepted.incrementAndGet();
+		mConnected.incrementAndGet();
+	}
+
+	private void read( SelectionKey key ) throws IOException {
+		Connection c  = (Connection) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		if ( c.in == null ) c.in = borrow();
+
+		int n = ch.read( c.in );
+
+		if ( n < 0 ) {
+			close( key );
+			return;
+		}
+
+		handleLines( key );
+	}
+
+	private void write( SelectionKey key ) throws IOException {
+		Connection    c  = (Connection) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		while ( !c.out.isEmpty() ) {
+			ByteBuffer b = c.out.peek();
+			ch.write( b );
+
+			if ( b.hasRemaining() ) return;  // Socket's full;  wait for OP_WRITE again
+
+			giveBack( c.out.poll() );
+		}
+
+		if ( c.closing ) {
+			close( key );
+			return;
+		}
+
+		handleLines( key );  // Carry on with anything held back while the output was full
+	}
+
+
+	private void handleLines( SelectionKey key ) {
+	/**
+	 * Pull the next complete line out of the connection's input buffer and act on
+	 * it.  Stops after one line that needs the executor;  the rest waits until its
+	 * reply is back.
+	 *
+	 */
+		Connection c = (Connection) key.attachment();
+
+		while ( !c.pending && !c.closing && c.in != null && c.out.size() < OUT_MAX ) {
+			ByteBuffer in = c.in;
+			int end = -1;
+
+			for ( int i = 0; i < in.position(); i++ ) {
+				if ( in.get( i ) == '\n' ) { end = i; break; }
+			}
+
+			if ( end < 0 ) {
+				if ( !in.hasRemaining() ) {
+					queue( key, "ERR line too long" );
+					c.closing = true;
+				}
+				else if ( in.position() == 0 ) {
+					giveBack( in );  // Nothing buffered, so don't hold on to it
+					c.in = null;
+				}
+				break;
+			}
+
+			byte[] line = new byte[ end ];
+			in.flip();
+			in.get( line );
+			in.get();  // The newline
+			in.compact();
+
+			dispatch( key, new String( line, ASCII ).trim() );
+		}
+
+		updateInterest( key );
+	}  // handleLines
+
+	private void dispatch( final SelectionKey key, String line ) {
+	/**
+	 * Work out what a line asks for.  Anything that touches the app goes to the
+	 * executor;  errors and QUIT are answered here.
+	 *
+	 */
+		if ( line.length() == 0 ) return;
+
+		final Connection c = (Connection) key.attachment();
+		final long start   = System.nanoTime();
+
+		int    sp   = line.indexOf( ' ' );
+		String verb = ( sp < 0 ? line : line.substring( 0, sp )).toUpperCase( Locale.US );
+		String arg  = sp < 0 ? "" : line.substring( sp + 1 ).trim();
+
+		mCommandCount.incrementAndGet();
+
+		final Command cmd;
+
+		if ( verb.equals( "QUIT" )) {
+			queue( key, "OK bye" );
+			c.closing = true;
+			return;
+		}
+		else if ( verb.equals( "DELAY" )) {
+			long ms;
+			try {
+				ms = Long.parseLong( arg );
+			}
+			catch( NumberFormatException e ) {
+				ms = -1;
+			}
+			if ( ms < 0 || ms > 3600000 ) {
+				mErrorCount.incrementAndGet();
+				queue( key, "ERR DELAY needs milliseconds, 0 to 3600000" );
+				return;
+			}
+			cmd = new Command( Command.DELAY, ms );
+		}
+		else if ( verb.equals( "START" ))   cmd = new Command( Command.START,   0 );
+		else if ( verb.equals( "CANCEL" ))  cmd = new Command( Command.CANCEL,  0 );
+		else if ( verb.equals( "SWITCH" ))  cmd = new Command( Command.SWITCH,  0 );
+		else if ( verb.equals( "STATUS" ))  cmd = new Command( Command.STATUS,  0 );
+		else if ( verb.equals( "METRICS" )) cmd = new Command( Command.METRICS, 0 );
+		else {
+			mErrorCount.incrementAndGet();
+			queue( key, "ERR unknown command " + verb );
+			return;
+		}
+
+		c.pending = true;
+
+		try {
+			mExecutor.execute( new Runnable() {
+				public void run() {
+					String reply;
+
+					try {
+						reply = "OK" + cmd.run( mCommands );
+					}
+					catch( RuntimeException e ) {
+						mErrorCount.incrementAndGet();
+						reply = "ERR " + e.getMessage();
+					}
+
+					mCommandStats.add( System.nanoTime() - start );
+
+					mReplies.add( new Reply( key, reply ));
+					mSelector.wakeup();
+				}
+			} );
+		}
+		catch( RuntimeException e ) {  // Executor's gone, for instance
+			c.pending = false;
+			mErrorCount.incrementAndGet();
+			queue( key, "ERR busy" );
+		}
+	}  // dispatch
+
+	private void sendReplies() {
+	/**
+	 * Queue up the replies the executor has finished, then carry on with any more
+	 * lines their clients have already sent.
+	 *
+	 */
+		Reply r;
+
+		while (( r = mReplies.poll() ) != null ) {
+			if ( !r.key.isValid() ) continue;  // Client went away meanwhile
+
+			Connection c = (Connection) r.key.attachment();
+			c.pending = false;
+
+			queue( r.key, r.text );
+			handleLines( r.key );
+		}
+	}
+
+	private void queue( SelectionKey key, String text ) {
+	/**
+	 * Add a reply line to the connection's output, in as many pooled buffers as
+	 * it takes.
+	 *
+	 */
+		Connection c = (Connection) key.attachment();
+		byte[] bytes = ( text.replace( '\n', ';' ) + "\n" ).getBytes( ASCII );
+
+		for ( int off = 0; off < bytes.length; ) {
+			ByteBuffer b = borrow();
+			int n = Math.min( b.remaining(), bytes.length - off );
+			b.put( bytes, off, n );
+			b.flip();
+			c.out.add( b );
+			off += n;
+		}
+
+		updateInterest( key );
+	}
+
+	private void updateInterest( SelectionKey key ) {
+		if ( !key.isValid() ) return;
+
+		Connection c = (Connection) key.attachment();
+		int ops = 0;
+
+		if ( !c.pending && !c.closing && c.out.size() < OUT_MAX ) ops |= SelectionKey.OP_READ;
+		if ( !c.out.isEmpty() ) ops |= SelectionKey.OP_WRITE;
+
+		key.interestOps( ops );
+	}
+
+	private void close( SelectionKey key ) {
+		Connection c = (Connection) key.attachment();
+
+		key.cancel();
+
+		try {
+			key.channel().close();
+		}
+		catch( IOException e ) {
+			// Closing anyway
+		}
+
+		if ( c != null ) {
+			if ( c.in != null ) giveBack( c.in );
+			for ( ByteBuffer b : c.out ) giveBack( b );
+			c.in = null;
+			c.out.clear();
+		}
+
+		mConnected.decrementAndGet();
+	}
+
+	private void closeAll() {
+		for ( SelectionKey key : mSelector.keys() ) {
+			if ( key.channel() instanceof SocketChannel && key.isValid() ) close( key );
+		}
+
+		try {
+			mServer.close();
+			mSelector.close();
+		}
+		catch( IOException e ) {
+			// Closing anyway
+		}
+
+		mReplies.clear();
+		mPool.clear();
+	}
+
+
+	//
+	// Buffer pool.
+	//
+
+	private ByteBuffer borrow() {
+		ByteBuffer b = mPool.poll();
+
+		if ( b == null ) {
+			b = ByteBuffer.allocateDirect( BUFFER_SIZE );
+			mBuffersCreated++;
+		}
+
+		return b;
+	}
+
+	private void giveBack( ByteBuffer b ) {
+		b.clear();
+		if ( mPool.size() < POOL_MAX ) mPool.add( b );
+	}
+
+
+	//
+	// Per-connection state and the things passed between threads.
+	//
+
+	private static class Connection {
+		ByteBuffer             in;                               // Partial input, or null if none
+		ArrayDeque<ByteBuffer> out     = new ArrayDeque<ByteBuffer>();
+		boolean                pending = false;                  // A command is out on the executor
+		boolean                closing = false;                  // Close once the output's sent
+	}
+
+	private static class Reply {
+		final SelectionKey key;
+		final String       text;
+
+		Reply( SelectionKey key, String text ) {
+			this.key  = key;
+			this.text = text;
+		}
+	}
+
+	private static class Command {
+	/**
+	 * A parsed command, run on the executor.  Returns the rest of the OK line.
+	 *
+	 */
+		static final int START   = 0;
+		static final int CANCEL  = 1;
+		static final int DELAY   = 2;
+		static final int SWITCH  = 3;
+		static final int STATUS  = 4;
+		static final int METRICS = 5;
+
+		final int  what;
+		final long arg;
+
+		Command( int what, long arg ) {
+			this.what = what;
+			this.arg  = arg;
+		}
+
+		String run( Commands commands ) {
+			switch( what ) {
+				case START:   commands.start();         return "";
+				case CANCEL:  commands.cancel();        return "";
+				case DELAY:   commands.setDelay( arg ); return " " + arg;
+				case SWITCH:  commands.switchCamera();  return "";
+				case STATUS:  return " " + commands.status();
+				default:      return " " + commands.metrics();
+			}
+		}
+	}  // class Command
+
+
+	//
+	// Metrics.
+	//
+
+	public int getAcceptedCount()  { return mAccepted.get(); }
+	public int getConnectedCount() { return mConnected.get(); }
+	public int getCommandCount()   { return mCommandCount.get(); }
+	public int getErrorCount()     { return mErrorCount.get(); }
+
+	public LatencyStats getCommandStats() {
+		return mCommandStats;
+	}
+
+	public String getStats() {
+		return "accepted="   + mAccepted.get()
+		     + " connected=" + mConnected.get()
+		     + " commands="  + mCommandCount.get()
+		     + " errors="    + mErrorCount.get()
+		     + " buffers="   + mBuffersCreated
+		     + " " + mCommandStats.summary();
+	}
+
+}  // class ControlServer
@@ -0,0 +1,261 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The DeviceProfile class is what the Calibrator found out about this phone:  for
+ * each camera, how long it takes to open, to show its first preview frame, to
+ * trip the shutter and to hand over the JPEG;  and how fast pictures are saved
+ * to storage.  Those differ by ten times and more between phones, so rather than
+ * guessing, the capture, burst and save paths ask the profile (see the policy
+ * methods at the end).
+ *
+ * It's kept as a properties file, written to a temporary file first and renamed
+ * over the old one, so a crash never leaves half a profile.  A profile from an
+ * older version of this class is treated as missing.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+
+public class DeviceProfile {
+
+	static final int VERSION = 2;  // 2:  the write rate's unsynced, as pictures are saved
+
+	static final double MIN_VIDEO_FPS = 5;  // A video burst slower than this isn't one
+
+	public static class CameraTimes {
+	/**
+	 * One camera's times, in milliseconds;  each the median of the runs.
+	 *
+	 */
+		public long open;        // Camera.open()
+		public long firstFrame;  // startPreview() to the first frame
+		public long shutter;     // takePicture() to the shutter
+		public long jpeg;        // takePicture() to the JPEG
+		public int  jpegBytes;   // Size of the last JPEG, for the write test
+	}
+
+	private String  mDevice  = "";
+	private long    mCreated = 0;                  // Milliseconds since the epoch
+	private double  mWriteMBps = 0;                // Rate pictures are saved at, 0 if unknown
+	private final Map<Integer,CameraTimes> mCameras = new TreeMap<Integer,CameraTimes>();
+
+
+	//
+	// Class constructor.
+	//
+	public DeviceProfile( String device, long created ) {
+		mDevice  = device;
+		mCreated = created;
+	}
+
+
+	public String getDevice()   { return mDevice; }
+	public long   getCreated()  { return mCreated; }
+	public double getWriteMBps() { return mWriteMBps; }
+
+	public void setWriteMBps( double mbps ) {
+		mWriteMBps = mbps;
+	}
+
+	public void putCamera( int id, CameraTimes times ) {
+		mCameras.put( id, times );
+	}
+
+	public CameraTimes getCamera( int id ) {
+		return mCameras.get( id );
+	}
+
+	public Map<Integer,CameraTimes> getCameras() {
+		return mCameras;
+	}
+
+
+	//
+	// Saving and loading.
+	//
+
+	public void save( File file ) throws IOException {
+		Properties p = new Properties();
+
+		p.setProperty( "version",     "" + VERSION );
+		p.setProperty( "device",      mDevice );
+		p.setProperty( "created",     "" + mCreated );
+		p.setProperty( "write.mbps",  "" + mWriteMBps );
+
+		StringBuilder ids = new StringBuilder();
+
+		for ( Map.Entry<Integer,CameraTimes> e : mCameras.entrySet() ) {
+			String      key = "camera." + e.getKey() + ".";
+			CameraTimes t   = e.getValue();
+
+			p.setProperty( key + "open",       "" + t.open );
+			p.setProperty( key + "firstFrame", "" + t.firstFrame );
+			p.setProperty( key + "shutter",    "" + t.shutter );
+			p.setProperty( key + "jpeg",       "" + t.jpeg );
+			p.setProperty( key + "jpegBytes",  "" + t.jpegBytes );
+
+			ids.append( ids.length() == 0 ? "" : "," ).append( e.getKey() );
+		}
+		p.setProperty( "cameras", ids.toString() );
+
+		File tmp = new File( file.getPath() + ".tmp" );
+		OutputStream out = new FileOutputStream( tmp );
+
+		try {
+			p.store( out, "CamTimer device profile" );
+		}
+		finally {
+			out.close();
+		}
+
+		if ( !tmp.renameTo( file )) {
+			tmp.delete();
+			throw new IOException( "can't replace " + file );
+		}
+	}
+
+	public static DeviceProfile load( File file ) throws IOException {
+	/**
+	 * @return The profile, or null if there isn't one, or it's from an older
+	 *         version.  Anything unreadable in it is an IOException.
+	 */
+		if ( !file.exists() ) return null;
+
+		Properties  p  = new Properties();
+		InputStream in = new FileInputStream( file );
+
+		try {
+			p.load( in );
+		}
+		finally {
+			in.close();
+		}
+
+		try {
+			if ( Integer.parseInt( p.getProperty( "version", "0" )) != VERSION ) return null;
+
+			DeviceProfile profile = new DeviceProfile( p.getProperty( "device", "" ),
+			                                           Long.parseLong( p.getProperty( "created" )));
+			profile.setWriteMBps( Double.parseDouble( p.getProperty( "write.mbps" )));
+
+			String ids = p.getProperty( "cameras", "" );
+
+			for ( String id : ids.length() == 0 ? new String[ 0 ] : ids.split( "," )) {
+				String      key = "camera." + id + ".";
+				CameraTimes t   = new CameraTimes();
+
+				t.open       = Long.parseLong( p.getProperty( key + "open" ));
+				t.firstFrame = Long.parseLong( p.getProperty( key + "firstFrame" ));
+				t.shutter    = Long.parseLong( p.getProperty( key + "shutter" ));
+				t.jpeg       = Long.parseLong( p.getProperty( key + "jpeg" ));
+				t.jpegBytes  = Integer.parseInt( p.getProperty( key + "jpegBytes" ));
+
+				profile.putCamera( Integer.parseInt( id ), t );
+			}
+
+			return profile;
+		}
+		catch( RuntimeException e ) {  // Missing keys and bad numbers
+			throw new IOException( "bad profile " + file + ": " + e );
+		}
+	}
+
+
+	//
+	// Comparing.
+	//
+
+	public String compare( DeviceProfile last ) {
+	/**
+	 * How this profile differs from the last one, a line per figure, with the
+	 * change as a percentage.  Cameras in only one of them are said so.
+	 *
+	 */
+		StringBuilder s = new StringBuilder();
+
+		for ( Map.Entry<Integer,CameraTimes> e : mCameras.entrySet() ) {
+			CameraTimes now = e.getValue(), was = last.getCamera( e.getKey() );
+			String      cam = "camera " + e.getKey() + " ";
+
+			if ( was == null ) {
+				s.append( cam ).append( "new\n" );
+				continue;
+			}
+
+			change( s, cam + "open",        was.open,       now.open,       "ms" );
+			change( s, cam + "first frame", was.firstFrame, now.firstFrame, "ms" );
+			change( s, cam + "shutter",     was.shutter,    now.shutter,    "ms" );
+			change( s, cam + "jpeg",        was.jpeg,       now.jpeg,       "ms" );
+		}
+
+		for ( Integer id : last.getCameras().keySet() )
+			if ( !mCameras.containsKey( id )) s.append( "camera " ).append( id ).append( " gone\n" );
+
+		change( s, "write", last.mWriteMBps, mWriteMBps, "MB/s" );
+
+		return s.toString();
+	}
+
+	private static void change( StringBuilder s, String what, double was, double now, String unit ) {
+		s.append( String.format( "%s %.1f -> %.1f %s", what, was, now, unit ));
+		if ( was > 0 ) s.append( String.format( " (%+.0f%%)", 100 * ( now - was ) / was ));
+		s.append( '\n' );
+	}
+
+
+	//
+	// Policy.  What the rest of the app asks.
+	//
+
+	public int burstFrames( int camera, int most, long windowMs ) {
+	/**
+	 * How many pictures a burst can take within the window, one after another,
+	 * between 2 and most.  A camera we know nothing about gets the most.
+	 *
+	 */
+		CameraTimes t = mCameras.get( camera );
+		if ( t == null || t.jpeg <= 0 ) return most;
+
+		return (int) Math.max( 2, Math.min( most, windowMs / t.jpeg ));
+	}
+
+	public double videoRate( long frameBytes, long burstMs, long saveMs ) {
+	/**
+	 * The most frames a second a video burst lasting burstMs should keep, if
+	 * they're all to be saved within saveMs, at frameBytes each;  at least
+	 * MIN_VIDEO_FPS.  0, for no limit, if we don't know how fast storage is.
+	 *
+	 */
+		if ( mWriteMBps <= 0 || frameBytes <= 0 || burstMs <= 0 ) return 0;
+
+		double frames = mWriteMBps * 1024 * 1024 * saveMs / 1000 / frameBytes;
+		return Math.max( MIN_VIDEO_FPS, frames * 1000 / burstMs );
+	}
+
+	public String toString() {
+		StringBuilder s = new StringBuilder( mDevice + " created=" + mCreated
+		                                   + String.format( " write=%.1fMB/s", mWriteMBps ));
+
+		for ( Map.Entry<Integer,CameraTimes> e : mCameras.entrySet() ) {
+			CameraTimes t = e.getValue();
+			s.append( "\n  camera " ).append( e.getKey() )
+			 .append( ": open=" ).append( t.open ).append( " firstFrame=" ).append( t.firstFrame )
+			 .append( " shutter=" ).append( t.shutter ).append( " jpeg=" ).append( t.jpeg )
+			 .append( " bytes=" ).append( t.jpegBytes );
+		}
+		return s.toString();
+	}
+
+}  // class DeviceProfile
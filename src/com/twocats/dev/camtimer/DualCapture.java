@@ -0,0 +1,448 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The DualCapture class takes two pictures in quick succession with two different
+ * cameras, typically the scene with the back camera and the photographer with the
+ * front one.  Only one camera can be open at a time, so the second picture has to
+ * wait for the first camera to be released and the second one opened, set up and
+ * started, which takes long enough that people have moved by the time it's taken.
+ *
+ * To hide as much of that as possible, the switch starts the moment the first JPEG
+ * arrives, on its own thread, while the first picture is tagged and written on the
+ * save executor.  The second camera gets the parameters it had last time from
+ * CameraSettings' per-camera cache, so configuring it is one setParameters() call.
+ * The time between the two shutters is measured, along with each step of the
+ * switch, so the gap can be watched and compared with setOverlap( false ), which
+ * does it the obvious way:  write the first picture, then switch.
+ *
+ * Like CapturePipeline it only talks to CameraDevices and an ImageWriter, so the
+ * DualBench can run it against the SimulatedBackend.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class DualCapture {
+
+	public interface Configurator {
+	/**
+	 * Gets the second camera ready, on the switch thread, after it's opened and
+	 * before its preview starts:  settings, somewhere for the preview to go, and so
+	 * on.  Throw a RuntimeException if it can't be done.
+	 *
+	 */
+		void configure( CameraDevice device );
+	}
+
+	public interface Listener {
+	/**
+	 * onImageSaved and onSaveFailed come on the save executor, once for each picture.
+	 * onFinished comes once for each start(), as soon as no more pictures will be
+	 * taken (the second may still be saving), on the camera's callback thread or
+	 * the switch thread.
+	 *
+	 * @param device     Whichever camera is still open, which now belongs to the
+	 *                   listener;  may be null.
+	 * @param gapNanos   Time between the two shutters, or -1 if the second picture
+	 *                   wasn't taken.
+	 */
+		void onImageSaved( File file );
+		void onSaveFailed( Exception e );
+		void onFinished( CameraDevice device, long gapNanos );
+	}
+
+
+	public static final long SETTLE_TIMEOUT_MS = 1000;  // Longest we wait for the second preview
+
+	private final CameraBackend mBackend;                         // Where the second camera comes from
+	private final Configurator  mConfigurator;                    // Sets it up
+	private final Executor      mSaveExecutor;                    // Where writing happens
+	private final Executor      mSwitchExecutor;                  // Where switching happens
+	private final Listener      mListener;                        // Who hears about it
+	private volatile CapturePipeline.ImageWriter mWriter;         // Where images go
+	private volatile boolean    mOverlap      = true;             // Switch while the first picture saves
+	private volatile int        mSettleFrames = 2;                // Preview frames to wait for before shooting
+	private final AtomicBoolean mBusy = new AtomicBoolean( false );  // True while a sequence is running
+	private volatile Run        mRun  = null;                     // The sequence, for cancel()
+
+	private AtomicInteger mStarted        = new AtomicInteger();
+	private AtomicInteger mCompleted      = new AtomicInteger();  // Both pictures taken
+	private AtomicInteger mFailed         = new AtomicInteger();  // Cancelled, or a camera failed
+	private AtomicInteger mSaved          = new AtomicInteger();
+	private AtomicInteger mSaveFailed     = new AtomicInteger();
+	private AtomicInteger mSettleTimeouts = new AtomicInteger();  // Second preview never got going
+
+	private LatencyStats  mGapStats       = new LatencyStats( "gap" );        // First shutter to second shutter
+	private LatencyStats  mJpegStats      = new LatencyStats( "jpeg" );       // First shutter to first JPEG
+	private LatencyStats  mHoldStats      = new LatencyStats( "hold" );       // First JPEG to starting the switch
+	private LatencyStats  mReleaseStats   = new LatencyStats( "release" );
+	private LatencyStats  mOpenStats      = new LatencyStats( "open" );
+	private LatencyStats  mConfigureStats = new LatencyStats( "configure" );
+	private LatencyStats  mSettleStats    = new LatencyStats( "settle" );     // startPreview() to settled
+	private LatencyStats  mShutterStats   = new LatencyStats( "shutter" );    // Second request to shutter
+	private LatencyStats  mWriteStats     = new LatencyStats( "write" );      // Tagging and writing each picture
+
+
+	//
+	// Class constructor.
+	//
+	public DualCapture( CameraBackend backend, Configurator configurator, CapturePipeline.ImageWriter writer,
+	                    Executor saveExecutor, Executor switchExecutor, Listener listener ) {
+		mBackend        = backend;
+		mConfigurator   = configurator;
+		mWriter         = writer;
+		mSaveExecutor   = saveExecutor;
+		mSwitchExecutor = switchExecutor;
+		mListener       = listener;
+	}
+
+
+	public void setWriter( CapturePipeline.ImageWriter writer ) {
+		mWriter = writer;
+	}
+
+	public void setOverlap( boolean overlap ) {
+	/**
+	 * Whether to switch cameras while the first picture is saved (the default), or
+	 * only once it has been.  The second is only useful for comparison.
+	 *
+	 */
+		mOverlap = overlap;
+	}
+
+	public void setSettleFrames( int frames ) {
+	/**
+	 * How many preview frames the second camera must produce before we shoot, to
+	 * give its exposure a chance to settle.  Zero shoots as soon as the preview starts.
+	 *
+	 */
+		mSettleFrames = Math.max( 0, frames );
+	}
+
+	public boolean isBusy() {
+		return mBusy.get();
+	}
+
+
+	public boolean start( CameraDevice first, int firstRotation, int secondId, int secondRotation ) {
+	/**
+	 * Take a picture with the first camera, then one with the second.  The first
+	 * camera is handed over to us and released along the way, and must have its
+	 * preview running.
+	 *
+	 * @param first            The open camera to shoot with first.
+	 * @param firstRotation    Clockwise degrees to make its picture upright.
+	 * @param secondId         Which camera to shoot with next.
+	 * @param secondRotation   Clockwise degrees to make its picture upright.
+	 * @return true if the sequence started;  the listener hears the rest.  If
+	 *         not, the first camera still belongs to the caller.
+	 */
+		if ( !mBusy.compareAndSet( false, true ))
+			return false;
+
+		Run run = new Run( first, firstRotation, secondId, secondRotation );
+		mRun = run;
+
+		try {
+			first.takePicture( new Shot( run, first, true ));
+		}
+		catch( RuntimeException e ) {
+			mRun = null;
+			mBusy.set( false );
+			return false;
+		}
+
+		mStarted.incrementAndGet();
+		return true;
+
+	}  // start
+
+	public void cancel() {
+	/**
+	 * Stop the sequence as soon as possible, before the second picture if it isn't
+	 * too late.  The listener still gets onFinished(), with whatever camera is open.
+	 *
+	 */
+		Run run = mRun;
+		if ( run != null ) run.mCancelled = true;
+	}
+
+
+	private class Run {
+	/**
+	 * One sequence of two pictures.
+	 *
+	 */
+		final CameraDevice mFirst;
+		final int          mFirstRotation;
+		final int          mSecondId;
+		final int          mSecondRotation;
+		volatile boolean   mCancelled    = false;
+		volatile long      mShutterNanos = 0;  // First shutter
+		volatile long      mJpegNanos    = 0;  // First JPEG
+		volatile long      mTakeNanos    = 0;  // Second takePicture()
+		volatile long      mGapNanos     = -1; // First shutter to second, once we know
+
+		Run( CameraDevice first, int firstRotation, int secondId, int secondRotation ) {
+			mFirst          = first;
+			mFirstRotation  = firstRotation;
+			mSecondId       = secondId;
+			mSecondRotation = secondRotation;
+		}
+	}  // class Run
+
+
+	private class Shot implements CameraDevice.PictureListener {
+	/**
+	 * Hears about one of the two pictures.
+	 *
+	 */
+		private final Run          mShotRun;
+		private final CameraDevice mShotDevice;
+		private final boolean      mIsFirst;
+		private long               mTimestamp = System.currentTimeMillis();  // Replaced at the shutter
+
+		Shot( Run run, CameraDevice device, boolean isFirst ) {
+			mShotRun    = run;
+			mShotDevice = device;
+			mIsFirst    = isFirst;
+		}
+
+		public void onShutter() {
+			long now = System.nanoTime();
+			mTimestamp = System.currentTimeMillis();
+
+			if ( mIsFirst ) {
+				mShotRun.mShutterNanos = now;
+			} else {
+				mShotRun.mGapNanos = now - mShotRun.mShutterNanos;
+				mShutterStats.add( now - mShotRun.mTakeNanos );
+				mGapStats.add( mShotRun.mGapNanos );
+			}
+		}
+
+		public void onPictureTaken( final byte[] jpeg ) {
+			final long timestamp = mTimestamp;
+			final int  rotation  = mIsFirst ? mShotRun.mFirstRotation : mShotRun.mSecondRotation;
+
+			if ( !mIsFirst ) {
+				mSaveExecutor.execute( new Runnable() {
+					public void run() {
+						save( jpeg, timestamp, rotation );
+					}
+				} );
+
+				finish( mShotDevice, mShotRun.mGapNanos );
+				return;
+			}
+
+			mShotRun.mJpegNanos = System.nanoTime();
+			mJpegStats.add( mShotRun.mJpegNanos - mShotRun.mShutterNanos );
+
+			// Here's the point of it all:  the switch normally starts now, alongside the save.
+
+			final boolean overlap = mOverlap;
+			final Runnable doSwitch = new Runnable() {
+				public void run() {
+					switchCameras( mShotRun );
+				}
+			};
+
+			mSaveExecutor.execute( new Runnable() {
+				public void run() {
+					save( jpeg, timestamp, rotation );
+					if ( !overlap ) mSwitchExecutor.execute( doSwitch );
+				}
+			} );
+
+			if ( overlap ) mSwitchExecutor.execute( doSwitch );
+		}
+
+		public void onError( Exception e ) {
+			finish( mShotDevice, -1 );
+		}
+	}  // class Shot
+
+
+	private void switchCameras( Run run ) {
+	/**
+	 * On the switch thread:  let go of the first camera, open and set up the second,
+	 * wait for its preview to settle, and take the second picture.
+	 *
+	 */
+		long start = System.nanoTime();
+		mHoldStats.add( start - run.mJpegNanos );
+
+		try {
+			run.mFirst.release();
+		}
+		catch( RuntimeException e ) {
+			// It's going away regardless.
+		}
+
+		long released = System.nanoTime();
+		mReleaseStats.add( released - start );
+
+		if ( run.mCancelled ) {
+			finish( null, -1 );
+			return;
+		}
+
+		CameraDevice second;
+
+		try {
+			second = mBackend.open( run.mSecondId );
+		}
+		catch( RuntimeException e ) {
+			finish( null, -1 );
+			return;
+		}
+
+		long opened = System.nanoTime();
+		mOpenStats.add( opened - released );
+
+		try {
+			mConfigurator.configure( second );
+
+			long configured = System.nanoTime();
+			mConfigureStats.add( configured - opened );
+
+			settle( second );
+			mSettleStats.add( System.nanoTime() - configured );
+
+			if ( run.mCancelled ) {
+				finish( second, -1 );
+				return;
+			}
+
+			run.mTakeNanos = System.nanoTime();
+			second.takePicture( new Shot( run, second, false ));
+		}
+		catch( RuntimeException e ) {
+			finish( second, -1 );
+		}
+
+	}  // switchCameras
+
+	private void settle( CameraDevice device ) {
+	/**
+	 * Start the preview and wait for the first few frames, or SETTLE_TIMEOUT_MS,
+	 * whichever comes first.
+	 *
+	 */
+		int frames = mSettleFrames;
+
+		if ( frames == 0 ) {
+			device.startPreview();
+			return;
+		}
+
+		final CountDownLatch settled = new CountDownLatch( frames );
+
+		CameraDevice.PreviewListener counter = new CameraDevice.PreviewListener() {
+			public void onPreviewFrame( byte[] data, int width, int height ) {
+				settled.countDown();
+			}
+		};
+
+		device.addPreviewListener( counter );
+
+		try {
+			device.startPreview();
+
+			if ( !settled.await( SETTLE_TIMEOUT_MS, TimeUnit.MILLISECONDS ))
+				mSettleTimeouts.incrementAndGet();
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			device.removePreviewListener( counter );
+		}
+
+	}  // settle
+
+	private void finish( CameraDevice device, long gapNanos ) {
+		if ( gapNanos >= 0 ) mCompleted.incrementAndGet();
+		else                 mFailed.incrementAndGet();
+
+		mRun = null;
+		mBusy.set( false );
+
+		mListener.onFinished( device, gapNanos );
+	}
+
+	private void save( byte[] jpeg, long timestamp, int rotation ) {
+	/**
+	 * Tag a picture with its orientation and capture time, as CapturePipeline does,
+	 * and write it.
+	 *
+	 */
+		long start = System.nanoTime();
+
+		try {
+			jpeg = new ExifRewriter()
+				.setOrientation( rotation )
+				.setCaptureTime( timestamp )
+				.rewrite( jpeg );
+		}
+		catch( IOException e ) {
+			// Save it untagged.
+		}
+
+		File file;
+
+		try {
+			file = mWriter.write( jpeg, timestamp );
+		}
+		catch( Exception e ) {
+			mSaveFailed.incrementAndGet();
+			mListener.onSaveFailed( e );
+			return;
+		}
+
+		mWriteStats.add( System.nanoTime() - start );
+		mSaved.incrementAndGet();
+
+		mListener.onImageSaved( file );
+
+	}  // save
+
+
+	//
+	// Metrics.
+	//
+
+	public int getStartedCount()   { return mStarted.get(); }
+	public int getCompletedCount() { return mCompleted.get(); }
+	public int getFailedCount()    { return mFailed.get(); }
+	public int getSavedCount()     { return mSaved.get(); }
+
+	public LatencyStats getGapStats() { return mGapStats; }
+
+	public String getStats() {
+		return "started=" + mStarted.get() + " completed=" + mCompleted.get() + " failed=" + mFailed.get()
+		     + " saved=" + mSaved.get() + " saveFailed=" + mSaveFailed.get()
+		     + " settleTimeouts=" + mSettleTimeouts.get() + " overlap=" + mOverlap
+		     + "\n  " + mGapStats.summary()
+		     + "\n  " + mJpegStats.summary()
+		     + "\n  " + mHoldStats.summary()
+		     + "\n  " + mReleaseStats.summary()
+		     + "\n  " + mOpenStats.summary()
+		     + "\n  " + mConfigureStats.summary()
+		     + "\n  " + mSettleStats.summary()
+		     + "\n  " + mShutterStats.summary()
+		     + "\n  " + mWriteStats.summary();
+	}
+
+}  // class DualCapture
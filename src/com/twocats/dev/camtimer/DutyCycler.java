@@ -0,0 +1,376 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The DutyCycler class saves battery (and heat) while waiting for a scheduled
+ * picture.  During a long wait (MIN_WAIT_MS or more, so the thirty second delay
+ * but not the usual five, when people are watching the preview as they pose) it
+ * releases the camera, or just stops the preview if there isn't time for that,
+ * then brings the camera back ahead of the deadline so the picture is still
+ * taken on time.
+ *
+ * How far ahead it has to start is learned per camera:  every time it wakes a
+ * camera it measures how long until the first preview frame arrives, and keeps
+ * a smoothed mean and deviation of that (the same way TCP estimates round trip
+ * times).  The lead time is the mean plus a few deviations.
+ *
+ * It's pure Java;  the activity supplies the camera actions and a scheduler,
+ * and calls onPreviewFrame() when the first frame shows up after a wake.  If it
+ * never does (a preview that failed quietly), the camera's taken as back anyway
+ * after the lead time and WAKE_MARGIN_MS, so a picture waiting for it goes ahead
+ * and fails on its own rather than being lost.  All calls must come from the
+ * scheduler's thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class DutyCycler {
+
+	public interface Actions {
+	/**
+	 * What the cycler can do to the camera.  openCamera() and startPreview()
+	 * return false if it didn't work, in which case the cycler gives up on this
+	 * wait and leaves the camera to the app.
+	 *
+	 */
+		void    releaseCamera();
+		boolean openCamera();    // Open and start the preview
+		void    stopPreview();
+		boolean startPreview();
+	}
+
+	public interface Scheduler {
+		long now();                                 // Milliseconds, monotonic
+		void schedule( Runnable task, long delayMs );
+		void cancel( Runnable task );
+	}
+
+	// What state we've put the camera in.
+
+	static final int ACTIVE      = 0;  // Open, preview running (or not ours to touch)
+	static final int PREVIEW_OFF = 1;
+	static final int RELEASED    = 2;
+	static final int WAKING      = 3;  // Asked it to come back, waiting for the first frame
+
+	static final long GUARD_MS           = 150;   // Aim to be ready this long before the deadline
+	static final long MIN_WAIT_MS        = 20000; // Shorter waits leave the camera alone
+	static final long MIN_RELEASED_MS    = 4000;  // Not worth releasing for less time than this
+	static final long MIN_PREVIEW_OFF_MS = 1500;  // Not worth stopping the preview for less than this
+	static final long WAKE_MARGIN_MS     = 2000;  // Past the lead time, stop waiting for the first frame
+
+	private final Actions   mActions;
+	private final Scheduler mScheduler;
+
+	private int      mState      = ACTIVE;
+	private int      mCameraId   = 0;
+	private long     mDeadline   = 0;     // When the picture is due, 0 if none
+	private long     mWakeStart  = 0;     // When we last asked the camera to come back
+	private boolean  mWakeOpened = false; // Was that an open, or just a preview start?
+	private Runnable mWhenReady  = null;  // Run once the camera is back (the late capture)
+
+	private Map<Integer,Estimate> mOpenEstimates    = new HashMap<Integer,Estimate>();
+	private Map<Integer,Estimate> mPreviewEstimates = new HashMap<Integer,Estimate>();
+
+	// Metrics.
+
+	private long         mWaitMs       = 0;  // Total time spent waiting for deadlines
+	private long         mPreviewOnMs  = 0;  // ... of which the preview was on
+	private long         mWaitStart    = 0;  // Start of the current wait, 0 if none
+	private long         mSegmentStart = 0;  // When the preview last came on during this wait, 0 if off
+	private int          mOpenCount    = 0;  // Opens we did
+	private int          mPreviewStops = 0;  // Preview stops we did
+	private int          mLateCount    = 0;  // Times the camera wasn't back by the deadline
+	private int          mWakeTimeouts = 0;  // Wakes that never saw a first frame
+	private LatencyStats mWarmupError  = new LatencyStats( "warm-up error" );  // Ready time minus target, ns
+
+
+	static class Estimate {
+	/**
+	 * Smoothed warm-up time, in milliseconds.
+	 *
+	 */
+		double mean;
+		double dev;
+
+		Estimate( double initial ) {
+			mean = initial;
+			dev  = initial / 2;
+		}
+
+		void add( long sample ) {
+			double err = sample - mean;
+			mean += 0.25 * err;
+			dev  += 0.25 * ( Math.abs( err ) - dev );
+		}
+
+		long lead() {
+			return Math.round( mean + 3 * dev );
+		}
+	}
+
+
+	//
+	// Class constructor.
+	//
+	public DutyCycler( Actions actions, Scheduler scheduler ) {
+		mActions   = actions;
+		mScheduler = scheduler;
+	}
+
+
+	public void planCapture( int cameraId, long deadline ) {
+	/**
+	 * A picture is due at the deadline (in the scheduler's clock).  Decide whether
+	 * to release the camera, stop the preview, or leave things alone until then.
+	 *
+	 */
+		cancelWake();
+		endWait();
+
+		long now  = mScheduler.now();
+
+		mCameraId     = cameraId;
+		mDeadline     = deadline;
+		mWaitStart    = now;
+		mSegmentStart = now;
+
+		if ( deadline - now < MIN_WAIT_MS ) return;
+
+		long gap  = deadline - GUARD_MS - now;
+		long open = estimate( mOpenEstimates,    cameraId, 1000 ).lead();
+		long prev = estimate( mPreviewEstimates, cameraId,  300 ).lead();
+
+		if ( gap - open >= MIN_RELEASED_MS ) {
+			endSegment();
+			mActions.releaseCamera();
+			mState = RELEASED;
+			mScheduler.schedule( mWake, gap - open );
+		}
+		else if ( gap - prev >= MIN_PREVIEW_OFF_MS ) {
+			endSegment();
+			mActions.stopPreview();
+			mPreviewStops++;
+			mState = PREVIEW_OFF;
+			mScheduler.schedule( mWake, gap - prev );
+		}
+
+	}  // planCapture
+
+	public void seed( int cameraId, long openMs, long previewMs ) {
+	/**
+	 * Start a camera's warm-up estimates from what was measured before (see
+	 * DeviceProfile), rather than a guess:  openMs from the open to the first
+	 * frame, previewMs from starting the preview to it.  Estimates already learned
+	 * this time round are kept.
+	 *
+	 */
+		if ( !mOpenEstimates.containsKey( cameraId ))    mOpenEstimates.put( cameraId, new Estimate( openMs ));
+		if ( !mPreviewEstimates.containsKey( cameraId )) mPreviewEstimates.put( cameraId, new Estimate( previewMs ));
+	}
+
+	public void cancel() {
+	/**
+	 * The picture's off.  Put the camera back the way it was straight away.
+	 *
+	 */
+		cancelWake();
+		mWhenReady = null;
+
+		if ( mState == RELEASED || mState == PREVIEW_OFF )
+			wake();
+
+		endWait();
+		mDeadline = 0;
+	}
+
+	public void stop() {
+	/**
+	 * Forget everything without touching the camera, for instance because the
+	 * activity is pausing and releasing it anyway.
+	 *
+	 */
+		cancelWake();
+		endWait();
+		mWhenReady = null;
+		mDeadline  = 0;
+		mState     = ACTIVE;
+	}
+
+	public boolean isReady() {
+		return mState == ACTIVE;
+	}
+
+	public void runWhenReady( Runnable task ) {
+	/**
+	 * Run the task now if the camera's ready, otherwise as soon as it is.
+	 *
+	 */
+		if ( mState == ACTIVE ) {
+			task.run();
+			return;
+		}
+
+		mLateCount++;
+		mWhenReady = task;
+
+		if ( mState != WAKING ) {  // Deadline came before our wake-up;  hurry
+			cancelWake();
+			wake();
+		}
+	}
+
+	public void onCaptureDone() {
+	/**
+	 * The picture for the current deadline has been taken.
+	 *
+	 */
+		endWait();
+		mDeadline = 0;
+	}
+
+	public void onPreviewFrame() {
+	/**
+	 * Called with the first preview frame after we asked the camera to come back.
+	 *
+	 */
+		if ( mState != WAKING ) return;
+
+		mScheduler.cancel( mWakeTimeout );
+		long now = mScheduler.now();
+
+		estimate( mWakeOpened ? mOpenEstimates : mPreviewEstimates, mCameraId, 0 ).add( now - mWakeStart );
+
+		if ( mDeadline > 0 )
+			mWarmupError.add(( now - ( mDeadline - GUARD_MS )) * 1000000L );
+
+		mState = ACTIVE;
+		runPending();
+
+	}  // onPreviewFrame
+
+
+	//
+	// Waking up.
+	//
+
+	private Runnable mWake = new Runnable() {
+		public void run() {
+			wake();
+		}
+	};
+
+	private Runnable mWakeTimeout = new Runnable() {
+		public void run() {
+			if ( mState != WAKING ) return;
+
+			mWakeTimeouts++;
+			mState = ACTIVE;
+			runPending();
+		}
+	};
+
+	private void wake() {
+		mWakeStart  = mScheduler.now();
+		mWakeOpened = mState == RELEASED;
+
+		if ( mWaitStart > 0 ) mSegmentStart = mWakeStart;  // Preview's on again from here
+
+		mState = WAKING;
+
+		boolean ok;
+
+		if ( mWakeOpened ) {
+			mOpenCount++;
+			ok = mActions.openCamera();
+		} else {
+			ok = mActions.startPreview();
+		}
+
+		if ( !ok ) {
+			// Nothing to wait for.  Let any late capture go ahead and fail on its own.
+			mState = ACTIVE;
+			runPending();
+			return;
+		}
+
+		long lead = estimate( mWakeOpened ? mOpenEstimates : mPreviewEstimates, mCameraId,
+		                      mWakeOpened ? 1000 : 300 ).lead();
+		mScheduler.cancel( mWakeTimeout );
+		mScheduler.schedule( mWakeTimeout, lead + WAKE_MARGIN_MS );
+
+	}  // wake
+
+	private void cancelWake() {
+		mScheduler.cancel( mWake );
+		mScheduler.cancel( mWakeTimeout );
+	}
+
+	private void runPending() {
+		if ( mWhenReady == null ) return;
+
+		Runnable task = mWhenReady;
+		mWhenReady = null;
+		task.run();
+	}
+
+	private Estimate estimate( Map<Integer,Estimate> map, int cameraId, long initial ) {
+		Estimate e = map.get( cameraId );
+
+		if ( e == null ) {
+			e = new Estimate( initial );
+			map.put( cameraId, e );
+		}
+
+		return e;
+	}
+
+
+	//
+	// Metrics.  Within a wait, a "segment" is a stretch with the preview on.
+	//
+
+	private void endSegment() {
+		if ( mSegmentStart == 0 ) return;
+
+		mPreviewOnMs += mScheduler.now() - mSegmentStart;
+		mSegmentStart = 0;
+	}
+
+	private void endWait() {
+		if ( mWaitStart == 0 ) return;
+
+		endSegment();
+		mWaitMs   += mScheduler.now() - mWaitStart;
+		mWaitStart = 0;
+	}
+
+	public long getWaitMillis()      { return mWaitMs; }
+	public long getPreviewOnMillis() { return mPreviewOnMs; }
+	public int  getOpenCount()       { return mOpenCount; }
+	public int  getLateCount()       { return mLateCount; }
+	public int  getWakeTimeouts()    { return mWakeTimeouts; }
+
+	public LatencyStats getWarmupError() {
+		return mWarmupError;
+	}
+
+	public long getOpenLeadMillis( int cameraId ) {
+		return estimate( mOpenEstimates, cameraId, 1000 ).lead();
+	}
+
+	public String getStats() {
+		return "waitMs="      + mWaitMs
+		     + " previewOnMs=" + mPreviewOnMs
+		     + " opens="      + mOpenCount
+		     + " previewStops=" + mPreviewStops
+		     + " late="       + mLateCount
+		     + " wakeTimeouts=" + mWakeTimeouts
+		     + " " + mWarmupError.summary();
+	}
+
+}  // class DutyCycler
@@ -0,0 +1,755 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The ExifRewriter class adds or updates a few EXIF tags in a JPEG without
+ * decoding it:  the orientation, so the camera needn't rotate the pixels itself,
+ * and the capture time, down to the millisecond.
+ *
+ * It works through the marker segments at the front of the file, patches the
+ * Exif APP1 segment (or adds one if there isn't any), and copies everything from
+ * the start of scan onwards untouched, so the cost is a copy of the file and no
+ * more.  The existing TIFF structure isn't moved:  new copies of IFD0 and the Exif
+ * IFD, carrying the changed tags, are appended to it and the header is pointed at
+ * them.  That way every offset already in there (the maker note's, the
+ * thumbnail's) stays valid, whatever the camera put in it.  If the segment has no
+ * room left to grow (it can't pass 64K), our tags are written over the camera's
+ * own entries for them instead.
+ *
+ * Anything it can't make sense of before the scan data is an IOException, and the
+ * caller should just keep the original image.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+public class ExifRewriter {
+
+	// Tags we know about.
+
+	static final int TAG_IMAGE_DESCRIPTION  = 0x010E;  // IFD0
+	static final int TAG_ORIENTATION        = 0x0112;  // IFD0
+	static final int TAG_EXIF_IFD           = 0x8769;  // IFD0, pointer to the Exif IFD
+	static final int TAG_DATETIME_ORIGINAL  = 0x9003;  // Exif IFD
+	static final int TAG_SUBSEC_ORIGINAL    = 0x9291;  // Exif IFD
+
+	static final int TYPE_ASCII = 2;
+	static final int TYPE_SHORT = 3;
+	static final int TYPE_LONG  = 4;
+
+	private static final byte[] EXIF_ID = { 'E', 'x', 'i', 'f', 0, 0 };
+
+	private static final int MAX_SEGMENT = 65535;  // Segment length field, which counts itself
+
+	private final List<Tag> mIfd0Tags = new ArrayList<Tag>();  // Tags to set in IFD0
+	private final List<Tag> mExifTags = new ArrayList<Tag>();  // ... and in the Exif IFD
+
+
+	//
+	// Choosing the tags.
+	//
+
+	public ExifRewriter setOrientation( int degrees ) {
+	/**
+	 * Set the orientation tag from the clockwise rotation, in degrees, that makes
+	 * the image upright;  the same value the camera's setRotation() takes.
+	 *
+	 */
+		int value;
+
+		switch(( degrees % 360 + 360 ) % 360 ) {
+			case 90:  value = 6; break;
+			case 180: value = 3; break;
+			case 270: value = 8; break;
+			case 0:   value = 1; break;
+			default:  throw new IllegalArgumentException( "rotation must be a multiple of 90, not " + degrees );
+		}
+
+		put( mIfd0Tags, new Tag( TAG_ORIENTATION, TYPE_SHORT, value ));
+		return this;
+	}
+
+	public ExifRewriter setCaptureTime( long millis ) {
+	/**
+	 * Set DateTimeOriginal (local time, to the second) and SubSecTimeOriginal
+	 * (the milliseconds).
+	 *
+	 */
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis( millis );
+
+		String when = String.format( Locale.US, "%04d:%02d:%02d %02d:%02d:%02d",
+			c.get( Calendar.YEAR ), c.get( Calendar.MONTH ) + 1, c.get( Calendar.DAY_OF_MONTH ),
+			c.get( Calendar.HOUR_OF_DAY ), c.get( Calendar.MINUTE ), c.get( Calendar.SECOND ));
+
+		setAscii( true, TAG_DATETIME_ORIGINAL, when );
+		setAscii( true, TAG_SUBSEC_ORIGINAL, String.format( Locale.US, "%03d", c.get( Calendar.MILLISECOND )));
+		return this;
+	}
+
+	public ExifRewriter setDescription( String description ) {
+	/**
+	 * Set ImageDescription, which most galleries show as the picture's caption.
+	 *
+	 */
+		return setAscii( false, TAG_IMAGE_DESCRIPTION, description );
+	}
+
+	ExifRewriter setAscii( boolean exifIfd, int tag, String value ) {
+	/**
+	 * Set any ASCII tag, in IFD0 or the Exif IFD.
+	 *
+	 */
+		put( exifIfd ? mExifTags : mIfd0Tags, new Tag( tag, value ));
+		return this;
+	}
+
+	private static void put( List<Tag> tags, Tag tag ) {
+		for ( int i = 0; i < tags.size(); i++ ) {
+			if ( tags.get( i ).tag == tag.tag ) {
+				tags.set( i, tag );
+				return;
+			}
+		}
+		tags.add( tag );
+	}
+
+
+	//
+	// Rewriting.
+	//
+
+	public byte[] rewrite( byte[] jpeg ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream( jpeg.length + 1024 );
+		rewrite( new ByteArrayInputStream( jpeg ), out );
+		return out.toByteArray();
+	}
+
+	public void rewrite( InputStream in, OutputStream out ) throws IOException {
+	/**
+	 * Copy a JPEG from in to out with the tags set.  Neither stream is closed.
+	 *
+	 */
+		if ( readByte( in ) != 0xFF || readByte( in ) != 0xD8 )
+			throw new IOException( "not a JPEG" );
+
+		out.write( 0xFF );
+		out.write( 0xD8 );
+
+		boolean tagged = false;  // Written our Exif segment yet?
+
+		while ( true ) {
+			int marker = nextMarker( in );
+
+			if ( marker == 0xDA ) {  // Start of scan:  from here on it's all image data
+				if ( !tagged ) writeApp1( out, newTiff() );
+
+				out.write( 0xFF );
+				out.write( 0xDA );
+				copy( in, out );
+				return;
+			}
+
+			if ( marker == 0x01 || ( marker >= 0xD0 && marker <= 0xD7 )) {  // No length, no data
+				out.write( 0xFF );
+				out.write( marker );
+				continue;
+			}
+
+			if ( marker == 0xD8 || marker == 0xD9 )
+				throw new IOException( "unexpected marker " + Integer.toHexString( marker ) + " before image data" );
+
+			int length = ( readByte( in ) << 8 ) | readByte( in );
+			if ( length < 2 ) throw new IOException( "bad segment length " + length );
+
+			byte[] data = new byte[ length - 2 ];
+			readFully( in, data );
+
+			if ( !tagged ) {
+				if ( marker == 0xE1 && startsWith( data, EXIF_ID )) {
+					writeApp1( out, patchTiff( data ));
+					tagged = true;
+					continue;
+				}
+
+				if ( marker != 0xE0 ) {  // Exif goes right after SOI, or after a JFIF APP0
+					writeApp1( out, newTiff() );
+					tagged = true;
+				}
+			}
+
+			out.write( 0xFF );
+			out.write( marker );
+			out.write( length >> 8 );
+			out.write( length );
+			out.write( data );
+		}
+	}  // rewrite
+
+
+	private byte[] newTiff() throws IOException {
+	/**
+	 * A minimal big-endian TIFF with just our tags, for images that had no Exif.
+	 *
+	 */
+		Tiff t = new Tiff( true );
+
+		t.u16( 0x4D4D );
+		t.u16( 42 );
+		t.u32( 8 );
+
+		writeIfds( t, new ArrayList<byte[]>(), 0, new ArrayList<byte[]>() );
+
+		return t.bytes();
+	}
+
+	private byte[] patchTiff( byte[] app1 ) throws IOException {
+	/**
+	 * Take an Exif APP1 payload ("Exif\0\0" and a TIFF) and return the TIFF with
+	 * new copies of IFD0 and the Exif IFD appended, and the header pointing at them,
+	 * or patched in place if that would make the segment too big.
+	 *
+	 */
+		int base = EXIF_ID.length;
+		int size = app1.length - base;
+
+		if ( size < 8 ) throw new IOException( "Exif too short" );
+
+		boolean big;
+
+		if      ( app1[ base ] == 'M' && app1[ base + 1 ] == 'M' ) big = true;
+		else if ( app1[ base ] == 'I' && app1[ base + 1 ] == 'I' ) big = false;
+		else throw new IOException( "bad TIFF byte order" );
+
+		Tiff src = new Tiff( big, app1, base );
+
+		if ( src.u16At( 2 ) != 42 ) throw new IOException( "bad TIFF magic" );
+
+		// IFD0, and the Exif IFD if it has one.
+
+		long ifd0 = src.u32At( 4 );
+		List<byte[]> ifd0Entries = readIfd( src, ifd0, size );
+		long next = src.u32At( (int) ifd0 + 2 + ifd0Entries.size() * 12 );  // IFD1, the thumbnail
+
+		List<byte[]> exifEntries = new ArrayList<byte[]>();
+		long exif = -1;
+
+		for ( byte[] e : ifd0Entries ) {
+			if ( src.u16( e, 0 ) == TAG_EXIF_IFD ) {
+				exif = src.u32( e, 8 );
+				exifEntries = readIfd( src, exif, size );
+			}
+		}
+
+		// Copy the whole TIFF, pad to a word boundary, and append the new IFDs.
+
+		Tiff t = new Tiff( big );
+		t.write( app1, base, size );
+		if (( t.size() & 1 ) != 0 ) t.u8( 0 );
+
+		int newIfd0 = t.size();
+		writeIfds( t, ifd0Entries, next, exifEntries );
+
+		byte[] out = t.bytes();
+		Tiff.put32( out, 4, newIfd0, big );  // Header now points at the new IFD0
+
+		if ( out.length + EXIF_ID.length + 2 <= MAX_SEGMENT ) return out;
+
+		return patchInPlace( app1, src, ifd0, ifd0Entries, exif, exifEntries );
+	}  // patchTiff
+
+	private byte[] patchInPlace( byte[] app1, Tiff src, long ifd0, List<byte[]> ifd0Entries,
+	                             long exif, List<byte[]> exifEntries ) throws IOException {
+	/**
+	 * The TIFF as it was, with our tags written over the camera's entries for them.
+	 * The orientation is a SHORT, kept in the entry itself, so it always fits;  a
+	 * string goes where the old one was if it's no longer.  Tags with nowhere to go
+	 * are left out, except the orientation:  the picture would come out sideways
+	 * without it, so that's an IOException.
+	 *
+	 */
+		byte[] out = Arrays.copyOfRange( app1, EXIF_ID.length, app1.length );
+
+		for ( Tag tag : mIfd0Tags ) {
+			if ( !patchEntry( out, src, ifd0, ifd0Entries, tag ) && tag.tag == TAG_ORIENTATION )
+				throw new IOException( "Exif segment full, with no orientation to patch" );
+		}
+
+		if ( exif >= 0 ) {
+			for ( Tag tag : mExifTags ) patchEntry( out, src, exif, exifEntries, tag );
+		}
+
+		return out;
+	}
+
+	private static boolean patchEntry( byte[] tiff, Tiff src, long ifd, List<byte[]> entries, Tag tag ) {
+	/**
+	 * Overwrite the value of the entry for tag, if it's the same type and has room.
+	 * A shorter string is padded with NULs, so the count stays right.
+	 *
+	 */
+		for ( int i = 0; i < entries.size(); i++ ) {
+			byte[] e = entries.get( i );
+			if ( src.u16( e, 0 ) != tag.tag ) continue;
+
+			long count = src.u32( e, 4 );
+			boolean fits = tag.type == TYPE_ASCII ? tag.count <= count : tag.count == count;
+
+			if ( src.u16( e, 2 ) != tag.type || !fits ) return false;
+
+			long room = tag.type == TYPE_SHORT ? count * 2 : count;
+			long at   = room <= 4 ? ifd + 2 + i * 12 + 8 : src.u32( e, 8 );
+
+			if ( at + room > tiff.length ) return false;
+
+			byte[] v = tag.bytes( src.big );
+			Arrays.fill( tiff, (int) at, (int) ( at + room ), (byte) 0 );
+			System.arraycopy( v, 0, tiff, (int) at, v.length );
+			return true;
+		}
+
+		return false;
+	}  // patchEntry
+
+	private List<byte[]> readIfd( Tiff src, long offset, int size ) throws IOException {
+	/**
+	 * The raw 12-byte entries of the IFD at offset, checking it lies inside the TIFF.
+	 *
+	 */
+		if ( offset < 8 || offset + 2 > size )
+			throw new IOException( "IFD offset " + offset + " out of range" );
+
+		int count = src.u16At( (int) offset );
+
+		if ( offset + 2 + count * 12L + 4 > size )
+			throw new IOException( "IFD with " + count + " entries runs off the end" );
+
+		List<byte[]> entries = new ArrayList<byte[]>( count );
+
+		for ( int i = 0; i < count; i++ ) {
+			byte[] e = new byte[ 12 ];
+			src.read( (int) offset + 2 + i * 12, e );
+			entries.add( e );
+		}
+
+		return entries;
+	}
+
+	private void writeIfds( Tiff t, List<byte[]> ifd0, long next, List<byte[]> exif ) throws IOException {
+	/**
+	 * Append IFD0 and then the Exif IFD, each made of the old entries (untouched,
+	 * since their offsets still hold) with ours replacing or added to them.
+	 *
+	 */
+		List<byte[]> ifd0Out = merge( t, ifd0, mIfd0Tags, true );
+		List<byte[]> exifOut = merge( t, exif, mExifTags, false );
+
+		// IFD0 gets a pointer to where the Exif IFD is going to be.  It's a fixed
+		// size entry, so we can work that out before writing anything.
+
+		int ifd0Start = t.size();
+		int exifStart = ifd0Start + ifdSize( t, ifd0Out, mIfd0Tags ) + 12;  // +12 for the pointer entry
+		if (( exifStart & 1 ) != 0 ) exifStart++;
+
+		byte[] ptr = new byte[ 12 ];
+		Tiff.put16( ptr, 0, TAG_EXIF_IFD, t.big );
+		Tiff.put16( ptr, 2, TYPE_LONG, t.big );
+		Tiff.put32( ptr, 4, 1, t.big );
+		Tiff.put32( ptr, 8, exifStart, t.big );
+		insertSorted( ifd0Out, ptr, t );
+
+		writeIfd( t, ifd0Out, mIfd0Tags, next );
+		if (( t.size() & 1 ) != 0 ) t.u8( 0 );
+
+		if ( t.size() != exifStart ) throw new IllegalStateException( "Exif IFD landed in the wrong place" );
+
+		writeIfd( t, exifOut, mExifTags, 0 );
+	}  // writeIfds
+
+	private List<byte[]> merge( Tiff t, List<byte[]> old, List<Tag> ours, boolean dropExifPointer ) {
+	/**
+	 * Old entries, less any we're replacing, with placeholders for ours, sorted by
+	 * tag as TIFF requires.  The placeholders get filled in by writeIfd().
+	 *
+	 */
+		List<byte[]> out = new ArrayList<byte[]>();
+
+		for ( byte[] e : old ) {
+			int tag = t.u16( e, 0 );
+			boolean replaced = dropExifPointer && tag == TAG_EXIF_IFD;
+
+			for ( Tag mine : ours ) replaced |= mine.tag == tag;
+
+			if ( !replaced ) insertSorted( out, e, t );
+		}
+
+		for ( Tag tag : ours ) {
+			byte[] e = new byte[ 12 ];
+			Tiff.put16( e, 0, tag.tag, t.big );
+			insertSorted( out, e, t );
+		}
+
+		return out;
+	}
+
+	private static void insertSorted( List<byte[]> entries, byte[] e, Tiff t ) {
+		int tag = t.u16( e, 0 );
+		int i = entries.size();
+
+		while ( i > 0 && t.u16( entries.get( i - 1 ), 0 ) > tag ) i--;
+
+		entries.add( i, e );
+	}
+
+	private int ifdSize( Tiff t, List<byte[]> entries, List<Tag> ours ) {
+	/**
+	 * Bytes an IFD will take, including our values that don't fit in an entry.
+	 *
+	 */
+		int size = 2 + entries.size() * 12 + 4;
+
+		for ( Tag tag : ours ) {
+			int n = tag.bytes( t.big ).length;
+			if ( n > 4 ) size += n + ( n & 1 );
+		}
+
+		return size;
+	}
+
+	private void writeIfd( Tiff t, List<byte[]> entries, List<Tag> ours, long next ) {
+	/**
+	 * Write an IFD at the end of t, filling in the placeholder entries for our tags
+	 * and putting any of their values that don't fit in the entry right after it.
+	 *
+	 */
+		int start = t.size();
+		int data  = start + 2 + entries.size() * 12 + 4;  // Where out-of-line values go
+
+		ByteArrayOutputStream values = new ByteArrayOutputStream();
+
+		t.u16( entries.size() );
+
+		for ( byte[] e : entries ) {
+			Tag tag = null;
+			for ( Tag mine : ours ) {
+				if ( mine.tag == t.u16( e, 0 ) && isPlaceholder( e )) tag = mine;
+			}
+
+			if ( tag == null ) {
+				t.write( e, 0, 12 );
+				continue;
+			}
+
+			byte[] v = tag.bytes( t.big );
+
+			t.u16( tag.tag );
+			t.u16( tag.type );
+			t.u32( tag.count );
+
+			if ( v.length <= 4 ) {
+				byte[] inline = new byte[ 4 ];
+				System.arraycopy( v, 0, inline, 0, v.length );
+				t.write( inline, 0, 4 );
+			} else {
+				t.u32( data + values.size() );
+				values.write( v, 0, v.length );
+				if (( v.length & 1 ) != 0 ) values.write( 0 );
+			}
+		}
+
+		t.u32( next );
+
+		byte[] v = values.toByteArray();
+		t.write( v, 0, v.length );
+	}  // writeIfd
+
+	private static boolean isPlaceholder( byte[] e ) {
+		for ( int i = 2; i < 12; i++ ) if ( e[ i ] != 0 ) return false;
+		return true;  // Real entries always have a type
+	}
+
+	private static void writeApp1( OutputStream out, byte[] tiff ) throws IOException {
+		int length = 2 + EXIF_ID.length + tiff.length;
+
+		if ( length > MAX_SEGMENT ) throw new IOException( "Exif segment would be too big" );
+
+		out.write( 0xFF );
+		out.write( 0xE1 );
+		out.write( length >> 8 );
+		out.write( length );
+		out.write( EXIF_ID );
+		out.write( tiff );
+	}
+
+
+	//
+	// Reading back, for checking.
+	//
+
+	static Map<Integer,String> readTags( byte[] jpeg ) throws IOException {
+	/**
+	 * The IFD0 and Exif IFD tags of a JPEG's first Exif segment, with numbers and
+	 * strings as strings and anything else as "?".  Empty if there's no Exif.
+	 *
+	 */
+		Map<Integer,String> tags = new HashMap<Integer,String>();
+		InputStream in = new ByteArrayInputStream( jpeg );
+
+		if ( readByte( in ) != 0xFF || readByte( in ) != 0xD8 ) throw new IOException( "not a JPEG" );
+
+		while ( true ) {
+			int marker = nextMarker( in );
+
+			if ( marker == 0xDA || marker == 0xD9 ) return tags;
+			if ( marker == 0x01 || ( marker >= 0xD0 && marker <= 0xD8 )) continue;
+
+			int length = ( readByte( in ) << 8 ) | readByte( in );
+			if ( length < 2 ) throw new IOException( "bad segment length " + length );
+
+			byte[] data = new byte[ length - 2 ];
+			readFully( in, data );
+
+			if ( marker != 0xE1 || !startsWith( data, EXIF_ID )) continue;
+
+			int     base = EXIF_ID.length;
+			boolean big  = data.length > base && data[ base ] == 'M';
+			Tiff    src  = new Tiff( big, data, base );
+			int     size = data.length - base;
+
+			List<byte[]> entries = new ExifRewriter().readIfd( src, src.u32At( 4 ), size );
+
+			for ( int pass = 0; pass < 2; pass++ ) {
+				long exif = -1;
+
+				for ( byte[] e : entries ) {
+					int tag   = src.u16( e, 0 );
+					int type  = src.u16( e, 2 );
+					long count = src.u32( e, 4 );
+
+					if ( tag == TAG_EXIF_IFD ) exif = src.u32( e, 8 );
+
+					if ( type == TYPE_SHORT && count == 1 ) tags.put( tag, "" + src.u16( e, 8 ));
+					else if ( type == TYPE_LONG && count == 1 ) tags.put( tag, "" + src.u32( e, 8 ));
+					else if ( type == TYPE_ASCII && count <= size ) {
+						byte[] s = new byte[ (int) count ];
+						if ( count <= 4 ) System.arraycopy( e, 8, s, 0, (int) count );
+						else src.read( (int) src.u32( e, 8 ), s );
+
+						int n = 0;
+						while ( n < s.length && s[ n ] != 0 ) n++;
+						tags.put( tag, new String( s, 0, n, "US-ASCII" ));
+					}
+					else tags.put( tag, "?" );
+				}
+
+				if ( pass == 1 || exif < 0 ) break;
+				entries = new ExifRewriter().readIfd( src, exif, size );
+			}
+
+			return tags;
+		}
+	}  // readTags
+
+
+	//
+	// Stream helpers.
+	//
+
+	private static int readByte( InputStream in ) throws IOException {
+		int b = in.read();
+		if ( b < 0 ) throw new EOFException( "JPEG ends early" );
+		return b;
+	}
+
+	private static void readFully( InputStream in, byte[] b ) throws IOException {
+		for ( int off = 0; off < b.length; ) {
+			int n = in.read( b, off, b.length - off );
+			if ( n < 0 ) throw new EOFException( "JPEG ends early" );
+			off += n;
+		}
+	}
+
+	private static int nextMarker( InputStream in ) throws IOException {
+	/**
+	 * Read a marker, skipping any 0xFF fill bytes in front of its code.
+	 *
+	 */
+		if ( readByte( in ) != 0xFF ) throw new IOException( "expected a marker" );
+
+		int code;
+		while (( code = readByte( in )) == 0xFF ) { }
+
+		if ( code == 0 ) throw new IOException( "expected a marker" );
+		return code;
+	}
+
+	private static void copy( InputStream in, OutputStream out ) throws IOException {
+		byte[] buf = new byte[ 65536 ];
+		int n;
+
+		while (( n = in.read( buf )) > 0 ) out.write( buf, 0, n );
+	}
+
+	private static boolean startsWith( byte[] data, byte[] prefix ) {
+		if ( data.length < prefix.length ) return false;
+
+		for ( int i = 0; i < prefix.length; i++ )
+			if ( data[ i ] != prefix[ i ] ) return false;
+
+		return true;
+	}
+
+
+	//
+	// Tags and TIFF bytes.
+	//
+
+	private static class Tag {
+		final int    tag;
+		final int    type;
+		final int    count;
+		final int    number;  // SHORT value
+		final byte[] ascii;   // ASCII value, with its NUL
+
+		Tag( int tag, int type, int number ) {
+			this.tag    = tag;
+			this.type   = type;
+			this.count  = 1;
+			this.number = number;
+			this.ascii  = null;
+		}
+
+		Tag( int tag, String value ) {
+			byte[] b = new byte[ value.length() + 1 ];
+
+			for ( int i = 0; i < value.length(); i++ ) {
+				char c = value.charAt( i );
+				b[ i ] = (byte) ( c < 0x80 ? c : '?' );
+			}
+
+			this.tag    = tag;
+			this.type   = TYPE_ASCII;
+			this.count  = b.length;
+			this.number = 0;
+			this.ascii  = b;
+		}
+
+		byte[] bytes( boolean big ) {
+			if ( ascii != null ) return ascii;
+
+			byte[] b = new byte[ 2 ];
+			Tiff.put16( b, 0, number, big );
+			return b;
+		}
+	}  // class Tag
+
+	private static class Tiff {
+	/**
+	 * Reads TIFF values from a byte array, or builds a TIFF up, in either byte order.
+	 *
+	 */
+		final boolean big;
+
+		private final byte[] mSrc;
+		private final int    mBase;
+		private final ByteArrayOutputStream mOut;
+
+		Tiff( boolean big, byte[] src, int base ) {
+			this.big = big;
+			mSrc  = src;
+			mBase = base;
+			mOut  = null;
+		}
+
+		Tiff( boolean big ) {
+			this.big = big;
+			mSrc  = null;
+			mBase = 0;
+			mOut  = new ByteArrayOutputStream( 1024 );
+		}
+
+		// Reading.
+
+		int u16At( int off ) {
+			int p = mBase + off;
+			int a = mSrc[ p ] & 0xFF, b = mSrc[ p + 1 ] & 0xFF;
+			return big ? ( a << 8 ) | b : ( b << 8 ) | a;
+		}
+
+		long u32At( int off ) {
+			long hi = u16At( off ), lo = u16At( off + 2 );
+			return big ? ( hi << 16 ) | lo : ( lo << 16 ) | hi;
+		}
+
+		void read( int off, byte[] into ) throws IOException {
+			if ( off < 0 || (long) mBase + off + into.length > mSrc.length ) throw new IOException( "value out of range" );
+			System.arraycopy( mSrc, mBase + off, into, 0, into.length );
+		}
+
+		int u16( byte[] e, int off ) {
+			int a = e[ off ] & 0xFF, b = e[ off + 1 ] & 0xFF;
+			return big ? ( a << 8 ) | b : ( b << 8 ) | a;
+		}
+
+		long u32( byte[] e, int off ) {
+			long hi = u16( e, off ), lo = u16( e, off + 2 );
+			return big ? ( hi << 16 ) | lo : ( lo << 16 ) | hi;
+		}
+
+		// Writing.
+
+		int size() {
+			return mOut.size();
+		}
+
+		void u8( int v ) {
+			mOut.write( v );
+		}
+
+		void u16( int v ) {
+			byte[] b = new byte[ 2 ];
+			put16( b, 0, v, big );
+			mOut.write( b, 0, 2 );
+		}
+
+		void u32( long v ) {
+			byte[] b = new byte[ 4 ];
+			put32( b, 0, v, big );
+			mOut.write( b, 0, 4 );
+		}
+
+		void write( byte[] b, int off, int len ) {
+			mOut.write( b, off, len );
+		}
+
+		byte[] bytes() {
+			return mOut.toByteArray();
+		}
+
+		static void put16( byte[] b, int off, int v, boolean big ) {
+			b[ off + ( big ? 0 : 1 ) ] = (byte) ( v >> 8 );
+			b[ off + ( big ? 1 : 0 ) ] = (byte) v;
+		}
+
+		static void put32( byte[] b, int off, long v, boolean big ) {
+			put16( b, off + ( big ? 0 : 2 ), (int) ( v >> 16 ), big );
+			put16( b, off + ( big ? 2 : 0 ), (int) v, big );
+		}
+	}  // class Tiff
+
+}  // class ExifRewriter
@@ -0,0 +1,59 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The FileImageWriter class saves each image as its own <millis>.jpg file in a
+ * directory.  This is what the app has always done with its pictures.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+public class FileImageWriter implements CapturePipeline.ImageWriter {
+
+	private final File mDir;  // Where the pictures go
+
+
+	//
+	// Class constructor.
+	//
+	public FileImageWriter( File dir ) {
+		mDir = dir;
+	}
+
+
+	public File write( byte[] jpeg, long timestamp ) throws IOException {
+	/**
+	 * Write the image to a file named after its timestamp.  If two pictures land
+	 * in the same millisecond, the second one gets a suffix.
+	 *
+	 * @return The file written.
+	 */
+		if ( !mDir.isDirectory() && !mDir.mkdirs() )
+			throw new IOException( "can't create " + mDir );
+
+		File outFile = new File( mDir, String.format( "%d.jpg", timestamp ));
+
+		for ( int i = 1; outFile.exists(); i++ )
+			outFile = new File( mDir, String.format( "%d-%d.jpg", timestamp, i ));
+
+		FileOutputStream outStream = new FileOutputStream( outFile );
+
+		try {
+			outStream.write( jpeg );
+			outStream.flush();
+		}
+		finally {
+			outStream.close();
+		}
+
+		return outFile;
+
+	}  // write
+
+}  // class FileImageWriter
@@ -0,0 +1,229 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The HardwareCamera class is the CameraDevice for a real android.hardware.Camera.
+ * Besides the CameraDevice methods, it hands out the things only the preview
+ * needs:  the Camera itself, its CameraInfo, and its cached CameraSettings.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.util.Log;
+
+// I used the older Camera API instead of the current Camera2 which appeared in API level 21.
+@SuppressWarnings("deprecation")
+
+
+public class HardwareCamera implements CameraDevice {
+/**
+ * Preview frames are delivered with setPreviewCallbackWithBuffer(), cycling a
+ * few buffers we allocate once, so the preview doesn't churn the heap.  The
+ * callback is only installed while somebody is listening.
+ *
+ */
+	private final String TAG = "CamTimer.HardwareCamera";  // For logging purposes
+
+	private static final int PREVIEW_BUFFERS = 3;  // Enough to keep the camera busy while we look at one
+
+	public static final int ERROR_EVICTED = 2;     // Camera.CAMERA_ERROR_EVICTED, which is API 23
+
+	public interface ErrorListener {
+	/**
+	 * The camera's stopped working:  the camera service died, or (from Android 6)
+	 * gave the camera to somebody else.  Either way all that's left to do with it
+	 * is release it.  Called on the thread that opened the camera.
+	 *
+	 */
+		void onCameraError( int error );
+	}
+
+	private int               mId;                 // Which camera this is
+	private Camera            mCamera;             // The real thing
+	private Camera.CameraInfo mInfo;               // Facing and mounting orientation
+	private CameraSettings    mSettings;           // Cached parameters
+	private boolean           mPreviewRunning = false;
+
+	private List<PreviewListener> mPreviewListeners = new CopyOnWriteArrayList<PreviewListener>();
+	private int               mBufferSize    = 0;  // Size of the preview buffers we've handed over
+	private int               mPreviewWidth  = 0;
+	private int               mPreviewHeight = 0;
+
+	public static final CameraBackend BACKEND = new CameraBackend() {
+	/**
+	 * Backend for code that opens cameras itself, rather than being handed the
+	 * activity's:  the dual capture, for its second camera, and the Calibrator.
+	 *
+	 */
+		public int getNumberOfCameras() {
+			return Camera.getNumberOfCameras();
+		}
+
+		public CameraDevice open( int whichCamera ) {
+			return HardwareCamera.open( whichCamera );
+		}
+	};
+
+
+	public static HardwareCamera open( int whichCamera ) {
+	/**
+	 * Open the given camera.  Like Camera.open(), this throws a RuntimeException
+	 * if the camera is missing or in use by somebody else.
+	 *
+	 */
+		Camera cam = Camera.open( whichCamera );
+
+		return new HardwareCamera( whichCamera, cam );
+	}
+
+	//
+	// Class constructor.
+	//
+	private HardwareCamera( int whichCamera, Camera cam ) {
+		mId       = whichCamera;
+		mCamera   = cam;
+		mInfo     = new Camera.CameraInfo();
+		Camera.getCameraInfo( whichCamera, mInfo );
+		mSettings = new CameraSettings( cam, whichCamera );
+	}
+
+
+	public Camera            getCamera()   { return mCamera; }
+	public Camera.CameraInfo getInfo()     { return mInfo; }
+	public CameraSettings    getSettings() { return mSettings; }
+
+
+	//
+	// CameraDevice methods.
+	//
+
+	public int getId() {
+		return mId;
+	}
+
+	public boolean isFrontFacing() {
+		return mInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+	}
+
+	public void startPreview() {
+		updatePreviewCallback();
+		mCamera.startPreview();
+		mPreviewRunning = true;
+	}
+
+	public void stopPreview() {
+		mPreviewRunning = false;
+		mCamera.stopPreview();
+	}
+
+	public boolean isPreviewRunning() {
+		return mPreviewRunning;
+	}
+
+	public void takePicture( final PictureListener listener ) {
+	/**
+	 * Take a picture.  Camera.takePicture() throws if it can't start, for instance
+	 * if the preview isn't running or the last picture isn't finished;  we let
+	 * that go through to the caller.
+	 *
+	 */
+		Camera.ShutterCallback shutter = new Camera.ShutterCallback() {
+			public void onShutter() {
+				listener.onShutter();
+			}
+		};
+
+		Camera.PictureCallback jpeg = new Camera.PictureCallback() {
+			public void onPictureTaken( byte[] data, Camera camera ) {
+				if ( data == null )
+					listener.onError( new IllegalStateException( "camera returned no JPEG data" ));
+				else
+					listener.onPictureTaken( data );
+			}
+		};
+
+		mCamera.takePicture( shutter, null, null, jpeg );
+		mPreviewRunning = false;  // Taking a picture stops the preview
+	}
+
+	public void addPreviewListener( PreviewListener listener ) {
+		mPreviewListeners.add( listener );
+		if ( mPreviewRunning ) updatePreviewCallback();
+	}
+
+	public void removePreviewListener( PreviewListener listener ) {
+		mPreviewListeners.remove( listener );
+		if ( mPreviewRunning ) updatePreviewCallback();
+	}
+
+	public void release() {
+		Log.d( TAG, "release(" + mId + "): parameter stats: " + mSettings.getStats() );
+
+		mPreviewRunning = false;
+		mCamera.setPreviewCallbackWithBuffer( null );
+		mCamera.setErrorCallback( null );
+		mCamera.release();
+	}
+
+	public void setErrorListener( final ErrorListener listener ) {
+		mCamera.setErrorCallback( listener == null ? null : new Camera.ErrorCallback() {
+			public void onError( int error, Camera camera ) {
+				listener.onCameraError( error );
+			}
+		} );
+	}
+
+
+	//
+	// Preview callback handling.
+	//
+
+	private void updatePreviewCallback() {
+	/**
+	 * Install or remove our preview callback depending on whether anybody is
+	 * listening, and make sure the camera has buffers of the right size.
+	 *
+	 */
+		if ( mPreviewListeners.isEmpty() ) {
+			mCamera.setPreviewCallbackWithBuffer( null );  // This also drops the queued buffers
+			mBufferSize = 0;
+			return;
+		}
+
+		Camera.Size size = mSettings.getParameters().getPreviewSize();
+		int bytes = size.width * size.height * ImageFormat.getBitsPerPixel( ImageFormat.NV21 ) / 8;
+
+		mPreviewWidth  = size.width;
+		mPreviewHeight = size.height;
+
+		if ( bytes != mBufferSize ) {
+			Log.d( TAG, "updatePreviewCallback: " + PREVIEW_BUFFERS + " buffers of " + bytes + " bytes" );
+
+			mBufferSize = bytes;
+			for ( int i = 0; i < PREVIEW_BUFFERS; i++ )
+				mCamera.addCallbackBuffer( new byte[ bytes ] );
+		}
+
+		mCamera.setPreviewCallbackWithBuffer( mPreviewCallback );
+	}
+
+	private Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
+		public void onPreviewFrame( byte[] data, Camera camera ) {
+
+			for ( PreviewListener l : mPreviewListeners )
+				l.onPreviewFrame( data, mPreviewWidth, mPreviewHeight );
+
+			// Hand the buffer back, unless it's left over from an old preview size.
+
+			if ( data.length == mBufferSize )
+				camera.addCallbackBuffer( data );
+		}
+	};
+
+}  // class HardwareCamera
@@ -0,0 +1,540 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The JpegEncoder class is a small pure-Java baseline JPEG encoder (YCbCr, 4:2:0
+ * subsampling, standard Huffman tables).  It doesn't depend on anything in the
+ * Android framework, so it works the same on a device and on a desktop JVM.
+ *
+ * Pixels are pulled from a StripSource sixteen lines at a time, so the whole
+ * image never has to be in memory at once.
+ *
+ * An encoder object is not thread-safe;  use one per thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+public class JpegEncoder {
+
+	public interface StripSource {
+	/**
+	 * Supplies pixels to the encoder, one strip of up to 16 lines at a time.
+	 *
+	 * The luma array holds rows * width samples.  The chroma arrays hold
+	 * (rows + 1) / 2 lines of (width + 1) / 2 samples each.
+	 *
+	 * @param top    First line of the strip.
+	 * @param rows   Number of lines in the strip (16, except maybe for the last strip).
+	 * @param y      Receives the luma samples.
+	 * @param cb     Receives the blue-difference chroma samples.
+	 * @param cr     Receives the red-difference chroma samples.
+	 *
+	 */
+		void readStrip( int top, int rows, byte[] y, byte[] cb, byte[] cr );
+	}
+
+
+	// Zigzag order:  ZIGZAG[i] is the natural (row-major) index of the i'th coefficient.
+
+	static final int[] ZIGZAG = {
+		 0,  1,  8, 16,  9,  2,  3, 10, 17, 24, 32, 25, 18, 11,  4,  5,
+		12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13,  6,  7, 14, 21, 28,
+		35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+		58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+	};
+
+	// Example quantization tables from the JPEG spec (Annex K), in natural order.
+
+	private static final int[] LUMA_QUANT = {
+		16, 11, 10, 16,  24,  40,  51,  61,
+		12, 12, 14, 19,  26,  58,  60,  55,
+		14, 13, 16, 24,  40,  57,  69,  56,
+		14, 17, 22, 29,  51,  87,  80,  62,
+		18, 22, 37, 56,  68, 109, 103,  77,
+		24, 35, 55, 64,  81, 104, 113,  92,
+		49, 64, 78, 87, 103, 121, 120, 101,
+		72, 92, 95, 98, 112, 100, 103,  99
+	};
+
+	private static final int[] CHROMA_QUANT = {
+		17, 18, 24, 47, 99, 99, 99, 99,
+		18, 21, 26, 66, 99, 99, 99, 99,
+		24, 26, 56, 99, 99, 99, 99, 99,
+		47, 66, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99
+	};
+
+	// Standard Huffman tables (Annex K.3):  code counts by length, then symbol values.
+
+	static final int[] DC_LUMA_BITS   = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+	static final int[] DC_CHROMA_BITS = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+	static final int[] DC_VALUES      = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+	static final int[] AC_LUMA_BITS   = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+	static final int[] AC_LUMA_VALUES = {
+		0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+		0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+		0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+		0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+		0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+		0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+		0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+		0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+		0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+		0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa
+	};
+
+	static final int[] AC_CHROMA_BITS   = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+	static final int[] AC_CHROMA_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+		0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+		0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+		0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+		0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+		0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+		0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+		0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+		0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+		0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa
+	};
+
+	// Scale factors for the AAN floating point DCT.
+
+	private static final double[] AAN_SCALE = {
+		1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+	};
+
+	private final int[]   mLumaQuant   = new int[ 64 ];    // Scaled for quality, natural order
+	private final int[]   mChromaQuant = new int[ 64 ];
+	private final float[] mLumaDiv     = new float[ 64 ];  // Reciprocals including DCT scaling
+	private final float[] mChromaDiv   = new float[ 64 ];
+
+	private final int[][] mDcLuma   = buildCodes( DC_LUMA_BITS,   DC_VALUES );
+	private final int[][] mDcChroma = buildCodes( DC_CHROMA_BITS, DC_VALUES );
+	private final int[][] mAcLuma   = buildCodes( AC_LUMA_BITS,   AC_LUMA_VALUES );
+	private final int[][] mAcChroma = buildCodes( AC_CHROMA_BITS, AC_CHROMA_VALUES );
+
+	private final float[] mBlock  = new float[ 64 ];  // Scratch for one 8x8 block
+	private final int[]   mCoeffs = new int[ 64 ];    // Quantized coefficients, zigzag order
+
+	// Output state, valid during encode().
+
+	private OutputStream mOut;
+	private byte[]       mOutBuf = new byte[ 16384 ];
+	private int          mOutPos;
+	private int          mBitBuf;
+	private int          mBitCnt;
+
+
+	//
+	// Class constructor.
+	//
+	public JpegEncoder( int quality ) {
+	/**
+	 * @param quality   1 (smallest) to 100 (best), as for libjpeg.
+	 *
+	 */
+		quality = Math.max( 1, Math.min( 100, quality ));
+		int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+
+		for ( int i = 0; i < 64; i++ ) {
+			mLumaQuant  [ i ] = Math.max( 1, Math.min( 255, ( LUMA_QUANT  [ i ] * scale + 50 ) / 100 ));
+			mChromaQuant[ i ] = Math.max( 1, Math.min( 255, ( CHROMA_QUANT[ i ] * scale + 50 ) / 100 ));
+
+			double aan = AAN_SCALE[ i >> 3 ] * AAN_SCALE[ i & 7 ] * 8.0;
+
+			mLumaDiv  [ i ] = (float) ( 1.0 / ( mLumaQuant  [ i ] * aan ));
+			mChromaDiv[ i ] = (float) ( 1.0 / ( mChromaQuant[ i ] * aan ));
+		}
+	}  // Constructor
+
+
+	public byte[] encode( int width, int height, StripSource source ) {
+	/**
+	 * Convenience version of encode() that returns the JPEG as a byte array.
+	 *
+	 */
+		ByteArrayOutputStream out = new ByteArrayOutputStream( width * height / 4 + 1024 );
+
+		try {
+			encode( width, height, source, out );
+		}
+		catch( IOException e ) {
+			throw new IllegalStateException( e );  // Can't happen with a ByteArrayOutputStream
+		}
+
+		return out.toByteArray();
+	}
+
+	public void encode( int width, int height, StripSource source, OutputStream out ) throws IOException {
+	/**
+	 * Encode a width x height image, pulling pixels from source and writing the
+	 * complete JPEG stream (SOI through EOI) to out.
+	 *
+	 */
+		if ( width <= 0 || height <= 0 || width > 65535 || height > 65535 )
+			throw new IllegalArgumentException( "bad size " + width + "x" + height );
+
+		mOut    = out;
+		mOutPos = 0;
+		mBitBuf = 0;
+		mBitCnt = 0;
+
+		writeHeaders( width, height );
+
+		int cw = ( width + 1 ) / 2;
+
+		byte[] y  = new byte[ width * 16 ];
+		byte[] cb = new byte[ cw * 8 ];
+		byte[] cr = new byte[ cw * 8 ];
+
+		int dcY = 0, dcCb = 0, dcCr = 0;
+
+		for ( int top = 0; top < height; top += 16 ) {
+
+			int rows  = Math.min( 16, height - top );
+			int crows = ( rows + 1 ) / 2;
+
+			source.readStrip( top, rows, y, cb, cr );
+
+			for ( int mx = 0; mx < width; mx += 16 ) {
+				loadBlock( y, width, rows, mx,     0 );  dcY = encodeBlock( mLumaDiv, dcY, mDcLuma, mAcLuma );
+				loadBlock( y, width, rows, mx + 8, 0 );  dcY = encodeBlock( mLumaDiv, dcY, mDcLuma, mAcLuma );
+				loadBlock( y, width, rows, mx,     8 );  dcY = encodeBlock( mLumaDiv, dcY, mDcLuma, mAcLuma );
+				loadBlock( y, width, rows, mx + 8, 8 );  dcY = encodeBlock( mLumaDiv, dcY, mDcLuma, mAcLuma );
+
+				loadBlock( cb, cw, crows, mx / 2, 0 );  dcCb = encodeBlock( mChromaDiv, dcCb, mDcChroma, mAcChroma );
+				loadBlock( cr, cw, crows, mx / 2, 0 );  dcCr = encodeBlock( mChromaDiv, dcCr, mDcChroma, mAcChroma );
+			}
+		}
+
+		// Pad the last byte with 1 bits, then finish up.
+
+		if ( mBitCnt > 0 ) writeBits( 0x7F, 7 );
+
+		putByte( 0xFF );
+		putByte( 0xD9 );  // EOI
+		flush();
+
+		mOut = null;
+
+	}  // encode
+
+
+	public static StripSource nv21( final byte[] data, final int width, final int height ) {
+	/**
+	 * A StripSource reading an NV21 frame, the default preview format on Android:
+	 * a full-size Y plane followed by interleaved V/U samples at half resolution.
+	 * Both dimensions must be even, as they always are for camera preview sizes.
+	 *
+	 */
+		if (( width & 1 ) != 0 || ( height & 1 ) != 0 )
+			throw new IllegalArgumentException( "NV21 needs even dimensions" );
+
+		return new StripSource() {
+			public void readStrip( int top, int rows, byte[] y, byte[] cb, byte[] cr ) {
+
+				System.arraycopy( data, top * width, y, 0, rows * width );
+
+				int cw     = ( width + 1 ) / 2;
+				int crows  = ( rows + 1 ) / 2;
+				int vuBase = width * height;
+
+				for ( int r = 0; r < crows; r++ ) {
+					int src = vuBase + ( top / 2 + r ) * width;
+					int dst = r * cw;
+
+					for ( int c = 0; c < cw; c++, src += 2 ) {
+						cr[ dst + c ] = data[ src ];
+						cb[ dst + c ] = data[ src + 1 ];
+					}
+				}
+			}
+		};
+	}  // nv21
+
+
+	//
+	// Block coding.
+	//
+
+	private void loadBlock( byte[] plane, int stride, int rows, int x0, int y0 ) {
+	/**
+	 * Copy one 8x8 block out of a strip into mBlock, level shifted, replicating
+	 * the right and bottom edges where the block hangs off the image.
+	 *
+	 */
+		int maxX = stride - 1;
+		int maxY = rows - 1;
+
+		for ( int r = 0; r < 8; r++ ) {
+			int row = Math.min( y0 + r, maxY ) * stride;
+
+			if ( x0 + 7 <= maxX ) {
+				for ( int c = 0; c < 8; c++ )
+					mBlock[ r * 8 + c ] = ( plane[ row + x0 + c ] & 0xFF ) - 128;
+			} else {
+				for ( int c = 0; c < 8; c++ )
+					mBlock[ r * 8 + c ] = ( plane[ row + Math.min( x0 + c, maxX ) ] & 0xFF ) - 128;
+			}
+		}
+	}  // loadBlock
+
+	private int encodeBlock( float[] div, int lastDc, int[][] dcCodes, int[][] acCodes ) throws IOException {
+	/**
+	 * Transform, quantize and Huffman code the block in mBlock.
+	 *
+	 * @return The block's DC value, for predicting the next block's.
+	 */
+		fdct( mBlock );
+
+		for ( int i = 0; i < 64; i++ ) {
+			int n = ZIGZAG[ i ];
+			mCoeffs[ i ] = Math.round( mBlock[ n ] * div[ n ] );
+		}
+
+		// DC coefficient, coded as the difference from the previous block.
+
+		int dc   = mCoeffs[ 0 ];
+		int diff = dc - lastDc;
+		int size = bitSize( diff );
+
+		writeBits( dcCodes[ 0 ][ size ], dcCodes[ 1 ][ size ] );
+		if ( size > 0 ) writeBits( diff < 0 ? diff - 1 : diff, size );
+
+		// AC coefficients, coded as (zero run, size) pairs.
+
+		int run = 0;
+
+		for ( int i = 1; i < 64; i++ ) {
+			int ac = mCoeffs[ i ];
+
+			if ( ac == 0 ) {
+				run++;
+				continue;
+			}
+
+			while ( run > 15 ) {
+				writeBits( acCodes[ 0 ][ 0xF0 ], acCodes[ 1 ][ 0xF0 ] );  // ZRL
+				run -= 16;
+			}
+
+			size = bitSize( ac );
+			int symbol = ( run << 4 ) | size;
+
+			writeBits( acCodes[ 0 ][ symbol ], acCodes[ 1 ][ symbol ] );
+			writeBits( ac < 0 ? ac - 1 : ac, size );
+			run = 0;
+		}
+
+		if ( run > 0 ) writeBits( acCodes[ 0 ][ 0 ], acCodes[ 1 ][ 0 ] );  // EOB
+
+		return dc;
+
+	}  // encodeBlock
+
+	private static int bitSize( int v ) {
+		if ( v < 0 ) v = -v;
+		return 32 - Integer.numberOfLeadingZeros( v );
+	}
+
+	private static void fdct( float[] d ) {
+	/**
+	 * Forward DCT, the floating point AAN algorithm as used by libjpeg.  The output
+	 * is scaled;  the scaling is folded into the quantizer divisors.
+	 *
+	 */
+		for ( int pass = 0; pass < 2; pass++ ) {
+
+			int step = pass == 0 ? 1 : 8;  // Rows first, then columns
+			int next = pass == 0 ? 8 : 1;
+
+			for ( int i = 0, base = 0; i < 8; i++, base += next ) {
+
+				int p0 = base,            p1 = base + step,     p2 = base + 2 * step, p3 = base + 3 * step;
+				int p4 = base + 4 * step, p5 = base + 5 * step, p6 = base + 6 * step, p7 = base + 7 * step;
+
+				float tmp0 = d[ p0 ] + d[ p7 ], tmp7 = d[ p0 ] - d[ p7 ];
+				float tmp1 = d[ p1 ] + d[ p6 ], tmp6 = d[ p1 ] - d[ p6 ];
+				float tmp2 = d[ p2 ] + d[ p5 ], tmp5 = d[ p2 ] - d[ p5 ];
+				float tmp3 = d[ p3 ] + d[ p4 ], tmp4 = d[ p3 ] - d[ p4 ];
+
+				// Even part.
+
+				float tmp10 = tmp0 + tmp3, tmp13 = tmp0 - tmp3;
+				float tmp11 = tmp1 + tmp2, tmp12 = tmp1 - tmp2;
+
+				d[ p0 ] = tmp10 + tmp11;
+				d[ p4 ] = tmp10 - tmp11;
+
+				float z1 = ( tmp12 + tmp13 ) * 0.707106781f;
+				d[ p2 ] = tmp13 + z1;
+				d[ p6 ] = tmp13 - z1;
+
+				// Odd part.
+
+				tmp10 = tmp4 + tmp5;
+				tmp11 = tmp5 + tmp6;
+				tmp12 = tmp6 + tmp7;
+
+				float z5 = ( tmp10 - tmp12 ) * 0.382683433f;
+				float z2 = 0.541196100f * tmp10 + z5;
+				float z4 = 1.306562965f * tmp12 + z5;
+				float z3 = tmp11 * 0.707106781f;
+
+				float z11 = tmp7 + z3;
+				float z13 = tmp7 - z3;
+
+				d[ p5 ] = z13 + z2;
+				d[ p3 ] = z13 - z2;
+				d[ p1 ] = z11 + z4;
+				d[ p7 ] = z11 - z4;
+			}
+		}
+	}  // fdct
+
+	static int[][] buildCodes( int[] bits, int[] values ) {
+	/**
+	 * Build the code table for a Huffman table given as counts and values.
+	 *
+	 * @return [0][symbol] is the code, [1][symbol] its length in bits.
+	 */
+		int[][] table = new int[ 2 ][ 256 ];
+		int code = 0, k = 0;
+
+		for ( int len = 1; len <= 16; len++ ) {
+			for ( int i = 0; i < bits[ len - 1 ]; i++ ) {
+				table[ 0 ][ values[ k ] ] = code;
+				table[ 1 ][ values[ k ] ] = len;
+				code++;
+				k++;
+			}
+			code <<= 1;
+		}
+
+		return table;
+	}  // buildCodes
+
+
+	//
+	// Headers.
+	//
+
+	private void writeHeaders( int width, int height ) throws IOException {
+
+		putByte( 0xFF );  putByte( 0xD8 );  // SOI
+
+		// APP0 JFIF header, version 1.1, no density, no thumbnail.
+
+		putMarker( 0xE0, 16 );
+		putByte( 'J' ); putByte( 'F' ); putByte( 'I' ); putByte( 'F' ); putByte( 0 );
+		putByte( 1 ); putByte( 1 ); putByte( 0 );
+		putShort( 1 ); putShort( 1 );
+		putByte( 0 ); putByte( 0 );
+
+		// Quantization tables, in zigzag order.
+
+		putMarker( 0xDB, 2 + 2 * 65 );
+		putByte( 0 );
+		for ( int i = 0; i < 64; i++ ) putByte( mLumaQuant[ ZIGZAG[ i ]] );
+		putByte( 1 );
+		for ( int i = 0; i < 64; i++ ) putByte( mChromaQuant[ ZIGZAG[ i ]] );
+
+		// Baseline frame header:  Y at 2x2, Cb and Cr at 1x1.
+
+		putMarker( 0xC0, 17 );
+		putByte( 8 );
+		putShort( height );
+		putShort( width );
+		putByte( 3 );
+		putByte( 1 ); putByte( 0x22 ); putByte( 0 );
+		putByte( 2 ); putByte( 0x11 ); putByte( 1 );
+		putByte( 3 ); putByte( 0x11 ); putByte( 1 );
+
+		// Huffman tables.
+
+		putHuffman( 0x00, DC_LUMA_BITS,   DC_VALUES );
+		putHuffman( 0x10, AC_LUMA_BITS,   AC_LUMA_VALUES );
+		putHuffman( 0x01, DC_CHROMA_BITS, DC_VALUES );
+		putHuffman( 0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES );
+
+		// Start of scan.
+
+		putMarker( 0xDA, 12 );
+		putByte( 3 );
+		putByte( 1 ); putByte( 0x00 );
+		putByte( 2 ); putByte( 0x11 );
+		putByte( 3 ); putByte( 0x11 );
+		putByte( 0 ); putByte( 63 ); putByte( 0 );
+
+	}  // writeHeaders
+
+	private void putHuffman( int classAndId, int[] bits, int[] values ) throws IOException {
+		int count = 0;
+		for ( int b : bits ) count += b;
+
+		putMarker( 0xC4, 2 + 1 + 16 + count );
+		putByte( classAndId );
+		for ( int b : bits ) putByte( b );
+		for ( int i = 0; i < count; i++ ) putByte( values[ i ] );
+	}
+
+	private void putMarker( int marker, int length ) throws IOException {
+		putByte( 0xFF );
+		putByte( marker );
+		putShort( length );
+	}
+
+	private void putShort( int v ) throws IOException {
+		putByte( v >> 8 );
+		putByte( v );
+	}
+
+
+	//
+	// Low level output.
+	//
+
+	private void writeBits( int value, int size ) throws IOException {
+	/**
+	 * Append the low size bits of value to the entropy coded data, stuffing a zero
+	 * byte after any 0xFF as the format requires.
+	 *
+	 */
+		mBitBuf  = ( mBitBuf << size ) | ( value & (( 1 << size ) - 1 ));
+		mBitCnt += size;
+
+		while ( mBitCnt >= 8 ) {
+			int b = ( mBitBuf >> ( mBitCnt - 8 )) & 0xFF;
+
+			putByte( b );
+			if ( b == 0xFF ) putByte( 0 );
+
+			mBitCnt -= 8;
+		}
+
+		mBitBuf &= ( 1 << mBitCnt ) - 1;
+	}
+
+	private void putByte( int b ) throws IOException {
+		if ( mOutPos == mOutBuf.length ) flush();
+		mOutBuf[ mOutPos++ ] = (byte) b;
+	}
+
+	private void flush() throws IOException {
+		mOut.write( mOutBuf, 0, mOutPos );
+		mOutPos = 0;
+	}
+
+}  // class JpegEncoder
@@ -0,0 +1,99 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The LatencyStats class collects timing samples and reports count, mean,
+ * maximum and percentiles.  Count, mean and maximum cover every sample ever
+ * added;  percentiles are computed over the most recent samples only, so the
+ * memory used stays fixed however long the app runs.
+ *
+ * Samples may be negative (an error rather than a latency, say).  All methods
+ * are synchronized, so samples can come from any thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.Arrays;
+
+
+public class LatencyStats {
+
+	private final String mName;       // For the summary
+	private final long[] mRecent;     // Ring of the most recent samples
+	private int          mNext  = 0;  // Where the next sample goes in mRecent
+	private long         mCount = 0;
+	private long         mSum   = 0;
+	private long         mMax   = Long.MIN_VALUE;
+
+
+	//
+	// Class constructors.
+	//
+	public LatencyStats( String name ) {
+		this( name, 1024 );
+	}
+
+	public LatencyStats( String name, int window ) {
+	/**
+	 * @param name     Label for summary().
+	 * @param window   How many recent samples to keep for percentiles.
+	 *
+	 */
+		mName   = name;
+		mRecent = new long[ window ];
+	}
+
+
+	public synchronized void add( long nanos ) {
+		mRecent[ mNext ] = nanos;
+		mNext = ( mNext + 1 ) % mRecent.length;
+
+		mCount++;
+		mSum += nanos;
+		if ( nanos > mMax ) mMax = nanos;
+	}
+
+	public synchronized void clear() {
+		mNext  = 0;
+		mCount = 0;
+		mSum   = 0;
+		mMax   = Long.MIN_VALUE;
+	}
+
+	public synchronized long getCount()     { return mCount; }
+	public synchronized long getMaxNanos()  { return mCount == 0 ? 0 : mMax; }
+
+	public synchronized long getMeanNanos() {
+		return mCount == 0 ? 0 : mSum / mCount;
+	}
+
+	public synchronized long getPercentileNanos( double percent ) {
+	/**
+	 * @param percent   0 to 100.
+	 * @return The sample at that percentile of the recent window, or 0 if there are none.
+	 */
+		int n = (int) Math.min( mCount, mRecent.length );
+		if ( n == 0 ) return 0;
+
+		long[] sorted = Arrays.copyOf( mRecent, n );
+		Arrays.sort( sorted );
+
+		int index = (int) Math.ceil( percent / 100.0 * n ) - 1;
+		return sorted[ Math.max( 0, Math.min( n - 1, index )) ];
+	}
+
+	public synchronized String summary() {
+		return mName + ": n="  + mCount
+		     + " mean=" + ms( getMeanNanos() )
+		     + " p50="  + ms( getPercentileNanos( 50 ))
+		     + " p90="  + ms( getPercentileNanos( 90 ))
+		     + " p99="  + ms( getPercentileNanos( 99 ))
+		     + " max="  + ms( getMaxNanos() ) + "ms";
+	}
+
+	private static String ms( long nanos ) {
+		return String.format( "%.1f", nanos / 1000000.0 );
+	}
+
+}  // class LatencyStats
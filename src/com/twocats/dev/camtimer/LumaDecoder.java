@@ -0,0 +1,880 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The LumaDecoder class gets a quarter-size greyscale image out of a baseline JPEG,
+ * much more cheaply than decoding the whole thing:  the chroma is Huffman-decoded
+ * and thrown away, and each 8x8 luma block becomes just 2x2 pixels, the averages
+ * of its four quarters, worked out straight from the DCT coefficients without an
+ * inverse transform.  Coefficients with an even, non-zero frequency in either
+ * direction add nothing to those averages, so most of them can be skipped.
+ *
+ * That's plenty for judging sharpness (see BurstCuller), and a 12 megapixel
+ * picture comes out as a 1000x750 plane.
+ *
+ * decodeScaled() does the same for every component, at 1, 2, 4 or 8 pixels per
+ * block side, and hands the rows over a row of MCUs at a time rather than keeping
+ * the picture;  the Collage scales pictures down that way without ever having one
+ * whole in memory.  At 8 pixels a block it's a plain (if not very fast) IDCT.
+ *
+ * Progressive and 12-bit JPEGs aren't handled, nor for decodeScaled() are scans
+ * that don't have every component in them;  both throw an IOException for those,
+ * as for anything malformed.  A decoder object is not thread-safe;  use one per
+ * thread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.IOException;
+
+
+public class LumaDecoder {
+
+	public interface RowSink {
+	/**
+	 * Receives a picture from decodeScaled().  start() comes first, with the size
+	 * of each component's plane at the scale asked for;  then rows() with each
+	 * component's rows in order, top to bottom.  Rows may be wider than the plane,
+	 * and the last ones may go past its bottom:  that's block padding, to ignore.
+	 *
+	 */
+		void start( int width, int height, int components, int[] widths, int[] heights ) throws IOException;
+		void rows( int component, int top, int rows, byte[] pixels, int stride ) throws IOException;
+	}
+
+	public static class Plane {
+	/**
+	 * Greyscale pixels, one byte each, row by row.
+	 *
+	 */
+		public final int    width;
+		public final int    height;
+		public final byte[] pixels;
+
+		Plane( int width, int height, byte[] pixels ) {
+			this.width  = width;
+			this.height = height;
+			this.pixels = pixels;
+		}
+	}
+
+
+	// WEIGHTS[ k * 4 + quarter ] is how much the k'th coefficient (zigzag order) adds
+	// to the average of each quarter of its block:  top left, top right, bottom left,
+	// bottom right.  Zero for the coefficients that cancel out over every quarter.
+	// SIZED_WEIGHTS are the same for blocks of 1, 2, 4 and 8 cells a side.
+
+	private static final float[][] SIZED_WEIGHTS = { weights( 1 ), weights( 2 ), weights( 4 ), weights( 8 ) };
+	private static final float[]   WEIGHTS       = SIZED_WEIGHTS[ 1 ];
+
+	private static float[] weights( int size ) {
+		int      span = 8 / size;  // Samples a side per cell
+		double[][] w  = new double[ 8 ][ size ];
+
+		for ( int u = 0; u < 8; u++ ) {
+			for ( int q = 0; q < size; q++ ) {
+				double sum = 0;
+				for ( int x = span * q; x < span * q + span; x++ )
+					sum += Math.cos(( 2 * x + 1 ) * u * Math.PI / 16 );
+
+				// Half the 1/4 in the IDCT, C(u), and the average over the cell's samples.
+				w[ u ][ q ] = Math.abs( sum ) < 1e-9 ? 0 : 0.5 * ( u == 0 ? Math.sqrt( 0.5 ) : 1.0 ) * sum / span;
+			}
+		}
+
+		int     cells   = size * size;
+		float[] weights = new float[ 64 * cells ];
+
+		for ( int k = 0; k < 64; k++ ) {
+			int n = JpegEncoder.ZIGZAG[ k ];
+			int u = n % 8, v = n / 8;   // Horizontal and vertical frequency
+
+			for ( int qy = 0; qy < size; qy++ )
+				for ( int qx = 0; qx < size; qx++ )
+					weights[ k * cells + qy * size + qx ] = (float) ( w[ u ][ qx ] * w[ v ][ qy ] );
+		}
+
+		return weights;
+	}
+
+	private static final int  MAX_COMPONENTS = 4;
+	private static final long MAX_PIXELS     = 100000000L;  // Anything bigger is a corrupt header
+
+	// Tables from the headers.
+
+	private final int[][]     mQuant   = new int[ 4 ][];       // By table id, zigzag order
+	private final float[][]   mScaled  = new float[ 4 ][];     // WEIGHTS times each quant table
+	private final float[][]   mSized   = new float[ 4 ][];     // SIZED_WEIGHTS[ mSizeIndex ] times each
+	private final Huffman[]   mDcTable = new Huffman[ 4 ];
+	private final Huffman[]   mAcTable = new Huffman[ 4 ];
+	private int               mRestartInterval;
+
+	// The frame.
+
+	private int   mWidth, mHeight;
+	private int   mComponents;
+	private int[] mCompId = new int[ MAX_COMPONENTS ];
+	private int[] mCompH  = new int[ MAX_COMPONENTS ];         // Sampling factors
+	private int[] mCompV  = new int[ MAX_COMPONENTS ];
+	private int[] mCompQ  = new int[ MAX_COMPONENTS ];         // Quant table id
+	private int   mMaxH, mMaxV;
+
+	// Entropy-coded data.
+
+	private byte[] mData;
+	private int    mPos;
+	private int    mBitBuf;
+	private int    mBitCnt;
+	private boolean mHitMarker;
+
+	// For decodeScaled().
+
+	private RowSink mSink;
+	private int     mSize, mSizeIndex;     // Cells per block side, and its SIZED_WEIGHTS index
+
+
+	public Plane decode( byte[] jpeg ) throws IOException {
+	/**
+	 * Decode the quarter-size luma.  The width and height are the picture's divided
+	 * by four, rounded up.
+	 *
+	 */
+		mSink = null;
+		return parse( jpeg );
+	}
+
+	public void decodeScaled( byte[] jpeg, int size, RowSink sink ) throws IOException {
+	/**
+	 * Decode every component at size pixels per 8x8 block side (1, 2, 4 or 8), and
+	 * hand the rows to the sink as they're done.
+	 *
+	 */
+		if ( size != 1 && size != 2 && size != 4 && size != 8 )
+			throw new IllegalArgumentException( "size " + size );
+
+		if ( size != mSize ) {
+			mSize      = size;
+			mSizeIndex = Integer.numberOfTrailingZeros( size );
+			for ( int i = 0; i < mSized.length; i++ ) mSized[ i ] = null;
+		}
+
+		mSink = sink;
+
+		try {
+			parse( jpeg );
+		}
+		finally {
+			mSink = null;
+		}
+	}
+
+	public static int[] readSize( byte[] jpeg ) throws IOException {
+	/**
+	 * The width and height in a JPEG's frame header, without decoding anything.
+	 *
+	 */
+		if ( jpeg.length < 4 || ( jpeg[ 0 ] & 0xFF ) != 0xFF || ( jpeg[ 1 ] & 0xFF ) != 0xD8 )
+			throw new IOException( "not a JPEG" );
+
+		for ( int pos = 2; pos + 9 < jpeg.length; ) {
+			if (( jpeg[ pos ] & 0xFF ) != 0xFF ) throw new IOException( "bad marker" );
+
+			int marker = jpeg[ pos + 1 ] & 0xFF;
+			if ( marker == 0xFF ) { pos++;  continue; }  // Fill byte
+			if ( marker == 0xDA || marker == 0xD9 ) break;
+
+			if ( marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC )
+				return new int[] { (( jpeg[ pos + 7 ] & 0xFF ) << 8 ) | ( jpeg[ pos + 8 ] & 0xFF ),
+				                   (( jpeg[ pos + 5 ] & 0xFF ) << 8 ) | ( jpeg[ pos + 6 ] & 0xFF ) };
+
+			pos += 2 + ((( jpeg[ pos + 2 ] & 0xFF ) << 8 ) | ( jpeg[ pos + 3 ] & 0xFF ));
+		}
+
+		throw new IOException( "no frame header" );
+	}
+
+	private Plane parse( byte[] jpeg ) throws IOException {
+	/**
+	 * Read the headers and the scans.  For decode() that ends with the luma plane;
+	 * for decodeScaled(), at the first scan, with null.
+	 *
+	 */
+		mData = jpeg;
+		mPos  = 0;
+		mRestartInterval = 0;
+		mComponents = 0;
+
+		try {
+			if ( readByte() != 0xFF || readByte() != 0xD8 )
+				throw new IOException( "not a JPEG" );
+
+			while ( true ) {
+				int marker = nextMarker();
+				int length = readWord() - 2;
+				int end    = mPos + length;
+
+				if ( length < 0 || end > mData.length ) throw new IOException( "bad segment length" );
+
+				switch( marker ) {
+					case 0xC0:  // Baseline
+					case 0xC1:  // Extended sequential, Huffman
+						readFrame();
+						break;
+
+					case 0xC2: case 0xC3: case 0xC5: case 0xC6: case 0xC7:
+					case 0xC9: case 0xCA: case 0xCB: case 0xCD: case 0xCE: case 0xCF:
+						throw new IOException( "unsupported JPEG process " + Integer.toHexString( marker ));
+
+					case 0xC4:
+						readHuffman( end );
+						break;
+
+					case 0xDB:
+						readQuant( end );
+						break;
+
+					case 0xDD:
+						mRestartInterval = readWord();
+						break;
+
+					case 0xDA: {
+						if ( mSink != null ) {
+							readScaledScan();
+							return null;
+						}
+
+						Plane plane = readScan();
+						if ( plane != null ) return plane;
+
+						skipEntropyData();  // A scan without luma, so keep going
+						continue;
+					}
+
+					case 0xD9:
+						throw new IOException( "no luma scan" );
+
+					default:
+						break;  // APPn, COM and so on
+				}
+
+				mPos = Math.max( mPos, end );
+			}
+		}
+		catch( ArrayIndexOutOfBoundsException e ) {
+			throw new IOException( "truncated or corrupt JPEG" );
+		}
+		finally {
+			mData = null;
+		}
+
+	}  // parse
+
+
+	//
+	// Headers.
+	//
+
+	private void readFrame() throws IOException {
+		if ( readByte() != 8 ) throw new IOException( "only 8-bit JPEGs are supported" );
+
+		mHeight     = readWord();
+		mWidth      = readWord();
+		mComponents = readByte();
+
+		if ( mWidth == 0 || mHeight == 0 || mComponents < 1 || mComponents > MAX_COMPONENTS )
+			throw new IOException( "bad frame header" );
+
+		if ( (long) mWidth * mHeight > MAX_PIXELS )
+			throw new IOException( "picture too big" );
+
+		mMaxH = mMaxV = 1;
+
+		for ( int c = 0; c < mComponents; c++ ) {
+			mCompId[ c ] = readByte();
+			int hv = readByte();
+			mCompH[ c ] = hv >> 4;
+			mCompV[ c ] = hv & 15;
+			mCompQ[ c ] = readByte() & 3;
+
+			if ( mCompH[ c ] < 1 || mCompH[ c ] > 4 || mCompV[ c ] < 1 || mCompV[ c ] > 4 )
+				throw new IOException( "bad sampling factors" );
+
+			mMaxH = Math.max( mMaxH, mCompH[ c ] );
+			mMaxV = Math.max( mMaxV, mCompV[ c ] );
+		}
+	}
+
+	private void readQuant( int end ) throws IOException {
+		while ( mPos < end ) {
+			int pq = readByte();
+			int id = pq & 3;
+			int[] q = new int[ 64 ];
+
+			for ( int k = 0; k < 64; k++ )
+				q[ k ] = ( pq >> 4 ) == 0 ? readByte() : readWord();
+
+			mQuant [ id ] = q;
+			mScaled[ id ] = null;  // Worked out again when needed
+			mSized [ id ] = null;
+		}
+	}
+
+	private void readHuffman( int end ) throws IOException {
+		while ( mPos < end ) {
+			int tc  = readByte();
+			int[] bits = new int[ 16 ];
+			int total = 0;
+
+			for ( int i = 0; i < 16; i++ ) total += bits[ i ] = readByte();
+			if ( total > 256 ) throw new IOException( "bad Huffman table" );
+
+			int[] values = new int[ total ];
+			for ( int i = 0; i < total; i++ ) values[ i ] = readByte();
+
+			Huffman h = new Huffman( bits, values );
+			if (( tc >> 4 ) == 0 ) mDcTable[ tc & 3 ] = h;
+			else                   mAcTable[ tc & 3 ] = h;
+		}
+	}
+
+
+	//
+	// The scan.
+	//
+
+	private Plane readScan() throws IOException {
+	/**
+	 * Decode the scan if it has the luma (the first component) in it.
+	 *
+	 * @return The luma plane, or null if this scan has no luma.
+	 */
+		if ( mComponents == 0 ) throw new IOException( "scan before frame header" );
+
+		int n = readByte();
+		if ( n < 1 || n > mComponents ) throw new IOException( "bad scan header" );
+
+		int[]     comp = new int[ n ];      // Frame component index of each scan component
+		Huffman[] dc   = new Huffman[ n ];
+		Huffman[] ac   = new Huffman[ n ];
+
+		for ( int i = 0; i < n; i++ ) {
+			int id = readByte();
+			int tables = readByte();
+
+			comp[ i ] = -1;
+			for ( int c = 0; c < mComponents; c++ )
+				if ( mCompId[ c ] == id ) comp[ i ] = c;
+
+			if ( comp[ i ] < 0 ) throw new IOException( "scan has unknown component" );
+
+			dc[ i ] = mDcTable[ tables >> 4 ];
+			ac[ i ] = mAcTable[ tables & 3 ];
+			if ( dc[ i ] == null || ac[ i ] == null ) throw new IOException( "missing Huffman table" );
+		}
+
+		mPos += 3;  // Spectral selection and successive approximation, fixed for baseline
+
+		if ( comp[ 0 ] != 0 ) return null;
+		if ( mQuant[ mCompQ[ 0 ]] == null ) throw new IOException( "missing quant table" );
+
+		float[] weights = scaledWeights( mCompQ[ 0 ] );
+
+		// The luma block grid.  With one component in the scan, blocks just cover
+		// the image;  otherwise they come in MCUs of h x v.
+
+		int lumaH = mCompH[ 0 ], lumaV = mCompV[ 0 ];
+		int mcusX, mcusY;
+
+		if ( n == 1 ) {
+			mcusX = ( ceilDiv( mWidth  * lumaH, mMaxH ) + 7 ) / 8;
+			mcusY = ( ceilDiv( mHeight * lumaV, mMaxV ) + 7 ) / 8;
+		} else {
+			mcusX = ceilDiv( mWidth,  8 * mMaxH );
+			mcusY = ceilDiv( mHeight, 8 * mMaxV );
+		}
+
+		int blocksX = n == 1 ? mcusX : mcusX * lumaH;
+		int blocksY = n == 1 ? mcusY : mcusY * lumaV;
+
+		// Luma plane in whole blocks, cropped at the end.
+
+		int    stride = blocksX * 2;
+		byte[] grid   = new byte[ stride * blocksY * 2 ];
+		float[] quarters = new float[ 4 ];
+		int[]  pred   = new int[ n ];
+
+		mBitBuf = 0;
+		mBitCnt = 0;
+		mHitMarker = false;
+
+		int restarts = 0;
+		int mcus = mcusX * mcusY;
+
+		for ( int m = 0; m < mcus; m++ ) {
+			if ( mRestartInterval > 0 && m > 0 && m % mRestartInterval == 0 ) {
+				restart( restarts++ );
+				for ( int i = 0; i < n; i++ ) pred[ i ] = 0;
+			}
+
+			int mx = m % mcusX, my = m / mcusX;
+
+			for ( int i = 0; i < n; i++ ) {
+				int bh = n == 1 ? 1 : mCompH[ comp[ i ]];
+				int bv = n == 1 ? 1 : mCompV[ comp[ i ]];
+
+				for ( int by = 0; by < bv; by++ ) {
+					for ( int bx = 0; bx < bh; bx++ ) {
+						if ( i != 0 ) {
+							pred[ i ] += skipBlock( dc[ i ], ac[ i ] );
+							continue;
+						}
+
+						pred[ 0 ] = lumaBlock( dc[ 0 ], ac[ 0 ], pred[ 0 ], weights, quarters );
+
+						int x = ( mx * bh + bx ) * 2;
+						int y = ( my * bv + by ) * 2;
+						int o = y * stride + x;
+
+						grid[ o              ] = clamp( quarters[ 0 ] );
+						grid[ o + 1          ] = clamp( quarters[ 1 ] );
+						grid[ o + stride     ] = clamp( quarters[ 2 ] );
+						grid[ o + stride + 1 ] = clamp( quarters[ 3 ] );
+					}
+				}
+			}
+		}
+
+		// Crop off the padding.
+
+		int    w = ( mWidth + 3 ) / 4, h = ( mHeight + 3 ) / 4;
+		byte[] pixels = new byte[ w * h ];
+
+		for ( int y = 0; y < h; y++ )
+			System.arraycopy( grid, y * stride, pixels, y * w, w );
+
+		return new Plane( w, h, pixels );
+
+	}  // readScan
+
+	private int lumaBlock( Huffman dc, Huffman ac, int pred, float[] weights, float[] quarters ) throws IOException {
+	/**
+	 * Decode one luma block into the averages of its quarters.
+	 *
+	 * @return The new DC predictor.
+	 */
+		int s = decodeSymbol( dc );
+		pred += s == 0 ? 0 : extend( receive( s ), s );
+
+		float base = pred * weights[ 0 ] + 128;
+		quarters[ 0 ] = quarters[ 1 ] = quarters[ 2 ] = quarters[ 3 ] = base;
+
+		for ( int k = 1; k < 64; ) {
+			int rs = decodeSymbol( ac );
+			int r = rs >> 4;
+			s = rs & 15;
+
+			if ( s == 0 ) {
+				if ( r != 15 ) break;  // End of block
+				k += 16;
+				continue;
+			}
+
+			k += r;
+			if ( k > 63 ) throw new IOException( "coefficient out of range" );
+
+			int coef = extend( receive( s ), s );
+			int w    = k * 4;
+
+			if ( weights[ w ] != 0 ) {
+				quarters[ 0 ] += coef * weights[ w     ];
+				quarters[ 1 ] += coef * weights[ w + 1 ];
+				quarters[ 2 ] += coef * weights[ w + 2 ];
+				quarters[ 3 ] += coef * weights[ w + 3 ];
+			}
+			k++;
+		}
+
+		return pred;
+
+	}  // lumaBlock
+
+	private int skipBlock( Huffman dc, Huffman ac ) throws IOException {
+	/**
+	 * Decode a chroma block just to get past it.
+	 *
+	 * @return The DC difference.
+	 */
+		int s = decodeSymbol( dc );
+		int diff = s == 0 ? 0 : extend( receive( s ), s );
+
+		for ( int k = 1; k < 64; ) {
+			int rs = decodeSymbol( ac );
+			s = rs & 15;
+
+			if ( s == 0 ) {
+				if (( rs >> 4 ) != 15 ) break;
+				k += 16;
+				continue;
+			}
+
+			receive( s );
+			k += ( rs >> 4 ) + 1;
+		}
+
+		return diff;
+	}
+
+	private void readScaledScan() throws IOException {
+	/**
+	 * Decode a scan with every component in it, a row of MCUs at a time, at mSize
+	 * pixels a block side, and pass each row of each component to the sink.
+	 *
+	 */
+		if ( mComponents == 0 ) throw new IOException( "scan before frame header" );
+
+		int n = readByte();
+		if ( n != mComponents ) throw new IOException( "only interleaved scans are supported" );
+
+		int[]       comp    = new int[ n ];
+		Huffman[]   dc      = new Huffman[ n ];
+		Huffman[]   ac      = new Huffman[ n ];
+		float[][]   weights = new float[ n ][];
+
+		for ( int i = 0; i < n; i++ ) {
+			int id = readByte();
+			int tables = readByte();
+
+			comp[ i ] = -1;
+			for ( int c = 0; c < mComponents; c++ )
+				if ( mCompId[ c ] == id ) comp[ i ] = c;
+
+			if ( comp[ i ] < 0 ) throw new IOException( "scan has unknown component" );
+
+			dc[ i ] = mDcTable[ tables >> 4 ];
+			ac[ i ] = mAcTable[ tables & 3 ];
+			if ( dc[ i ] == null || ac[ i ] == null ) throw new IOException( "missing Huffman table" );
+			if ( mQuant[ mCompQ[ comp[ i ]]] == null ) throw new IOException( "missing quant table" );
+
+			weights[ i ] = sizedWeights( mCompQ[ comp[ i ]] );
+		}
+
+		mPos += 3;
+
+		// Each component's plane at our scale, and a row of MCUs' worth of it.  With
+		// a single component, blocks just cover the image, as in readScan().
+
+		int size  = mSize, cells = size * size;
+		int mcusX = n == 1 ? ceilDiv( mWidth, 8 )  : ceilDiv( mWidth,  8 * mMaxH );
+		int mcusY = n == 1 ? ceilDiv( mHeight, 8 ) : ceilDiv( mHeight, 8 * mMaxV );
+
+		int[]    widths  = new int[ n ], heights = new int[ n ], strides = new int[ n ];
+		int[]    bh      = new int[ n ], bv      = new int[ n ];
+		byte[][] rows    = new byte[ n ][];
+
+		for ( int i = 0; i < n; i++ ) {
+			int c = comp[ i ];
+			bh[ i ] = n == 1 ? 1 : mCompH[ c ];
+			bv[ i ] = n == 1 ? 1 : mCompV[ c ];
+
+			widths [ i ] = ceilDiv( ceilDiv( mWidth  * mCompH[ c ], mMaxH ) * size, 8 );
+			heights[ i ] = ceilDiv( ceilDiv( mHeight * mCompV[ c ], mMaxV ) * size, 8 );
+			strides[ i ] = mcusX * bh[ i ] * size;
+			rows   [ i ] = new byte[ strides[ i ] * bv[ i ] * size ];
+		}
+
+		mSink.start( ceilDiv( mWidth * size, 8 ), ceilDiv( mHeight * size, 8 ), n, widths, heights );
+
+		float[] out  = new float[ cells ];
+		int[]   pred = new int[ n ];
+
+		mBitBuf = 0;
+		mBitCnt = 0;
+		mHitMarker = false;
+
+		int restarts = 0, m = 0;
+
+		for ( int my = 0; my < mcusY; my++ ) {
+			for ( int mx = 0; mx < mcusX; mx++, m++ ) {
+				if ( mRestartInterval > 0 && m > 0 && m % mRestartInterval == 0 ) {
+					restart( restarts++ );
+					for ( int i = 0; i < n; i++ ) pred[ i ] = 0;
+				}
+
+				for ( int i = 0; i < n; i++ ) {
+					for ( int by = 0; by < bv[ i ]; by++ ) {
+						for ( int bx = 0; bx < bh[ i ]; bx++ ) {
+							pred[ i ] = sizedBlock( dc[ i ], ac[ i ], pred[ i ], weights[ i ], cells, out );
+
+							int o = by * size * strides[ i ] + ( mx * bh[ i ] + bx ) * size;
+
+							for ( int qy = 0; qy < size; qy++, o += strides[ i ] )
+								for ( int qx = 0; qx < size; qx++ )
+									rows[ i ][ o + qx ] = clamp( out[ qy * size + qx ] );
+						}
+					}
+				}
+			}
+
+			for ( int i = 0; i < n; i++ )
+				mSink.rows( i, my * bv[ i ] * size, bv[ i ] * size, rows[ i ], strides[ i ] );
+		}
+
+	}  // readScaledScan
+
+	private int sizedBlock( Huffman dc, Huffman ac, int pred, float[] weights, int cells, float[] out ) throws IOException {
+	/**
+	 * Decode one block into the averages of its cells.
+	 *
+	 * @return The new DC predictor.
+	 */
+		int s = decodeSymbol( dc );
+		pred += s == 0 ? 0 : extend( receive( s ), s );
+
+		float base = pred * weights[ 0 ] + 128;
+		for ( int i = 0; i < cells; i++ ) out[ i ] = base;
+
+		for ( int k = 1; k < 64; ) {
+			int rs = decodeSymbol( ac );
+			int r = rs >> 4;
+			s = rs & 15;
+
+			if ( s == 0 ) {
+				if ( r != 15 ) break;  // End of block
+				k += 16;
+				continue;
+			}
+
+			k += r;
+			if ( k > 63 ) throw new IOException( "coefficient out of range" );
+
+			int coef = extend( receive( s ), s );
+			int w    = k * cells;
+
+			for ( int i = 0; i < cells; i++ ) out[ i ] += coef * weights[ w + i ];
+			k++;
+		}
+
+		return pred;
+
+	}  // sizedBlock
+
+	private void skipEntropyData() {
+	/**
+	 * Move past a scan we don't want, to the next marker that isn't a restart.
+	 *
+	 */
+		while ( mPos + 1 < mData.length ) {
+			if (( mData[ mPos ] & 0xFF ) == 0xFF ) {
+				int m = mData[ mPos + 1 ] & 0xFF;
+				if ( m != 0 && m != 0xFF && ( m < 0xD0 || m > 0xD7 )) return;
+			}
+			mPos++;
+		}
+		mPos = mData.length;  // The next read throws
+	}
+
+	private float[] scaledWeights( int table ) {
+		if ( mScaled[ table ] == null ) {
+			float[] scaled = new float[ 64 * 4 ];
+			int[]   q      = mQuant[ table ];
+
+			for ( int i = 0; i < scaled.length; i++ )
+				scaled[ i ] = WEIGHTS[ i ] * q[ i / 4 ];
+
+			mScaled[ table ] = scaled;
+		}
+		return mScaled[ table ];
+	}
+
+	private float[] sizedWeights( int table ) {
+		if ( mSized[ table ] == null ) {
+			float[] base   = SIZED_WEIGHTS[ mSizeIndex ];
+			float[] scaled = new float[ base.length ];
+			int[]   q      = mQuant[ table ];
+			int     cells  = mSize * mSize;
+
+			for ( int i = 0; i < scaled.length; i++ )
+				scaled[ i ] = base[ i ] * q[ i / cells ];
+
+			mSized[ table ] = scaled;
+		}
+		return mSized[ table ];
+	}
+
+	private void restart( int expected ) throws IOException {
+	/**
+	 * Skip to just past the next RSTn marker and reset the bit reader.  If the
+	 * marker isn't the one we expect, we carry on anyway;  the picture will just
+	 * look a bit odd.
+	 *
+	 */
+		mBitBuf = 0;
+		mBitCnt = 0;
+		mHitMarker = false;
+
+		while ( mPos + 1 < mData.length ) {
+			if (( mData[ mPos ] & 0xFF ) == 0xFF ) {
+				int m = mData[ mPos + 1 ] & 0xFF;
+
+				if ( m >= 0xD0 && m <= 0xD7 ) {
+					mPos += 2;
+					return;
+				}
+				if ( m != 0 && m != 0xFF ) throw new IOException( "missing restart marker" );
+			}
+			mPos++;
+		}
+
+		throw new IOException( "missing restart marker" );
+	}
+
+
+	//
+	// Bits.
+	//
+
+	private int decodeSymbol( Huffman h ) throws IOException {
+		fill();
+
+		int look = ( mBitBuf >>> ( mBitCnt - Huffman.LOOKUP_BITS )) & (( 1 << Huffman.LOOKUP_BITS ) - 1 );
+		int fast = h.lookup[ look ];
+
+		if ( fast != 0 ) {
+			mBitCnt -= fast >> 8;
+			return fast & 0xFF;
+		}
+
+		// Longer than the lookup table;  do it the slow way.
+
+		int code = 0;
+		for ( int len = 1; len <= 16; len++ ) {
+			code = ( code << 1 ) | bit();
+			if ( code <= h.maxCode[ len ] )
+				return h.values[ h.valPtr[ len ] + code - h.minCode[ len ]];
+		}
+
+		throw new IOException( "bad Huffman code" );
+	}
+
+	private int receive( int s ) throws IOException {
+		fill();
+		if ( s > mBitCnt ) throw new IOException( "bad coefficient size" );
+
+		mBitCnt -= s;
+		return ( mBitBuf >>> mBitCnt ) & (( 1 << s ) - 1 );
+	}
+
+	private int bit() throws IOException {
+		fill();
+		mBitCnt--;
+		return ( mBitBuf >>> mBitCnt ) & 1;
+	}
+
+	private void fill() {
+	/**
+	 * Top the bit buffer up to at least 16 bits, un-stuffing 0xFF00.  At a marker,
+	 * or the end of the data, we feed in zeros.
+	 *
+	 */
+		while ( mBitCnt <= 16 ) {
+			int b = 0;
+
+			if ( !mHitMarker && mPos < mData.length ) {
+				b = mData[ mPos ] & 0xFF;
+
+				if ( b == 0xFF ) {
+					int next = mPos + 1 < mData.length ? mData[ mPos + 1 ] & 0xFF : 0xD9;
+
+					if ( next == 0 ) {
+						mPos += 2;
+					} else {
+						mHitMarker = true;  // Leave it for restart() or the end
+						b = 0;
+					}
+				} else {
+					mPos++;
+				}
+			}
+
+			mBitBuf = ( mBitBuf << 8 ) | b;
+			mBitCnt += 8;
+		}
+	}
+
+	private static int extend( int v, int s ) {
+		return v < ( 1 << ( s - 1 )) ? v - ( 1 << s ) + 1 : v;
+	}
+
+	private static byte clamp( float v ) {
+		int i = Math.round( v );
+		return (byte) ( i < 0 ? 0 : i > 255 ? 255 : i );
+	}
+
+	private static int ceilDiv( int a, int b ) {
+		return ( a + b - 1 ) / b;
+	}
+
+
+	//
+	// Header bytes.
+	//
+
+	private int readByte() {
+		return mData[ mPos++ ] & 0xFF;
+	}
+
+	private int readWord() {
+		return ( readByte() << 8 ) | readByte();
+	}
+
+	private int nextMarker() throws IOException {
+		if ( readByte() != 0xFF ) throw new IOException( "expected a marker" );
+
+		int m;
+		while (( m = readByte() ) == 0xFF ) { }  // Fill bytes
+		return m;
+	}
+
+
+	private static class Huffman {
+	/**
+	 * One decoding table:  a lookup on the next LOOKUP_BITS bits for the short
+	 * codes, and the usual maxCode/valPtr arrays (Annex F.2.2.3) for the rest.
+	 *
+	 */
+		static final int LOOKUP_BITS = 9;
+
+		final int[] lookup  = new int[ 1 << LOOKUP_BITS ];  // Length << 8 | symbol, or 0
+		final int[] minCode = new int[ 17 ];
+		final int[] maxCode = new int[ 17 ];
+		final int[] valPtr  = new int[ 17 ];
+		final int[] values;
+
+		Huffman( int[] bits, int[] values ) throws IOException {
+			this.values = values;
+
+			int code = 0, k = 0;
+
+			for ( int len = 1; len <= 16; len++ ) {
+				int count = bits[ len - 1 ];
+
+				valPtr [ len ] = k;
+				minCode[ len ] = code;
+				maxCode[ len ] = count == 0 ? -1 : code + count - 1;
+
+				for ( int i = 0; i < count; i++, k++, code++ ) {
+					if ( code >= ( 1 << len )) throw new IOException( "bad Huffman table" );
+
+					if ( len <= LOOKUP_BITS ) {
+						int shift = LOOKUP_BITS - len;
+						for ( int j = 0; j < ( 1 << shift ); j++ )
+							lookup[ ( code << shift ) | j ] = ( len << 8 ) | values[ k ];
+					}
+				}
+				code <<= 1;
+			}
+		}
+	}  // class Huffman
+
+}  // class LumaDecoder
@@ -13,13 +13,23 @@ package com.twocats.dev.camtimer;
  *
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Configuration;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.app.Activity;
 import android.net.Uri;
@@ -28,6 +38,9 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -64,18 +77,74 @@ public class MainActivity extends Activity {
  
 	private final String TAG = "CamTimer";        // For logging purposes
 
+	private static final int BURST_FRAMES = 5;    // Pictures in a burst
+	private static final int BURST_KEEP   = 1;    // ... and how many of them to keep
+	private static final int TICK_MUTE_MS    = 500;   // Deaf to claps while our tick plays
+	private static final int SHUTTER_MUTE_MS = 1500;  // ... and the shutter sound
+	private static final int VIDEO_BEFORE_MS = 500;   // Preview frames kept from this long before zero
+	private static final int VIDEO_AFTER_MS  = 1000;  // ... until this long after
+	private static final int VIDEO_SAVE_MS   = 3000;  // And all saved within this, if the profile says how
+	private static final long QUOTA_BYTES    = 1L << 30;  // Most our pictures may take up, when limited
+	private static final long TAP_COALESCE_MS = 300;  // Taps closer than this are one tap
+	private static final int BOOTH_DELAY_MS  = 3000;  // Countdown between photo booth shots
+	private static final int COLLAGE_WIDTH   = 2048;  // The photo booth's collage
+	private static final int COLLAGE_HEIGHT  = 1536;
+	private static final int COLLAGE_GAP     = 24;    // Between and around its pictures
+	private static final int BOOTH_SHOTS_MOST = Collage.TILES + 2;  // Shots a session may take, failures and all
+	private static final long LINGER_MS      = 5000;  // Camera kept this long after a pause, by default
+	private static final boolean EVICTABLE   = Build.VERSION.SDK_INT >= 23;  // Camera service can take the camera off us (M)
+	private static final long BURST_WINDOW_MS = 2000; // A burst should be over within this, if the profile says how
+	private static final long CAPTURE_TIMEOUT_MS = 30000;  // A capture not reported done by then has failed
+
 	private Context        mActContext;           // Holds the Activity context
 	private CamPreview     mPreview;              // Handles the camera preview
-	private Camera         mCamera = null;        // Hardware camera (one of possibly several)
-	private CountDownTimer mTimer;                // Shutter timer
+	private HardwareCamera mCamera = null;        // Hardware camera (one of possibly several)
+	private CapturePipeline mPipeline;            // Takes the picture and saves the image
+	private FileImageWriter mFileWriter;          // Saves each image to its own file
+	private CapturePipeline.ImageWriter mPictureWriter;  // The same, cataloged once the catalog's loaded
+	private volatile CaptureCatalog mCatalog = null;  // Every picture we've saved as a file, once loaded
+	private volatile QuotaEnforcer mQuota = null; // Deletes the oldest of them when over budget
+	private boolean        mQuotaOn = false;      // User wants our pictures kept under QUOTA_BYTES
+	private PackStore      mPackStore = null;     // Pack file for high-volume captures, once opened
+	private File           mSaveDir;              // Public pictures directory
+	private CountDownTimer mTimer;                // Shutter timer, a new one for each countdown
 	private boolean        mTiming = false;       // True if timer is running
+	private CaptureQueue   mQueue;                // Starts, cancels, captures and switches, one at a time
+	private int            mPictureId = 0;        // The queue's id for the capture in progress, if any
 	private long           milliSeconds = 5000L;  // Default delay is 5 seconds
 	private int            mNumCameras  = 0;      // Number of cameras on this device
 	private int            mWhichCamera = 0;      // The camera we're currently using (0 to numCameras-1)
 	private appSounds      mTimerSounds;          // Handles the ticking sound
 	private SurfaceView    mSurfaceView;          // Store our SurfaceView, share with the preview
-
-	private Camera.CameraInfo mCamInfo;           // Receives current camera general info.
+	private Handler        mHandler;              // For running things later on the UI thread
+	private DutyCycler     mDutyCycler;           // Rests the camera during long countdowns
+	private CameraLinger   mLinger;               // Keeps the camera for a while after a pause
+	private PreviewGovernor mGovernor;            // Slows the preview down when it needn't be fast
+	private volatile ControlServer mRemote = null;  // Remote control server, while it's switched on
+	private boolean        mRemoteOn = false;     // User wants remote control
+	private PreviewStreamer mStreamer;            // Serves the preview to other screens
+	private boolean        mStreamOn = false;     // User wants the preview streamed
+	private DualCapture    mDual;                 // Takes a picture with each of two cameras
+	private boolean        mDualOn = false;       // User wants both cameras when the timer goes off
+	private boolean        mDualRunning = false;  // The dual capture has the cameras
+	private SurfaceTexture mDualTexture;          // Where the second camera's preview goes
+	private ExecutorService mWorkers;             // Scoring, encoding and collage threads, one a core
+	private ExecutorService mDualSwitcher;        // The dual capture's camera switches
+	private ExecutorService mQuotaExecutor;       // The quota enforcer's deletions
+	private boolean        mResumed = false;      // Between onResume and onPause
+	private boolean        mBurstOn = false;      // User wants the sharpest of a burst
+	private VideoBurst     mVideo;                // Saves preview frames around timer zero
+	private boolean        mVideoOn = false;      // User wants the preview frames instead of a picture
+	private SoundTrigger   mClap;                 // Hears claps that start the timer
+	private boolean        mClapOn = false;       // User wants to start the timer by clapping
+	private Collage        mCollage;              // Puts the photo booth's pictures together
+	private boolean        mBoothOn = false;      // User wants four pictures and a collage of them
+	private BoothSession   mBooth = null;         // The photo booth session running, if one is
+	private boolean        mBoothShooting = false;  // ... and its shot in flight hasn't got a picture yet
+	private LinkedList<BoothSession> mBoothSaves = new LinkedList<BoothSession>();  // Whose pictures are being saved, in order
+	private volatile DeviceProfile mProfile = null;  // What calibrating found out about this phone, once loaded
+	private boolean        mProfileWanted = false;  // There's none, so calibrate on the next resume
+	private Calibrator     mCalibrator = null;    // Has the cameras while it's calibrating
 
 	//
 	// Lifecycle methods.
@@ -94,9 +163,6 @@ public class MainActivity extends Activity {
 			finish();
 		}
 
-		// Create a CameraInfo object for use when we need to getCameraInfo().
-		mCamInfo = new Camera.CameraInfo();
-
 		// Load our sounds -- we just have one, the timer tick.
 		mTimerSounds = new appSounds();
 
@@ -107,6 +173,69 @@ public class MainActivity extends Activity {
 		mSurfaceView = (SurfaceView) findViewById( R.id.surface_view ); 
 		mPreview = new CamPreview( mActContext, mSurfaceView );
 
+		// Create the capture pipeline.  Images are written one at a time in the background,
+		// to the public pictures directory.
+		mSaveDir    = Environment.getExternalStoragePublicDirectory( Environment.DIRECTORY_PICTURES );
+		mFileWriter    = new FileImageWriter( mSaveDir );
+		mPictureWriter = mFileWriter;
+		mPipeline      = new CapturePipeline( mFileWriter, AsyncTask.SERIAL_EXECUTOR, mCaptureListener );
+
+		// Burst pictures are scored for sharpness in memory, a thread per core.
+		mWorkers = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		mPipeline.setScoreExecutor( mWorkers );
+
+		// The video-speed burst encodes its frames on the same threads, and saves them
+		// on the pipeline's executor.  Its buffers may take a quarter of our heap.
+		mVideo = new VideoBurst( mFileWriter, mWorkers, AsyncTask.SERIAL_EXECUTOR, mVideoListener,
+		                         Runtime.getRuntime().maxMemory() / 4, 90 );
+
+		// The photo booth's collage is put together on them too, a picture a thread.
+		mCollage = new Collage( COLLAGE_WIDTH, COLLAGE_HEIGHT, COLLAGE_GAP, 90, mWorkers );
+
+		// The duty cycler may release the camera while the timer runs, and reopens it in
+		// time for the picture.
+		mHandler    = new Handler();
+		mDutyCycler = new DutyCycler( mCycleActions, mCycleScheduler );
+
+		// The governor slows the preview down for most of the countdown, and after
+		// the picture, on the same schedule.
+		mGovernor = new PreviewGovernor( mGovernorActions, mCycleScheduler );
+
+		// Pausing only stops the preview, and the camera's kept for a few seconds in
+		// case we're straight back;  see onStop(), onTrimMemory() and mCameraErrors
+		// for when it's let go of sooner.  Before Android 6 nobody could take it off
+		// us, so there it's only kept while we're still in sight.
+		mLinger = new CameraLinger( mLingerActions, mCycleScheduler, LINGER_MS );
+
+		// Taps, the timer, the remote control and claps all go through the capture
+		// queue, which runs them on the UI thread and only ever has one capture in
+		// flight.
+		mQueue = new CaptureQueue( mQueueActions, mUiExecutor, TAP_COALESCE_MS );
+		mQueue.setListener( mQueueListener );
+
+		// A clap starts the timer, as a tap does;  the trigger tells us on the UI thread.
+		mClap = new SoundTrigger( mHandler, mClapListener );
+
+		// The preview stream is scaled down to at most 640x480, 15 frames a second.
+		mStreamer = new PreviewStreamer( new InetSocketAddress( PreviewStreamer.DEFAULT_PORT ), 640, 480, 15, 70 );
+
+		// The dual capture switches cameras on a thread of its own, and saves on the
+		// same executor as the pipeline.  The second camera's preview isn't shown, but
+		// it has to go somewhere, so it goes to a texture nobody draws.
+		mDualTexture  = new SurfaceTexture( 0 );
+		mDualSwitcher = Executors.newSingleThreadExecutor();
+		mDual = new DualCapture( HardwareCamera.BACKEND, mDualConfigurator, mFileWriter,
+		                         AsyncTask.SERIAL_EXECUTOR, mDualSwitcher, mDualListener );
+
+		// Load the catalog of what we've saved;  from then on everything written as
+		// a file goes into it, and the quota enforcer deletes on a thread of its own.
+		mQuotaExecutor = Executors.newSingleThreadExecutor();
+		openCatalog();
+
+		// And the device profile.  If there isn't one, this is our first launch, and
+		// we calibrate as soon as we're resumed.
+		loadProfile();
+
 	}  // onCreate
 
 	@Override
@@ -114,7 +243,23 @@ public class MainActivity extends Activity {
 		Log.d( TAG, "onPause" );
 		super.onPause();
 
-		releaseCamera();  // releaseCamera also stops the preview first
+		mResumed = false;
+		resetQueue();        // No countdown or capture survives losing the camera
+		endBooth();
+		stopVideoBurst();    // Saves what it has
+		mDutyCycler.stop();  // The camera's ours alone while paused, kept or not
+		mGovernor.stop();
+		mDual.cancel();      // It gives back whatever camera it has when it stops
+		mLinger.pause( mCamera != null );  // Stops the preview, and releases the camera now or later
+
+		if ( mCalibrator != null ) {
+			mCalibrator.cancel();              // Gives the cameras back;  try again next time if need be
+			mProfileWanted = mProfile == null;
+		}
+
+		stopRemote();        // No remote control without a camera
+		stopStream();
+		mClap.stop();        // Nor should we keep the microphone
 	}
 	
 	@Override
@@ -122,14 +267,77 @@ public class MainActivity extends Activity {
 		Log.d( TAG, "onResume" );
 		super.onResume();
 
-		obtainCamera( mWhichCamera, true );  // true means please also start the preview
+		mResumed = true;
+
+		// If the dual capture or the calibrator still has the cameras, we get ours
+		// back when it finishes.  If we kept ours over the pause, only the preview
+		// needs starting.
+		if ( mProfileWanted ) {
+			mLinger.resume();
+			calibrate();
+		} else if ( !mDualRunning && mCalibrator == null ) {
+			if ( mLinger.resume() && mCamera != null ) {
+				mGovernor.onCameraOpened();  // Back to the framing rate, as for a camera just opened
+				mPreview.previewStart();
+			} else {
+				obtainCamera( mWhichCamera, true );  // true means please also start the preview
+			}
+
+			if ( mCamera != null ) mCamera.addPreviewListener( mResumeFrameListener );
+		}
+
+		if ( mRemoteOn ) startRemote();
+		if ( mStreamOn ) startStream();
+		if ( mClapOn )   startClap();
+	}
+
+	@Override
+	protected void onStop() {
+		Log.d( TAG, "onStop" );
+		super.onStop();
+
+		if ( isFinishing() ) mLinger.release( CameraLinger.FINISHING );
+		else if ( !EVICTABLE ) mLinger.release( CameraLinger.HIDDEN );
+	}
+
+	@Override
+	public void onTrimMemory( int level ) {
+	/**
+	 * Our UI being hidden is just what the grace period's for, if the camera
+	 * service can evict us;  anything more means memory's short, or we've been in
+	 * the background a while, so the camera goes.
+	 *
+	 */
+		super.onTrimMemory( level );
+
+		if ( level != TRIM_MEMORY_UI_HIDDEN ) mLinger.release( CameraLinger.MEMORY );
+		else if ( !EVICTABLE )                mLinger.release( CameraLinger.HIDDEN );
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		mLinger.release( CameraLinger.MEMORY );
 	}
 
 	@Override
 	protected void onDestroy() {
 		Log.d( TAG, "onDestroy" );
 
+		mLinger.release( CameraLinger.FINISHING );
+
 		mTimerSounds.allDone();
+		mDualTexture.release();
+
+		// Our threads go once the saves already queued are done, since those may
+		// still score, encode, put a collage together or enforce the quota.
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				mWorkers.shutdown();
+				mDualSwitcher.shutdown();
+				mQuotaExecutor.shutdown();
+			}
+		} );
 
 		super.onDestroy();
 	}
@@ -148,7 +356,6 @@ public class MainActivity extends Activity {
 	 * 
 	 */
 		int  id = item.getItemId();  // Which menu item was selected?
-		long ms = milliSeconds;      // Save this so we can tell if it changed
 
 		switch( id ) {
 			case R.id.action_settings:
@@ -166,12 +373,96 @@ public class MainActivity extends Activity {
 			case R.id.settings_delay30:
 				milliSeconds = 30000; break;
 
+			// How long to keep the camera after we're paused.
+			case R.id.linger_off:
+				mLinger.setGrace( 0 ); break;
+			case R.id.linger_05:
+				mLinger.setGrace( LINGER_MS ); break;
+			case R.id.linger_30:
+				mLinger.setGrace( 30000 ); break;
+
 			// Cycle through all available cameras.
 			case R.id.action_switch:
-				if ( ++mWhichCamera == mNumCameras ) {
-					mWhichCamera = 0;
+				if ( !refuseWhileCalibrating() ) mQueue.switchCamera();
+				break;
+
+			// Save to the pack file instead of individual pictures, or stop doing so.
+			case R.id.action_pack:
+				item.setChecked( !item.isChecked() );
+				setPackMode( item.isChecked() );
+				break;
+
+			// Turn everything in the pack file into ordinary pictures.
+			case R.id.action_export:
+				exportPack();
+				break;
+
+			// Let the timer be driven over the network, or stop doing so.
+			case R.id.action_remote:
+				item.setChecked( !item.isChecked() );
+				mRemoteOn = item.isChecked();
+				if ( mRemoteOn ) startRemote();
+				else             stopRemote();
+				countFrames( mRemoteOn );
+				break;
+
+			// Serve the preview to other screens, or stop doing so.
+			case R.id.action_stream:
+				item.setChecked( !item.isChecked() );
+				mStreamOn = item.isChecked();
+				if ( mStreamOn ) {
+					mDutyCycler.cancel();  // Bring the preview back if it's resting
+					if ( mCamera != null ) mCamera.addPreviewListener( mStreamer );
+					startStream();
+				} else {
+					if ( mCamera != null ) mCamera.removePreviewListener( mStreamer );
+					stopStream();
 				}
-				switchToCamera( mWhichCamera );
+				break;
+
+			// Take a burst and keep only the sharpest, or go back to single pictures.
+			case R.id.action_burst:
+				item.setChecked( !item.isChecked() );
+				mBurstOn = item.isChecked();
+				break;
+
+			// Take a picture with the other camera too when the timer goes off, or stop doing so.
+			case R.id.action_dual:
+				item.setChecked( !item.isChecked() );
+				mDualOn = item.isChecked();
+				break;
+
+			// Save the preview frames around timer zero instead of taking a picture, or don't.
+			case R.id.action_video:
+				item.setChecked( !item.isChecked() );
+				mVideoOn = item.isChecked();
+				break;
+
+			// Take four pictures a few seconds apart and make a collage of them, or don't.
+			case R.id.action_booth:
+				item.setChecked( !item.isChecked() );
+				mBoothOn = item.isChecked();
+				if ( !mBoothOn ) endBooth();
+				break;
+
+			// Keep our pictures under QUOTA_BYTES, deleting the oldest, or stop doing so.
+			case R.id.action_quota:
+				item.setChecked( !item.isChecked() );
+				mQuotaOn = item.isChecked();
+				setQuota( mQuotaOn );
+				break;
+
+			// Start the timer with a clap, or stop listening.
+			case R.id.action_clap:
+				item.setChecked( !item.isChecked() );
+				mClapOn = item.isChecked();
+				if ( mClapOn ) startClap();
+				else           mClap.stop();
+				break;
+
+			// Time the cameras and storage again, and say what's changed.
+			case R.id.action_calibrate:
+				calibrate();
 				break;
 
 			// Start Credits activity.
@@ -187,12 +478,6 @@ public class MainActivity extends Activity {
 				break;
 		}
 
-		if ( milliSeconds != ms ) {
-			// User changed the time delay value, so we must destroy the current
-			// timer and create a new one in onTouchEvent() with the new value.
-			mTimer = null;
-		}
-
 		return super.onOptionsItemSelected( item );
 	}  // onOptionsItemSelected
 
@@ -209,57 +494,107 @@ public class MainActivity extends Activity {
 
 		switch( action ) {
 		case MotionEvent.ACTION_UP:  // User tapped our view.
+
+			if ( refuseWhileCalibrating() ) return true;
 	
-			if ( mTiming == false ) {  // The timer is not running, so let's start it.
-				Log.d( TAG, "Starting timer." );
+			// If the timer is not running, start it;  if it is, the user wants to
+			// cancel it.  The queue decides which, in turn with everything else.
+			mQueue.tap();
 
-				// Create the timer if necessary.  Since it's created with the user's choice
-				// of delay time, if they change that we have to destroy and recreate the
-				// timer with the new delay value.  See onOptionsItemSelected().
+			return true;
 
-				if ( mTimer == null ) {
-					Log.d( TAG, "(Creating timer.)" );
+		default:
+			return super.onTouchEvent( event );
+		}
+	}  // onTouchEvent
 
-					mTimer = new CountDownTimer( milliSeconds, 1000L ) {
 
-						public void onTick( long mSecLeft ) {
-							// Play a tick sound each second.
-							mTimerSounds.playSound();
-						}
+	private void startTimer( final int id ) {
+	/**
+	 * Start the shutter timer for the queue's countdown id.  Called only by the
+	 * capture queue.
+	 *
+	 */
+		Log.d( TAG, "Starting timer." );
 
-						public void onFinish() {
-							// When timer finishes, take a picture.
-							Log.d(TAG, "Timer finished, taking picture." );
-							takePicture();
-							mTiming = false;
-						}
-					};
-				}
-				
-				// Start the timer.
-				mTimer.start();
-				mTiming = true;
+		// Each countdown gets a timer of its own, with the user's choice of delay;
+		// the photo booth's shots after the first have a shorter delay of their own.
+		// Its id goes with it, so a timer that finishes late reports its own
+		// countdown, which the queue can tell is over, rather than the current one.
 
-				Toast.makeText( mActContext,
-		                mActContext.getString( R.string.timer_started ), Toast.LENGTH_LONG ).show();
-			}
+		final long delay = mBooth != null ? BOOTH_DELAY_MS : milliSeconds;
 
-			else {  // The timer is running, but the user wants to cancel it.
-				Log.d( TAG, "Cancelling timer." );
+		mTimer = new CountDownTimer( delay, 1000L ) {
 
-				mTimer.cancel();
-				mTiming = false;
+			public void onTick( long mSecLeft ) {
+				// Play a tick sound each second, and don't take it for a clap.
+				mTimerSounds.playSound();
+				mClap.mute( TICK_MUTE_MS );
+			}
 
-				Toast.makeText( mActContext,
-	                mActContext.getString( R.string.timer_cancelled ), Toast.LENGTH_LONG ).show();
+			public void onFinish() {
+				// When timer finishes, the queue has the picture taken (see
+				// mQueueActions).
+				Log.d(TAG, "Timer finished, taking picture." );
+				mQueue.timerFired( id );
 			}
+		};
 
-			return true;
+		// Start the timer, and let the duty cycler decide what to do with the
+		// camera until it goes off.
+		mTimer.start();
+		mTiming = true;
 
-		default:
-			return super.onTouchEvent( event );
+		long deadline = SystemClock.uptimeMillis() + delay;
+
+		// A video-speed burst needs the camera, at full speed, from when it starts.
+		// The photo booth takes pictures instead.
+
+		if ( mVideoOn && !mBoothOn ) {
+			deadline -= VIDEO_BEFORE_MS;
+			mHandler.postDelayed( mVideoBegin, delay - VIDEO_BEFORE_MS );
+			mHandler.postDelayed( mVideoEnd,   delay + VIDEO_AFTER_MS );
 		}
-	}  // onTouchEvent
+
+		// The stream needs the preview all the way through.
+
+		if ( !mStreamOn ) mDutyCycler.planCapture( mWhichCamera, deadline );
+		mGovernor.planCapture( deadline );
+
+		Toast.makeText( mActContext,
+	                mActContext.getString( R.string.timer_started ), Toast.LENGTH_LONG ).show();
+	}  // startTimer
+
+	private void cancelTimer() {
+	/**
+	 * Cancel the shutter timer.
+	 *
+	 */
+		Log.d( TAG, "Cancelling timer." );
+
+		mTimer.cancel();
+		mTiming = false;
+
+		mDutyCycler.cancel();
+		mGovernor.cancel();
+		stopVideoBurst();
+		endBooth();  // The pictures taken so far are kept, and only put together if they're all saved
+
+		Toast.makeText( mActContext,
+            mActContext.getString( R.string.timer_cancelled ), Toast.LENGTH_LONG ).show();
+	}  // cancelTimer
+
+	private void nextCamera() {
+	/**
+	 * Cycle through all available cameras.
+	 *
+	 */
+		if ( ++mWhichCamera == mNumCameras ) {
+			mWhichCamera = 0;
+		}
+		switchToCamera( mWhichCamera );
+	}
+
 
 	@Override
 	public void onConfigurationChanged( Configuration newConfig ) {
@@ -287,49 +622,45 @@ public class MainActivity extends Activity {
 
 		try {
 			Log.d( TAG, "... opening camera" );
-			mCamera = Camera.open( whichCamera );
+			mCamera = HardwareCamera.open( whichCamera );
 		}
 		catch( Exception e ) {
 			Log.d( TAG, "... exception opening camera: " + e.getMessage() );
 			return;  // nothing further to do
 		}
 
-		// Now we have the camera, so let's get some more info that the preview will need.
-		// We'll use getCameraInfo() and getParameters() and set the results in the preview.
+		// Now we have the camera, so let's set it up.  Its CameraSettings object read the
+		// parameters once and caches them;  changes are batched up and sent to the camera
+		// in one go by commit().
 
-		Camera.Parameters camParams = mCamera.getParameters();
-		boolean setParams = false;  // becomes true if we change anything
+		CameraSettings settings = mCamera.getSettings();
 
 		// We want auto flash and auto focus if they are supported. 
-		{
-			List<String> supportedFocusModes = camParams.getSupportedFocusModes();
-			List<String> supportedFlashModes = camParams.getSupportedFlashModes();
-
-			final String focusMode = Camera.Parameters.FOCUS_MODE_AUTO;
-			final String flashMode = Camera.Parameters.FLASH_MODE_AUTO;
-
-			if ( supportedFocusModes != null  // then there are some to check
-		      && supportedFocusModes.contains( focusMode )) {
-		    	Log.d( TAG, "Setting focus mode to " + focusMode );
-		        camParams.setFocusMode( focusMode );
-		        setParams = true;
-			}
 
-			if ( supportedFlashModes != null
-		      && supportedFlashModes.contains( flashMode )) {
-		    	Log.d( TAG, "Setting flash mode to " + flashMode );
-		        camParams.setFlashMode( flashMode );
-		        setParams = true;
-			}
-		}
+		if ( settings.setFocusMode( Camera.Parameters.FOCUS_MODE_AUTO ))
+			Log.d( TAG, "Setting focus mode to " + Camera.Parameters.FOCUS_MODE_AUTO );
+
+		if ( settings.setFlashMode( Camera.Parameters.FLASH_MODE_AUTO ))
+			Log.d( TAG, "Setting flash mode to " + Camera.Parameters.FLASH_MODE_AUTO );
+
+		// And the preview rate for wherever we are in the countdown.  The governor
+		// commits, so that's all one setParameters().  It only counts frames while
+		// its stats can be asked for (see countFrames()).
+
+		if ( mRemoteOn ) mCamera.addPreviewListener( mGovernor );
+		mGovernor.setCounting( mRemoteOn );
+		mGovernor.onCameraOpened();
+
+		mCamera.setErrorListener( mCameraErrors );
 
-		if ( setParams ) mCamera.setParameters( camParams );
+		settings.commit();  // Does nothing if nothing has changed
 
-		// Send the the camera object and the populated CameraInfo to the preview.
+		// Send the camera to the preview and the capture pipeline.
 
-		Camera.getCameraInfo( whichCamera, mCamInfo );
-		mPreview.setCameraInfo( mCamInfo );
 		mPreview.setCamera( mCamera );
+		mPipeline.setCamera( mCamera );
+
+		if ( mStreamOn ) mCamera.addPreviewListener( mStreamer );
 
 		if ( startPreview )
 			mPreview.previewStart();
@@ -361,6 +692,7 @@ public class MainActivity extends Activity {
 
 		mCamera = null;
 		mPreview.setCamera( null );
+		mPipeline.setCamera( null );
 
 	}  // releaseCamera
 
@@ -396,109 +728,1210 @@ public class MainActivity extends Activity {
 	// Camera callback methods for shutter trip and image availability.
 	//
 
-	public void takePicture() {
+	public boolean takePicture() {
+		return takePicture( mBurstOn );
+	}
+
+	private boolean takePicture( boolean burst ) {
 	/**
-	 * Tell the camera to actually take a picture, catching any exceptions.
+	 * Tell the camera to actually take a picture, or a burst of them.  The capture
+	 * pipeline does the rest, and tells us how it went through mCaptureListener.
 	 * 
+	 * @return false if it couldn't be started.
 	 */
 		Log.d( TAG, "takePicture()" );
 
-		try {
-			mCamera.takePicture( shutterCallback, null, null, jpegCallback );
+		mPipeline.setRotation( mPreview.getPictureRotation() );
+
+		// The burst takes as many pictures as this camera manages in BURST_WINDOW_MS,
+		// so a slow one doesn't keep everybody posing for ages.
+
+		int frames = mProfile == null ? BURST_FRAMES : mProfile.burstFrames( mWhichCamera, BURST_FRAMES, BURST_WINDOW_MS );
+
+		boolean started = burst ? mPipeline.captureBurst( frames, BURST_KEEP )
+		                        : mPipeline.capture();
+		if ( !started )
+			Log.d( TAG, "takePicture: couldn't start picture" );
+
+		return started;
+	}  // takePicture
+
+
+	private boolean takeDualPictures() {
+	/**
+	 * Take a picture with this camera, then with the next one as soon as it can be
+	 * opened.  The dual capture has both cameras until it's finished;  then we get
+	 * this one back.
+	 *
+	 * @return false if neither could be started.
+	 */
+		Log.d( TAG, "takeDualPictures()" );
+
+		if ( mCamera == null ) return false;
+
+		HardwareCamera    first  = mCamera;
+		int               second = ( mWhichCamera + 1 ) % mNumCameras;
+		Camera.CameraInfo info   = new Camera.CameraInfo();
+
+		Camera.getCameraInfo( second, info );
+
+		int firstRotation  = mPreview.getPictureRotation();
+		int secondRotation = mPreview.getPictureRotation( info );
+
+		// Nobody else may touch the camera from now on, since it'll be released
+		// from under them.
+
+		if ( mStreamOn ) first.removePreviewListener( mStreamer );
+
+		mCamera = null;
+		mPreview.setCamera( null );
+		mPipeline.setCamera( null );
+
+		if ( mDual.start( first, firstRotation, second, secondRotation )) {
+			mDualRunning = true;
+			return true;
 		}
-		catch( Exception e ) {
-			Log.d( TAG, "takePicture: exception taking picture: " + e.getMessage() );
+
+		// Couldn't start, so have it back and take an ordinary picture instead.
+
+		Log.d( TAG, "takeDualPictures: couldn't start, taking one picture" );
+
+		mCamera = first;
+		mPreview.setCamera( first );
+		mPipeline.setCamera( first );
+
+		if ( mStreamOn ) first.addPreviewListener( mStreamer );
+
+		return takePicture();
+
+	}  // takeDualPictures
+
+
+	private Runnable mTimedPicture = new Runnable() {
+	/**
+	 * The picture at the end of the countdown.  Whatever takes it tells the queue
+	 * when it's done, through pictureDone();  if nothing could be started, that's
+	 * now.
+	 *
+	 */
+		public void run() {
+			mClap.mute( SHUTTER_MUTE_MS );
+
+			boolean started;
+
+			if ( mBoothOn ) {
+				if ( mBooth == null ) {
+					beginSequence( CaptureCatalog.MODE_COLLAGE );
+					mBooth = new BoothSession();
+				}
+				mBooth.shots++;
+				mBoothShooting = true;
+				started = takePicture( false );  // One picture a shot, so one save
+			} else if ( mVideoOn ) {
+				Log.d( TAG, "video burst running, no picture" );  // See mVideoBegin
+				started = mVideo.isBusy();
+			} else if ( mDualOn && mNumCameras > 1 ) {
+				beginSequence( CaptureCatalog.MODE_DUAL );
+				started = takeDualPictures();
+			} else {
+				beginSequence( mBurstOn ? CaptureCatalog.MODE_BURST : CaptureCatalog.MODE_SINGLE );
+				started = takePicture();
+			}
+
+			if ( !started ) pictureDone();
+
+			// The dual capture has our camera, so the governor can slow it down when
+			// it's back;  otherwise it waits for the picture (see mCaptureListener).
+			if ( mDualRunning ) mGovernor.onCaptureDone();
+
+			mDutyCycler.onCaptureDone();
+
+			Log.d( TAG, "duty cycle: " + mDutyCycler.getStats() );
 		}
-	}  // takePicture
+	};
 
 
-	public Camera.ShutterCallback shutterCallback = new Camera.ShutterCallback() {
-		public void onShutter() {
-			Log.d( TAG, "onShutter" );
+	//
+	// The capture queue.  Its actions run on the UI thread, as its commands do.
+	//
+
+	private CaptureQueue.Actions mQueueActions = new CaptureQueue.Actions() {
+		public void startTimer( int id ) {
+			MainActivity.this.startTimer( id );
+		}
+
+		public void cancelTimer( int id ) {
+			MainActivity.this.cancelTimer();
+		}
+
+		public boolean capture( int id ) {
+			mTiming = false;
+
+			// A countdown that got in before calibration started has no camera to
+			// take its picture with.
+			if ( mCalibrator != null ) return false;
+
+			// If the duty cycler has the camera resting and it isn't back yet, the
+			// picture is taken as soon as it is.
+			mPictureId = id;
+			mHandler.postDelayed( mCaptureWatchdog, CAPTURE_TIMEOUT_MS );
+			mDutyCycler.runWhenReady( mTimedPicture );
+			return true;
+		}
+
+		public void switchCamera() {
+			// Nor may a switch left waiting open a camera the calibrator's using.
+			if ( mCalibrator != null ) {
+				Log.d( TAG, "switch dropped, calibrating" );
+				return;
+			}
+			nextCamera();
+		}
+	};
+
+	private CaptureQueue.Listener mQueueListener = new CaptureQueue.Listener() {
+		public void onTransition( String command, int from, int to ) {
+			Log.d( TAG, "queue: " + command + ", " + CaptureQueue.STATE_NAMES[ from ]
+			          + " -> " + CaptureQueue.STATE_NAMES[ to ] );
 		}
 	};
 
-	public Camera.PictureCallback jpegCallback = new Camera.PictureCallback() {
+	private Runnable mCaptureWatchdog = new Runnable() {
 	/**
-	 * Called by the camera layer when our image is available.
+	 * Nothing's said the picture's done in CAPTURE_TIMEOUT_MS, so something lost
+	 * track of it.  Give up on it, so the queue takes the next one.
 	 *
 	 */
-		public void onPictureTaken( byte[] data, Camera camera ) {
-			Log.d( TAG, "onPictureTaken(jpeg)" );
+		public void run() {
+			if ( mPictureId == 0 ) return;
 
-			// Spin off a background task to save the image data so we
-			// don't slow down the UI thread.
+			Log.d( TAG, "capture " + mPictureId + " never finished, giving up on it" );
 
-			new SaveImageTask().execute( data );
+			mQueue.captureFailed( mPictureId );
+			mPictureId = 0;
+			showToast( R.string.pic_not_saved, "" );
 
-			camera.startPreview();  // Taking picture stops preview, we must restart it.
+			boothShotOver();
 		}
 	};
 
-	private class SaveImageTask extends AsyncTask<byte[], Void, Void> {
+	private void resetQueue() {
 	/**
-	 * Background task to write the captured image data to a file.
+	 * Forget the countdown and any capture, as when we let go of the camera.
 	 *
 	 */
-		private File outFile;
+		mQueue.reset();
+		mPictureId = 0;
+		mHandler.removeCallbacks( mCaptureWatchdog );
+	}
 
-		@Override
-		protected Void doInBackground( byte[]... data ) {
+	private void pictureDone() {
+	/**
+	 * Whatever was taking the queue's picture has finished.  Only the first call
+	 * for each picture counts.
+	 *
+	 */
+		if ( mPictureId == 0 ) return;
 
-			FileOutputStream outStream = null;
+		mHandler.removeCallbacks( mCaptureWatchdog );
+		mQueue.captureDone( mPictureId );
+		mPictureId = 0;
 
-			try {
-				// Get the name of the public pictures directory.
+		boothShotOver();
+	}
+
+
+	//
+	// Duty cycling.  The cycler runs on the UI thread, with Handler for a scheduler.
+	//
+
+	private DutyCycler.Scheduler mCycleScheduler = new DutyCycler.Scheduler() {
+		public long now() {
+			return SystemClock.uptimeMillis();
+		}
+
+		public void schedule( Runnable task, long delayMs ) {
+			mHandler.postDelayed( task, delayMs );
+		}
+
+		public void cancel( Runnable task ) {
+			mHandler.removeCallbacks( task );
+		}
+	};
 
-				File saveDir = Environment.getExternalStoragePublicDirectory(
-				               Environment.DIRECTORY_PICTURES );
+	private DutyCycler.Actions mCycleActions = new DutyCycler.Actions() {
+		public void releaseCamera() {
+			MainActivity.this.releaseCamera();
+		}
+
+		public boolean openCamera() {
+			obtainCamera( mWhichCamera, true );
+			return watchFirstFrame();
+		}
 
-				// Build the file name and create the file.
+		public void stopPreview() {
+			if ( mCamera != null ) mPreview.previewStop();
+		}
 
-				String fileName = String.format( "%d.jpg", System.currentTimeMillis() );
+		public boolean startPreview() {
+			if ( mCamera == null ) return false;
 
-				outFile   = new File( saveDir, fileName );
-				outStream = new FileOutputStream( outFile );
+			mPreview.previewStart();
+			return watchFirstFrame();
+		}
+	};
 
-				// Write the image data to the file we just created.
+	//
+	// Preview rate.  The governor shares the duty cycler's scheduler.
+	//
 
-				outStream.write( data[0] );
-				outStream.flush();
-				outStream.close();
+	private PreviewGovernor.Actions mGovernorActions = new PreviewGovernor.Actions() {
+		public List<int[]> getSupportedFpsRanges() {
+			if ( mCamera == null ) return null;
+			return mCamera.getSettings().getParameters().getSupportedPreviewFpsRange();
+		}
 
-				Log.d( TAG, "SaveImageTask: wrote bytes: " + data.length +
-				            " to " + outFile.getAbsolutePath());
+		public boolean setFpsRange( int min, int max ) {
+			if ( mCamera == null ) return false;
 
-			} catch ( Exception e ) {
-				Toast.makeText( mActContext, mActContext.getString( R.string.pic_not_saved ),
-				                Toast.LENGTH_LONG ).show();
+			CameraSettings settings = mCamera.getSettings();
+			settings.setPreviewFpsRange( min, max );
+			return !settings.isDirty() || settings.commit();
+		}
+
+		public long getCpuNanos() {
+			return Process.getElapsedCpuTime() * 1000000L;
+		}
+	};
+
+	private Runnable mCaptureDone = new Runnable() {
+	/**
+	 * Posted when a picture's in, so a burst has already asked for its next one by
+	 * the time this runs;  only when the pipeline's idle is the capture over.
+	 *
+	 */
+		public void run() {
+			if ( mPipeline.isBusy() ) return;
+
+			mGovernor.onCaptureDone();
+			pictureDone();
+		}
+	};
+
+	private boolean watchFirstFrame() {
+	/**
+	 * Tell the duty cycler when the next preview frame arrives, which is when we
+	 * count the camera as ready.
+	 *
+	 */
+		if ( mCamera == null ) return false;
+
+		mFirstFrameSeen = false;
+		mCamera.addPreviewListener( mFirstFrameListener );
+		return true;
+	}
+
+	private boolean mFirstFrameSeen = false;
+
+	private CameraDevice.PreviewListener mResumeFrameListener = new CameraDevice.PreviewListener() {
+	/**
+	 * Times how long a resume takes to get the preview going again.
+	 *
+	 */
+		public void onPreviewFrame( byte[] data, int width, int height ) {
+			mHandler.post( new Runnable() {
+				public void run() {
+					if ( mCamera != null ) mCamera.removePreviewListener( mResumeFrameListener );
+					mLinger.onPreviewFrame();
+				}
+			} );
+		}
+	};
+
+	//
+	// Keeping the camera over a pause.
+	//
+
+	private CameraLinger.Actions mLingerActions = new CameraLinger.Actions() {
+		public void stopPreview() {
+			if ( mCamera != null ) mPreview.previewStop();
+		}
+
+		public void releaseCamera() {
+			MainActivity.this.releaseCamera();
+		}
+	};
+
+	private HardwareCamera.ErrorListener mCameraErrors = new HardwareCamera.ErrorListener() {
+	/**
+	 * The camera service has taken the camera away, or died.  If we were only
+	 * keeping the camera in case we came back, that's that;  if we're using it,
+	 * it's no use any more, and we try again when we're next resumed.  As for a
+	 * pause, any countdown or capture goes with it, since the pipeline never hears
+	 * the end of a picture it loses its camera for.
+	 *
+	 */
+		public void onCameraError( int error ) {
+			Log.d( TAG, "camera error " + error + ( error == HardwareCamera.ERROR_EVICTED ? " (evicted)" : "" ));
+
+			if ( mLinger.isLingering() ) {
+				mLinger.release( CameraLinger.EVICTED );
+				return;
 			}
 
-			return null;
-		}  // doInBackground
+			mLinger.forget();
+			mDutyCycler.stop();
+			releaseCamera();
+
+			resetQueue();
+			endBooth();
+			stopVideoBurst();
+			mGovernor.stop();
+		}
+	};
+
+	private CameraDevice.PreviewListener mFirstFrameListener = new CameraDevice.PreviewListener() {
+		public void onPreviewFrame( byte[] data, int width, int height ) {
+			if ( mFirstFrameSeen ) return;
+			mFirstFrameSeen = true;
+
+			// Don't change the listeners from inside the preview callback.
+			mHandler.post( new Runnable() {
+				public void run() {
+					if ( mCamera != null ) mCamera.removePreviewListener( mFirstFrameListener );
+					mDutyCycler.onPreviewFrame();
+				}
+			} );
+		}
+	};
+
+
+	private CapturePipeline.Listener mCaptureListener = new CapturePipeline.Listener() {
+	/**
+	 * Hears about the progress of each picture from the capture pipeline.
+	 *
+	 */
+		public void onShutter() {
+			Log.d( TAG, "onShutter" );
+			mClap.mute( SHUTTER_MUTE_MS );  // A burst goes on shuttering
+		}
+
+		public void onPictureTaken() {
+			Log.d( TAG, "onPictureTaken(jpeg)" );
+			mHandler.post( mBoothPictureTaken );  // Before its save can be heard of
+			mHandler.post( mCaptureDone );
+		}
+
+		public void onCaptureFailed( Exception e ) {
+			Log.d( TAG, "onCaptureFailed: exception taking picture: " + e.getMessage() );
+			mHandler.post( mCaptureDone );
+		}
 
-		@Override
-		protected void onPostExecute( Void result ) {
-		/**
-		 * Inform the user that their picture has been saved, and ask the media scanner
-		 * to pick it up so it'll show in the gallery.
-		 * 
-		 */
-			Toast.makeText( mActContext, mActContext.getString( R.string.pic_saved ),
-			                Toast.LENGTH_LONG ).show();
+		public void onImageSaved( final File outFile ) {
+			Log.d( TAG, "onImageSaved: wrote " + outFile.getAbsolutePath() );
 
-			// Construct and broadcast an Intent that the Media Scanner should hear and act on.
+			runOnUiThread( new Runnable() {
+				public void run() {
+					// Inform the user that their picture has been saved, and ask the media
+					// scanner to pick it up so it'll show in the gallery.  Pictures in the
+					// pack file aren't scanned until they're exported.
 
-			File   f = new File( outFile.getAbsolutePath() );
-			Uri    u = Uri.fromFile( f );
-			Intent i = new Intent( Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, u );
+					Toast.makeText( mActContext, mActContext.getString( R.string.pic_saved ),
+					                Toast.LENGTH_LONG ).show();
 
-			mActContext.sendBroadcast( i );
+					if ( outFile.getName().endsWith( ".jpg" ))
+						scanFile( outFile );
 
-			Log.d( TAG, "onPostExecute: sent broadcast to media scanner: " + u );
+					// A booth picture in the pack file can't go in a collage, so it's as if
+					// it failed.
 
-		}  // onPostExecute
-	}  // saveImageTask
+					if ( !mBoothSaves.isEmpty() )
+						boothSaved( mBoothSaves.removeFirst(), outFile.getName().endsWith( ".jpg" ) ? outFile : null );
+				}
+			} );
+		}
+
+		public void onSaveFailed( Exception e ) {
+			Log.d( TAG, "onSaveFailed: " + e.getMessage() );
+
+			runOnUiThread( new Runnable() {
+				public void run() {
+					Toast.makeText( mActContext, mActContext.getString( R.string.pic_not_saved ),
+					                Toast.LENGTH_LONG ).show();
+
+					if ( !mBoothSaves.isEmpty() ) boothSaved( mBoothSaves.removeFirst(), null );
+				}
+			} );
+		}
+	};  // mCaptureListener
+
+
+	private DualCapture.Configurator mDualConfigurator = new DualCapture.Configurator() {
+	/**
+	 * Gets the second camera ready, on the dual capture's switch thread (or the
+	 * calibrator's).  A camera we've had before already has its old parameters
+	 * back;  otherwise we set it up the way obtainCamera() and the preview would.
+	 * Either way it previews at its fastest:  the old parameters may have the slow
+	 * range the governor leaves after a picture.
+	 *
+	 */
+		public void configure( CameraDevice device ) {
+			HardwareCamera camera   = (HardwareCamera) device;
+			CameraSettings settings = camera.getSettings();
+
+			if ( !settings.isRestored() ) {
+				settings.setFocusMode( Camera.Parameters.FOCUS_MODE_AUTO );
+				settings.setFlashMode( Camera.Parameters.FLASH_MODE_AUTO );
+				settings.setRotation( 0 );
+			}
+
+			List<int[]> ranges = settings.getParameters().getSupportedPreviewFpsRange();
+
+			if ( ranges != null && !ranges.isEmpty() ) {
+				int[] fast = PreviewGovernor.fastest( ranges );
+				settings.setPreviewFpsRange( fast[ 0 ], fast[ 1 ] );
+			}
+
+			settings.commit();  // Does nothing if nothing has changed
+
+			try {
+				camera.getCamera().setPreviewTexture( mDualTexture );
+			}
+			catch( IOException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+	};
+
+	private DualCapture.Listener mDualListener = new DualCapture.Listener() {
+	/**
+	 * Hears how the dual capture went.  Saved pictures are dealt with just like the
+	 * pipeline's;  at the end we let go of the second camera and take ours back.
+	 *
+	 */
+		public void onImageSaved( File outFile ) {
+			mCaptureListener.onImageSaved( outFile );
+		}
+
+		public void onSaveFailed( Exception e ) {
+			mCaptureListener.onSaveFailed( e );
+		}
+
+		public void onFinished( final CameraDevice device, final long gapNanos ) {
+			Log.d( TAG, "dual capture finished, gap " + gapNanos / 1000000 + " ms: " + mDual.getStats() );
+
+			mClap.mute( SHUTTER_MUTE_MS );  // The second shutter may still be echoing
+
+			runOnUiThread( new Runnable() {
+				public void run() {
+					mDualRunning = false;
+
+					if ( device != null ) {
+						try {
+							device.release();
+						}
+						catch( Exception e ) {
+							Log.d( TAG, "... dual: exception releasing camera: " + e.getMessage() );
+						}
+					}
+
+					if ( gapNanos >= 0 )
+						showToast( R.string.dual_done, " " + gapNanos / 1000000 );
+					else
+						showToast( R.string.dual_failed, "" );
+
+					if ( mResumed )
+						obtainCamera( mWhichCamera, true );
+
+					pictureDone();
+				}
+			} );
+		}
+	};  // mDualListener
+
+
+	//
+	// Video-speed burst.  It keeps every preview frame from VIDEO_BEFORE_MS before
+	// timer zero until VIDEO_AFTER_MS after.
+	//
+
+	private Runnable mVideoBegin = new Runnable() {
+		public void run() {
+			if ( mCamera == null || !mVideo.begin() ) {
+				Log.d( TAG, "video burst: no camera, or still saving the last one" );
+				return;
+			}
+
+			// On slow storage it keeps fewer frames, so they're saved in good time.
+			// A preview frame comes to about two bits a pixel as a JPEG.
+
+			DeviceProfile profile = mProfile;
+			Camera.Size   size    = mCamera.getSettings().getParameters().getPreviewSize();
+
+			mVideo.setMaxRate( profile == null ? 0 : profile.videoRate( size.width * size.height / 4,
+			                   VIDEO_BEFORE_MS + VIDEO_AFTER_MS, VIDEO_SAVE_MS ));
+
+			beginSequence( CaptureCatalog.MODE_VIDEO );
+			mVideo.setRotation( mPreview.getPictureRotation() );
+			mCamera.addPreviewListener( mVideo );
+		}
+	};
+
+	private Runnable mVideoEnd = new Runnable() {
+		public void run() {
+			stopVideoBurst();
+			mGovernor.onCaptureDone();
+		}
+	};
+
+	private void stopVideoBurst() {
+		mHandler.removeCallbacks( mVideoBegin );
+		mHandler.removeCallbacks( mVideoEnd );
+
+		if ( mCamera != null ) mCamera.removePreviewListener( mVideo );
+		mVideo.end();  // Does nothing if it wasn't running
+	}
+
+	private VideoBurst.Listener mVideoListener = new VideoBurst.Listener() {
+	/**
+	 * Frames are scanned as they're saved, but there's only one toast, at the end.
+	 *
+	 */
+		public void onImageSaved( File file ) {
+			if ( file.getName().endsWith( ".jpg" )) scanFile( file );
+		}
+
+		public void onSaveFailed( Exception e ) {
+			Log.d( TAG, "video burst: save failed: " + e.getMessage() );
+		}
+
+		public void onFinished( int saved, int dropped ) {
+			Log.d( TAG, "video burst finished: " + mVideo.getStats() );
+			showToast( R.string.video_done, " " + saved );
+
+			mHandler.post( new Runnable() {
+				public void run() {
+					pictureDone();
+				}
+			} );
+		}
+	};
+
+
+	private void scanFile( File f ) {
+	/**
+	 * Construct and broadcast an Intent that the Media Scanner should hear and act on.
+	 *
+	 */
+		Uri    u = Uri.fromFile( f );
+		Intent i = new Intent( Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, u );
+
+		mActContext.sendBroadcast( i );
+
+		Log.d( TAG, "scanFile: sent broadcast to media scanner: " + u );
+	}
+
+
+	//
+	// Pack file.  Opening, exporting and clearing it all happen on the same executor
+	// as saving, so they never overlap with a write.
+	//
+
+	private void setPackMode( final boolean on ) {
+	/**
+	 * Point the capture pipeline at the pack file or back at individual files.
+	 *
+	 */
+		Log.d( TAG, "setPackMode( " + on + " )" );
+
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( !on ) {
+					mPipeline.setWriter( mPictureWriter );
+					mDual.setWriter( mPictureWriter );
+					mVideo.setWriter( mPictureWriter );
+					return;
+				}
+
+				try {
+					if ( mPackStore == null )
+						mPackStore = new PackStore( new File( getExternalFilesDir( null ), "pack" ));
+
+					Log.d( TAG, "setPackMode: " + mPackStore.size() + " pictures in pack, "
+					          + mPackStore.getRecoveredCount() + " recovered" );
+
+					mPipeline.setWriter( mPackStore );
+					mDual.setWriter( mPackStore );
+					mVideo.setWriter( mPackStore );
+				}
+				catch( Exception e ) {
+					Log.d( TAG, "setPackMode: exception opening pack: " + e.getMessage() );
+					showToast( R.string.pack_failed, "" );
+				}
+			}
+		} );
+	}  // setPackMode
+
+	private void exportPack() {
+	/**
+	 * Write everything in the pack file out as ordinary pictures, get them scanned,
+	 * and empty the pack.
+	 *
+	 */
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( mPackStore == null ) return;  // Never used, nothing to export
+
+				try {
+					final List<File> files = mPackStore.exportAll( mSaveDir );
+					mPackStore.clear();
+
+					runOnUiThread( new Runnable() {
+						public void run() {
+							for ( File f : files ) scanFile( f );
+						}
+					} );
+
+					showToast( R.string.pack_exported, " " + files.size() );
+				}
+				catch( Exception e ) {
+					Log.d( TAG, "exportPack: exception: " + e.getMessage() );
+					showToast( R.string.pack_failed, "" );
+				}
+			}
+		} );
+	}  // exportPack
+
+
+	//
+	// The catalog.  Like the pack file, it's loaded and written on the save executor;
+	// the quota enforcer deletes on a thread of its own.  Pictures in the pack file
+	// aren't cataloged, since the pack has its own index.
+	//
+
+	private void openCatalog() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				try {
+					CaptureCatalog catalog = new CaptureCatalog( new File( getFilesDir(), "catalog" ));
+
+					Log.d( TAG, "openCatalog: " + catalog.getStats() );
+
+					mQuota = new QuotaEnforcer( catalog, mQuotaExecutor, mQuotaDeleter );
+					mCatalog = catalog;
+
+					// This is queued from onCreate(), ahead of anything from the menu, so
+					// the pack file can't have taken over yet.
+
+					mPictureWriter = catalog.wrap( mFileWriter );
+
+					mPipeline.setWriter( mPictureWriter );
+					mDual.setWriter( mPictureWriter );
+					mVideo.setWriter( mPictureWriter );
+				}
+				catch( Exception e ) {
+					Log.d( TAG, "openCatalog: exception: " + e.getMessage() );
+					showToast( R.string.catalog_failed, "" );
+				}
+			}
+		} );
+	}  // openCatalog
+
+	private void beginSequence( int mode ) {
+	/**
+	 * The pictures saved from now on are one sequence, taken with the current
+	 * camera (the first of the two, for a dual capture).
+	 *
+	 */
+		CaptureCatalog catalog = mCatalog;
+		if ( catalog != null ) catalog.beginSequence( mWhichCamera, mode );
+	}
+
+	//
+	// The photo booth.  Its pictures are saved as usual;  once they all are, they're
+	// read back and put together on the save executor, and the collage is saved as
+	// one more picture in the same sequence.
+	//
+	// A session counts its pictures by what's saved, not by what's shot:  a shot
+	// that fails, or a picture that doesn't save, is taken again, up to
+	// BOOTH_SHOTS_MOST shots, and if that's not enough the collage is made of what
+	// there is.  Saves are heard of in the order the pictures were taken, so each
+	// is matched to its session through mBoothSaves;  a session that's been ended
+	// still gets its late pictures, and is put together if they're all there.
+	//
+
+	private static class BoothSession {
+		final List<File> files    = new ArrayList<File>();  // Saved
+		int              shots    = 0;      // Taken, or tried
+		int              pending  = 0;      // Taken, and still being saved
+		long             taken    = 0;      // When the last was, which the collage is filed by
+		boolean          composed = false;
+	}
+
+	private void endBooth() {
+		mBooth         = null;
+		mBoothShooting = false;
+	}
+
+	private Runnable mBoothPictureTaken = new Runnable() {
+		public void run() {
+			if ( !mBoothShooting ) return;
+
+			mBoothShooting = false;
+			mBooth.pending++;
+			mBooth.taken = System.currentTimeMillis();
+			mBoothSaves.add( mBooth );
+		}
+	};
+
+	private void boothShotOver() {
+	/**
+	 * The queue's done with the shot.  If it never got a picture, it's failed.
+	 *
+	 */
+		if ( mBoothShooting ) {
+			Log.d( TAG, "booth: shot " + mBooth.shots + " failed" );
+			mBoothShooting = false;
+		}
+		boothNext();
+	}
+
+	private void boothSaved( BoothSession session, File file ) {
+	/**
+	 * One of the session's pictures has been saved as file, or couldn't be (null).
+	 *
+	 */
+		session.pending--;
+
+		if ( file != null ) session.files.add( file );
+		else                Log.d( TAG, "booth: picture not saved" );
+
+		if ( session.files.size() >= Collage.TILES ) {
+			if ( session == mBooth ) mBooth = null;
+			composeBooth( session );
+		}
+		else if ( session == mBooth ) boothNext();
+	}
+
+	private void boothNext() {
+	/**
+	 * Start the next shot if the session's short of pictures, or make do with what
+	 * it has if it's out of shots.
+	 *
+	 */
+		BoothSession s = mBooth;
+
+		if ( s == null || mBoothShooting || mPictureId != 0 ) return;  // Nothing running, or a shot in flight
+		if ( s.files.size() + s.pending >= Collage.TILES )   return;  // Enough on their way
+
+		if ( s.shots < BOOTH_SHOTS_MOST ) {
+			mQueue.start();
+		}
+		else if ( s.pending == 0 ) {
+			mBooth = null;
+			composeBooth( s );
+		}
+	}
+
+	private void composeBooth( BoothSession session ) {
+		if ( session.composed ) return;
+		session.composed = true;
+
+		final List<File> files = new ArrayList<File>( session.files );
+
+		if ( files.isEmpty() ) {
+			showToast( R.string.collage_failed, "" );
+			return;
+		}
+
+		final String extra = files.size() < Collage.TILES ? " (" + files.size() + "/" + Collage.TILES + ")" : "";
+		final long   taken = session.taken;  // Not now:  another sequence may have begun since
+
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				try {
+					List<byte[]> jpegs = new ArrayList<byte[]>();
+					for ( File f : files ) jpegs.add( readFile( f ));
+
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					mCollage.compose( jpegs, out );
+
+					File collage = mPictureWriter.write( out.toByteArray(), taken );
+					Log.d( TAG, "collage " + collage + ": " + mCollage.getStats() );
+
+					scanFile( collage );
+					showToast( R.string.collage_saved, extra );
+				}
+				catch( IOException e ) {
+					Log.d( TAG, "collage failed: " + e.getMessage() );
+					showToast( R.string.collage_failed, "" );
+				}
+			}
+		} );
+	}
+
+	private static byte[] readFile( File file ) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try {
+			byte[] data = new byte[ (int) raf.length() ];
+			raf.readFully( data );
+			return data;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private void setQuota( final boolean on ) {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( mQuota != null ) mQuota.setBudget( on ? QUOTA_BYTES : 0 );
+			}
+		} );
+	}
+
+	private QuotaEnforcer.Deleter mQuotaDeleter = new QuotaEnforcer.Deleter() {
+	/**
+	 * Delete a picture, and have the media scanner notice it's gone.
+	 *
+	 */
+		public boolean delete( CaptureCatalog.Entry entry ) {
+			if ( !QuotaEnforcer.FILES.delete( entry )) return false;
+
+			scanFile( new File( entry.path ));
+			return true;
+		}
+	};
+
+	//
+	// Calibration.  The device profile is loaded on the save executor, and
+	// calibrating runs on a thread of its own, with the cameras all to itself;  what
+	// it finds is put to use on the UI thread.
+	//
+
+	private boolean refuseWhileCalibrating() {
+	/**
+	 * Nothing that starts a countdown or touches the camera may run while the
+	 * calibrator has the cameras;  say so.
+	 *
+	 * @return true if that's now.
+	 */
+		if ( mCalibrator == null ) return false;
+
+		showToast( R.string.calibrating, "" );
+		return true;
+	}
+
+	private File profileFile() {
+		return new File( getFilesDir(), "profile.properties" );
+	}
+
+	private void loadProfile() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				DeviceProfile profile = null;
+
+				try {
+					profile = DeviceProfile.load( profileFile() );
+				}
+				catch( IOException e ) {
+					Log.d( TAG, "loadProfile: exception: " + e.getMessage() );  // We'll make another
+				}
+
+				final DeviceProfile loaded = profile;
+
+				runOnUiThread( new Runnable() {
+					public void run() {
+						if ( loaded != null ) {
+							Log.d( TAG, "loadProfile: " + loaded );
+							applyProfile( loaded );
+						}
+						else if ( mResumed ) calibrate();
+						else                 mProfileWanted = true;
+					}
+				} );
+			}
+		} );
+	}  // loadProfile
+
+	private void applyProfile( DeviceProfile profile ) {
+	/**
+	 * The duty cycler starts from the measured warm-up times rather than its
+	 * guesses.  Bursts and video bursts ask the profile as they go (see
+	 * takePicture() and mVideoBegin).
+	 *
+	 */
+		mProfile = profile;
+
+		for ( Map.Entry<Integer,DeviceProfile.CameraTimes> e : profile.getCameras().entrySet() ) {
+			DeviceProfile.CameraTimes t = e.getValue();
+			mDutyCycler.seed( e.getKey(), t.open + t.firstFrame, t.firstFrame );
+		}
+	}
+
+	private void calibrate() {
+	/**
+	 * Time every camera and the storage, save the profile, and put it to use.  Our
+	 * camera's let go of first, and nothing can be taken until we have it back.
+	 * If there was a profile before, the toast says how this one differs.
+	 *
+	 */
+		if ( mCalibrator != null || mDualRunning ) return;
+
+		Log.d( TAG, "calibrate()" );
+
+		mProfileWanted = false;
+		resetQueue();        // As for a pause:  no countdown or capture without a camera
+		endBooth();
+		stopVideoBurst();
+		mDutyCycler.stop();
+		mGovernor.stop();
+		mLinger.forget();    // Nor any resume to time
+		releaseCamera();
+
+		final DeviceProfile last       = mProfile;
+		// The write test goes where the pictures do, since that's what it's tuning.
+
+		final Calibrator    calibrator = new Calibrator( HardwareCamera.BACKEND, mDualConfigurator,
+		                                                 new File( mSaveDir, ".calibration" ), null );
+		mCalibrator = calibrator;
+		showToast( R.string.calibrating, "" );
+
+		new Thread( new Runnable() {
+			public void run() {
+				DeviceProfile profile = null;
+
+				try {
+					profile = calibrator.run( Build.MANUFACTURER + " " + Build.MODEL );
+					profile.save( profileFile() );
+
+					Log.d( TAG, "calibrate: " + profile );
+					if ( last != null ) Log.d( TAG, "calibrate: since last time:\n" + profile.compare( last ));
+				}
+				catch( IOException e ) {
+					Log.d( TAG, "calibrate: exception: " + e.getMessage() );
+					profile = null;
+				}
+
+				final DeviceProfile result = profile;
+
+				runOnUiThread( new Runnable() {
+					public void run() {
+						mCalibrator = null;
+
+						if ( result != null ) {
+							applyProfile( result );
+							showToast( R.string.calibration_done, last == null ? "" : "\n" + result.compare( last ).trim() );
+						}
+						else if ( !mProfileWanted ) showToast( R.string.calibration_failed, "" );
+
+						// Cancelled by a pause we're already back from, with no profile yet:
+						// that resume left it to us to start again.
+
+						if ( mResumed && mProfileWanted ) calibrate();
+						else if ( mResumed )              obtainCamera( mWhichCamera, true );
+					}
+				} );
+			}
+		}, "Calibrator" ).start();
+
+	}  // calibrate
+
+	//
+	// Remote control and the preview stream.  Both servers listen on every interface
+	// so a phone or laptop on the same network can reach them;  there's no password,
+	// which is why they're off until the user turns them on, and off again whenever
+	// we're paused.  Starting and stopping happen on the save executor to keep socket
+	// work off the UI thread.
+	//
+
+	private void countFrames( boolean on ) {
+	/**
+	 * The governor's frame counts are only seen through the remote control, and
+	 * counting them keeps the preview callback installed, copying every frame;
+	 * so it's only a preview listener while the remote control's on.
+	 *
+	 */
+		mGovernor.setCounting( on );
+		if ( mCamera == null ) return;
+
+		if ( on ) mCamera.addPreviewListener( mGovernor );
+		else      mCamera.removePreviewListener( mGovernor );
+	}
+
+	private void startRemote() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( mRemote != null ) return;
+
+				ControlServer server = new ControlServer( new InetSocketAddress( ControlServer.DEFAULT_PORT ),
+				                                          mUiExecutor, mRemoteCommands );
+				try {
+					server.start();
+				}
+				catch( IOException e ) {
+					Log.d( TAG, "startRemote: exception: " + e.getMessage() );
+					showToast( R.string.remote_failed, "" );
+					return;
+				}
+
+				mRemote = server;
+				showToast( R.string.remote_on, " " + server.getPort() );
+			}
+		} );
+	}  // startRemote
+
+	private void stopRemote() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( mRemote == null ) return;
+
+				Log.d( TAG, "stopRemote: " + mRemote.getStats() );
+				mRemote.stop();
+				mRemote = null;
+			}
+		} );
+	}  // stopRemote
+
+	private void startStream() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( mStreamer.isRunning() ) return;
+
+				try {
+					mStreamer.start();
+				}
+				catch( IOException e ) {
+					Log.d( TAG, "startStream: exception: " + e.getMessage() );
+					showToast( R.string.stream_failed, "" );
+					return;
+				}
+
+				showToast( R.string.stream_on, " " + mStreamer.getPort() );
+			}
+		} );
+	}  // startStream
+
+	private void stopStream() {
+		AsyncTask.SERIAL_EXECUTOR.execute( new Runnable() {
+			public void run() {
+				if ( !mStreamer.isRunning() ) return;
+
+				Log.d( TAG, "stopStream: " + mStreamer.getStats() );
+				mStreamer.stop();
+			}
+		} );
+	}  // stopStream
+
+	private void startClap() {
+	/**
+	 * Start listening for claps.  Opening the microphone is quick, so it's done
+	 * right here.
+	 *
+	 */
+		if ( mClap.isRunning() ) return;
+
+		if ( !mClap.start() )
+			showToast( R.string.clap_failed, "" );
+	}
+
+	private SoundTrigger.Listener mClapListener = new SoundTrigger.Listener() {
+	/**
+	 * A clap does what a tap does, except that it never cancels the timer:  the
+	 * countdown is noisy enough without that.
+	 *
+	 */
+		public void onTrigger() {
+			Log.d( TAG, "onTrigger" );
+
+			if ( !mDualRunning && mCalibrator == null && mResumed ) mQueue.start();
+		}
+	};
+
+	private Executor mUiExecutor = new Executor() {
+	/**
+	 * Runs remote commands on the UI thread, which is where the camera and timer live.
+	 *
+	 */
+		public void execute( Runnable command ) {
+			mHandler.post( command );
+		}
+	};
+
+	private ControlServer.Commands mRemoteCommands = new ControlServer.Commands() {
+	/**
+	 * What remote commands do;  the same as the equivalent taps and menu items.
+	 *
+	 */
+		public void start() {
+			if ( mCalibrator != null ) throw new IllegalStateException( "calibrating" );
+			mQueue.start();
+		}
+
+		public void cancel() {
+			mQueue.cancel();
+		}
+
+		public void setDelay( long ms ) {
+			if ( mTiming ) throw new IllegalStateException( "timer is running" );
+
+			milliSeconds = ms;  // The next countdown's timer is made with it
+		}
+
+		public void switchCamera() {
+			if ( mCalibrator != null ) throw new IllegalStateException( "calibrating" );
+			mQueue.switchCamera();
+		}
+
+		public String status() {
+			return "timing="   + mTiming
+			     + " delay="   + milliSeconds
+			     + " camera="  + mWhichCamera
+			     + " cameras=" + mNumCameras
+			     + " open="    + ( mCamera != null )
+			     + " busy="    + mPipeline.isBusy()
+			     + " resting=" + !mDutyCycler.isReady()
+			     + " dual="    + mDualOn
+			     + " burst="   + mBurstOn
+			     + " video="   + mVideoOn
+			     + " clap="    + mClapOn
+			     + " booth="   + mBoothOn
+			     + " calibrating=" + ( mCalibrator != null );
+		}
+
+		public String metrics() {
+			ControlServer remote = mRemote;
+
+			return "pipeline " + mPipeline.getStats()
+			     + "\nqueue " + mQueue.getStats()
+			     + "\nduty " + mDutyCycler.getStats()
+			     + "\nlinger " + mLinger.getStats()
+			     + "\npreview " + mGovernor.getStats()
+			     + ( mProfile == null ? "" : "\nprofile " + mProfile )
+			     + ( remote == null ? "" : "\nremote " + remote.getStats() )
+			     + ( mStreamOn ? "\nstream " + mStreamer.getStats() : "" )
+			     + ( mDualOn ? "\ndual " + mDual.getStats() : "" )
+			     + ( mVideoOn ? "\nvideo " + mVideo.getStats() : "" )
+			     + ( mClapOn ? "\nclap " + mClap.getStats() : "" )
+			     + ( mBoothOn ? "\ncollage " + mCollage.getStats() : "" )
+			     + ( mCatalog == null ? "" : "\ncatalog " + mCatalog.getStats() )
+			     + ( mQuotaOn && mQuota != null ? "\nquota " + mQuota.getStats() : "" );
+		}
+	};  // mRemoteCommands
+
+
+	private void showToast( final int resId, final String extra ) {
+	/**
+	 * Show a toast from any thread.
+	 *
+	 */
+		runOnUiThread( new Runnable() {
+			public void run() {
+				Toast.makeText( mActContext, mActContext.getString( resId ) + extra,
+				                Toast.LENGTH_LONG ).show();
+			}
+		} );
+	}
 
 
 	private class appSounds {
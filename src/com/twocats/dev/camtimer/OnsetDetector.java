@@ -0,0 +1,166 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The OnsetDetector class listens to a stream of 16-bit mono samples for a sudden
+ * loud sound, a clap or the start of someone speaking, against whatever the
+ * background noise is.  It works in 10 ms frames:  each frame's mean square
+ * (the RMS, squared) is compared with a running estimate of the noise floor, and
+ * an onset is a frame that is riseDb above the floor and louder than minDbfs
+ * overall.  The floor falls quickly and rises slowly, so it follows a fan or
+ * traffic without being dragged up by the sounds we're waiting for.
+ *
+ * After an onset nothing fires for a second.  mute() stops it firing for a while
+ * on request, which is how the app keeps its own tick and shutter sounds from
+ * counting;  nothing else about the detector can tell a tick from a clap.
+ *
+ * process() does no allocation and no locking, so it can run on the audio
+ * thread.  A detector is not thread-safe;  use one per stream.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+
+public class OnsetDetector {
+
+	private static final double FULL_SCALE    = 32768.0 * 32768.0;  // Mean square of a full-scale signal
+	private static final int    WARMUP_FRAMES = 30;    // Frames to learn the floor before firing
+	private static final double FLOOR_UP      = 0.005; // How fast the floor rises, per frame
+	private static final double FLOOR_DOWN    = 0.1;   // ... and falls
+
+	private final int  mSampleRate;
+	private final int  mFrameLength;      // Samples per frame
+	private final int  mRefractory;       // Samples after an onset before the next
+
+	private double mRise;                 // Energy ratio above the floor that counts
+	private double mMinEnergy;            // Absolute mean square that counts
+
+	private long   mSumSq      = 0;       // Of the frame so far
+	private int    mInFrame    = 0;       // Samples in the frame so far
+	private double mFloor      = 0;       // Noise floor, mean square
+	private double mLast       = 0;       // Last frame's mean square
+	private long   mFrames     = 0;
+	private long   mSamples    = 0;       // Samples processed
+	private long   mQuietUntil = 0;       // Sample count before which nothing fires
+	private long   mLastOnset  = -1;      // Sample count at the end of the frame that fired
+	private int    mOnsets     = 0;
+	private int    mMuted      = 0;       // Onsets ignored because of mute()
+
+
+	//
+	// Class constructor.
+	//
+	public OnsetDetector( int sampleRate ) {
+		mSampleRate  = sampleRate;
+		mFrameLength = Math.max( 1, sampleRate / 100 );
+		mRefractory  = sampleRate;
+
+		setSensitivity( 15, -45 );
+	}
+
+
+	public void setSensitivity( double riseDb, double minDbfs ) {
+	/**
+	 * How far above the noise floor, and how loud overall, a sound must be.
+	 *
+	 */
+		mRise      = Math.pow( 10, riseDb / 10 );
+		mMinEnergy = FULL_SCALE * Math.pow( 10, minDbfs / 10 );
+	}
+
+	public void mute( int samples ) {
+	/**
+	 * Don't fire for the next so many samples, and don't let them into the noise
+	 * floor.  Only call from the thread calling process().
+	 *
+	 */
+		mQuietUntil = Math.max( mQuietUntil, mSamples + samples );
+	}
+
+	public int getSampleRate() {
+		return mSampleRate;
+	}
+
+
+	public boolean process( short[] buf, int off, int len ) {
+	/**
+	 * Feed in some samples.
+	 *
+	 * @return true if an onset was found in them;  getLastOnset() says where.
+	 */
+		boolean fired = false;
+		int end = off + len;
+
+		for ( int i = off; i < end; i++ ) {
+			int s = buf[ i ];
+			mSumSq += s * s;
+
+			if ( ++mInFrame == mFrameLength ) {
+				mSamples += mInFrame;
+				fired |= endFrame( (double) mSumSq / mInFrame );
+
+				mSumSq   = 0;
+				mInFrame = 0;
+			}
+		}
+
+		return fired;
+	}
+
+	private boolean endFrame( double energy ) {
+		mFrames++;
+
+		if ( mFrames == 1 ) mFloor = energy;
+
+		boolean loud  = energy > mFloor * mRise && energy > mMinEnergy;
+		boolean quiet = mSamples <= mQuietUntil;
+		boolean fired = false;
+
+		if ( loud && mFrames > WARMUP_FRAMES ) {
+			if ( quiet ) {
+				mMuted++;
+			} else if ( mLastOnset < 0 || mSamples - mLastOnset >= mRefractory ) {
+				mLastOnset = mSamples;
+				mOnsets++;
+				fired = true;
+			}
+		}
+
+		// Sounds we've been told to ignore stay out of the floor, and loud ones only
+		// creep into it, so a clap hardly moves it but music that starts up and
+		// keeps going is learned in ten seconds or so.
+
+		if ( !quiet ) {
+			double rate = energy < mFloor ? FLOOR_DOWN : loud ? FLOOR_UP / 5 : FLOOR_UP;
+			mFloor += ( energy - mFloor ) * rate;
+		}
+
+		mLast = energy;
+		return fired;
+	}
+
+
+	//
+	// Metrics.
+	//
+
+	public long getSampleCount() { return mSamples + mInFrame; }
+	public long getLastOnset()   { return mLastOnset; }
+	public int  getOnsetCount()  { return mOnsets; }
+	public int  getMutedCount()  { return mMuted; }
+
+	public double getFloorDbfs() {
+		return 10 * Math.log10( Math.max( mFloor, 1 ) / FULL_SCALE );
+	}
+
+	public double getLevelDbfs() {
+		return 10 * Math.log10( Math.max( mLast, 1 ) / FULL_SCALE );
+	}
+
+	public String getStats() {
+		return "onsets=" + mOnsets + " muted=" + mMuted
+		     + String.format( " floor=%.1fdBFS level=%.1fdBFS", getFloorDbfs(), getLevelDbfs() );
+	}
+
+}  // class OnsetDetector
@@ -0,0 +1,467 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The PackStore class is an optional place to put pictures when taking a lot of
+ * them.  Instead of one <millis>.jpg file per shot in the shared pictures
+ * directory, images are appended to a few large segment files in a directory of
+ * our own, with a small index file recording where each one is.  Appending to an
+ * open file is much cheaper than creating a file, and the pictures directory
+ * doesn't fill up with thousands of entries.
+ *
+ * Layout of the store directory:
+ *
+ *   pack-00000.seg ...  Segments.  Each record is a 20 byte header (magic, length,
+ *                       timestamp, CRC32 of the data) followed by the JPEG data.
+ *   pack.idx            Index.  An 8 byte header (magic, version), then one 24 byte
+ *                       entry per image (segment, data offset, length, timestamp).
+ *
+ * Images are read back lazily through memory-mapped segments and can be exported
+ * as ordinary JPEG files when wanted.  If the app dies part way through a write,
+ * open() repairs the store:  torn records at the end of a segment are cut off, and
+ * the index is rebuilt by scanning the segments if it doesn't match them.
+ *
+ * All methods are synchronized;  in the app everything happens on the save executor.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+public class PackStore implements CapturePipeline.ImageWriter {
+
+	static final int  RECORD_MAGIC  = 0x43545046;  // "CTPF"
+	static final int  INDEX_MAGIC   = 0x43545049;  // "CTPI"
+	static final int  INDEX_VERSION = 1;
+	static final int  RECORD_HEADER = 20;
+	static final int  INDEX_HEADER  = 8;
+	static final int  INDEX_ENTRY   = 24;
+
+	static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;  // Start a new segment after this
+
+	private final File mDir;
+	private final long mSegmentSize;
+	private boolean    mSync = false;                 // force() after every image?
+
+	private List<Entry> mEntries = new ArrayList<Entry>();
+
+	private RandomAccessFile mSegment;                // Segment we're appending to
+	private int              mSegmentNum = -1;
+	private RandomAccessFile mIndex;
+
+	private Map<Integer,MappedByteBuffer> mMaps = new HashMap<Integer,MappedByteBuffer>();
+
+	private ByteBuffer mHeader   = ByteBuffer.allocate( RECORD_HEADER );
+	private ByteBuffer mIndexBuf = ByteBuffer.allocate( INDEX_ENTRY );
+	private CRC32      mCrc      = new CRC32();
+
+	private int        mRecovered = 0;                // Records found by scanning at open()
+	private long       mTruncated = 0;                // Bytes of torn records cut off at open()
+
+
+	static class Entry {
+	/**
+	 * Where one image lives.
+	 *
+	 */
+		final int  segment;
+		final long offset;     // Of the data, just past the record header
+		final int  length;
+		final long timestamp;
+
+		Entry( int segment, long offset, int length, long timestamp ) {
+			this.segment   = segment;
+			this.offset    = offset;
+			this.length    = length;
+			this.timestamp = timestamp;
+		}
+	}
+
+
+	//
+	// Class constructors.
+	//
+	public PackStore( File dir ) throws IOException {
+		this( dir, DEFAULT_SEGMENT_SIZE );
+	}
+
+	public PackStore( File dir, long segmentSize ) throws IOException {
+	/**
+	 * Open the store in the given directory, creating it if necessary and
+	 * repairing it if the last session ended badly.
+	 *
+	 */
+		mDir         = dir;
+		mSegmentSize = segmentSize;
+
+		if ( !mDir.isDirectory() && !mDir.mkdirs() )
+			throw new IOException( "can't create " + mDir );
+
+		open();
+	}
+
+
+	public synchronized void setSync( boolean sync ) {
+		mSync = sync;
+	}
+
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	public synchronized long getTimestamp( int i ) {
+		return mEntries.get( i ).timestamp;
+	}
+
+	public int getRecoveredCount()  { return mRecovered; }
+	public long getTruncatedBytes() { return mTruncated; }
+
+
+	//
+	// Writing.
+	//
+
+	public synchronized File write( byte[] jpeg, long timestamp ) throws IOException {
+	/**
+	 * Append an image.  The record goes into the segment first and the index entry
+	 * after it, so a crash in between just leaves a record for open() to find.
+	 *
+	 * @return The segment file the image went into.
+	 */
+		if ( mSegment == null || mSegment.length() + RECORD_HEADER + jpeg.length > mSegmentSize && mSegment.length() > 0 )
+			startSegment( mSegmentNum + 1 );
+
+		FileChannel ch = mSegment.getChannel();
+		long recordPos = ch.size();
+
+		mCrc.reset();
+		mCrc.update( jpeg, 0, jpeg.length );
+
+		mHeader.clear();
+		mHeader.putInt( RECORD_MAGIC ).putInt( jpeg.length ).putLong( timestamp ).putInt( (int) mCrc.getValue() );
+		mHeader.flip();
+
+		ByteBuffer[] record = { mHeader, ByteBuffer.wrap( jpeg ) };
+		ch.position( recordPos );
+		while ( mHeader.hasRemaining() || record[ 1 ].hasRemaining() ) ch.write( record );
+
+		if ( mSync ) ch.force( false );
+
+		Entry e = new Entry( mSegmentNum, recordPos + RECORD_HEADER, jpeg.length, timestamp );
+		appendIndex( e );
+		mEntries.add( e );
+
+		return segmentFile( mSegmentNum );
+
+	}  // write
+
+
+	//
+	// Reading.
+	//
+
+	public synchronized ByteBuffer get( int i ) throws IOException {
+	/**
+	 * Get an image without copying it.  The buffer is a read-only slice of the
+	 * memory-mapped segment.
+	 *
+	 */
+		Entry e = mEntries.get( i );
+
+		MappedByteBuffer map = mMaps.get( e.segment );
+
+		if ( map == null || map.capacity() < e.offset + e.length ) {
+			// Not mapped yet, or it's the segment we're writing and it's grown since.
+
+			RandomAccessFile raf = new RandomAccessFile( segmentFile( e.segment ), "r" );
+			try {
+				map = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+			}
+			finally {
+				raf.close();  // The mapping stays valid after the file is closed
+			}
+			mMaps.put( e.segment, map );
+		}
+
+		ByteBuffer slice = map.duplicate();
+		slice.position( (int) e.offset );
+		slice.limit( (int) e.offset + e.length );
+
+		return slice.slice().asReadOnlyBuffer();
+	}
+
+	public byte[] read( int i ) throws IOException {
+		ByteBuffer b = get( i );
+		byte[] data = new byte[ b.remaining() ];
+		b.get( data );
+		return data;
+	}
+
+
+	//
+	// Exporting.
+	//
+
+	public synchronized File export( int i, File dir ) throws IOException {
+	/**
+	 * Write one image out as an ordinary <millis>.jpg file.
+	 *
+	 * @return The file written.
+	 */
+		if ( !dir.isDirectory() && !dir.mkdirs() )
+			throw new IOException( "can't create " + dir );
+
+		long timestamp = mEntries.get( i ).timestamp;
+		File outFile   = new File( dir, String.format( "%d.jpg", timestamp ));
+
+		for ( int n = 1; outFile.exists(); n++ )
+			outFile = new File( dir, String.format( "%d-%d.jpg", timestamp, n ));
+
+		ByteBuffer data = get( i );
+		FileOutputStream outStream = new FileOutputStream( outFile );
+
+		try {
+			FileChannel ch = outStream.getChannel();
+			while ( data.hasRemaining() ) ch.write( data );
+		}
+		finally {
+			outStream.close();
+		}
+
+		return outFile;
+
+	}  // export
+
+	public synchronized List<File> exportAll( File dir ) throws IOException {
+		List<File> files = new ArrayList<File>( mEntries.size() );
+
+		for ( int i = 0; i < mEntries.size(); i++ )
+			files.add( export( i, dir ));
+
+		return files;
+	}
+
+	public synchronized void clear() throws IOException {
+	/**
+	 * Throw everything away and start over with an empty store.
+	 *
+	 */
+		close();
+
+		File[] files = mDir.listFiles();
+		if ( files != null )
+			for ( File f : files )
+				if ( f.getName().startsWith( "pack" )) f.delete();
+
+		mEntries.clear();
+		open();
+	}
+
+	public synchronized void close() throws IOException {
+		mMaps.clear();
+
+		if ( mSegment != null ) mSegment.close();
+		if ( mIndex   != null ) mIndex.close();
+
+		mSegment    = null;
+		mSegmentNum = -1;
+		mIndex      = null;
+	}
+
+
+	//
+	// Opening and recovery.
+	//
+
+	private void open() throws IOException {
+	/**
+	 * Load the index, then check it against the segments.  Entries are trusted
+	 * only if their segment is long enough to hold them;  anything in the segments
+	 * past the last trusted entry is found by scanning and added to the index.
+	 *
+	 */
+		mEntries.clear();
+		mRecovered = 0;
+		mTruncated = 0;
+
+		int lastSegment = -1;
+		while ( segmentFile( lastSegment + 1 ).exists() ) lastSegment++;
+
+		boolean rebuild = !loadIndex( lastSegment );
+
+		if ( rebuild ) {
+			mEntries.clear();
+			new File( mDir, "pack.idx" ).delete();
+		}
+
+		mIndex = new RandomAccessFile( new File( mDir, "pack.idx" ), "rw" );
+
+		if ( mIndex.length() < INDEX_HEADER ) {
+			mIndex.setLength( 0 );
+			mIndex.writeInt( INDEX_MAGIC );
+			mIndex.writeInt( INDEX_VERSION );
+
+			for ( Entry e : mEntries ) appendIndex( e );
+		}
+
+		// Scan each segment from the end of what the index knows about.
+
+		for ( int seg = 0; seg <= lastSegment; seg++ ) {
+			long from = 0;
+
+			for ( int i = mEntries.size() - 1; i >= 0; i-- ) {
+				Entry e = mEntries.get( i );
+				if ( e.segment == seg ) { from = e.offset + e.length; break; }
+				if ( e.segment <  seg ) break;
+			}
+
+			scanSegment( seg, from );
+		}
+
+		if ( lastSegment >= 0 ) startSegment( lastSegment );
+
+	}  // open
+
+	private boolean loadIndex( int lastSegment ) throws IOException {
+	/**
+	 * Read the index into mEntries.  A torn last entry is dropped.
+	 *
+	 * @return false if the index is unusable and should be rebuilt from the segments.
+	 */
+		File f = new File( mDir, "pack.idx" );
+		if ( !f.exists() ) return lastSegment < 0;
+
+		RandomAccessFile raf = new RandomAccessFile( f, "rw" );
+
+		try {
+			long len = raf.length();
+			if ( len < INDEX_HEADER || raf.readInt() != INDEX_MAGIC || raf.readInt() != INDEX_VERSION )
+				return false;
+
+			long whole = INDEX_HEADER + ( len - INDEX_HEADER ) / INDEX_ENTRY * INDEX_ENTRY;
+			if ( whole != len ) raf.setLength( whole );  // Torn entry from a crash
+
+			ByteBuffer buf = ByteBuffer.allocate( (int) ( whole - INDEX_HEADER ));
+			raf.getChannel().read( buf, INDEX_HEADER );
+			buf.flip();
+
+			long[] segLengths = new long[ lastSegment + 1 ];
+			for ( int s = 0; s <= lastSegment; s++ ) segLengths[ s ] = segmentFile( s ).length();
+
+			int  prevSeg = 0;
+			long prevEnd = 0;
+
+			while ( buf.remaining() >= INDEX_ENTRY ) {
+				Entry e = new Entry( buf.getInt(), buf.getLong(), buf.getInt(), buf.getLong() );
+
+				boolean inOrder = e.segment > prevSeg || ( e.segment == prevSeg && e.offset >= prevEnd + RECORD_HEADER );
+
+				if ( e.segment < 0 || e.segment > lastSegment || e.length < 0 || !inOrder
+				  || e.offset + e.length > segLengths[ e.segment ] )
+					return false;
+
+				mEntries.add( e );
+				prevSeg = e.segment;
+				prevEnd = e.offset + e.length;
+			}
+
+			return true;
+		}
+		finally {
+			raf.close();
+		}
+	}  // loadIndex
+
+	private void scanSegment( int seg, long from ) throws IOException {
+	/**
+	 * Walk the records in a segment starting at from, adding any that check out
+	 * to the index.  The first bad record, and everything after it, is cut off.
+	 *
+	 */
+		RandomAccessFile raf = new RandomAccessFile( segmentFile( seg ), "rw" );
+
+		try {
+			FileChannel ch  = raf.getChannel();
+			long        len = ch.size();
+			long        pos = from;
+			ByteBuffer  hdr = ByteBuffer.allocate( RECORD_HEADER );
+
+			while ( pos + RECORD_HEADER <= len ) {
+				hdr.clear();
+				ch.read( hdr, pos );
+				hdr.flip();
+
+				int  magic  = hdr.getInt();
+				int  length = hdr.getInt();
+				long stamp  = hdr.getLong();
+				int  crc    = hdr.getInt();
+
+				if ( magic != RECORD_MAGIC || length < 0 || pos + RECORD_HEADER + length > len ) break;
+
+				ByteBuffer data = ByteBuffer.allocate( length );
+				ch.read( data, pos + RECORD_HEADER );
+
+				mCrc.reset();
+				mCrc.update( data.array(), 0, length );
+				if ( (int) mCrc.getValue() != crc ) break;
+
+				Entry e = new Entry( seg, pos + RECORD_HEADER, length, stamp );
+				appendIndex( e );
+				mEntries.add( e );
+				mRecovered++;
+
+				pos += RECORD_HEADER + length;
+			}
+
+			if ( pos < len ) {
+				mTruncated += len - pos;
+				ch.truncate( pos );
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}  // scanSegment
+
+
+	//
+	// Helpers.
+	//
+
+	private void startSegment( int seg ) throws IOException {
+		if ( mSegment != null ) mSegment.close();
+
+		mSegment    = new RandomAccessFile( segmentFile( seg ), "rw" );
+		mSegmentNum = seg;
+	}
+
+	private void appendIndex( Entry e ) throws IOException {
+		mIndexBuf.clear();
+		mIndexBuf.putInt( e.segment ).putLong( e.offset ).putInt( e.length ).putLong( e.timestamp );
+		mIndexBuf.flip();
+
+		FileChannel ch = mIndex.getChannel();
+		long pos = ch.size();
+		while ( mIndexBuf.hasRemaining() ) pos += ch.write( mIndexBuf, pos );
+
+		if ( mSync ) ch.force( false );
+	}
+
+	private File segmentFile( int seg ) {
+		return new File( mDir, String.format( "pack-%05d.seg", seg ));
+	}
+
+}  // class PackStore
@@ -0,0 +1,102 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The PcmRing class is a lock-free ring buffer of 16-bit samples for exactly one
+ * writer thread and one reader thread:  the thread reading AudioRecord and the
+ * thread running the OnsetDetector.  Neither ever blocks or allocates.  Each side
+ * owns one counter and only reads the other's, so all it takes is a volatile
+ * read and an ordered write (lazySet) per call.
+ *
+ * If the reader falls behind and the ring fills up, write() takes what fits and
+ * counts the rest as overrun;  late audio is no use to a trigger anyway.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class PcmRing {
+
+	private final short[]    mBuffer;
+	private final int        mMask;
+	private final AtomicLong mWritten = new AtomicLong();  // Total samples written, only set by the writer
+	private final AtomicLong mRead    = new AtomicLong();  // Total samples read, only set by the reader
+	private final AtomicLong mOverrun = new AtomicLong();  // Samples dropped because the ring was full
+
+
+	//
+	// Class constructor.
+	//
+	public PcmRing( int minCapacity ) {
+		int capacity = Integer.highestOneBit( Math.max( 2, minCapacity - 1 )) << 1;  // Next power of two
+
+		mBuffer = new short[ capacity ];
+		mMask   = capacity - 1;
+	}
+
+
+	public int write( short[] src, int off, int len ) {
+	/**
+	 * Writer thread only.  Copy in as many samples as fit.
+	 *
+	 * @return The number written.
+	 */
+		long written = mWritten.get();  // Only we change it
+		int  free    = mBuffer.length - (int) ( written - mRead.get() );
+		int  n       = Math.min( len, free );
+
+		copy( src, off, mBuffer, (int) ( written & mMask ), n, true );
+		mWritten.lazySet( written + n );
+
+		if ( n < len ) mOverrun.addAndGet( len - n );
+		return n;
+	}
+
+	public int read( short[] dst, int off, int len ) {
+	/**
+	 * Reader thread only.  Copy out up to len samples.
+	 *
+	 * @return The number read, zero if the ring is empty.
+	 */
+		long read  = mRead.get();  // Only we change it
+		int  avail = (int) ( mWritten.get() - read );
+		int  n     = Math.min( len, avail );
+
+		copy( mBuffer, (int) ( read & mMask ), dst, off, n, false );
+		mRead.lazySet( read + n );
+
+		return n;
+	}
+
+	public int available() {
+		return (int) ( mWritten.get() - mRead.get() );
+	}
+
+	public int capacity() {
+		return mBuffer.length;
+	}
+
+	public long getWrittenCount() { return mWritten.get(); }
+	public long getOverrunCount() { return mOverrun.get(); }
+
+
+	private void copy( short[] from, int fromPos, short[] to, int toPos, int n, boolean intoRing ) {
+	/**
+	 * Copy n samples, wrapping round the end of the ring on whichever side it is.
+	 *
+	 */
+		int size  = mBuffer.length;
+		int first = Math.min( n, size - ( intoRing ? toPos : fromPos ));
+
+		System.arraycopy( from, fromPos, to, toPos, first );
+
+		if ( first < n ) {
+			if ( intoRing ) System.arraycopy( from, fromPos + first, to, 0, n - first );
+			else            System.arraycopy( from, 0, to, toPos + first, n - first );
+		}
+	}
+
+}  // class PcmRing
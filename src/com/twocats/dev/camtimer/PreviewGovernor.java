@@ -0,0 +1,305 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The PreviewGovernor class runs the preview slower when nobody needs it fast.
+ * Left alone, the camera previews at whatever fps range the HAL picks, usually
+ * up to 30 frames a second, which is a lot of work for watching a countdown.
+ *
+ * While a countdown has time to spare, and after the picture, the governor
+ * asks for the slowest supported range that's still watchable;  RAMP_MS before
+ * the deadline it goes back to the fastest, so exposure and focus have settled
+ * by the time the picture's taken.  Cancelling a countdown, or coming back to
+ * the app, also goes back to the fastest, since then someone is framing a shot.
+ *
+ * Preview frames and CPU time are added up per phase, to show what it saves.
+ * Frames are only counted while setCounting() says so:  the governor has to be a
+ * preview listener for that, which keeps the camera's preview callback going
+ * and a copy of every frame being made, so the activity only makes it one while
+ * somebody could ask for the stats.
+ *
+ * It's pure Java, like the DutyCycler, and shares its Scheduler;  the activity
+ * supplies the camera actions.  All calls must come from the scheduler's thread,
+ * except onPreviewFrame(), which may come from the camera's.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.List;
+
+
+public class PreviewGovernor implements CameraDevice.PreviewListener {
+
+	public interface Actions {
+	/**
+	 * What the governor can do to the current camera.  Ranges are in frames per
+	 * thousand seconds, as Camera.Parameters has them.  Both may be called with
+	 * no camera open, in which case getSupportedFpsRanges() returns null and
+	 * setFpsRange() false;  the governor tries again in onCameraOpened().
+	 *
+	 */
+		List<int[]> getSupportedFpsRanges();
+		boolean     setFpsRange( int min, int max );
+		long        getCpuNanos();  // CPU time used by the app so far
+	}
+
+	// Phases, each with its own rate.
+
+	static final int FRAMING   = 0;  // Before any countdown, or after a cancel:  fast
+	static final int COUNTDOWN = 1;  // Waiting out the countdown:  slow
+	static final int FINAL     = 2;  // The last RAMP_MS, and the picture:  fast
+	static final int AFTER     = 3;  // After the picture:  slow
+
+	private static final String[] PHASE_NAMES = { "framing", "countdown", "final", "after" };
+
+	static final long RAMP_MS      = 1500;   // Fast again this long before the deadline
+	static final long MIN_SLOW_MS  = 1000;   // Not worth slowing down for less than this
+	static final int  SLOW_MIN_FPS = 10000;  // Slowest top rate we'll ask for, frames per 1000 s
+
+	private final Actions              mActions;
+	private final DutyCycler.Scheduler mScheduler;
+
+	private int     mPhase   = FRAMING;
+	private int[]   mApplied = null;   // Range last set, null if none since the camera opened
+	private boolean mPaused  = false;  // No camera, so no metrics
+
+	// Metrics, per phase.
+
+	private volatile long mFrames = 0;  // Preview frames so far
+	private boolean       mCounting = false;  // Are they, in this stretch?
+
+	private long   mPhaseStart  = 0;    // When the current phase's stretch started
+	private long   mPhaseFrames = 0;    // mFrames then
+	private long   mPhaseCpu    = 0;    // CPU time then
+	private long[] mMillis      = new long[ PHASE_NAMES.length ];
+	private long[] mFrameCount  = new long[ PHASE_NAMES.length ];
+	private long[] mCountedMs   = new long[ PHASE_NAMES.length ];  // Of mMillis, with frames counted
+	private long[] mCpuNanos    = new long[ PHASE_NAMES.length ];
+	private int    mChanges     = 0;    // Ranges set
+
+
+	//
+	// Class constructor.
+	//
+	public PreviewGovernor( Actions actions, DutyCycler.Scheduler scheduler ) {
+		mActions   = actions;
+		mScheduler = scheduler;
+
+		startStretch();
+	}
+
+
+	public void planCapture( long deadline ) {
+	/**
+	 * A picture is due at the deadline (in the scheduler's clock).  Slow down
+	 * until RAMP_MS before it, if there's time.
+	 *
+	 */
+		mScheduler.cancel( mRamp );
+
+		long slow = deadline - RAMP_MS - mScheduler.now();
+
+		if ( slow >= MIN_SLOW_MS ) {
+			setPhase( COUNTDOWN );
+			mScheduler.schedule( mRamp, slow );
+		} else {
+			setPhase( FINAL );
+		}
+	}
+
+	public void cancel() {
+	/**
+	 * The picture's off, and someone's probably reframing.
+	 *
+	 */
+		mScheduler.cancel( mRamp );
+		setPhase( FRAMING );
+	}
+
+	public void onCaptureDone() {
+		mScheduler.cancel( mRamp );
+		setPhase( AFTER );
+	}
+
+	public void onCameraOpened() {
+	/**
+	 * A camera has just been opened, with whatever range it had last time;  set
+	 * the one for the phase we're in.  If the app was paused, we start again from
+	 * framing.
+	 *
+	 */
+		if ( mPaused ) {
+			mPaused = false;
+			mPhase  = FRAMING;
+			startStretch();
+		}
+
+		mApplied = null;
+		apply();
+	}
+
+	public void stop() {
+	/**
+	 * The app is letting go of the camera until it's resumed.
+	 *
+	 */
+		mScheduler.cancel( mRamp );
+
+		if ( !mPaused ) endStretch();
+		mPaused = true;
+	}
+
+	public void setCounting( boolean counting ) {
+	/**
+	 * Whether the governor's getting onPreviewFrame() from now on;  the activity
+	 * adds or removes it as a listener to match.
+	 *
+	 */
+		if ( counting == mCounting ) return;
+
+		if ( !mPaused ) endStretch();
+		mCounting = counting;
+		if ( !mPaused ) startStretch();
+	}
+
+	public void onPreviewFrame( byte[] data, int width, int height ) {
+		mFrames++;  // Only ever the camera's thread
+	}
+
+	int getPhase() {
+		return mPhase;
+	}
+
+
+	private Runnable mRamp = new Runnable() {
+		public void run() {
+			setPhase( FINAL );
+		}
+	};
+
+	private void setPhase( int phase ) {
+		if ( phase == mPhase ) return;
+
+		if ( !mPaused ) {
+			endStretch();
+			startStretch();
+		}
+
+		mPhase = phase;
+		apply();
+	}
+
+	private void apply() {
+		List<int[]> ranges = mActions.getSupportedFpsRanges();
+		if ( ranges == null || ranges.isEmpty() ) return;
+
+		boolean fast  = mPhase == FRAMING || mPhase == FINAL;
+		int[]   range = fast ? fastest( ranges ) : slowest( ranges );
+
+		if ( mApplied != null && mApplied[ 0 ] == range[ 0 ] && mApplied[ 1 ] == range[ 1 ] ) return;
+
+		if ( mActions.setFpsRange( range[ 0 ], range[ 1 ] )) {
+			mApplied = range;
+			mChanges++;
+		}
+	}
+
+
+	//
+	// Choosing a range.  Where two have the same top rate, we take the one with the
+	// lower bottom, which lets exposure run longer in the dark.
+	//
+
+	static int[] fastest( List<int[]> ranges ) {
+		int[] best = null;
+
+		for ( int[] r : ranges )
+			if ( best == null || r[ 1 ] > best[ 1 ] || ( r[ 1 ] == best[ 1 ] && r[ 0 ] < best[ 0 ] ))
+				best = r;
+
+		return best;
+	}
+
+	static int[] slowest( List<int[]> ranges ) {
+	/**
+	 * The range with the lowest top rate of at least SLOW_MIN_FPS, or the
+	 * fastest if none is that fast.
+	 *
+	 */
+		int[] best = null;
+
+		for ( int[] r : ranges ) {
+			if ( r[ 1 ] < SLOW_MIN_FPS ) continue;
+
+			if ( best == null || r[ 1 ] < best[ 1 ] || ( r[ 1 ] == best[ 1 ] && r[ 0 ] < best[ 0 ] ))
+				best = r;
+		}
+
+		return best != null ? best : fastest( ranges );
+	}
+
+
+	//
+	// Metrics.  A "stretch" is time spent in one phase with the camera ours.
+	//
+
+	private void startStretch() {
+		mPhaseStart  = mScheduler.now();
+		mPhaseFrames = mFrames;
+		mPhaseCpu    = mActions.getCpuNanos();
+	}
+
+	private void endStretch() {
+		long ms = mScheduler.now() - mPhaseStart;
+
+		mMillis[ mPhase ]   += ms;
+		mCpuNanos[ mPhase ] += mActions.getCpuNanos() - mPhaseCpu;
+
+		if ( mCounting ) {
+			mFrameCount[ mPhase ] += mFrames - mPhaseFrames;
+			mCountedMs[ mPhase ]  += ms;
+		}
+	}
+
+	public long getMillis( int phase )     { return mMillis[ phase ]; }
+	public long getFrameCount( int phase ) { return mFrameCount[ phase ]; }
+	public long getCpuNanos( int phase )   { return mCpuNanos[ phase ]; }
+	public int  getChangeCount()           { return mChanges; }
+
+	public String getStats() {
+		StringBuilder s = new StringBuilder( "changes=" + mChanges );
+
+		if ( mApplied != null )
+			s.append( " range=" ).append( mApplied[ 0 ] / 1000.0 ).append( '-' ).append( mApplied[ 1 ] / 1000.0 );
+
+		// The current stretch counts too.
+
+		long now = mScheduler.now(), frames = mFrames, cpu = mActions.getCpuNanos();
+
+		for ( int p = 0; p < PHASE_NAMES.length; p++ ) {
+			long ms = mMillis[ p ], n = mFrameCount[ p ], counted = mCountedMs[ p ], ns = mCpuNanos[ p ];
+
+			if ( p == mPhase && !mPaused ) {
+				ms += now - mPhaseStart;
+				ns += cpu - mPhaseCpu;
+
+				if ( mCounting ) {
+					n       += frames - mPhaseFrames;
+					counted += now - mPhaseStart;
+				}
+			}
+
+			if ( ms == 0 ) continue;
+
+			String fps = counted == 0 ? "    -" : String.format( "%5.1f", n * 1000.0 / counted );
+
+			s.append( String.format( "\n  %-9s %7.1fs %sfps cpu %5.1f%%",
+			                         PHASE_NAMES[ p ], ms / 1000.0, fps, ns / ( ms * 1e4 )));
+		}
+
+		return s.toString();
+
+	}  // getStats
+
+}  // class PreviewGovernor
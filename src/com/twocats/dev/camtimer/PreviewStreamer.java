@@ -0,0 +1,611 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The PreviewStreamer class serves the camera preview as an MJPEG stream over
+ * HTTP, so the shot can be framed from another screen across the room.  Point a
+ * browser at http://<phone>:8471/ to watch, or /stats for the numbers.
+ *
+ * It's a PreviewListener.  Frames are taken at no more than the configured rate,
+ * downscaled, and encoded to JPEG once on an encoder thread, however many people
+ * are watching;  the finished frame is then shared by every client.  Each client
+ * has a one-frame slot holding the newest frame it hasn't been sent yet.  If a
+ * client is slow, newer frames just replace the one in its slot (and count as
+ * drops for that client), so it never holds up the encoder or anybody else.  In
+ * the same way, a preview frame that arrives while the encoder is still busy is
+ * dropped rather than queued.
+ *
+ * All the sockets are handled on one selector thread, as in ControlServer.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class PreviewStreamer implements CameraDevice.PreviewListener {
+
+	public static final int DEFAULT_PORT = 8471;
+
+	static final String BOUNDARY     = "camtimerframe";
+	static final int    REQUEST_MAX  = 2048;  // Longest HTTP request we'll read
+	static final int    SEND_BUFFER  = 32768; // Socket send buffer;  keep it small so a slow viewer
+	                                          // drops frames rather than queueing stale ones
+
+	private static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+	private final InetSocketAddress mAddress;
+	private final int               mMaxWidth;      // Frames are scaled down to fit
+	private final int               mMaxHeight;
+	private final long              mMinIntervalNs; // From the frame rate cap
+	private final JpegEncoder       mEncoder;       // Only used on the encoder thread
+
+	private Selector            mSelector;
+	private ServerSocketChannel mServer;
+	private Thread              mThread;
+	private ExecutorService     mEncodeThread;
+	private volatile boolean    mRunning = false;
+
+	private final List<Client>  mClients  = new CopyOnWriteArrayList<Client>();  // Those being streamed to
+	private final AtomicBoolean mNewFrame = new AtomicBoolean( false );           // Selector should look at the slots
+
+	// Frame intake, from the camera thread to the encoder thread.  The staging
+	// buffer is only written while mEncoding is false, and only read while it's true.
+
+	private final AtomicBoolean mEncoding = new AtomicBoolean( false );
+	private byte[]              mStaging  = new byte[ 0 ];
+	private int                 mStageWidth;
+	private int                 mStageHeight;
+	private long                mNextDue = 0;  // When the rate cap lets the next frame in
+	private ByteArrayOutputStream mJpegOut = new ByteArrayOutputStream( 65536 );
+
+	// Metrics.
+	private final AtomicInteger mFramesIn     = new AtomicInteger();  // Preview frames offered
+	private final AtomicInteger mRateDropped  = new AtomicInteger();  // ... skipped by the rate cap
+	private final AtomicInteger mBusyDropped  = new AtomicInteger();  // ... skipped because the encoder was busy
+	private final AtomicInteger mIdleDropped  = new AtomicInteger();  // ... skipped because nobody's watching
+	private final AtomicInteger mEncoded      = new AtomicInteger();
+	private final AtomicLong    mEncodedBytes = new AtomicLong();
+	private final AtomicInteger mAccepted     = new AtomicInteger();  // Connections
+	private final LatencyStats  mScaleStats   = new LatencyStats( "scale" );   // On the camera thread
+	private final LatencyStats  mEncodeStats  = new LatencyStats( "encode" );  // On the encoder thread
+
+
+	//
+	// Class constructor.
+	//
+	public PreviewStreamer( InetSocketAddress address, int maxWidth, int maxHeight, int maxFps, int quality ) {
+	/**
+	 * @param address     Where to listen;  port 0 picks a free one (see getPort()).
+	 * @param maxWidth    Frames are scaled down by a whole factor until they fit.
+	 * @param maxHeight
+	 * @param maxFps      Most frames per second to encode.
+	 * @param quality     JPEG quality, 1 to 100.
+	 */
+		mAddress       = address;
+		mMaxWidth      = maxWidth;
+		mMaxHeight     = maxHeight;
+		mMinIntervalNs = 1000000000L / Math.max( 1, maxFps );
+		mEncoder       = new JpegEncoder( quality );
+	}
+
+
+	public synchronized void start() throws IOException {
+		if ( mRunning ) return;
+
+		mSelector = Selector.open();
+		mServer   = ServerSocketChannel.open();
+
+		try {
+			mServer.socket().setReuseAddress( true );
+			mServer.socket().bind( mAddress, 50 );
+			mServer.configureBlocking( false );
+			mServer.register( mSelector, SelectionKey.OP_ACCEPT );
+		}
+		catch( IOException e ) {
+			mServer.close();
+			mSelector.close();
+			throw e;
+		}
+
+		mEncodeThread = Executors.newSingleThreadExecutor( new ThreadFactory() {
+			public Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "PreviewEncoder" );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+
+		mRunning = true;
+
+		mThread = new Thread( mLoop, "PreviewStreamer" );
+		mThread.setDaemon( true );
+		mThread.start();
+	}  // start
+
+	public void stop() {
+	/**
+	 * Disconnect everybody and stop listening.
+	 *
+	 */
+		Thread thread;
+
+		synchronized( this ) {
+			if ( !mRunning ) return;
+			mRunning = false;
+			thread   = mThread;
+			mSelector.wakeup();
+			mEncodeThread.shutdown();
+		}
+
+		try {
+			thread.join( 2000 );
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}  // stop
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	public int getPort() {
+		return mServer == null ? -1 : mServer.socket().getLocalPort();
+	}
+
+
+	//
+	// Frame intake.  Called on the camera's preview thread, which must get the
+	// buffer back quickly, so all we do here is copy out a downscaled frame.
+	//
+
+	public void onPreviewFrame( byte[] data, int width, int height ) {
+		mFramesIn.incrementAndGet();
+
+		if ( !mRunning || mClients.isEmpty() ) {
+			mIdleDropped.incrementAndGet();
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		// Frames don't arrive exactly on the cap's beat, so allow a quarter of an
+		// interval early;  the schedule keeps the average rate at the cap.
+
+		if ( now < mNextDue - mMinIntervalNs / 4 ) {
+			mRateDropped.incrementAndGet();
+			return;
+		}
+
+		if ( !mEncoding.compareAndSet( false, true )) {
+			mBusyDropped.incrementAndGet();
+			return;
+		}
+
+		mNextDue = Math.max( mNextDue, now - mMinIntervalNs ) + mMinIntervalNs;
+
+		try {
+			downscale( data, width, height );
+			mScaleStats.add( System.nanoTime() - now );
+
+			mEncodeThread.execute( mEncodeStaged );
+		}
+		catch( RuntimeException e ) {  // Odd frame size, or we're stopping
+			mEncoding.set( false );
+		}
+	}  // onPreviewFrame
+
+	private void downscale( byte[] data, int width, int height ) {
+	/**
+	 * Copy an NV21 frame into mStaging, keeping every n'th pixel in each direction,
+	 * with n the smallest whole factor that fits it in the maximum size.  The
+	 * result is still NV21, with even dimensions.
+	 *
+	 */
+		int n = 1;
+		while ( width / n > mMaxWidth || height / n > mMaxHeight ) n++;
+
+		int ow = ( width  / n ) & ~1;
+		int oh = ( height / n ) & ~1;
+
+		if ( ow == 0 || oh == 0 ) throw new IllegalArgumentException( "frame too small" );
+
+		int bytes = ow * oh * 3 / 2;
+		if ( mStaging.length < bytes ) mStaging = new byte[ bytes ];
+
+		byte[] out = mStaging;
+
+		if ( n == 1 && ow == width && oh == height ) {
+			System.arraycopy( data, 0, out, 0, bytes );
+		}
+		else {
+			// Luma.
+			int o = 0;
+			for ( int r = 0; r < oh; r++ ) {
+				int src = r * n * width;
+				for ( int c = 0; c < ow; c++, src += n ) out[ o++ ] = data[ src ];
+			}
+
+			// Interleaved V/U, one pair per 2x2 output pixels.
+			int vu = width * height;
+			for ( int r = 0; r < oh / 2; r++ ) {
+				int src = vu + r * n * width;
+				for ( int c = 0; c < ow / 2; c++, src += 2 * n ) {
+					out[ o++ ] = data[ src ];
+					out[ o++ ] = data[ src + 1 ];
+				}
+			}
+		}
+
+		mStageWidth  = ow;
+		mStageHeight = oh;
+	}  // downscale
+
+	private Runnable mEncodeStaged = new Runnable() {
+	/**
+	 * Encode the staged frame and hand it to every client.  Runs on the encoder thread.
+	 *
+	 */
+		public void run() {
+			long start = System.nanoTime();
+			byte[] jpeg;
+
+			try {
+				mJpegOut.reset();
+				mEncoder.encode( mStageWidth, mStageHeight,
+				                 JpegEncoder.nv21( mStaging, mStageWidth, mStageHeight ), mJpegOut );
+				jpeg = mJpegOut.toByteArray();
+			}
+			catch( Exception e ) {
+				return;
+			}
+			finally {
+				mEncoding.set( false );  // Staging buffer's free for the next frame
+			}
+
+			mEncodeStats.add( System.nanoTime() - start );
+			mEncoded.incrementAndGet();
+			mEncodedBytes.addAndGet( jpeg.length );
+
+			Frame frame = new Frame( jpeg );
+
+			for ( Client c : mClients ) {
+				if ( c.slot.getAndSet( frame ) != null ) c.dropped.incrementAndGet();
+			}
+
+			mNewFrame.set( true );
+			mSelector.wakeup();
+		}
+	};  // mEncodeStaged
+
+
+	//
+	// The selector loop.
+	//
+
+	private Runnable mLoop = new Runnable() {
+		public void run() {
+			try {
+				while ( mRunning ) {
+					mSelector.select();
+
+					if ( mNewFrame.getAndSet( false ))
+						for ( Client c : mClients ) startFrame( c );
+
+					Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+
+					while ( keys.hasNext() ) {
+						SelectionKey key = keys.next();
+						keys.remove();
+
+						if ( !key.isValid() ) continue;
+
+						try {
+							if ( key.isAcceptable() ) accept();
+							else {
+								if ( key.isReadable() ) read( key );
+								if ( key.isValid() && key.isWritable() ) write( key );
+							}
+						}
+						catch( IOException e ) {
+							close( key );
+						}
+					}
+				}
+			}
+			catch( IOException e ) {
+				// Selector's broken;  nothing to do but shut down.
+			}
+			finally {
+				closeAll();
+			}
+		}
+	};  // mLoop
+
+	private void accept() {
+		SocketChannel ch = null;
+
+		try {
+			ch = mServer.accept();
+			if ( ch == null ) return;
+
+			ch.configureBlocking( false );
+			ch.socket().setTcpNoDelay( true );
+			ch.socket().setSendBufferSize( SEND_BUFFER );
+
+			Client c = new Client();
+			c.key = ch.register( mSelector, SelectionKey.OP_READ, c );
+		}
+		catch( IOException e ) {
+			try {
+				if ( ch != null ) ch.close();
+			}
+			catch( IOException e2 ) {
+				// Closing anyway
+			}
+			return;
+		}
+
+		mAccepted.incrementAndGet();
+	}
+
+	private void read( SelectionKey key ) throws IOException {
+	/**
+	 * Read the request, and once it's all here, answer it.  Anything a client sends
+	 * after that is thrown away.
+	 *
+	 */
+		Client        c  = (Client) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		if ( c.request == null ) c.request = ByteBuffer.allocate( REQUEST_MAX );
+
+		if ( c.answered ) c.request.clear();
+
+		if ( ch.read( c.request ) < 0 ) {
+			close( key );
+			return;
+		}
+
+		if ( c.answered ) return;
+
+		String text = new String( c.request.array(), 0, c.request.position(), ASCII );
+
+		if ( text.indexOf( "\r\n\r\n" ) < 0 && text.indexOf( "\n\n" ) < 0 ) {
+			if ( !c.request.hasRemaining() ) close( key );  // Too long;  not a request we want
+			return;
+		}
+
+		c.answered = true;
+		c.request  = ByteBuffer.allocate( 256 );  // Just for draining
+
+		String[] line = text.substring( 0, text.indexOf( '\n' )).trim().split( " " );
+		String   path = line.length > 1 ? line[ 1 ] : "";
+
+		if ( !line[ 0 ].equals( "GET" )) {
+			respond( key, "405 Method Not Allowed", "text/plain", "GET only\n" );
+		}
+		else if ( path.equals( "/" ) || path.equals( "/stream" )) {
+			c.out = ByteBuffer.wrap(( "HTTP/1.0 200 OK\r\n"
+			                        + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+			                        + "Cache-Control: no-cache, no-store\r\n"
+			                        + "Pragma: no-cache\r\n"
+			                        + "Connection: close\r\n\r\n" ).getBytes( ASCII ));
+			c.streaming = true;
+			mClients.add( c );
+			key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+		}
+		else if ( path.equals( "/stats" )) {
+			respond( key, "200 OK", "text/plain", getStats() + "\n" );
+		}
+		else {
+			respond( key, "404 Not Found", "text/plain", "Try / or /stats\n" );
+		}
+	}  // read
+
+	private void respond( SelectionKey key, String status, String type, String body ) {
+		Client c = (Client) key.attachment();
+		byte[] b = body.getBytes( ASCII );
+
+		c.out = ByteBuffer.wrap(( "HTTP/1.0 " + status + "\r\n"
+		                        + "Content-Type: " + type + "\r\n"
+		                        + "Content-Length: " + b.length + "\r\n"
+		                        + "Connection: close\r\n\r\n" + body ).getBytes( ASCII ));
+		c.closing = true;
+		key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+	}
+
+	private void write( SelectionKey key ) throws IOException {
+	/**
+	 * Carry on sending whatever the client's in the middle of, then the frame in
+	 * its slot if there is one.
+	 *
+	 */
+		Client        c  = (Client) key.attachment();
+		SocketChannel ch = (SocketChannel) key.channel();
+
+		while ( true ) {
+			if ( c.out != null ) {
+				ch.write( c.out );
+				if ( c.out.hasRemaining() ) return;  // Socket's full;  wait for OP_WRITE again
+				c.out = null;
+			}
+
+			if ( c.part != null ) {
+				ch.write( c.part );
+				if ( c.part[ c.part.length - 1 ].hasRemaining() ) return;
+				c.part = null;
+				c.sent++;
+			}
+
+			if ( c.closing ) {
+				close( key );
+				return;
+			}
+
+			if ( !nextFrame( c )) break;
+		}
+
+		key.interestOps( SelectionKey.OP_READ );  // Until the next frame
+	}  // write
+
+	private void startFrame( Client c ) {
+	/**
+	 * A new frame has been published.  If the client's idle, start sending it.
+	 *
+	 */
+		if ( c.out != null || c.part != null || !c.key.isValid() ) return;  // Busy;  write() picks it up
+
+		if ( nextFrame( c ))
+			c.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+	}
+
+	private boolean nextFrame( Client c ) {
+		Frame f = c.slot.getAndSet( null );
+		if ( f == null ) return false;
+
+		c.part = new ByteBuffer[] { ByteBuffer.wrap( f.header ), ByteBuffer.wrap( f.jpeg ), ByteBuffer.wrap( CRLF ) };
+		return true;
+	}
+
+	private void close( SelectionKey key ) {
+		Client c = (Client) key.attachment();
+
+		key.cancel();
+
+		try {
+			key.channel().close();
+		}
+		catch( IOException e ) {
+			// Closing anyway
+		}
+
+		if ( c != null && c.streaming ) mClients.remove( c );
+	}
+
+	private void closeAll() {
+		for ( SelectionKey key : mSelector.keys() ) {
+			if ( key.channel() instanceof SocketChannel && key.isValid() ) close( key );
+		}
+
+		try {
+			mServer.close();
+			mSelector.close();
+		}
+		catch( IOException e ) {
+			// Closing anyway
+		}
+
+		mClients.clear();
+	}
+
+
+	//
+	// Frames and clients.
+	//
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static class Frame {
+	/**
+	 * One encoded frame, shared by every client.  Never changed once made.
+	 *
+	 */
+		final byte[] jpeg;
+		final byte[] header;
+
+		Frame( byte[] jpeg ) {
+			this.jpeg   = jpeg;
+			this.header = ( "--" + BOUNDARY + "\r\n"
+			              + "Content-Type: image/jpeg\r\n"
+			              + "Content-Length: " + jpeg.length + "\r\n\r\n" ).getBytes( ASCII );
+		}
+	}
+
+	private static class Client {
+		final AtomicReference<Frame> slot    = new AtomicReference<Frame>();  // Newest frame not yet started
+		final AtomicInteger          dropped = new AtomicInteger();           // Frames replaced in the slot
+
+		SelectionKey key;
+		ByteBuffer   request;             // The request as it comes in
+		boolean      answered  = false;
+		boolean      streaming = false;   // In mClients
+		boolean      closing   = false;   // Close once out is sent
+		ByteBuffer   out;                 // Response header or whole response being sent
+		ByteBuffer[] part;                // Frame being sent:  part header, JPEG, CRLF
+		int          sent = 0;            // Frames completely sent
+	}
+
+
+	//
+	// Metrics.
+	//
+
+	public int  getFramesIn()      { return mFramesIn.get(); }
+	public int  getEncodedCount()  { return mEncoded.get(); }
+	public int  getBusyDropped()   { return mBusyDropped.get(); }
+	public int  getRateDropped()   { return mRateDropped.get(); }
+	public int  getClientCount()   { return mClients.size(); }
+
+	public LatencyStats getEncodeStats() {
+		return mEncodeStats;
+	}
+
+	public int[] getClientDrops() {
+	/**
+	 * Frames each current client has missed because it was still busy with an
+	 * older one.
+	 *
+	 */
+		Object[] clients = mClients.toArray();
+		int[]    drops   = new int[ clients.length ];
+
+		for ( int i = 0; i < clients.length; i++ ) drops[ i ] = ( (Client) clients[ i ] ).dropped.get();
+
+		return drops;
+	}
+
+	public String getStats() {
+		int encoded = mEncoded.get();
+
+		StringBuilder sb = new StringBuilder();
+
+		sb.append( "frames in=" ).append( mFramesIn.get() )
+		  .append( " encoded=" ).append( encoded )
+		  .append( " dropped rate=" ).append( mRateDropped.get() )
+		  .append( " busy=" ).append( mBusyDropped.get() )
+		  .append( " idle=" ).append( mIdleDropped.get() )
+		  .append( " avgKB=" ).append( encoded == 0 ? 0 : mEncodedBytes.get() / encoded / 1024 )
+		  .append( " size=" ).append( mStageWidth ).append( 'x' ).append( mStageHeight )
+		  .append( "\n" ).append( mScaleStats.summary() )
+		  .append( "\n" ).append( mEncodeStats.summary() )
+		  .append( "\nconnections=" ).append( mAccepted.get() ).append( " streaming=" ).append( mClients.size() );
+
+		int i = 0;
+		for ( Client c : mClients )
+			sb.append( "\n  client " ).append( i++ ).append( ": sent=" ).append( c.sent ).append( " dropped=" ).append( c.dropped.get() );
+
+		return sb.toString();
+	}  // getStats
+
+}  // class PreviewStreamer
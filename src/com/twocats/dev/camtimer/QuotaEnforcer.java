@@ -0,0 +1,175 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The QuotaEnforcer class keeps the pictures in a CaptureCatalog within a byte
+ * budget.  Once an added picture takes the total over it, it deletes whole
+ * sequences, oldest first, down to LOW_WATER of the budget so it isn't back for
+ * every picture after.  The newest sequence is never deleted, however big, since
+ * that's the one just taken.
+ *
+ * It does its work on its own executor, one pass at a time;  pictures added while
+ * a pass is running are taken into account by it, or by one more pass.  The
+ * deleting goes through a Deleter, so the activity can tell the media scanner,
+ * and a bench can do without files.
+ *
+ * A budget of 0 means no limit, which is how it starts.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class QuotaEnforcer implements CaptureCatalog.Listener {
+
+	public interface Deleter {
+	/**
+	 * Delete a picture, on the enforcer's executor.
+	 *
+	 * @return false if it's still there.  A picture that's already gone counts as
+	 *         deleted.
+	 */
+		boolean delete( CaptureCatalog.Entry entry );
+	}
+
+	public static final Deleter FILES = new Deleter() {
+		public boolean delete( CaptureCatalog.Entry entry ) {
+			File file = new File( entry.path );
+			return file.delete() || !file.exists();
+		}
+	};
+
+	static final double LOW_WATER = 0.9;  // Fraction of the budget a pass brings it down to
+
+	private final CaptureCatalog mCatalog;
+	private final Executor       mExecutor;
+	private final Deleter        mDeleter;
+	private volatile long        mBudget = 0;
+
+	private final AtomicBoolean  mPending = new AtomicBoolean();  // A pass is queued
+
+	// Metrics.
+
+	private int  mPasses    = 0;
+	private int  mSequences = 0;  // Deleted
+	private int  mFiles     = 0;
+	private long mBytes     = 0;
+	private int  mFailures  = 0;  // Pictures that wouldn't delete
+	private long mPassNanos = 0;  // Longest pass
+
+
+	//
+	// Class constructor.
+	//
+	public QuotaEnforcer( CaptureCatalog catalog, Executor executor, Deleter deleter ) {
+		mCatalog  = catalog;
+		mExecutor = executor;
+		mDeleter  = deleter;
+
+		catalog.setListener( this );
+	}
+
+
+	public void setBudget( long bytes ) {
+	/**
+	 * Set the budget, and if we're over it, start cutting down.
+	 *
+	 */
+		mBudget = bytes;
+		check();
+	}
+
+	public long getBudget() {
+		return mBudget;
+	}
+
+	public void onAdded( CaptureCatalog.Entry entry ) {
+		check();
+	}
+
+	public void check() {
+		long budget = mBudget;
+
+		if ( budget > 0 && mCatalog.getTotalBytes() > budget && mPending.compareAndSet( false, true ))
+			mExecutor.execute( mPass );
+	}
+
+
+	private Runnable mPass = new Runnable() {
+		public void run() {
+			mPending.set( false );
+			enforce();
+		}
+	};
+
+	private void enforce() {
+	/**
+	 * Delete the oldest sequences until we're down to LOW_WATER of the budget.
+	 * If a picture won't delete it stays in the catalog, and the pass stops
+	 * rather than go round again.
+	 *
+	 */
+		long start  = System.nanoTime();
+		long budget = mBudget;
+		long target = (long) ( budget * LOW_WATER );
+
+		while ( budget > 0 && mCatalog.getTotalBytes() > target ) {
+			List<CaptureCatalog.Entry> oldest = mCatalog.oldestSequence();
+			if ( oldest.isEmpty() || oldest.get( 0 ).sequence == mCatalog.newestSequence() ) break;
+
+			boolean stuck = false;
+
+			for ( CaptureCatalog.Entry e : oldest ) {
+				if ( !mDeleter.delete( e )) {
+					synchronized( this ) { mFailures++; }
+					stuck = true;
+					continue;
+				}
+
+				try {
+					mCatalog.remove( e );
+				}
+				catch( Exception x ) {
+					stuck = true;  // It's gone, but the catalog couldn't say so
+				}
+
+				synchronized( this ) {
+					mFiles++;
+					mBytes += e.size;
+				}
+			}
+
+			synchronized( this ) { mSequences++; }
+			if ( stuck ) break;
+		}
+
+		synchronized( this ) {
+			mPasses++;
+			mPassNanos = Math.max( mPassNanos, System.nanoTime() - start );
+		}
+
+	}  // enforce
+
+
+	//
+	// Metrics.
+	//
+
+	public synchronized int  getDeletedFiles()     { return mFiles; }
+	public synchronized long getDeletedBytes()     { return mBytes; }
+	public synchronized int  getDeletedSequences() { return mSequences; }
+
+	public synchronized String getStats() {
+		return "budget="   + mBudget
+		     + " passes="  + mPasses
+		     + " deleted=" + mFiles + " in " + mSequences + " sequences, " + mBytes + " bytes"
+		     + " failures=" + mFailures
+		     + " longestMs=" + ( mPassNanos / 1000000.0 );
+	}
+
+}  // class QuotaEnforcer
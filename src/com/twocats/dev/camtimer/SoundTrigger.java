@@ -0,0 +1,238 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The SoundTrigger class listens to the microphone and calls its listener, on the
+ * UI thread, when it hears a clap or someone start to speak;  the app uses that to
+ * start the countdown without anyone having to walk back to the tripod.
+ *
+ * One thread does nothing but read AudioRecord into a PcmRing, so the recorder is
+ * never kept waiting;  another takes the samples out and runs the OnsetDetector
+ * on them.  Neither allocates anything once they're going.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+public class SoundTrigger {
+
+	public interface Listener {
+		void onTrigger();  // On the UI thread
+	}
+
+
+	private final String TAG = "CamTimer.SoundTrigger";  // For logging purposes
+
+	public static final int SAMPLE_RATE = 44100;   // The one rate every device has to support
+
+	private static final int CHUNK_SAMPLES = SAMPLE_RATE / 100;  // 10 ms
+	private static final int RING_SAMPLES  = SAMPLE_RATE;        // A second's slack for the detector
+	private static final long IDLE_NANOS   = 5000000L;           // Detector's nap when the ring is empty
+
+	private final Handler  mHandler;     // The UI thread's
+	private final Listener mListener;
+
+	private AudioRecord      mRecord;
+	private PcmRing          mRing;
+	private OnsetDetector    mDetector;
+	private Thread           mRecorderThread;
+	private Thread           mDetectorThread;
+	private volatile boolean mRunning = false;
+
+	private final AtomicInteger mMuteRequest = new AtomicInteger();  // Milliseconds to mute, for the detector thread
+
+	// Metrics, written by the detector thread.
+
+	private volatile long mDetectNanos  = 0;   // Time spent in the detector
+	private volatile long mDetectCount  = 0;   // Samples it has looked at
+	private volatile long mBacklogTotal = 0;   // Samples waiting in the ring at each onset
+	private LatencyStats  mDeliveryStats = new LatencyStats( "delivery" );  // Onset to listener
+
+
+	//
+	// Class constructor.
+	//
+	public SoundTrigger( Handler handler, Listener listener ) {
+		mHandler  = handler;
+		mListener = listener;
+	}
+
+
+	public boolean start() {
+	/**
+	 * Start listening.
+	 *
+	 * @return false if the microphone couldn't be opened.
+	 */
+		if ( mRunning ) return true;
+
+		int minBuffer = AudioRecord.getMinBufferSize( SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+		                                              AudioFormat.ENCODING_PCM_16BIT );
+		if ( minBuffer <= 0 ) {
+			Log.d( TAG, "start: no buffer size for " + SAMPLE_RATE + " Hz mono (" + minBuffer + ")" );
+			return false;
+		}
+
+		try {
+			mRecord = new AudioRecord( MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+			                           AudioFormat.ENCODING_PCM_16BIT, Math.max( minBuffer, CHUNK_SAMPLES * 2 * 4 ));
+		}
+		catch( IllegalArgumentException e ) {
+			Log.d( TAG, "start: exception creating AudioRecord: " + e.getMessage() );
+			return false;
+		}
+
+		if ( mRecord.getState() != AudioRecord.STATE_INITIALIZED ) {
+			Log.d( TAG, "start: AudioRecord didn't initialize" );
+			mRecord.release();
+			mRecord = null;
+			return false;
+		}
+
+		mRing     = new PcmRing( RING_SAMPLES );
+		mDetector = new OnsetDetector( SAMPLE_RATE );
+		mRunning  = true;
+
+		mRecord.startRecording();
+
+		mRecorderThread = new Thread( mRecorderLoop, "SoundRecorder" );
+		mDetectorThread = new Thread( mDetectorLoop, "SoundDetector" );
+		mRecorderThread.start();
+		mDetectorThread.start();
+
+		return true;
+
+	}  // start
+
+	public void stop() {
+	/**
+	 * Stop listening, and wait for both threads to finish.
+	 *
+	 */
+		if ( !mRunning ) return;
+
+		mRunning = false;
+
+		try {
+			mRecorderThread.join();
+			mDetectorThread.join();
+		}
+		catch( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+
+		mRecord.stop();
+		mRecord.release();
+		mRecord = null;
+
+		Log.d( TAG, "stop: " + getStats() );
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	public void mute( int ms ) {
+	/**
+	 * Ignore whatever is heard for the next ms milliseconds, such as our own tick.
+	 * Any thread.
+	 *
+	 */
+		int pending;
+		do {
+			pending = mMuteRequest.get();
+		} while ( ms > pending && !mMuteRequest.compareAndSet( pending, ms ));
+	}
+
+
+	private Runnable mRecorderLoop = new Runnable() {
+		public void run() {
+			short[] chunk = new short[ CHUNK_SAMPLES ];
+
+			while ( mRunning ) {
+				int n = mRecord.read( chunk, 0, chunk.length );
+
+				if ( n < 0 ) {
+					Log.d( TAG, "recorder: read error " + n );
+					break;
+				}
+
+				mRing.write( chunk, 0, n );  // If it's full, the oldest news is the least use
+			}
+		}
+	};
+
+	private Runnable mDetectorLoop = new Runnable() {
+		public void run() {
+			short[] chunk = new short[ CHUNK_SAMPLES ];
+
+			while ( mRunning ) {
+				int muteMs = mMuteRequest.getAndSet( 0 );
+				if ( muteMs > 0 ) {
+					// Count from the newest sample, not the one we're up to.
+					mDetector.mute( mRing.available() + (int) ( (long) muteMs * SAMPLE_RATE / 1000 ));
+				}
+
+				int n = mRing.read( chunk, 0, chunk.length );
+
+				if ( n == 0 ) {
+					LockSupport.parkNanos( IDLE_NANOS );
+					continue;
+				}
+
+				long start = System.nanoTime();
+				boolean fired = mDetector.process( chunk, 0, n );
+
+				mDetectNanos += System.nanoTime() - start;
+				mDetectCount += n;
+
+				if ( fired ) {
+					mBacklogTotal += mRing.available();
+
+					final long firedAt = SystemClock.uptimeMillis();
+
+					mHandler.post( new Runnable() {
+						public void run() {
+							mDeliveryStats.add(( SystemClock.uptimeMillis() - firedAt ) * 1000000L );
+							mListener.onTrigger();
+						}
+					} );
+				}
+			}
+		}
+	};
+
+
+	//
+	// Metrics.
+	//
+
+	public String getStats() {
+		OnsetDetector detector = mDetector;
+		PcmRing       ring     = mRing;
+
+		if ( detector == null ) return "not started";
+
+		long   samples = mDetectCount;
+		double nsPer   = samples == 0 ? 0 : (double) mDetectNanos / samples;
+		int    onsets  = detector.getOnsetCount();
+
+		return detector.getStats()
+		     + " overrun=" + ring.getOverrunCount()
+		     + String.format( " cpu=%.1fns/sample (%.2f%% of a core)", nsPer, nsPer * SAMPLE_RATE / 1e7 )
+		     + " backlog=" + ( onsets == 0 ? 0 : mBacklogTotal / onsets * 1000 / SAMPLE_RATE ) + "ms"
+		     + "\n  " + mDeliveryStats.summary();
+	}
+
+}  // class SoundTrigger
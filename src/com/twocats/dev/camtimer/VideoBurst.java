@@ -0,0 +1,394 @@
+package com.twocats.dev.camtimer;
+
+/**
+ * The VideoBurst class saves preview frames as pictures, every one of them,
+ * between begin() and end().  takePicture() manages a few pictures a second at
+ * best and stops the preview each time;  the preview runs at up to 30 frames a
+ * second, so a burst taken from it catches the moment the timer goes off however
+ * it turns out.  The pictures are only preview-sized, of course.
+ *
+ * It's a PreviewListener.  Each frame is copied into a pooled buffer on the
+ * camera's thread, which must have its own buffer back quickly, and encoded to
+ * JPEG on the encode executor;  with a thread pool, several frames are encoded
+ * at once.  Finished frames are put back in order and go to the writer one by
+ * one on the save executor, so the files come out in the order they were seen
+ * however the encoding went.
+ *
+ * The pool grows as needed, up to a memory budget;  a frame arriving when the
+ * budget's used up and every buffer is waiting to be encoded is dropped and
+ * counted.  Buffers are kept for the next burst.  On storage too slow to save
+ * every frame in good time, setMaxRate() keeps fewer, evenly spread.
+ *
+ * @version 1.0
+ * @since   2026-10-19
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class VideoBurst implements CameraDevice.PreviewListener {
+
+	public interface Listener {
+	/**
+	 * Hears how the burst went, on the save executor.  onFinished() comes once,
+	 * after every frame has been saved or failed.
+	 *
+	 */
+		void onImageSaved( File file );
+		void onSaveFailed( Exception e );
+		void onFinished( int saved, int dropped );
+	}
+
+
+	private final Executor  mEncodeExecutor;
+	private final Executor  mSaveExecutor;
+	private final Listener  mListener;
+	private final long      mMaxBytes;          // Most the frame buffers may take up
+	private volatile CapturePipeline.ImageWriter mWriter;
+	private volatile int    mRotation = 0;      // Clockwise degrees to make pictures upright
+	private volatile long   mMinGapNanos = 0;   // Frames closer than this to the last kept are skipped
+
+	// One encoder per encoding thread, each at our quality.
+
+	private final ThreadLocal<JpegEncoder> mEncoder;
+
+	// The buffer pool.  Buffers of an old size are left for the garbage collector
+	// as they come back.
+
+	private final ConcurrentLinkedQueue<byte[]> mFree = new ConcurrentLinkedQueue<byte[]>();
+	private volatile int mFrameSize = 0;
+	private int          mAllocated = 0;        // Buffers of the current size, free or not
+
+	// The burst.  Intake is synchronized on this;  output on mDone.
+
+	private boolean mCapturing = false;
+	private boolean mBusy      = false;         // From begin() until the last frame's saved
+	private int     mCaptured  = 0;             // Frames taken in, which numbers them
+	private int     mDropped   = 0;
+	private int     mSkipped   = 0;             // For the rate, not the memory
+	private long    mFirstNanos, mLastNanos;    // When the first and last frames kept arrived
+
+	private final Map<Integer,Frame> mDone = new HashMap<Integer,Frame>();  // Encoded, waiting for their turn
+	private int     mNextOut   = 0;             // Frame the writer needs next
+	private int     mTotal     = -1;            // Frames in the burst, once it's ended
+
+	// Metrics.
+
+	private final AtomicInteger mEncoded     = new AtomicInteger();  // This burst
+	private final AtomicInteger mSaved       = new AtomicInteger();
+	private final AtomicLong    mHeldBytes   = new AtomicLong();     // JPEGs waiting to be written
+	private final AtomicLong    mPeakBytes   = new AtomicLong();     // Buffers plus JPEGs, at worst
+	private int                 mMaxQueue    = 0;                    // Frames waiting to be encoded, at worst
+	private long                mQueueSum    = 0;                    // ... and in total, for the mean
+	private final LatencyStats  mEncodeStats = new LatencyStats( "encode" );
+	private final LatencyStats  mWriteStats  = new LatencyStats( "write" );
+
+
+	//
+	// Class constructor.
+	//
+	public VideoBurst( CapturePipeline.ImageWriter writer, Executor encodeExecutor, Executor saveExecutor,
+	                   Listener listener, long maxBytes, final int quality ) {
+	/**
+	 * @param encodeExecutor  Where frames are encoded;  a pool for several at once.
+	 * @param saveExecutor    Where they're written, which must run tasks in order.
+	 * @param maxBytes        Most memory to use for frame buffers.
+	 * @param quality         JPEG quality, 1 to 100.
+	 */
+		mWriter         = writer;
+		mEncodeExecutor = encodeExecutor;
+		mSaveExecutor   = saveExecutor;
+		mListener       = listener;
+		mMaxBytes       = maxBytes;
+
+		mEncoder = new ThreadLocal<JpegEncoder>() {
+			protected JpegEncoder initialValue() {
+				return new JpegEncoder( quality );
+			}
+		};
+	}
+
+
+	public void setWriter( CapturePipeline.ImageWriter writer ) {
+		mWriter = writer;
+	}
+
+	public void setRotation( int degrees ) {
+		mRotation = degrees;
+	}
+
+	public void setMaxRate( double fps ) {
+	/**
+	 * Keep at most this many frames a second, for storage that couldn't save
+	 * more in good time;  0 keeps every one.
+	 *
+	 */
+		mMinGapNanos = fps <= 0 ? 0 : (long) ( 1e9 / fps );
+	}
+
+	public synchronized boolean isBusy() {
+		return mBusy;
+	}
+
+
+	public synchronized boolean begin() {
+	/**
+	 * Start keeping frames.
+	 *
+	 * @return false if the last burst is still being saved.
+	 */
+		if ( mBusy ) return false;
+
+		mBusy      = true;
+		mCapturing = true;
+		mCaptured  = 0;
+		mDropped   = 0;
+		mSkipped   = 0;
+		mMaxQueue  = 0;
+		mQueueSum  = 0;
+		mEncoded.set( 0 );
+		mSaved.set( 0 );
+		mPeakBytes.set( heldBytes() );
+
+		synchronized( mDone ) {
+			mDone.clear();
+			mNextOut = 0;
+			mTotal   = -1;
+		}
+
+		return true;
+	}
+
+	public void end() {
+	/**
+	 * Stop keeping frames.  The ones already kept are still encoded and saved,
+	 * and then the listener hears that we're finished.
+	 *
+	 */
+		int total;
+
+		synchronized( this ) {
+			if ( !mCapturing ) return;
+
+			mCapturing = false;
+			total      = mCaptured;
+		}
+
+		synchronized( mDone ) {
+			mTotal = total;
+			if ( mNextOut == mTotal ) mSaveExecutor.execute( mFinish );
+		}
+	}
+
+
+	//
+	// Frame intake, on the camera's thread.
+	//
+
+	public synchronized void onPreviewFrame( byte[] data, int width, int height ) {
+		if ( !mCapturing ) return;
+
+		long now = System.nanoTime();
+
+		if ( mCaptured > 0 && now - mLastNanos < mMinGapNanos ) {
+			mSkipped++;
+			return;
+		}
+
+		if ( data.length != mFrameSize ) {  // New preview size, so a new pool
+			mFree.clear();
+			mFrameSize = data.length;
+			mAllocated = 0;
+		}
+
+		byte[] buffer = mFree.poll();
+
+		if ( buffer == null ) {
+			if (( mAllocated + 1 ) * (long) mFrameSize > mMaxBytes ) {
+				mDropped++;
+				return;
+			}
+
+			buffer = new byte[ mFrameSize ];
+			mAllocated++;
+			updatePeak();
+		}
+
+		System.arraycopy( data, 0, buffer, 0, data.length );
+
+		if ( mCaptured == 0 ) mFirstNanos = now;
+		mLastNanos = now;
+
+		int queued = mCaptured - mEncoded.get();  // Not counting this one
+		mMaxQueue  = Math.max( mMaxQueue, queued + 1 );
+		mQueueSum += queued + 1;
+
+		mEncodeExecutor.execute( new Frame( mCaptured++, buffer, width, height, System.currentTimeMillis() ));
+	}
+
+
+	private class Frame implements Runnable {
+	/**
+	 * One kept frame, from the pooled buffer to the writer.
+	 *
+	 */
+		final int  mSeq;
+		final int  mWidth, mHeight;
+		final long mTimestamp;
+		byte[]     mBuffer;
+		byte[]     mJpeg;
+
+		Frame( int seq, byte[] buffer, int width, int height, long timestamp ) {
+			mSeq       = seq;
+			mBuffer    = buffer;
+			mWidth     = width;
+			mHeight    = height;
+			mTimestamp = timestamp;
+		}
+
+		public void run() {
+			long start = System.nanoTime();
+
+			mJpeg = mEncoder.get().encode( mWidth, mHeight, JpegEncoder.nv21( mBuffer, mWidth, mHeight ));
+			mJpeg = tag( mJpeg, mTimestamp );
+
+			mEncodeStats.add( System.nanoTime() - start );
+			mEncoded.incrementAndGet();
+
+			if ( mBuffer.length == mFrameSize ) mFree.add( mBuffer );
+			mBuffer = null;
+
+			mHeldBytes.addAndGet( mJpeg.length );
+			updatePeak();
+
+			encoded( this );
+		}
+
+		void save() {
+			long  start = System.nanoTime();
+			int   bytes = mJpeg.length;
+			File  file  = null;
+
+			try {
+				file = mWriter.write( mJpeg, mTimestamp );
+				mWriteStats.add( System.nanoTime() - start );
+				mSaved.incrementAndGet();
+			}
+			catch( Exception e ) {
+				mListener.onSaveFailed( e );
+			}
+
+			mJpeg = null;
+			mHeldBytes.addAndGet( -bytes );
+
+			if ( file != null ) mListener.onImageSaved( file );
+		}
+	}  // class Frame
+
+	private void encoded( Frame frame ) {
+	/**
+	 * Put a frame in line, and send everything that's now in order to the writer.
+	 *
+	 */
+		synchronized( mDone ) {
+			mDone.put( frame.mSeq, frame );
+
+			Frame next;
+			while (( next = mDone.remove( mNextOut )) != null ) {
+				final Frame f = next;
+				mNextOut++;
+
+				mSaveExecutor.execute( new Runnable() {
+					public void run() {
+						f.save();
+					}
+				} );
+			}
+
+			if ( mNextOut == mTotal ) mSaveExecutor.execute( mFinish );
+		}
+	}
+
+	private Runnable mFinish = new Runnable() {
+	/**
+	 * After the last save, on the save executor.
+	 *
+	 */
+		public void run() {
+			int dropped;
+
+			synchronized( VideoBurst.this ) {
+				mBusy   = false;
+				dropped = mDropped;
+			}
+
+			mListener.onFinished( mSaved.get(), dropped );
+		}
+	};
+
+	private byte[] tag( byte[] jpeg, long timestamp ) {
+	/**
+	 * Orientation and capture time, as for any other picture.
+	 *
+	 */
+		try {
+			return new ExifRewriter().setOrientation( mRotation ).setCaptureTime( timestamp ).rewrite( jpeg );
+		}
+		catch( IOException e ) {
+			return jpeg;  // Our own encoder's JPEGs are always taggable
+		}
+	}
+
+
+	//
+	// Metrics.  Apart from the encode and write times, these are for the last burst.
+	//
+
+	private long heldBytes() {
+		return (long) mAllocated * mFrameSize + mHeldBytes.get();
+	}
+
+	private void updatePeak() {
+		long held = heldBytes(), peak;
+
+		do {
+			peak = mPeakBytes.get();
+		} while ( held > peak && !mPeakBytes.compareAndSet( peak, held ));
+	}
+
+	public synchronized int getCapturedCount() { return mCaptured; }
+	public synchronized int getDroppedCount()  { return mDropped; }
+	public synchronized int getSkippedCount()  { return mSkipped; }
+	public synchronized int getMaxQueue()      { return mMaxQueue; }
+	public int  getSavedCount()                { return mSaved.get(); }
+	public long getPeakBytes()                 { return mPeakBytes.get(); }
+
+	public synchronized double getFps() {
+		return mCaptured < 2 ? 0 : ( mCaptured - 1 ) * 1e9 / ( mLastNanos - mFirstNanos );
+	}
+
+	public synchronized double getMeanQueue() {
+		return mCaptured == 0 ? 0 : (double) mQueueSum / mCaptured;
+	}
+
+	public LatencyStats getEncodeStats() {
+		return mEncodeStats;
+	}
+
+	public String getStats() {
+		return String.format( "frames=%d dropped=%d skipped=%d saved=%d fps=%.1f queue=%.1f/%d peakKB=%d",
+		                      getCapturedCount(), getDroppedCount(), getSkippedCount(), getSavedCount(), getFps(),
+		                      getMeanQueue(), getMaxQueue(), getPeakBytes() / 1024 )
+		     + "\n  " + mEncodeStats.summary()
+		     + "\n  " + mWriteStats.summary();
+	}
+
+}  // class VideoBurst